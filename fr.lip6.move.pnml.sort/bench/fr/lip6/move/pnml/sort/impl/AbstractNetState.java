@@ -0,0 +1,101 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import fr.lip6.move.pnml.sort.generator.PNMLGenerator;
+
+/**
+ * Parameters of the nets the benchmarks run on. Override them on the command
+ * line, e.g. <code>-p places=1000000 -p shape=flat</code>.
+ * 
+ * A net has as many transitions as half its places, and two arcs per place.
+ * Its pages are either all at the top level (flat), or each nested in the
+ * previous one (nested).
+ * 
+ * @author lom
+ *
+ */
+@State(Scope.Benchmark)
+public abstract class AbstractNetState {
+
+	static final String PT = "PT";
+	static final String SN = "SN";
+	static final String FLAT = "flat";
+	static final String NESTED = "nested";
+	private static final long SEED = 42L;
+
+	@Param({ PT, SN })
+	public String netType;
+
+	@Param({ "100000" })
+	public int places;
+
+	@Param({ "16" })
+	public int pages;
+
+	@Param({ FLAT, NESTED })
+	public String shape;
+
+	protected File pnml;
+
+	/**
+	 * Writes the net, with the sorters' logs turned down so that they do not
+	 * get measured.
+	 * 
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	protected final void writeNet() throws IOException, XMLStreamException {
+		((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+				.setLevel(Level.ERROR);
+		PNMLGenerator gen = new PNMLGenerator();
+		gen.setSymmetric(SN.equals(netType));
+		gen.setPlaces(places);
+		gen.setTransitions(places / 2);
+		gen.setArcs(2L * places);
+		if (NESTED.equals(shape)) {
+			gen.setPages(1);
+			gen.setSubPages(1);
+			gen.setDepth(pages - 1);
+		} else {
+			gen.setPages(pages);
+		}
+		gen.setSeed(SEED);
+		pnml = File.createTempFile("pnmlsort-bench", ".pnml");
+		pnml.deleteOnExit();
+		gen.generate(pnml);
+	}
+
+	protected final void deleteNet() {
+		if (pnml != null) {
+			pnml.delete();
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.ximpleware.extended.IByteBuffer;
+import com.ximpleware.extended.IIntBuffer;
+import com.ximpleware.extended.ILongBuffer;
+import com.ximpleware.extended.NavExceptionHuge;
+import com.ximpleware.extended.ParseExceptionHuge;
+import com.ximpleware.extended.VTDGenHuge;
+import com.ximpleware.extended.VTDNavHuge;
+import com.ximpleware.extended.XMLMemMappedBuffer;
+
+/**
+ * Navigator which counts the calls moving its cursor or reading the
+ * attributes and texts of the current element, including those made on
+ * behalf of an XPath evaluation. It also counts the token records and the
+ * document bytes read, whatever the method reading them: the token methods
+ * of {@link VTDNavHuge}, such as getTokenDepth, are final.
+ * 
+ * @author lom
+ *
+ */
+final class CountingNav extends VTDNavHuge {
+
+	private long calls;
+	private final CountingLongs tokens;
+	private final CountingBytes bytes;
+
+	private CountingNav(int rootIndex, int encoding, boolean ns, int depth,
+			CountingBytes x, CountingLongs vtd, ILongBuffer l1,
+			ILongBuffer l2, IIntBuffer l3, long so, long length) {
+		super(rootIndex, encoding, ns, depth, x, vtd, l1, l2, l3, so, length);
+		this.tokens = vtd;
+		this.bytes = x;
+	}
+
+	/**
+	 * Memory-maps the document and builds its VTD index.
+	 * 
+	 * @param inFile
+	 * @return the counting navigator over the document, positioned on its
+	 *         root
+	 * @throws IOException
+	 * @throws ParseExceptionHuge
+	 */
+	static CountingNav parseDocument(File inFile) throws IOException,
+			ParseExceptionHuge {
+		XMLMemMappedBuffer xb = new XMLMemMappedBuffer();
+		xb.readFile(inFile.getCanonicalPath());
+		Gen vg = new Gen();
+		vg.setDoc(xb);
+		vg.parse(true);
+		return vg.getNav();
+	}
+
+	/**
+	 * @return the number of navigation calls since the last reset.
+	 */
+	long getCalls() {
+		return calls;
+	}
+
+	/**
+	 * @return the number of token records read since the last reset.
+	 */
+	long getTokenReads() {
+		return tokens.reads;
+	}
+
+	/**
+	 * @return the number of document bytes read since the last reset.
+	 */
+	long getByteReads() {
+		return bytes.reads;
+	}
+
+	void resetCalls() {
+		calls = 0L;
+		tokens.reads = 0L;
+		bytes.reads = 0L;
+	}
+
+	@Override
+	public boolean toElement(int direction) throws NavExceptionHuge {
+		calls++;
+		return super.toElement(direction);
+	}
+
+	@Override
+	public boolean toElement(int direction, String en)
+			throws NavExceptionHuge {
+		calls++;
+		return super.toElement(direction, en);
+	}
+
+	@Override
+	public boolean toElementNS(int direction, String url, String ln)
+			throws NavExceptionHuge {
+		calls++;
+		return super.toElementNS(direction, url, ln);
+	}
+
+	@Override
+	public int getAttrVal(String an) throws NavExceptionHuge {
+		calls++;
+		return super.getAttrVal(an);
+	}
+
+	@Override
+	public int getText() {
+		calls++;
+		return super.getText();
+	}
+
+	/**
+	 * Generator handing out counting navigators.
+	 */
+	private static final class Gen extends VTDGenHuge {
+
+		@Override
+		public CountingNav getNav() {
+			CountingNav vn = new CountingNav(rootIndex, encoding, ns,
+					VTDDepth, new CountingBytes(xb), new CountingLongs(
+							VTDBuffer), l1Buffer, l2Buffer, l3Buffer,
+					docOffset, docLen);
+			clear();
+			return vn;
+		}
+	}
+
+	/**
+	 * Token records, counting their reads.
+	 */
+	private static final class CountingLongs implements ILongBuffer {
+		private final ILongBuffer buf;
+		private long reads;
+
+		CountingLongs(ILongBuffer buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public long longAt(int index) {
+			reads++;
+			return buf.longAt(index);
+		}
+
+		@Override
+		public int lower32At(int index) {
+			reads++;
+			return buf.lower32At(index);
+		}
+
+		@Override
+		public int upper32At(int index) {
+			reads++;
+			return buf.upper32At(index);
+		}
+
+		@Override
+		public void modifyEntry(int index, long l) {
+			buf.modifyEntry(index, l);
+		}
+
+		@Override
+		public int size() {
+			return buf.size();
+		}
+	}
+
+	/**
+	 * Document bytes, counting their reads.
+	 */
+	private static final class CountingBytes implements IByteBuffer {
+		private final IByteBuffer buf;
+		private long reads;
+
+		CountingBytes(IByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public byte byteAt(long index) {
+			reads++;
+			return buf.byteAt(index);
+		}
+
+		@Override
+		public byte[] getBytes(int offset, int len) {
+			reads += len;
+			return buf.getBytes(offset, len);
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return buf.getBytes();
+		}
+
+		@Override
+		public long length() {
+			return buf.length();
+		}
+
+		@Override
+		public void writeToFileOutputStream(FileOutputStream ost, long os,
+				long len) throws IOException {
+			buf.writeToFileOutputStream(ost, os, len);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ximpleware.extended.NavExceptionHuge;
+import com.ximpleware.extended.ParseExceptionHuge;
+import com.ximpleware.extended.VTDNavHuge;
+
+import fr.lip6.move.pnml.sort.exceptions.InternalException;
+import fr.lip6.move.pnml.sort.exceptions.InvalidPNMLTypeException;
+import fr.lip6.move.pnml.sort.exceptions.PNMLSortException;
+
+/**
+ * Indexing phases of {@link BasicPNMLSorter}, over an already parsed
+ * document: the whole indexing pass, and the handling of each node and arc on
+ * its own. Each invocation starts from an empty model. The indexing pass also
+ * reports the navigation calls it makes on the document, and the token
+ * records and document bytes it reads.
+ * 
+ * @author lom
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexBenchmark {
+
+	@State(Scope.Thread)
+	public static class ParsedNet extends AbstractNetState {
+		BasicPNMLSorter sorter;
+		CountingNav vn;
+		String type;
+		/**
+		 * Tokens of the places, transitions and arcs, and their pages. Arcs
+		 * have no node type.
+		 */
+		int[] nodes;
+		String[] nodePages;
+		NodeType[] nodeTypes;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException, XMLStreamException,
+				ParseExceptionHuge, NavExceptionHuge {
+			writeNet();
+			vn = CountingNav.parseDocument(pnml);
+			sorter = new BasicPNMLSorter(new SortOptions());
+			List<Integer> marks = new ArrayList<>();
+			List<String> pgs = new ArrayList<>();
+			List<NodeType> types = new ArrayList<>();
+			vn.toElement(VTDNavHuge.ROOT);
+			if (vn.toElement(VTDNavHuge.FIRST_CHILD, PNMLPaths.NET)) {
+				type = vn.toString(vn.getAttrVal(PNMLPaths.TYPE_ATTR));
+				do {
+					collect(null, marks, pgs, types);
+				} while (vn.toElement(VTDNavHuge.NEXT_SIBLING, PNMLPaths.NET));
+			}
+			vn.toElement(VTDNavHuge.ROOT);
+			nodes = new int[marks.size()];
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = marks.get(i);
+			}
+			nodePages = pgs.toArray(new String[pgs.size()]);
+			nodeTypes = types.toArray(new NodeType[types.size()]);
+		}
+
+		/**
+		 * Records the nodes of the pages under the current element.
+		 */
+		private void collect(String pageId, List<Integer> marks,
+				List<String> pgs, List<NodeType> types)
+				throws NavExceptionHuge {
+			if (!vn.toElement(VTDNavHuge.FIRST_CHILD)) {
+				return;
+			}
+			do {
+				NodeType nt = null;
+				boolean found = true;
+				if (vn.matchElement(PNMLPaths.PAGE)) {
+					collect(vn.toString(vn.getAttrVal(PNMLPaths.ID_ATTR)),
+							marks, pgs, types);
+					found = false;
+				} else if (pageId == null) {
+					continue;
+				} else if (vn.matchElement(PNMLPaths.PLACE)) {
+					nt = NodeType.PLACE;
+				} else if (vn.matchElement(PNMLPaths.TRANSITION)) {
+					nt = NodeType.TRANSITION;
+				} else if (!vn.matchElement(PNMLPaths.ARC)) {
+					found = false;
+				}
+				if (found) {
+					marks.add(vn.getCurrentIndex());
+					pgs.add(pageId);
+					types.add(nt);
+				}
+			} while (vn.toElement(VTDNavHuge.NEXT_SIBLING));
+			vn.toElement(VTDNavHuge.PARENT);
+		}
+
+		@Setup(Level.Invocation)
+		public void resetModel() {
+			sorter.initDataTypes();
+			sorter.setNetType(type);
+			vn.resetCalls();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			sorter.clearAllCollections();
+			deleteNet();
+		}
+	}
+
+	/**
+	 * Navigation calls made on the document by the last indexing pass, and
+	 * token records and bytes read.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Navigation {
+		public long navigations;
+		public long tokenReads;
+		public long byteReads;
+	}
+
+	@Benchmark
+	public void index(ParsedNet s, Navigation n) throws PNMLSortException,
+			IOException {
+		s.sorter.indexPNMLDocument(s.vn);
+		n.navigations = s.vn.getCalls();
+		n.tokenReads = s.vn.getTokenReads();
+		n.byteReads = s.vn.getByteReads();
+	}
+
+	@Benchmark
+	public void determineNode(ParsedNet s) throws InternalException,
+			InvalidPNMLTypeException, NavExceptionHuge, IOException {
+		for (int i = 0; i < s.nodes.length; i++) {
+			s.sorter.moveTo(s.vn, s.nodes[i]);
+			s.sorter.determineNode(s.nodePages[i]);
+		}
+	}
+
+	@Benchmark
+	public void parseNode(ParsedNet s) throws InternalException,
+			NavExceptionHuge, IOException {
+		for (int i = 0; i < s.nodes.length; i++) {
+			if (s.nodeTypes[i] != null) {
+				s.sorter.moveTo(s.vn, s.nodes[i]);
+				s.sorter.parseNode(s.nodePages[i], s.nodeTypes[i]);
+			}
+		}
+	}
+
+	@Benchmark
+	public void parseArc(ParsedNet s) throws NavExceptionHuge, IOException {
+		for (int i = 0; i < s.nodes.length; i++) {
+			if (s.nodeTypes[i] == null) {
+				s.sorter.moveTo(s.vn, s.nodes[i]);
+				s.sorter.parseArc(s.nodePages[i]);
+			}
+		}
+	}
+}
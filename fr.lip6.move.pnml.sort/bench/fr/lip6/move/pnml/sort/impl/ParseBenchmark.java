@@ -0,0 +1,74 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ximpleware.extended.ParseExceptionHuge;
+import com.ximpleware.extended.VTDNavHuge;
+
+/**
+ * Memory-mapping and VTD parsing of a document, the first phase of
+ * {@link BasicPNMLSorter}.
+ * 
+ * @author lom
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Net extends AbstractNetState {
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException, XMLStreamException {
+			writeNet();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			deleteNet();
+		}
+	}
+
+	@Benchmark
+	public VTDNavHuge vtdParse(Net net) throws IOException,
+			ParseExceptionHuge {
+		return BasicPNMLSorter.parseDocument(net.pnml);
+	}
+}
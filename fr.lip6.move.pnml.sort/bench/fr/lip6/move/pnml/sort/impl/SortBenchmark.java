@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ximpleware.extended.VTDNavHuge;
+
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Sorting and output of an indexed model, through the
+ * <code>sortNOutput*</code> methods, down to the output file. The section
+ * parameter restricts the output to places, transitions or arcs, using the
+ * exclusion options.
+ * 
+ * @author lom
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SortBenchmark {
+
+	static final String ALL = "all";
+	static final String PLACES = "places";
+	static final String TRANSITIONS = "transitions";
+	static final String ARCS = "arcs";
+
+	@State(Scope.Thread)
+	public static class IndexedNet extends AbstractNetState {
+
+		@Param({ ALL, PLACES, TRANSITIONS, ARCS })
+		public String section;
+
+		BasicPNMLSorter sorter;
+		File out;
+		OutChannelBean ocb;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			writeNet();
+			SortOptions options = new SortOptions();
+			options.setExcludePlaces(!ALL.equals(section)
+					&& !PLACES.equals(section));
+			options.setExcludeTrans(!ALL.equals(section)
+					&& !TRANSITIONS.equals(section));
+			options.setExcludeArcs(!ALL.equals(section)
+					&& !ARCS.equals(section));
+			sorter = new BasicPNMLSorter(options);
+			VTDNavHuge vn = BasicPNMLSorter.parseDocument(pnml);
+			sorter.initDataTypes();
+			sorter.indexPNMLDocument(vn);
+			out = File.createTempFile("pnmlsort-bench", MainPNMLSort.SORT_EXT);
+			out.deleteOnExit();
+		}
+
+		@Setup(Level.Invocation)
+		public void openOutput() throws IOException {
+			ocb = PNMLSortUtils.openOutChannel(out);
+		}
+
+		@TearDown(Level.Invocation)
+		public void closeOutput() throws IOException {
+			PNMLSortUtils.closeOutChannel(ocb);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			sorter.clearAllCollections();
+			out.delete();
+			deleteNet();
+		}
+	}
+
+	@Benchmark
+	public void sortNOutput(IndexedNet s) throws InterruptedException,
+			IOException {
+		s.sorter.startOutput(s.ocb);
+		s.sorter.sortNOutput();
+		s.sorter.finishOutput();
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Draining of full ring buffers into a file by a {@link SortedPNMLWriter},
+ * the producer doing nothing but handing them over.
+ * 
+ * @author lom
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriterBenchmark {
+
+	@State(Scope.Thread)
+	public static class Ring {
+
+		/**
+		 * Number of buffers written per invocation.
+		 */
+		@Param({ "256" })
+		public int buffers;
+
+		ByteBufferRing ring;
+		File out;
+		OutChannelBean ocb;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			ring = new ByteBufferRing(PNMLSortUtils.RING_BUFFERS,
+					PNMLSortUtils.RING_BUFFERSIZE);
+			out = File.createTempFile("pnmlsort-bench", MainPNMLSort.SORT_EXT);
+			out.deleteOnExit();
+		}
+
+		@Setup(Level.Invocation)
+		public void openOutput() throws IOException {
+			ring.reset();
+			ocb = PNMLSortUtils.openOutChannel(out);
+		}
+
+		@TearDown(Level.Invocation)
+		public void closeOutput() throws IOException {
+			PNMLSortUtils.closeOutChannel(ocb);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			out.delete();
+		}
+	}
+
+	@Benchmark
+	public void drain(Ring s) throws InterruptedException {
+		Thread writer = new Thread(new SortedPNMLWriter(s.ocb, s.ring));
+		writer.start();
+		ByteBuffer b;
+		for (int i = 0; i < s.buffers; i++) {
+			b = s.ring.acquire();
+			b.position(b.limit());
+			s.ring.publish(b);
+		}
+		s.ring.stop();
+		writer.join();
+	}
+}
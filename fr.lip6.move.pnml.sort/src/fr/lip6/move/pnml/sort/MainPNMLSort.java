@@ -23,14 +23,21 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Properties;
 
 import org.slf4j.LoggerFactory;
 
+import ch.qos.logback.classic.AsyncAppender;
 import ch.qos.logback.classic.LoggerContext;
-import fr.lip6.move.pnml.sort.exceptions.PNMLSortException;
-import fr.lip6.move.pnml.sort.impl.PNMLSortFactory;
-import fr.lip6.move.pnml.sort.impl.PNMLSorter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import fr.lip6.move.pnml.sort.impl.BatchPNMLSorter;
+import fr.lip6.move.pnml.sort.impl.DirectoryWatcher;
+import fr.lip6.move.pnml.sort.impl.SortOptions;
+import fr.lip6.move.pnml.sort.impl.SortVariant;
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
 
 /**
  * Hello world!
@@ -42,8 +49,19 @@ public class MainPNMLSort {
 	public static final String COLWS = ": ";
 	public static final String WSDASH = " -";
 	public static final String VERSION = "0.0.1";
+	/**
+	 * Version of the sorted outputs, text or binary. To be raised whenever
+	 * an output changes, so that cached outputs are not reused.
+	 */
+	public static final int OUTPUT_VERSION = 3;
 	public static final String SORT_EXT = ".sorted";
+	public static final String BIN_EXT = ".sortedb";
 	public static final String PNML_EXT = ".pnml";
+	public static final String GZ_EXT = ".gz";
+	public static final String XZ_EXT = ".xz";
+	public static final String METRICS_EXT = ".metrics.json";
+	public static final String FINGERPRINT_EXT = ".fingerprint";
+	public static final String BATCH_METRICS = "pnmlsort-batch" + METRICS_EXT;
 	public static final String PNMLSORT_DEBUG = "PNMLSORT_DEBUG";
 
 	public static final String SORT_ON_ID = "sort.on.id";
@@ -52,19 +70,64 @@ public class MainPNMLSort {
 	public static final String EXCLUDE_TRANS = "exclude.trans";
 	public static final String OUTPUT_MKG = "output.markings";
 	public static final String OUTPUT_INSC = "output.inscriptions";
+	public static final String THREADS = "threads";
+	public static final String STREAMING = "streaming";
+	public static final String SPILL_THRESHOLD = "spill.threshold";
+	public static final String SPILL_DIR = "spill.dir";
+	public static final String SORT_THREADS = "sort.threads";
+	public static final String METRICS = "metrics";
+	public static final String METRICS_JMX = "metrics.jmx";
+	public static final String MAPPED_OUTPUT = "mapped.output";
+	public static final String GZIP_OUTPUT = "gzip.output";
+	public static final String BINARY_OUTPUT = "binary.output";
+	public static final String FINGERPRINT = "fingerprint";
+	public static final String FINGERPRINT_ONLY = "fingerprint.only";
+	public static final String VTD_INDEX = "vtd.index";
+	public static final String VERBOSE = "verbose";
+	public static final String PROGRESS = "progress";
+	public static final String VARIANTS = "variants";
+	public static final String WATCH = "watch";
+	public static final String WATCH_QUIET = "watch.quiet";
+	public static final String CACHE_DIR = "cache.dir";
+	public static final String CACHE_MAX_SIZE = "cache.max.size";
+	public static final String CACHE_MAX_AGE = "cache.max.age";
+	/**
+	 * Names of all the properties setting options.
+	 */
+	public static final String[] OPTION_PROPERTIES = { SORT_ON_ID,
+			EXCLUDE_PLACES, EXCLUDE_TRANS, EXCLUDE_ARCS, OUTPUT_MKG,
+			OUTPUT_INSC, STREAMING, METRICS, METRICS_JMX, MAPPED_OUTPUT,
+			GZIP_OUTPUT, BINARY_OUTPUT, FINGERPRINT, FINGERPRINT_ONLY,
+			VTD_INDEX, VERBOSE, PROGRESS, THREADS, SPILL_THRESHOLD, SPILL_DIR, SORT_THREADS,
+			CACHE_DIR, CACHE_MAX_SIZE, CACHE_MAX_AGE, VARIANTS, WATCH,
+			WATCH_QUIET };
 
+	/**
+	 * Properties the options are read from.
+	 */
+	private static Properties source = System.getProperties();
 	private static List<String> pathDest;
 	private static List<String> pathSrc;
-	private static PNMLFilenameFilter pff;
-	private static DirFileFilter dff;
-	private static boolean isDebug, isSortOnId, isExcludePlaces,
-			isExcludeTrans, isExcludeArcs, isOutputMarkings, isOutputInscriptions;
-	private static boolean isOption;
+	private static volatile boolean isDebug;
+	/**
+	 * True while options are set for a job of the sort daemon: they are then
+	 * only logged at debug level.
+	 */
+	private static boolean quiet;
+	private static volatile SortOptions options = new SortOptions();
+	private static boolean isOption, isStreaming, isWatch;
+	private static long watchQuiet = DirectoryWatcher.DEFAULT_QUIET;
+	private static int threads = 1;
+	/**
+	 * Logging events queued for the console.
+	 */
+	private static final int LOG_QUEUE = 8192;
 	private static org.slf4j.Logger myLog = LoggerFactory
 			.getLogger(MainPNMLSort.class.getCanonicalName());
 
 	public static void main(String[] args) {
 		long startTime = System.nanoTime();
+		useAsyncLogging();
 
 		StringBuilder msg = new StringBuilder();
 		if (args.length < 1) {
@@ -72,13 +135,8 @@ public class MainPNMLSort {
 			return;
 		}
 		checkDebugMode(msg);
-		checkPropertyMode(msg, SORT_ON_ID, false);
-		checkPropertyMode(msg, EXCLUDE_PLACES, false);
-		checkPropertyMode(msg, EXCLUDE_TRANS, false);
-		checkPropertyMode(msg, EXCLUDE_ARCS, false);
-		checkPropertyMode(msg, OUTPUT_MKG, true);
-		checkPropertyMode(msg, OUTPUT_INSC, true);
-		
+		configure(System.getProperties());
+
 		try {
 			extractSrcDestPaths(args);
 		} catch (IOException e1) {
@@ -88,19 +146,13 @@ public class MainPNMLSort {
 				e1.printStackTrace();
 			}
 		}
-		PNMLSorter ps = PNMLSortFactory.instance().createBasicPNMLSorter();
-		// TODO : optimize with threads
-		boolean error = false;
-		for (int i = 0; i < pathSrc.size(); i++) {
-			try {
-				ps.sortPNML(new File(pathSrc.get(i)), new File(pathDest.get(i)));
-
-			} catch (PNMLSortException | IOException e) {
-				myLog.error(e.getMessage());
-				MainPNMLSort.printStackTrace(e);
-				error |= true;
-			}
+		BatchPNMLSorter batch = new BatchPNMLSorter(options, threads);
+		batch.setStreaming(isStreaming);
+		boolean error = batch.sortAll(pathSrc, pathDest);
+		if (isWatch) {
+			error |= watch(args, batch);
 		}
+		batch.shutdown();
 
 		if (!error) {
 			msg.append("Finished successfully.");
@@ -126,6 +178,72 @@ public class MainPNMLSort {
 
 	}
 	
+	/**
+	 * Sets the options from properties, as given with -D on the command line.
+	 * Properties not set get their default value.
+	 * 
+	 * @param props
+	 */
+	public static synchronized void configure(Properties props) {
+		configure(props, false);
+	}
+
+	/**
+	 * Same as {@link #configure(Properties)}, logging the options at debug
+	 * level if quiet, as for each job of the sort daemon.
+	 * 
+	 * @param props
+	 * @param quiet
+	 */
+	public static synchronized void configure(Properties props, boolean quiet) {
+		StringBuilder msg = new StringBuilder();
+		source = props;
+		isOption = false;
+		MainPNMLSort.quiet = quiet;
+		// Nothing set for a previous job carries over.
+		options = new SortOptions();
+		try {
+			checkPropertyMode(msg, SORT_ON_ID, false);
+			checkPropertyMode(msg, EXCLUDE_PLACES, false);
+			checkPropertyMode(msg, EXCLUDE_TRANS, false);
+			checkPropertyMode(msg, EXCLUDE_ARCS, false);
+			checkPropertyMode(msg, OUTPUT_MKG, true);
+			checkPropertyMode(msg, OUTPUT_INSC, true);
+			checkPropertyMode(msg, STREAMING, false);
+			checkPropertyMode(msg, METRICS, false);
+			checkPropertyMode(msg, METRICS_JMX, false);
+			checkPropertyMode(msg, MAPPED_OUTPUT, false);
+			checkPropertyMode(msg, GZIP_OUTPUT, false);
+			checkPropertyMode(msg, BINARY_OUTPUT, false);
+			checkPropertyMode(msg, FINGERPRINT, false);
+			checkPropertyMode(msg, FINGERPRINT_ONLY, false);
+			checkPropertyMode(msg, VTD_INDEX, false);
+			checkPropertyMode(msg, VERBOSE, false);
+			checkProgressMode(msg);
+			checkThreadsMode(msg);
+			checkSpillMode(msg);
+			checkSortThreadsMode(msg);
+			checkCacheMode(msg);
+			checkVariantsMode(msg);
+			checkPropertyMode(msg, WATCH, false);
+			checkWatchQuietMode(msg);
+		} finally {
+			source = System.getProperties();
+			MainPNMLSort.quiet = false;
+		}
+	}
+
+	/**
+	 * Logs the value of an option, or the help on a property not set.
+	 */
+	private static void logOption(String format, Object... args) {
+		if (quiet) {
+			myLog.debug(format, args);
+		} else {
+			myLog.warn(format, args);
+		}
+	}
+
 	/**
 	 * Checks debug mode. 
 	 * @param msg
@@ -154,11 +272,11 @@ public class MainPNMLSort {
 	 * @param propDefault
 	 */
 	private static void checkPropertyMode(StringBuilder msg, String propertyName, boolean propDefault) {
-		String prop = System.getProperty(propertyName);
+		String prop = source.getProperty(propertyName);
 		if (prop != null && Boolean.valueOf(prop)) {
 			setProperty(propertyName, true);
 			isOption = true;
-			myLog.warn("Option {} enabled.", propertyName);
+			logOption("Option {} enabled.", propertyName);
 		} else {
 			setProperty(propertyName, propDefault);
 			msg.append("Property ")
@@ -167,24 +285,266 @@ public class MainPNMLSort {
 					.append(propertyName).append(" property like so: java -D")
 					.append(propertyName)
 					.append("=").append(!propDefault).append(" [JVM OPTIONS] -jar ...");
-			myLog.warn(msg.toString());
+			logOption(msg.toString());
 			msg.delete(0, msg.length());
 		}
 	}
 
+	/**
+	 * Checks a numeric property.
+	 * 
+	 * @param msg
+	 * @param propertyName
+	 * @param propDefault
+	 *            the value if the property is not set, or out of bounds
+	 * @param min
+	 * @param max
+	 * @param unit
+	 *            unit of the value in messages, like " ms", or empty
+	 * @param usage
+	 *            the value in the help message, like N
+	 * @param purpose
+	 *            what setting the property is for, in the help message
+	 * @return the value of the property, or propDefault
+	 */
+	private static long checkNumberPropertyMode(StringBuilder msg,
+			String propertyName, long propDefault, long min, long max,
+			String unit, String usage, String purpose) {
+		String prop = source.getProperty(propertyName);
+		if (prop != null) {
+			try {
+				long value = Long.parseLong(prop.trim());
+				if (value >= min && value <= max) {
+					logOption("Option {} set to {}{}.", propertyName, value,
+							unit);
+					return value;
+				}
+			} catch (NumberFormatException e) {
+				// Reported below, with the help on the property.
+			}
+			msg.append("Invalid value for property ").append(propertyName)
+					.append(": ").append(prop).append(". ");
+		}
+		msg.append("Property ").append(propertyName)
+				.append(" is not set. Default is ").append(propDefault)
+				.append(unit).append(". If you want to ").append(purpose)
+				.append(", then invoke this program with ")
+				.append(propertyName).append(" property like so: java -D")
+				.append(propertyName).append("=").append(usage)
+				.append(" [JVM OPTIONS] -jar ...");
+		logOption(msg.toString());
+		msg.delete(0, msg.length());
+		return propDefault;
+	}
+
+	/**
+	 * Checks the minimum time between two progress lines of a sort, in
+	 * seconds. Default is {@link SortOptions#DEFAULT_PROGRESS} ms; 0 means no
+	 * progress lines.
+	 * 
+	 * @param msg
+	 */
+	private static void checkProgressMode(StringBuilder msg) {
+		long s = checkNumberPropertyMode(msg, PROGRESS,
+				SortOptions.DEFAULT_PROGRESS / 1000L, 0L,
+				Long.MAX_VALUE / 1000L, " s", "<seconds, 0 for none>",
+				"change the time between two progress lines");
+		options.setProgressInterval(s * 1000L);
+	}
+
+	/**
+	 * Checks the number of worker threads for batch mode. Default is 1, i.e.
+	 * files are sorted one after the other.
+	 * 
+	 * @param msg
+	 */
+	private static void checkThreadsMode(StringBuilder msg) {
+		threads = (int) checkNumberPropertyMode(msg, THREADS, 1L, 1L,
+				Integer.MAX_VALUE, "", "N", "sort files in parallel");
+	}
+
+	/**
+	 * Checks the spill mode: page sections bigger than the threshold (in MB)
+	 * are sorted in runs spilled to disk, then merged. Default is 0, no
+	 * spill. The threshold bounds the rows of each page section, not the
+	 * symbols of the document: see {@link SortOptions#getSpillThreshold()}.
+	 * 
+	 * @param msg
+	 */
+	private static void checkSpillMode(StringBuilder msg) {
+		long mb = checkNumberPropertyMode(msg, SPILL_THRESHOLD, 0L, 0L,
+				Long.MAX_VALUE >> 20, " MB", "<MB> [-D" + SPILL_DIR
+						+ "=<dir>]",
+				"bound the memory taken by the rows of each page section");
+		options.setSpillThreshold(mb << 20);
+		String dir = source.getProperty(SPILL_DIR);
+		options.setSpillDir(mb > 0L && dir != null ? new File(dir) : null);
+		if (options.getSpillDir() != null) {
+			logOption("Option {} set to {}.", SPILL_DIR, dir);
+		}
+	}
+
+	/**
+	 * Checks the parallelism of the sort of page sections and big lists.
+	 * Default is the number of available processors; 1 means sequential.
+	 * 
+	 * @param msg
+	 */
+	private static void checkSortThreadsMode(StringBuilder msg) {
+		options.setSortThreads((int) checkNumberPropertyMode(msg,
+				SORT_THREADS, Runtime.getRuntime().availableProcessors(), 1L,
+				Integer.MAX_VALUE, "", "N",
+				"change the number of threads sorting each file"));
+	}
+
+	/**
+	 * Checks the result cache: sorted outputs are kept in a directory, and
+	 * reused as long as neither the document nor the options change. Default
+	 * is no cache. Entries are evicted beyond a total size (in MB, default
+	 * 1024) and an age since their last use (in days, default 30).
+	 * 
+	 * @param msg
+	 */
+	private static void checkCacheMode(StringBuilder msg) {
+		String dir = source.getProperty(CACHE_DIR);
+		if (dir != null) {
+			String size = source.getProperty(CACHE_MAX_SIZE, "1024");
+			String age = source.getProperty(CACHE_MAX_AGE, "30");
+			try {
+				long mb = Long.parseLong(size.trim());
+				long days = Long.parseLong(age.trim());
+				options.setCacheDir(new File(dir));
+				options.setCacheMaxSize(Math.max(0L, mb) * 1024L * 1024L);
+				options.setCacheMaxAge(Math.max(0L, days) * 24L * 3600L * 1000L);
+				logOption("Option {} set to {}, evicting beyond {} MB and {} days.",
+						CACHE_DIR, dir, mb, days);
+				return;
+			} catch (NumberFormatException e) {
+				msg.append("Invalid value for property ")
+						.append(CACHE_MAX_SIZE).append(" or ")
+						.append(CACHE_MAX_AGE).append(": ").append(size)
+						.append(", ").append(age).append(". ");
+			}
+		}
+		options.setCacheDir(null);
+		msg.append("Property ").append(CACHE_DIR)
+				.append(" is not set. Default is no result cache. If you want to skip unchanged documents, then invoke this program with ")
+				.append(CACHE_DIR).append(" property like so: java -D")
+				.append(CACHE_DIR).append("=<dir> [-D").append(CACHE_MAX_SIZE)
+				.append("=<MB>] [-D").append(CACHE_MAX_AGE)
+				.append("=<days>] [JVM OPTIONS] -jar ...");
+		logOption(msg.toString());
+		msg.delete(0, msg.length());
+	}
+
+	/**
+	 * Checks the output variants: several sorted outputs of each document,
+	 * from a single parse. Default is a single output, following the other
+	 * options.
+	 * 
+	 * @param msg
+	 */
+	private static void checkVariantsMode(StringBuilder msg) {
+		String prop = source.getProperty(VARIANTS);
+		if (prop != null) {
+			try {
+				options.setVariants(SortVariant.parse(prop, options));
+				logOption("Option {} set to {}.", VARIANTS,
+						options.getVariants());
+				return;
+			} catch (IllegalArgumentException e) {
+				msg.append("Invalid value for property ").append(VARIANTS)
+						.append(": ").append(e.getMessage()).append(". ");
+			}
+		}
+		options.setVariants(null);
+		msg.append("Property ").append(VARIANTS)
+				.append(" is not set. Default is a single output. If you want several outputs from a single parse, then invoke this program with ")
+				.append(VARIANTS).append(" property like so: java -D")
+				.append(VARIANTS)
+				.append("=byname,byid+mkg+insc,byname+noarcs [JVM OPTIONS] -jar ...");
+		logOption(msg.toString());
+		msg.delete(0, msg.length());
+	}
+
+	/**
+	 * Checks how long a file in a watched directory must stay unchanged
+	 * before it is sorted, in milliseconds. Only read in watch mode.
+	 * 
+	 * @param msg
+	 */
+	private static void checkWatchQuietMode(StringBuilder msg) {
+		watchQuiet = isWatch ? checkNumberPropertyMode(msg, WATCH_QUIET,
+				DirectoryWatcher.DEFAULT_QUIET, 0L, Long.MAX_VALUE, " ms", "N",
+				"change it") : DirectoryWatcher.DEFAULT_QUIET;
+	}
+
+	/**
+	 * Watches the directories among the arguments, sorting PNML files as they
+	 * are created or changed, until interrupted.
+	 * 
+	 * @param args
+	 * @param batch
+	 * @return true if the directories could not be watched
+	 */
+	private static boolean watch(String[] args, BatchPNMLSorter batch) {
+		List<File> dirs = new ArrayList<File>();
+		for (String s : args) {
+			if (new File(s).isDirectory()) {
+				dirs.add(new File(s));
+			} else {
+				myLog.warn("{} is not a directory, it will not be watched.", s);
+			}
+		}
+		if (dirs.isEmpty()) {
+			myLog.error("No directory to watch.");
+			return true;
+		}
+		try (DirectoryWatcher watcher = new DirectoryWatcher(batch, watchQuiet)) {
+			watcher.watch(dirs);
+			return false;
+		} catch (IOException e) {
+			myLog.error("Could not watch directories: {}", e.getMessage());
+			printStackTrace(e);
+			return true;
+		}
+	}
+
 	private static void setProperty(String propertyName, boolean value) {
 		if (SORT_ON_ID.equalsIgnoreCase(propertyName)) {
-			isSortOnId = value;
+			options.setSortOnId(value);
 		} else if (EXCLUDE_PLACES.equalsIgnoreCase(propertyName)) {
-			isExcludePlaces = value;
+			options.setExcludePlaces(value);
 		} else if (EXCLUDE_TRANS.equalsIgnoreCase(propertyName)) {
-			isExcludeTrans = value;
+			options.setExcludeTrans(value);
 		} else if (EXCLUDE_ARCS.equalsIgnoreCase(propertyName)) {
-			isExcludeArcs = value;
+			options.setExcludeArcs(value);
 		} else if (OUTPUT_MKG.equalsIgnoreCase(propertyName)) {
-			isOutputMarkings = value;
+			options.setOutputMarkings(value);
 		} else if (OUTPUT_INSC.equalsIgnoreCase(propertyName)) {
-			isOutputInscriptions = value;
+			options.setOutputInscriptions(value);
+		} else if (WATCH.equalsIgnoreCase(propertyName)) {
+			isWatch = value;
+		} else if (STREAMING.equalsIgnoreCase(propertyName)) {
+			isStreaming = value;
+		} else if (METRICS.equalsIgnoreCase(propertyName)) {
+			options.setMetrics(value);
+		} else if (METRICS_JMX.equalsIgnoreCase(propertyName)) {
+			options.setMetricsJmx(value);
+		} else if (MAPPED_OUTPUT.equalsIgnoreCase(propertyName)) {
+			options.setMappedOutput(value);
+		} else if (GZIP_OUTPUT.equalsIgnoreCase(propertyName)) {
+			options.setGzipOutput(value);
+		} else if (BINARY_OUTPUT.equalsIgnoreCase(propertyName)) {
+			options.setBinaryOutput(value);
+		} else if (FINGERPRINT.equalsIgnoreCase(propertyName)) {
+			options.setFingerprint(value);
+		} else if (FINGERPRINT_ONLY.equalsIgnoreCase(propertyName)) {
+			options.setFingerprintOnly(value);
+		} else if (VTD_INDEX.equalsIgnoreCase(propertyName)) {
+			options.setVtdIndex(value);
+		} else if (VERBOSE.equalsIgnoreCase(propertyName)) {
+			options.setVerbose(value);
 		}
 	}
 
@@ -198,26 +558,52 @@ public class MainPNMLSort {
 	private static void extractSrcDestPaths(String[] args) throws IOException {
 		pathDest = new ArrayList<String>();
 		pathSrc = new ArrayList<String>();
+		extractSrcDestPaths(args, pathSrc, pathDest);
+	}
+
+	/**
+	 * Extracts PNML files (scans directories recursively) from paths, along
+	 * with the paths of their sorted outputs.
+	 * 
+	 * @param args
+	 *            paths of PNML files or directories
+	 * @param pathSrc
+	 *            where the PNML files paths are added
+	 * @param pathDest
+	 *            where the sorted outputs paths are added, in the same order
+	 * @throws IOException
+	 */
+	public static void extractSrcDestPaths(String[] args,
+			List<String> pathSrc, List<String> pathDest) throws IOException {
 		File srcf;
 		File[] srcFiles;
-		pff = new PNMLFilenameFilter();
-		dff = new DirFileFilter();
+		PNMLFilenameFilter pff = new PNMLFilenameFilter();
+		DirFileFilter dff = new DirFileFilter();
 		for (String s : args) {
 			srcf = new File(s);
 			if (srcf.isFile()) {
 				pathSrc.add(s);
-				pathDest.add(s.replaceAll(PNML_EXT, SORT_EXT));
+				pathDest.add(toDestPath(s));
 			} else if (srcf.isDirectory()) {
 				srcFiles = extractSrcFiles(srcf, pff, dff);
 				for (File f : srcFiles) {
 					pathSrc.add(f.getCanonicalPath());
-					pathDest.add(f.getCanonicalPath().replaceAll(PNML_EXT,
-							SORT_EXT));
+					pathDest.add(toDestPath(f.getCanonicalPath()));
 				}
 			}
 		}
 	}
 
+	/**
+	 * @param src
+	 *            path of a PNML file, possibly compressed
+	 * @return the path of its sorted output, before compression
+	 */
+	public static String toDestPath(String src) {
+		return PNMLSortUtils.uncompressedName(src).replaceAll(PNML_EXT,
+				SORT_EXT);
+	}
+
 	private static File[] extractSrcFiles(File srcf, PNMLFilenameFilter pff,
 			DirFileFilter dff) {
 		List<File> res = new ArrayList<File>();
@@ -235,14 +621,20 @@ public class MainPNMLSort {
 		return res.toArray(new File[0]);
 	}
 
-	private static final class PNMLFilenameFilter implements FilenameFilter {
+	/**
+	 * Accepts PNML files, compressed or not.
+	 */
+	public static final class PNMLFilenameFilter implements FilenameFilter {
 		@Override
 		public boolean accept(File dir, String name) {
-			return name.endsWith(PNML_EXT);
+			return PNMLSortUtils.uncompressedName(name).endsWith(PNML_EXT);
 		}
 	}
 
-	private static final class DirFileFilter implements FileFilter {
+	/**
+	 * Accepts directories, to be scanned for PNML files.
+	 */
+	public static final class DirFileFilter implements FileFilter {
 		@Override
 		public boolean accept(File pathname) {
 			return pathname.isDirectory();
@@ -263,6 +655,45 @@ public class MainPNMLSort {
 	}
 
 
+	/**
+	 * Moves the appenders of the root logger behind an asynchronous one, so
+	 * that sorting threads do not wait for the console. No event is
+	 * discarded: when the queue is full, they wait as before. Stopping the
+	 * logger context flushes the queue.
+	 */
+	public static synchronized void useAsyncLogging() {
+		if (!(LoggerFactory.getILoggerFactory() instanceof LoggerContext)) {
+			return;
+		}
+		LoggerContext ctx = (LoggerContext) LoggerFactory.getILoggerFactory();
+		ch.qos.logback.classic.Logger root = ctx
+				.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+		List<Appender<ILoggingEvent>> appenders = new ArrayList<>();
+		Iterator<Appender<ILoggingEvent>> it = root.iteratorForAppenders();
+		while (it.hasNext()) {
+			appenders.add(it.next());
+		}
+		if (appenders.isEmpty()) {
+			return;
+		}
+		for (Appender<ILoggingEvent> a : appenders) {
+			if (a instanceof AsyncAppender) {
+				return;
+			}
+		}
+		AsyncAppender async = new AsyncAppender();
+		async.setContext(ctx);
+		async.setName("ASYNC");
+		async.setQueueSize(LOG_QUEUE);
+		async.setDiscardingThreshold(0);
+		for (Appender<ILoggingEvent> a : appenders) {
+			root.detachAppender(a);
+			async.addAppender(a);
+		}
+		async.start();
+		root.addAppender(async);
+	}
+
 	/**
 	 * Prints the stack trace of the exception passed as parameter.
 	 * 
@@ -274,36 +705,74 @@ public class MainPNMLSort {
 		}
 	}
 
+	/**
+	 * Returns a copy of the current options. Sorters created from it are not
+	 * affected by later changes of these options.
+	 * 
+	 * @return
+	 */
+	public static SortOptions getOptions() {
+		return new SortOptions(options);
+	}
+
+	public static synchronized void setOptions(SortOptions newOptions) {
+		MainPNMLSort.options = new SortOptions(newOptions);
+	}
+
+	public static int getThreads() {
+		return threads;
+	}
+
+	public static void setThreads(int threads) {
+		MainPNMLSort.threads = Math.max(1, threads);
+	}
+
+	public static boolean isWatch() {
+		return isWatch;
+	}
+
+	public static long getWatchQuiet() {
+		return watchQuiet;
+	}
+
+	public static boolean isStreaming() {
+		return isStreaming;
+	}
+
+	public static void setStreaming(boolean isStreaming) {
+		MainPNMLSort.isStreaming = isStreaming;
+	}
+
 	public static boolean isSortOnId() {
-		return isSortOnId;
+		return options.isSortOnId();
 	}
 
 	public static void setSortOnId(boolean isSortOnId) {
-		MainPNMLSort.isSortOnId = isSortOnId;
+		options.setSortOnId(isSortOnId);
 	}
 
 	public static boolean isExcludeArcs() {
-		return isExcludeArcs;
+		return options.isExcludeArcs();
 	}
 
 	public static void setExcludeArcs(boolean isExcludeArcs) {
-		MainPNMLSort.isExcludeArcs = isExcludeArcs;
+		options.setExcludeArcs(isExcludeArcs);
 	}
 
 	public static boolean isExcludePlaces() {
-		return isExcludePlaces;
+		return options.isExcludePlaces();
 	}
 
 	public static void setExcludePlaces(boolean isExcludePlaces) {
-		MainPNMLSort.isExcludePlaces = isExcludePlaces;
+		options.setExcludePlaces(isExcludePlaces);
 	}
 
 	public static boolean isExcludeTrans() {
-		return isExcludeTrans;
+		return options.isExcludeTrans();
 	}
 
 	public static void setExcludeTrans(boolean isExcludeTrans) {
-		MainPNMLSort.isExcludeTrans = isExcludeTrans;
+		options.setExcludeTrans(isExcludeTrans);
 	}
 
 	public static boolean isOption() {
@@ -315,18 +784,18 @@ public class MainPNMLSort {
 	}
 
 	public static boolean isOutputMarkings() {
-		return isOutputMarkings;
+		return options.isOutputMarkings();
 	}
 
 	public static void setOutputMarkings(boolean isOutputMarkings) {
-		MainPNMLSort.isOutputMarkings = isOutputMarkings;
+		options.setOutputMarkings(isOutputMarkings);
 	}
 
 	public static boolean isOutputInscriptions() {
-		return isOutputInscriptions;
+		return options.isOutputInscriptions();
 	}
 
 	public static void setOutputInscriptions(boolean isOutputInscriptions) {
-		MainPNMLSort.isOutputInscriptions = isOutputInscriptions;
+		options.setOutputInscriptions(isOutputInscriptions);
 	}
 }
@@ -0,0 +1,151 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+
+/**
+ * Thin client of the {@link SortDaemon}. It takes the same arguments and
+ * option properties as {@link MainPNMLSort}, and sends them as a job to the
+ * daemon listening on the loopback port set with -Dport, like so: java
+ * -Dsort.on.id=true [JVM OPTIONS] -cp ...
+ * fr.lip6.move.pnml.sort.daemon.MainSortClient model.pnml
+ * 
+ * The PNML files are read and written by the daemon: relative paths are
+ * resolved here. With -Dstop=true, the daemon is stopped instead.
+ * 
+ * @author lom
+ *
+ */
+public final class MainSortClient {
+
+	public static final String STOP = "stop";
+
+	private static org.slf4j.Logger myLog = LoggerFactory
+			.getLogger(MainSortClient.class.getCanonicalName());
+
+	private MainSortClient() {
+		super();
+	}
+
+	public static void main(String[] args) {
+		boolean stop = Boolean.valueOf(System.getProperty(STOP));
+		if (args.length < 1 && !stop) {
+			myLog.error("At least the path to one PNML file is expected.");
+			return;
+		}
+		boolean error = true;
+		try {
+			int port = Integer.parseInt(MainSortDaemon.property(
+					MainSortDaemon.PORT, SortDaemon.DEFAULT_PORT));
+			error = stop ? stop(port) : sort(port, args);
+		} catch (NumberFormatException e) {
+			myLog.error("Invalid port: {}", e.getMessage());
+		} catch (IOException e) {
+			myLog.error("Could not reach the sort daemon: {}", e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+		}
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory
+				.getILoggerFactory();
+		loggerContext.stop();
+		if (error) {
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Sends a sort job, then waits for its result.
+	 * 
+	 * @return true if the job ended in error
+	 */
+	private static boolean sort(int port, String[] args) throws IOException {
+		try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			Writer out = new OutputStreamWriter(s.getOutputStream(),
+					StandardCharsets.UTF_8);
+			StringBuilder req = new StringBuilder();
+			req.append(SortDaemon.PROTOCOL).append(' ')
+					.append(SortDaemon.SORT).append('\n');
+			String value;
+			for (String p : MainPNMLSort.OPTION_PROPERTIES) {
+				value = System.getProperty(p);
+				if (value != null) {
+					req.append(SortDaemon.PROPERTY).append(' ').append(p)
+							.append('=').append(value).append('\n');
+				}
+			}
+			for (String a : args) {
+				req.append(SortDaemon.FILE).append(' ')
+						.append(new File(a).getCanonicalPath()).append('\n');
+			}
+			out.write(req.append('\n').toString());
+			out.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					s.getInputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(SortDaemon.METRICS + " ")) {
+					myLog.info("Job metrics: {}",
+							line.substring(SortDaemon.METRICS.length() + 1));
+				} else if (line.startsWith(SortDaemon.DONE + " ")) {
+					String[] done = line.split(" ");
+					boolean error = !"0".equals(done[1]);
+					myLog.info("Sorting PNML took {} seconds. Finished {}.",
+							Long.parseLong(done[2]) / 1.0e3,
+							error ? "in error, see the daemon log"
+									: "successfully");
+					return error;
+				} else {
+					myLog.error(line);
+					return true;
+				}
+			}
+			myLog.error("The sort daemon closed the connection.");
+			return true;
+		}
+	}
+
+	/**
+	 * Stops the daemon, once its running jobs are finished.
+	 * 
+	 * @return true if the daemon did not acknowledge
+	 */
+	private static boolean stop(int port) throws IOException {
+		try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			Writer out = new OutputStreamWriter(s.getOutputStream(),
+					StandardCharsets.UTF_8);
+			out.write(SortDaemon.PROTOCOL + " " + SortDaemon.STOP + "\n");
+			out.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					s.getInputStream(), StandardCharsets.UTF_8));
+			return !SortDaemon.BYE.equals(in.readLine());
+		}
+	}
+}
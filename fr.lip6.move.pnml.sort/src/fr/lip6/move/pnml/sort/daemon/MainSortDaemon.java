@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.daemon;
+
+import java.io.IOException;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+
+/**
+ * Command-line entry point of the {@link SortDaemon}. It takes no argument;
+ * the loopback port and the number of concurrent jobs are set with
+ * properties, like so: java -Dport=7341 -Djobs=4 [JVM OPTIONS] -cp ...
+ * fr.lip6.move.pnml.sort.daemon.MainSortDaemon
+ * 
+ * The sort options are not set here, but by each job: see
+ * {@link MainSortClient}.
+ * 
+ * @author lom
+ *
+ */
+public final class MainSortDaemon {
+
+	public static final String PORT = "port";
+	public static final String JOBS = "jobs";
+
+	private static org.slf4j.Logger myLog = LoggerFactory
+			.getLogger(MainSortDaemon.class.getCanonicalName());
+
+	private MainSortDaemon() {
+		super();
+	}
+
+	public static void main(String[] args) {
+		boolean error = false;
+		SortDaemon daemon = null;
+		MainPNMLSort.useAsyncLogging();
+		try {
+			int port = Integer.parseInt(property(PORT,
+					SortDaemon.DEFAULT_PORT));
+			int jobs = Integer.parseInt(property(JOBS, Runtime.getRuntime()
+					.availableProcessors()));
+			daemon = new SortDaemon(port, jobs);
+			daemon.start();
+			daemon.awaitStop();
+		} catch (NumberFormatException e) {
+			myLog.error("Invalid number: {}", e.getMessage());
+			error = true;
+		} catch (IOException e) {
+			myLog.error("Could not start the sort daemon: {}", e.getMessage());
+			error = true;
+		} catch (InterruptedException e) {
+			daemon.stop();
+		}
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory
+				.getILoggerFactory();
+		loggerContext.stop();
+		if (error) {
+			System.exit(-1);
+		}
+	}
+
+	static String property(String name, Object def) {
+		return System.getProperty(name, String.valueOf(def)).trim();
+	}
+}
@@ -0,0 +1,393 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.daemon;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+import fr.lip6.move.pnml.sort.impl.BatchMetrics;
+import fr.lip6.move.pnml.sort.impl.BatchPNMLSorter;
+import fr.lip6.move.pnml.sort.impl.SortOptions;
+
+/**
+ * Resident sort server: keeps warmed sorters between jobs, so that sorting
+ * small documents does not pay for the JVM startup and warm-up each time.
+ * 
+ * Jobs are received over a loopback socket, one per connection, and run
+ * concurrently on a fixed pool of job threads. Each job thread keeps its own
+ * sorters, one per set of options, in {@link BatchPNMLSorter} instances
+ * shared by the jobs with the same options.
+ * 
+ * The protocol is line based, in UTF-8. A request is:
+ * 
+ * <pre>
+ * PNMLSORT/1 SORT
+ * P name=value     (zero or more option properties, as given with -D)
+ * F path           (one or more PNML files or directories)
+ *                  (empty line)
+ * </pre>
+ * 
+ * The response to a sort request is a METRICS line with the job metrics in
+ * JSON, followed by DONE, the error status (0 or 1) and the job time in
+ * milliseconds. The other requests are PING, answered with PONG, and
+ * STOP, answered with BYE. Jobs are also logged with their time.
+ * 
+ * @author lom
+ *
+ */
+public final class SortDaemon {
+
+	public static final String PROTOCOL = "PNMLSORT/1";
+	public static final String SORT = "SORT";
+	public static final String PING = "PING";
+	public static final String STOP = "STOP";
+	public static final String PONG = "PONG";
+	public static final String BYE = "BYE";
+	public static final String METRICS = "METRICS";
+	public static final String DONE = "DONE";
+	public static final String ERROR = "ERROR";
+	public static final String PROPERTY = "P";
+	public static final String FILE = "F";
+	public static final int DEFAULT_PORT = 7341;
+	/**
+	 * Maximum number of sets of options kept warm at the same time.
+	 */
+	public static final int MAX_BATCHES = 8;
+	/**
+	 * Time allowed to a client to send its request, in milliseconds.
+	 */
+	private static final int REQUEST_TIMEOUT = 30000;
+
+	private final int port;
+	private final int jobs;
+	private final Logger log;
+	private final Map<String, BatchPNMLSorter> batches;
+	private final AtomicLong jobCount;
+	private final CountDownLatch stopped;
+	private ServerSocket server;
+	private ExecutorService jobPool;
+	private Thread acceptor;
+
+	/**
+	 * @param port
+	 *            loopback port to listen on, 0 for any free port
+	 * @param jobs
+	 *            maximum number of jobs run at the same time
+	 */
+	public SortDaemon(int port, int jobs) {
+		this.port = port;
+		this.jobs = Math.max(1, jobs);
+		this.log = LoggerFactory.getLogger(SortDaemon.class
+				.getCanonicalName());
+		this.batches = new HashMap<>();
+		this.jobCount = new AtomicLong();
+		this.stopped = new CountDownLatch(1);
+	}
+
+	/**
+	 * Binds the loopback socket and starts accepting jobs.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		jobPool = Executors.newFixedThreadPool(jobs, new JobThreadFactory());
+		acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "pnmlsort-daemon-acceptor");
+		acceptor.start();
+		log.info("Listening on {}:{}, running up to {} jobs at the same time.",
+				server.getInetAddress().getHostAddress(), getPort(), jobs);
+	}
+
+	/**
+	 * @return the port actually listened on, once started
+	 */
+	public synchronized int getPort() {
+		return server == null ? port : server.getLocalPort();
+	}
+
+	/**
+	 * Waits until a STOP request is received, or {@link #stop()} called.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void awaitStop() throws InterruptedException {
+		stopped.await();
+	}
+
+	/**
+	 * Stops accepting jobs, waits for the running ones, then releases the
+	 * sorters.
+	 */
+	public void stop() {
+		ServerSocket s;
+		ExecutorService p;
+		synchronized (this) {
+			s = server;
+			p = jobPool;
+			server = null;
+			jobPool = null;
+		}
+		if (s == null) {
+			return;
+		}
+		try {
+			s.close();
+		} catch (IOException e) {
+			log.error(e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+		}
+		p.shutdown();
+		try {
+			p.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (batches) {
+			for (BatchPNMLSorter b : batches.values()) {
+				b.shutdown();
+			}
+			batches.clear();
+		}
+		log.info("Stopped after {} jobs.", jobCount.get());
+		stopped.countDown();
+	}
+
+	private void accept() {
+		ServerSocket s;
+		ExecutorService p;
+		synchronized (this) {
+			s = server;
+			p = jobPool;
+		}
+		while (s != null && !s.isClosed()) {
+			try {
+				final Socket client = s.accept();
+				p.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(client);
+					}
+				});
+			} catch (SocketException e) {
+				// Closed by stop()
+				break;
+			} catch (IOException e) {
+				log.error("Could not accept a connection: {}", e.getMessage());
+				MainPNMLSort.printStackTrace(e);
+			} catch (RuntimeException e) {
+				// Rejected once stopping: the connection is just dropped
+				break;
+			}
+		}
+	}
+
+	private void serve(Socket client) {
+		boolean stop = false;
+		try (Socket c = client) {
+			c.setSoTimeout(REQUEST_TIMEOUT);
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					c.getInputStream(), StandardCharsets.UTF_8));
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					c.getOutputStream(), StandardCharsets.UTF_8));
+			String line = in.readLine();
+			if (line == null || !line.startsWith(PROTOCOL + " ")) {
+				reply(out, ERROR + " unknown protocol");
+				return;
+			}
+			String cmd = line.substring(PROTOCOL.length() + 1).trim();
+			if (PING.equals(cmd)) {
+				reply(out, PONG);
+			} else if (STOP.equals(cmd)) {
+				reply(out, BYE);
+				stop = true;
+			} else if (SORT.equals(cmd)) {
+				Properties props = new Properties();
+				List<String> paths = new ArrayList<>();
+				readJob(in, props, paths);
+				c.setSoTimeout(0);
+				runJob(props, paths, out);
+			} else {
+				reply(out, ERROR + " unknown request " + cmd);
+			}
+		} catch (IOException e) {
+			log.error("Connection error: {}", e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+		}
+		if (stop) {
+			// Not from a job thread, since stop() waits for them
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					stop();
+				}
+			}, "pnmlsort-daemon-stop").start();
+		}
+	}
+
+	private static void readJob(BufferedReader in, Properties props,
+			List<String> paths) throws IOException {
+		String line;
+		int eq;
+		while ((line = in.readLine()) != null && !line.isEmpty()) {
+			if (line.startsWith(PROPERTY + " ")) {
+				eq = line.indexOf('=');
+				if (eq > 2) {
+					props.setProperty(line.substring(2, eq),
+							line.substring(eq + 1));
+				}
+			} else if (line.startsWith(FILE + " ")) {
+				paths.add(line.substring(2));
+			}
+		}
+	}
+
+	private void runJob(Properties props, List<String> paths, Writer out)
+			throws IOException {
+		long id = jobCount.incrementAndGet();
+		long start = System.nanoTime();
+		if (paths.isEmpty()) {
+			reply(out, ERROR + " at least the path to one PNML file is expected");
+			return;
+		}
+		SortOptions opts;
+		int threads;
+		boolean streaming;
+		synchronized (MainPNMLSort.class) {
+			MainPNMLSort.configure(props, true);
+			opts = MainPNMLSort.getOptions();
+			threads = MainPNMLSort.getThreads();
+			streaming = MainPNMLSort.isStreaming();
+		}
+		List<String> src = new ArrayList<>();
+		List<String> dest = new ArrayList<>();
+		BatchMetrics jobMetrics = new BatchMetrics();
+		boolean error = false;
+		try {
+			MainPNMLSort.extractSrcDestPaths(
+					paths.toArray(new String[paths.size()]), src, dest);
+		} catch (IOException e) {
+			log.error("Job {}: could not extract all source files paths: {}",
+					id, e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+			error = true;
+		}
+		String key = key(props, threads, streaming);
+		boolean cached = true;
+		BatchPNMLSorter batch;
+		synchronized (batches) {
+			batch = batches.get(key);
+			if (batch == null && batches.size() < MAX_BATCHES) {
+				batch = newBatch(opts, threads, streaming);
+				batches.put(key, batch);
+			}
+		}
+		if (batch == null) {
+			cached = false;
+			batch = newBatch(opts, threads, streaming);
+		}
+		try {
+			error |= batch.sortAll(src, dest, jobMetrics);
+		} catch (RuntimeException e) {
+			log.error("Job {}: {}", id, e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+			error = true;
+		} finally {
+			if (!cached) {
+				batch.shutdown();
+			}
+		}
+		long millis = (System.nanoTime() - start) / 1000000L;
+		log.info("Job {}: {} files sorted in {} ms, {} failed, {} from cache.",
+				id, jobMetrics.getFiles(), millis,
+				jobMetrics.getFailedFiles(), jobMetrics.getCacheHits());
+		reply(out, METRICS + " " + json(jobMetrics) + "\n" + DONE + " "
+				+ (error ? 1 : 0) + " " + millis);
+	}
+
+	private static BatchPNMLSorter newBatch(SortOptions opts, int threads,
+			boolean streaming) {
+		BatchPNMLSorter b = new BatchPNMLSorter(opts, threads);
+		b.setStreaming(streaming);
+		return b;
+	}
+
+	/**
+	 * @return a key identifying the options set by the properties
+	 */
+	private static String key(Properties props, int threads, boolean streaming) {
+		StringBuilder sb = new StringBuilder();
+		for (String p : MainPNMLSort.OPTION_PROPERTIES) {
+			sb.append(p).append('=').append(props.getProperty(p)).append('\n');
+		}
+		return sb.append(threads).append(streaming).toString();
+	}
+
+	/**
+	 * @return the metrics in JSON, on a single line
+	 */
+	private static String json(BatchMetrics m) {
+		return m.toJson(new StringBuilder()).toString().replace('\n', ' ');
+	}
+
+	private static void reply(Writer out, String s) throws IOException {
+		out.write(s);
+		out.write('\n');
+		out.flush();
+	}
+
+	private static final class JobThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "pnmlsort-job-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
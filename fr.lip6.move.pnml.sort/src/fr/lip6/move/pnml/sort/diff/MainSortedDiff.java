@@ -0,0 +1,94 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.diff;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Command-line entry point of the {@link SortedDiff}. The arguments are the
+ * old and the new sorted outputs, then optionally the report file, like so:
+ * java [JVM OPTIONS] -cp ... fr.lip6.move.pnml.sort.diff.MainSortedDiff
+ * old.sorted new.sorted [report.diff]
+ * 
+ * Without a report file, the report is written on the standard output. As
+ * with diff, the exit status is 0 if the outputs are the same, 1 if they
+ * differ, 2 on error. Outputs with an arc whose id cannot be told apart from
+ * the names of its endpoints are errors; outputs sorted on ids always can be
+ * compared.
+ * 
+ * @author lom
+ *
+ */
+public final class MainSortedDiff {
+
+	private static final int SAME = 0, DIFFER = 1, ERROR = 2;
+
+	private static org.slf4j.Logger myLog = LoggerFactory
+			.getLogger(MainSortedDiff.class.getCanonicalName());
+
+	private MainSortedDiff() {
+		super();
+	}
+
+	public static void main(String[] args) {
+		int status = ERROR;
+		if (args.length != 2 && args.length != 3) {
+			myLog.error("The paths to the old and new sorted outputs are expected, then optionally the path to the report.");
+		} else {
+			OutputStream os = null;
+			try {
+				os = args.length == 3 ? new FileOutputStream(args[2])
+						: System.out;
+				Writer report = new BufferedWriter(new OutputStreamWriter(os,
+						Charset.forName(PNMLSortUtils.FILE_ENCODING)),
+						PNMLSortUtils.BUFFERSIZE * 8);
+				status = new SortedDiff(report).diff(new File(args[0]),
+						new File(args[1])) ? DIFFER : SAME;
+				report.flush();
+			} catch (IOException e) {
+				myLog.error(e.getMessage());
+			} finally {
+				if (os != null && os != System.out) {
+					try {
+						os.close();
+					} catch (IOException e) {
+						myLog.error(e.getMessage());
+						status = ERROR;
+					}
+				}
+			}
+		}
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory
+				.getILoggerFactory();
+		loggerContext.stop();
+		System.exit(status);
+	}
+}
@@ -0,0 +1,566 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.diff;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Compares two sorted PNML outputs in a forward pass over each, in linear
+ * time.
+ * 
+ * Nets, pages and sub-pages come out in the order of their names and ids,
+ * and the lines of each section in the order of their keys: place and
+ * transition names (or ids), arc ids. Every line thus has a position in a
+ * total order (its path of headers, then its key) that both outputs follow,
+ * and the two outputs are merged on it, like two sorted runs. Lines found
+ * on one side only are removed or added; lines with the same key but a
+ * different text are changed, as when a marking, an inscription or an arc
+ * endpoint changes.
+ * 
+ * Places and transitions without names come after the named ones, sorted
+ * on their ids: a section is made of up to two sorted runs. Which nodes have
+ * names is not in the output, so the two runs of a section are merged on
+ * their keys as they are read, with a second reader of the same file started
+ * at the second run. Each file is thus read about twice.
+ * 
+ * Arc ids are told apart from endpoints with spaces in their names by the
+ * node names of the page, which are kept until the next page. Arc lines that
+ * can be split in more than one way are refused.
+ * 
+ * The report lists the changes, each under the headers of its page and
+ * section, as the output does, with a one-character prefix: '-' removed,
+ * '+' added, '~' changed (old text, then new text). It ends with a summary.
+ * 
+ * @author lom
+ *
+ */
+public final class SortedDiff {
+
+	/**
+	 * Kinds of reported objects.
+	 */
+	public static final int NET = 0, PAGE = 1, PLACE = 2, TRANSITION = 3,
+			ARC = 4;
+	/**
+	 * Kinds of changes.
+	 */
+	public static final int REMOVED = 0, ADDED = 1, CHANGED = 2;
+	private static final String[] KINDS = { "nets", "pages", "places",
+			"transitions", "arcs" };
+	private static final Charset ENCODING = Charset
+			.forName(PNMLSortUtils.FILE_ENCODING);
+	private static final String CHANGE = " => ";
+	private static final char TAB = '\t';
+	private static final char NL = '\n';
+	private static final char WS = ' ';
+
+	/**
+	 * Ranks of the path elements: sections of a page come before its
+	 * sub-pages, in the order of the output.
+	 */
+	private static final int R_NET = 0, R_PLACES = 1, R_TRANSITIONS = 2,
+			R_ARCS = 3, R_PAGE = 4, R_LINE = 5;
+
+	private final Writer report;
+	private final long[][] counts;
+	/**
+	 * Headers of the current path, the first printed of them being already
+	 * in the report.
+	 */
+	private String[] context;
+	private int printed;
+
+	/**
+	 * @param report
+	 *            where the changes are written
+	 */
+	public SortedDiff(Writer report) {
+		this.report = report;
+		this.counts = new long[KINDS.length][3];
+		this.context = new String[16];
+	}
+
+	/**
+	 * Compares two sorted outputs, compressed or not.
+	 * 
+	 * @param oldFile
+	 * @param newFile
+	 * @return true if they differ
+	 * @throws IOException
+	 *             if a file could not be read, or is not a sorted output
+	 */
+	public boolean diff(File oldFile, File newFile) throws IOException {
+		for (long[] c : counts) {
+			c[REMOVED] = c[ADDED] = c[CHANGED] = 0L;
+		}
+		printed = 0;
+		boolean differ = false;
+		try (Side a = new Side(oldFile); Side b = new Side(newFile)) {
+			a.next();
+			b.next();
+			int c;
+			while (!a.eof || !b.eof) {
+				c = a.eof ? 1 : b.eof ? -1 : compare(a, b);
+				if (c < 0) {
+					print('-', a.depth, a.text, null);
+					count(a, REMOVED);
+					differ = true;
+					a.next();
+				} else if (c > 0) {
+					print('+', b.depth, b.text, null);
+					count(b, ADDED);
+					differ = true;
+					b.next();
+				} else {
+					if (!a.text.equals(b.text)) {
+						print('~', a.depth, a.text, b.text);
+						count(a, CHANGED);
+						differ = true;
+					} else if (a.rank[a.depth] != R_LINE) {
+						enter(a.depth, a.text);
+					}
+					a.next();
+					b.next();
+				}
+			}
+		}
+		summary();
+		report.flush();
+		return differ;
+	}
+
+	/**
+	 * @param kind
+	 *            NET, PAGE, PLACE, TRANSITION or ARC
+	 * @param change
+	 *            REMOVED, ADDED or CHANGED
+	 * @return the number of such changes found by the last diff
+	 */
+	public long getCount(int kind, int change) {
+		return counts[kind][change];
+	}
+
+	/**
+	 * Compares the positions of the current lines of two sides.
+	 */
+	private static int compare(Side a, Side b) {
+		int n = Math.min(a.depth, b.depth);
+		int c;
+		for (int i = 0; i <= n; i++) {
+			c = Integer.compare(a.rank[i], b.rank[i]);
+			if (c == 0) {
+				c = a.key[i].compareTo(b.key[i]);
+			}
+			if (c != 0) {
+				return c;
+			}
+		}
+		// Headers come before their contents.
+		return Integer.compare(a.depth, b.depth);
+	}
+
+	/**
+	 * Records a header found on both sides, to be printed before the first
+	 * change under it, if any.
+	 */
+	private void enter(int depth, String text) {
+		if (depth == context.length) {
+			String[] tmp = new String[context.length * 2];
+			System.arraycopy(context, 0, tmp, 0, context.length);
+			context = tmp;
+		}
+		context[depth] = text;
+		printed = Math.min(printed, depth);
+	}
+
+	private void print(char prefix, int depth, String text, String newText)
+			throws IOException {
+		for (int i = printed; i < depth; i++) {
+			line(WS, i, context[i]);
+		}
+		if (newText == null) {
+			// The removed or added header is the context of what follows.
+			enter(depth, text);
+			printed = depth + 1;
+		} else {
+			printed = depth;
+		}
+		report.append(prefix).append(WS);
+		for (int i = 0; i < depth; i++) {
+			report.append(TAB);
+		}
+		report.append(text);
+		if (newText != null) {
+			report.append(CHANGE).append(newText);
+		}
+		report.append(NL);
+	}
+
+	private void line(char prefix, int depth, String text) throws IOException {
+		report.append(prefix).append(WS);
+		for (int i = 0; i < depth; i++) {
+			report.append(TAB);
+		}
+		report.append(text).append(NL);
+	}
+
+	private void count(Side s, int change) {
+		int r = s.rank[s.depth];
+		if (r == R_LINE) {
+			r = s.rank[s.depth - 1];
+		}
+		switch (r) {
+		case R_NET:
+			counts[NET][change]++;
+			break;
+		case R_PAGE:
+			counts[PAGE][change]++;
+			break;
+		case R_PLACES:
+			if (s.rank[s.depth] == R_LINE) {
+				counts[PLACE][change]++;
+			}
+			break;
+		case R_TRANSITIONS:
+			if (s.rank[s.depth] == R_LINE) {
+				counts[TRANSITION][change]++;
+			}
+			break;
+		case R_ARCS:
+			if (s.rank[s.depth] == R_LINE) {
+				counts[ARC][change]++;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void summary() throws IOException {
+		report.append('#');
+		for (int k = 0; k < KINDS.length; k++) {
+			report.append(WS).append(KINDS[k]).append(": -")
+					.append(String.valueOf(counts[k][REMOVED])).append(" +")
+					.append(String.valueOf(counts[k][ADDED])).append(" ~")
+					.append(String.valueOf(counts[k][CHANGED]));
+			report.append(k < KINDS.length - 1 ? ';' : NL);
+		}
+	}
+
+	/**
+	 * One of the outputs being compared, with the path of its current line.
+	 */
+	private static final class Side implements Closeable {
+		private final File file;
+		private final Lines in;
+		/**
+		 * Reader of the second run of the current section.
+		 */
+		private final Lines ahead;
+		private int[] rank;
+		private String[] key;
+		private int depth;
+		private String text;
+		private boolean eof;
+		private long lineNo;
+		/**
+		 * Labels of the nodes of the current page that contain a space.
+		 */
+		private final Set<String> labels;
+		/**
+		 * Depth of the lines of the current section, -1 out of sections.
+		 */
+		private int lines;
+		/**
+		 * Number of the first line of the second run of the current section,
+		 * or of the line after the section if it has a single run.
+		 */
+		private long boundary;
+		/**
+		 * Keys of the next line of each run, null at the end of the run.
+		 */
+		private String inKey, aheadKey;
+
+		Side(File file) throws IOException {
+			this.file = file;
+			this.in = new Lines(file);
+			Lines a = null;
+			try {
+				a = new Lines(file);
+			} finally {
+				if (a == null) {
+					in.close();
+				}
+			}
+			this.ahead = a;
+			this.rank = new int[16];
+			this.key = new String[16];
+			this.depth = -1;
+			this.labels = new HashSet<>();
+			this.lines = -1;
+		}
+
+		/**
+		 * Reads the next line, and updates the path.
+		 */
+		void next() throws IOException {
+			if (lines >= 0 && nextInSection()) {
+				return;
+			}
+			lines = -1;
+			String line = in.line;
+			lineNo = in.lineNo;
+			if (line == null) {
+				eof = true;
+				return;
+			}
+			in.advance();
+			int t = tabs(line);
+			if (t > depth + 1 || line.length() == t) {
+				throw error(line);
+			}
+			if (t == rank.length) {
+				grow();
+			}
+			text = line.substring(t);
+			header(t, line);
+			depth = t;
+			if (rank[t] == R_PAGE) {
+				labels.clear();
+			} else if (isSection(rank[t])) {
+				startSection(t + 1);
+			}
+		}
+
+		/**
+		 * Finds the two runs of the section whose header was just read.
+		 */
+		private void startSection(int t) throws IOException {
+			if (t == rank.length) {
+				grow();
+			}
+			lines = t;
+			ahead.skipTo(in.lineNo);
+			String prev = null, k;
+			while ((k = keyOf(ahead)) != null) {
+				if (prev != null && k.compareTo(prev) < 0) {
+					break;
+				}
+				prev = k;
+				ahead.advance();
+			}
+			boundary = ahead.lineNo;
+			inKey = in.lineNo < boundary ? keyOf(in) : null;
+			aheadKey = keyOf(ahead);
+		}
+
+		/**
+		 * Takes the next line of the current section from either run, the
+		 * first run first on equal keys.
+		 * 
+		 * @return false at the end of the section
+		 */
+		private boolean nextInSection() throws IOException {
+			Lines from;
+			String k;
+			if (inKey != null
+					&& (aheadKey == null || inKey.compareTo(aheadKey) <= 0)) {
+				from = in;
+				k = inKey;
+			} else if (aheadKey != null) {
+				from = ahead;
+				k = aheadKey;
+			} else {
+				in.skipTo(ahead.lineNo);
+				return false;
+			}
+			String line = from.line;
+			lineNo = from.lineNo;
+			if (tabs(line) != lines) {
+				throw error(line);
+			}
+			from.advance();
+			if (from == in) {
+				inKey = in.lineNo < boundary ? keyOf(in) : null;
+			} else {
+				aheadKey = keyOf(ahead);
+				if (aheadKey != null && aheadKey.compareTo(k) < 0) {
+					lineNo = ahead.lineNo;
+					throw error(ahead.line);
+				}
+			}
+			text = line.substring(lines);
+			rank[lines] = R_LINE;
+			key[lines] = k;
+			depth = lines;
+			if (rank[lines - 1] != R_ARCS && k.indexOf(WS) >= 0) {
+				labels.add(k);
+			}
+			return true;
+		}
+
+		/**
+		 * @return the key of the next line of a reader, null if the line is
+		 *         not in the current section
+		 */
+		private String keyOf(Lines r) throws IOException {
+			String line = r.line;
+			if (line == null || line.length() <= lines
+					|| tabs(line) < lines) {
+				return null;
+			}
+			String k = lineKey(rank[lines - 1], line.substring(lines));
+			if (k == null) {
+				lineNo = r.lineNo;
+				throw new IOException(file.getPath() + ":" + lineNo
+						+ ": cannot tell the arc id from the names of its"
+						+ " endpoints; sort with -Dsort.on.id=true");
+			}
+			return k;
+		}
+
+		private void header(int t, String line) throws IOException {
+			int sp = text.indexOf(WS);
+			String kw = sp < 0 ? text : text.substring(0, sp);
+			String arg = sp < 0 ? "" : text.substring(sp + 1);
+			key[t] = arg;
+			switch (kw) {
+			case "NET":
+				rank[t] = R_NET;
+				break;
+			case "PAGE":
+				rank[t] = R_PAGE;
+				break;
+			case "PLACES":
+				rank[t] = R_PLACES;
+				break;
+			case "TRANSITIONS":
+				rank[t] = R_TRANSITIONS;
+				break;
+			case "ARCS":
+				rank[t] = R_ARCS;
+				break;
+			default:
+				throw error(line);
+			}
+			if (t == 0 ? rank[t] != R_NET : rank[t] == R_NET
+					|| isSection(rank[t]) && rank[t - 1] != R_PAGE) {
+				throw error(line);
+			}
+		}
+
+		/**
+		 * @return the key of a line of a section: the node name or id, or
+		 *         the arc id, without the marking or inscription; null if the
+		 *         arc id cannot be found
+		 */
+		private String lineKey(int section, String text) {
+			int hk = text.lastIndexOf(" #");
+			String res = hk < 0 ? text : text.substring(0, hk);
+			if (section == R_ARCS) {
+				int id = PNMLSortUtils.arcIdStart(res, labels);
+				res = id < 0 ? null : res.substring(id, res.indexOf(WS, id));
+			}
+			return res;
+		}
+
+		private static int tabs(String line) {
+			int t = 0;
+			while (t < line.length() && line.charAt(t) == TAB) {
+				t++;
+			}
+			return t;
+		}
+
+		private static boolean isSection(int r) {
+			return r == R_PLACES || r == R_TRANSITIONS || r == R_ARCS;
+		}
+
+		private void grow() {
+			int n = rank.length * 2;
+			int[] r = new int[n];
+			System.arraycopy(rank, 0, r, 0, rank.length);
+			rank = r;
+			String[] k = new String[n];
+			System.arraycopy(key, 0, k, 0, key.length);
+			key = k;
+		}
+
+		private IOException error(String line) {
+			return new IOException(file.getPath() + ":" + lineNo
+					+ ": not a sorted PNML line: " + line);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				in.close();
+			} finally {
+				ahead.close();
+			}
+		}
+	}
+
+	/**
+	 * A reader of the lines of an output, one line ahead.
+	 */
+	private static final class Lines implements Closeable {
+		private final BufferedReader in;
+		/**
+		 * The next line, null at the end of the file, and its number.
+		 */
+		private String line;
+		private long lineNo;
+
+		Lines(File file) throws IOException {
+			this.in = new BufferedReader(new InputStreamReader(
+					PNMLSortUtils.openInputStream(file), ENCODING),
+					PNMLSortUtils.BUFFERSIZE * 8);
+			advance();
+		}
+
+		void advance() throws IOException {
+			line = in.readLine();
+			lineNo++;
+		}
+
+		/**
+		 * Skips the lines before a line number.
+		 */
+		void skipTo(long n) throws IOException {
+			while (lineNo < n && line != null) {
+				advance();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.generator;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.LoggerContext;
+
+/**
+ * Command-line entry point of the {@link PNMLGenerator}. The output file is
+ * the only argument; the shape of the document is set with properties, like
+ * so: java -Dplaces=10000000 -Dpages=4 -Dtype=sn [JVM OPTIONS] -cp ...
+ * fr.lip6.move.pnml.sort.generator.MainPNMLGenerator out.pnml
+ * 
+ * @author lom
+ *
+ */
+public final class MainPNMLGenerator {
+
+	public static final String NETS = "nets";
+	public static final String PAGES = "pages";
+	public static final String SUBPAGES = "subpages";
+	public static final String DEPTH = "depth";
+	public static final String PLACES = "places";
+	public static final String TRANSITIONS = "transitions";
+	public static final String ARCS = "arcs";
+	public static final String NAMES = "names";
+	public static final String MARKINGS = "markings";
+	public static final String INSCRIPTIONS = "inscriptions";
+	public static final String MAX_VALUE = "max.value";
+	public static final String TYPE = "type";
+	public static final String SEED = "seed";
+
+	private static org.slf4j.Logger myLog = LoggerFactory
+			.getLogger(MainPNMLGenerator.class.getCanonicalName());
+
+	private MainPNMLGenerator() {
+		super();
+	}
+
+	public static void main(String[] args) {
+		long startTime = System.nanoTime();
+		if (args.length != 1) {
+			myLog.error("The path to the PNML file to generate is expected.");
+			return;
+		}
+		PNMLGenerator gen = new PNMLGenerator();
+		boolean error = false;
+		try {
+			gen.setNets(Integer.parseInt(property(NETS, gen.getNets())));
+			gen.setPages(Integer.parseInt(property(PAGES, gen.getPages())));
+			gen.setSubPages(Integer.parseInt(property(SUBPAGES,
+					gen.getSubPages())));
+			gen.setDepth(Integer.parseInt(property(DEPTH, gen.getDepth())));
+			gen.setPlaces(Long.parseLong(property(PLACES, gen.getPlaces())));
+			gen.setTransitions(Long.parseLong(property(TRANSITIONS,
+					gen.getTransitions())));
+			gen.setArcs(Long.parseLong(property(ARCS, gen.getArcs())));
+			gen.setNames(Double.parseDouble(property(NAMES, gen.getNames())));
+			gen.setMarkings(Double.parseDouble(property(MARKINGS,
+					gen.getMarkings())));
+			gen.setInscriptions(Double.parseDouble(property(INSCRIPTIONS,
+					gen.getInscriptions())));
+			gen.setMaxValue(Integer.parseInt(property(MAX_VALUE,
+					gen.getMaxValue())));
+			gen.setSymmetric(PNMLGenerator.SN.equalsIgnoreCase(property(TYPE,
+					PNMLGenerator.PT)));
+			gen.setSeed(Long.parseLong(property(SEED, gen.getSeed())));
+
+			gen.generate(new File(args[0]));
+			myLog.info("Generated {}.", args[0]);
+		} catch (NumberFormatException | IOException | XMLStreamException e) {
+			myLog.error(e.getMessage());
+			error = true;
+		}
+		long endTime = System.nanoTime();
+		myLog.info("Generating PNML took {} seconds.",
+				(endTime - startTime) / 1.0e9);
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory
+				.getILoggerFactory();
+		loggerContext.stop();
+		if (error) {
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * @return the value of the property, or its default value, logging it.
+	 */
+	private static String property(String name, Object defaultValue) {
+		String value = System.getProperty(name, String.valueOf(defaultValue))
+				.trim();
+		myLog.info("{} = {}", name, value);
+		return value;
+	}
+}
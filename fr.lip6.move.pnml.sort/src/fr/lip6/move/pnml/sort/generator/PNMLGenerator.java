@@ -0,0 +1,437 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.generator;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Generates synthetic PNML documents, for load and scale testing.
+ * 
+ * A document holds a number of nets; each net has top-level pages, each of
+ * which has sub-pages nested down to a given depth. The places, transitions
+ * and arcs of a net are spread evenly over all its pages; arcs connect a
+ * place and a transition of the same page. Names, markings and inscriptions
+ * are set on a random share of the nodes and arcs.
+ * 
+ * The document is written on the fly, so that its size is not bounded by
+ * memory. Node names are unique without being recorded: they are derived
+ * from a bijective scrambling of the node index. The same options, seed
+ * included, always give the same document.
+ * 
+ * @author lom
+ *
+ */
+public final class PNMLGenerator {
+
+	public static final String PT = "pt";
+	public static final String SN = "sn";
+
+	private static final String ENCODING = "UTF-8";
+	private static final String PNML_NS = "http://www.pnml.org/version-2009/grammar/pnml";
+	private static final String PT_TYPE = "http://www.pnml.org/version-2009/grammar/ptnet";
+	private static final String SN_TYPE = "http://www.pnml.org/version-2009/grammar/symmetricnet";
+	private static final String NL = "\n";
+
+	private int nets = 1;
+	private int pages = 1;
+	private int subPages;
+	private int depth;
+	private long places = 1000L;
+	private long transitions = 500L;
+	private long arcs = 2000L;
+	private double names = 0.9;
+	private double markings = 0.3;
+	private double inscriptions = 0.2;
+	private int maxValue = 5;
+	private boolean symmetric;
+	private long seed = 1L;
+
+	private XMLStreamWriter w;
+	private Random rnd;
+	private int salt;
+	private String netPrefix;
+	private long pagesPerNet;
+	private long pageIndex;
+	private long placeIndex;
+	private long transIndex;
+	private long arcIndex;
+
+	/**
+	 * Writes the document into a file.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void generate(File out) throws IOException, XMLStreamException {
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(
+				out), PNMLSortUtils.BUFFERSIZE * 8)) {
+			generate(os);
+		}
+	}
+
+	/**
+	 * Writes the document into a stream, which is left open.
+	 * 
+	 * @param os
+	 * @throws XMLStreamException
+	 */
+	public void generate(OutputStream os) throws XMLStreamException {
+		rnd = new Random(seed);
+		salt = rnd.nextInt();
+		pagesPerNet = countPages();
+		w = XMLOutputFactory.newInstance().createXMLStreamWriter(os, ENCODING);
+		try {
+			w.writeStartDocument(ENCODING, "1.0");
+			w.writeCharacters(NL);
+			w.writeStartElement("pnml");
+			w.writeDefaultNamespace(PNML_NS);
+			w.writeCharacters(NL);
+			for (int n = 0; n < nets; n++) {
+				writeNet(n);
+			}
+			w.writeEndElement();
+			w.writeCharacters(NL);
+			w.writeEndDocument();
+			w.flush();
+		} finally {
+			w.close();
+			w = null;
+		}
+	}
+
+	/**
+	 * @return the number of pages of a net, at all levels.
+	 */
+	private long countPages() {
+		long level = pages;
+		long total = level;
+		for (int d = 0; d < depth; d++) {
+			level *= subPages;
+			total += level;
+		}
+		return Math.max(1L, total);
+	}
+
+	private void writeNet(int n) throws XMLStreamException {
+		netPrefix = "n" + n;
+		pageIndex = 0L;
+		placeIndex = 0L;
+		transIndex = 0L;
+		arcIndex = 0L;
+		w.writeStartElement("net");
+		w.writeAttribute("id", netPrefix);
+		w.writeAttribute("type", symmetric ? SN_TYPE : PT_TYPE);
+		w.writeCharacters(NL);
+		writeName("Net" + n);
+		w.writeCharacters(NL);
+		for (int p = 0; p < Math.max(1, pages); p++) {
+			writePage(0);
+		}
+		w.writeEndElement();
+		w.writeCharacters(NL);
+	}
+
+	private void writePage(int level) throws XMLStreamException {
+		long k = pageIndex++;
+		w.writeStartElement("page");
+		w.writeAttribute("id", netPrefix + "pg" + k);
+		w.writeCharacters(NL);
+		long firstPlace = placeIndex;
+		long firstTrans = transIndex;
+		long np = share(places, k);
+		long nt = share(transitions, k);
+		long na = share(arcs, k);
+		for (long i = 0; i < np; i++) {
+			writePlace(placeIndex++);
+		}
+		for (long i = 0; i < nt; i++) {
+			writeTransition(transIndex++);
+		}
+		if (np > 0 && nt > 0) {
+			for (long i = 0; i < na; i++) {
+				writeArc(arcIndex++, firstPlace + nextLong(np), firstTrans
+						+ nextLong(nt));
+			}
+		}
+		if (level < depth) {
+			for (int s = 0; s < subPages; s++) {
+				writePage(level + 1);
+			}
+		}
+		w.writeEndElement();
+		w.writeCharacters(NL);
+	}
+
+	/**
+	 * @return the share of the k-th page of a net in a total number of
+	 *         elements.
+	 */
+	private long share(long total, long k) {
+		return total / pagesPerNet + (k < total % pagesPerNet ? 1 : 0);
+	}
+
+	private void writePlace(long i) throws XMLStreamException {
+		w.writeStartElement("place");
+		w.writeAttribute("id", netPrefix + "p" + i);
+		if (rnd.nextDouble() < names) {
+			writeName("P" + scramble(i));
+		}
+		if (symmetric) {
+			w.writeStartElement("type");
+			writeText("Dot");
+			w.writeStartElement("structure");
+			w.writeEmptyElement("dot");
+			w.writeEndElement();
+			w.writeEndElement();
+		}
+		if (rnd.nextDouble() < markings) {
+			writeValue(symmetric ? "hlinitialMarking" : "initialMarking");
+		}
+		w.writeEndElement();
+		w.writeCharacters(NL);
+	}
+
+	private void writeTransition(long i) throws XMLStreamException {
+		w.writeStartElement("transition");
+		w.writeAttribute("id", netPrefix + "t" + i);
+		if (rnd.nextDouble() < names) {
+			writeName("T" + scramble(i));
+		}
+		w.writeEndElement();
+		w.writeCharacters(NL);
+	}
+
+	private void writeArc(long i, long place, long trans)
+			throws XMLStreamException {
+		String p = netPrefix + "p" + place;
+		String t = netPrefix + "t" + trans;
+		boolean in = rnd.nextBoolean();
+		w.writeStartElement("arc");
+		w.writeAttribute("id", netPrefix + "a" + i);
+		w.writeAttribute("source", in ? p : t);
+		w.writeAttribute("target", in ? t : p);
+		if (rnd.nextDouble() < inscriptions) {
+			writeValue(symmetric ? "hlinscription" : "inscription");
+		}
+		w.writeEndElement();
+		w.writeCharacters(NL);
+	}
+
+	private void writeName(String name) throws XMLStreamException {
+		w.writeStartElement("name");
+		writeText(name);
+		w.writeEndElement();
+	}
+
+	private void writeText(String text) throws XMLStreamException {
+		w.writeStartElement("text");
+		w.writeCharacters(text);
+		w.writeEndElement();
+	}
+
+	/**
+	 * Writes a marking or an inscription: an integer in a P/T net, a number
+	 * of dots in a symmetric net.
+	 */
+	private void writeValue(String element) throws XMLStreamException {
+		int v = 1 + rnd.nextInt(Math.max(1, maxValue));
+		w.writeStartElement(element);
+		if (!symmetric) {
+			writeText(Integer.toString(v));
+		} else {
+			writeText(v + "'(dot)");
+			w.writeStartElement("structure");
+			w.writeStartElement("numberof");
+			w.writeStartElement("subterm");
+			w.writeStartElement("numberconstant");
+			w.writeAttribute("value", Integer.toString(v));
+			w.writeEmptyElement("positive");
+			w.writeEndElement();
+			w.writeEndElement();
+			w.writeStartElement("subterm");
+			w.writeEmptyElement("dotconstant");
+			w.writeEndElement();
+			w.writeEndElement();
+			w.writeEndElement();
+		}
+		w.writeEndElement();
+	}
+
+	/**
+	 * Unique per index, but not in index order.
+	 */
+	private String scramble(long i) {
+		String name = Integer.toHexString(PNMLSortUtils.mix((int) i + salt));
+		long high = i >>> 32;
+		return high == 0L ? name : name + "_" + high;
+	}
+
+	private long nextLong(long bound) {
+		if (bound <= Integer.MAX_VALUE) {
+			return rnd.nextInt((int) bound);
+		}
+		return (rnd.nextLong() >>> 1) % bound;
+	}
+
+	public int getNets() {
+		return nets;
+	}
+
+	public void setNets(int nets) {
+		this.nets = Math.max(1, nets);
+	}
+
+	/**
+	 * @return the number of top-level pages of each net.
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	public void setPages(int pages) {
+		this.pages = Math.max(1, pages);
+	}
+
+	/**
+	 * @return the number of sub-pages of each page, down to the depth.
+	 */
+	public int getSubPages() {
+		return subPages;
+	}
+
+	public void setSubPages(int subPages) {
+		this.subPages = Math.max(0, subPages);
+	}
+
+	/**
+	 * @return the nesting depth of the sub-pages; 0 means no sub-page.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	public void setDepth(int depth) {
+		this.depth = Math.max(0, depth);
+	}
+
+	/**
+	 * @return the number of places of each net.
+	 */
+	public long getPlaces() {
+		return places;
+	}
+
+	public void setPlaces(long places) {
+		this.places = Math.max(0L, places);
+	}
+
+	/**
+	 * @return the number of transitions of each net.
+	 */
+	public long getTransitions() {
+		return transitions;
+	}
+
+	public void setTransitions(long transitions) {
+		this.transitions = Math.max(0L, transitions);
+	}
+
+	/**
+	 * @return the number of arcs of each net.
+	 */
+	public long getArcs() {
+		return arcs;
+	}
+
+	public void setArcs(long arcs) {
+		this.arcs = Math.max(0L, arcs);
+	}
+
+	/**
+	 * @return the share, between 0 and 1, of the nodes having a name.
+	 */
+	public double getNames() {
+		return names;
+	}
+
+	public void setNames(double names) {
+		this.names = names;
+	}
+
+	/**
+	 * @return the share, between 0 and 1, of the places having an initial
+	 *         marking.
+	 */
+	public double getMarkings() {
+		return markings;
+	}
+
+	public void setMarkings(double markings) {
+		this.markings = markings;
+	}
+
+	/**
+	 * @return the share, between 0 and 1, of the arcs having an inscription.
+	 */
+	public double getInscriptions() {
+		return inscriptions;
+	}
+
+	public void setInscriptions(double inscriptions) {
+		this.inscriptions = inscriptions;
+	}
+
+	/**
+	 * @return the maximum value of markings and inscriptions.
+	 */
+	public int getMaxValue() {
+		return maxValue;
+	}
+
+	public void setMaxValue(int maxValue) {
+		this.maxValue = Math.max(1, maxValue);
+	}
+
+	public boolean isSymmetric() {
+		return symmetric;
+	}
+
+	public void setSymmetric(boolean symmetric) {
+		this.symmetric = symmetric;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+}
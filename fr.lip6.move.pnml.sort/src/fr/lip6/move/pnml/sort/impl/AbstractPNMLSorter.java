@@ -0,0 +1,1659 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.xml.bind.ValidationException;
+
+import org.slf4j.LoggerFactory;
+
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+import fr.lip6.move.pnml.sort.exceptions.InternalException;
+import fr.lip6.move.pnml.sort.exceptions.InvalidPNMLTypeException;
+import fr.lip6.move.pnml.sort.exceptions.PNMLSortException;
+import fr.lip6.move.pnml.sort.impl.SortMetrics.Phase;
+import fr.lip6.move.pnml.sort.utils.ExternalSortBuffer;
+import fr.lip6.move.pnml.sort.utils.IntIntHashMap;
+import fr.lip6.move.pnml.sort.utils.ParallelSort;
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+import fr.lip6.move.pnml.sort.utils.NodeLabels;
+import fr.lip6.move.pnml.sort.utils.SymbolTable;
+
+/**
+ * Sorts and outputs the objects of PNML documents. How the document is read,
+ * and its objects indexed, is left to subclasses. They fill in the net model
+ * through the <code>addXXX</code> methods.
+ * 
+ * The model holds the handles of ids and names interned in a
+ * {@link SymbolTable}. The sections of each page are sorted in
+ * {@link ExternalSortBuffer}s, then written as text or in the format of
+ * {@link BinarySortedWriter}, into one output per {@link SortVariant}.
+ *
+ * @author lom
+ *
+ */
+abstract class AbstractPNMLSorter implements PNMLSorter {
+	private static final char NL = '\n';
+	private static final char TAB = '\t';
+	private static final String NET = "NET";
+	private static final String PAGE = "PAGE";
+	private static final String PLACES = "PLACES";
+	private static final String TRANSITIONS = "TRANSITIONS";
+	private static final String ARCS = "ARCS";
+	private static final char WS = ' ';
+	private static final char HK = '#';
+	/**
+	 * Sorted sections of a page.
+	 */
+	private static final int PL = 0, PL_NONAME = 1, TR = 2, TR_NONAME = 3,
+			AR = 4, PL_ID = 5, TR_ID = 6, SECTIONS = 7;
+
+	protected final SortOptions options;
+	protected org.slf4j.Logger journal;
+	/**
+	 * Null when sorting sequentially.
+	 */
+	private final ForkJoinPool sortPool;
+	/**
+	 * Metrics of the current, or last, document.
+	 */
+	private SortMetrics metrics;
+	private final ProgressReporter progress;
+	/**
+	 * Where the indexing and the output of a document stand, in bytes.
+	 */
+	private final ProgressReporter.Gauge inputGauge, outputGauge;
+	/**
+	 * key: warning; value: {number of times it was issued}, outside verbose
+	 * mode.
+	 */
+	private final Map<String, int[]> warnings;
+	private File currentInputFile;
+	/**
+	 * The document, when it is not read from a file: from memory, or else
+	 * from a stream.
+	 */
+	private ByteBuffer currentInputBuffer;
+	private InputStream currentInputStream;
+	/**
+	 * A single output, or one per variant. Reused from one document to the
+	 * next.
+	 */
+	private final List<Output> outputs;
+	/**
+	 * Outputs of places and transitions, by sort key, and of arcs.
+	 */
+	private final List<Output> plByName, plById, trByName, trById, arOuts;
+	/**
+	 * Whether sections are indexed by name, by id, or both.
+	 */
+	private final boolean indexByName, indexById;
+	/**
+	 * Width of the rows of transitions sorted on names: 2 to keep their ids
+	 * for the binary output, which references them from arcs.
+	 */
+	private final int trWidth;
+
+	/**
+	 * Net names.
+	 */
+	private List<String> netsList;
+	/**
+	 * key: net name value: list of page ids
+	 */
+	private Map<String, List<String>> netPages;
+	/**
+	 * Ids and names of nodes and arcs.
+	 */
+	private SymbolTable symbols;
+	/**
+	 * Rank of each symbol in the natural order of strings, once indexing is
+	 * done.
+	 */
+	private int[] ranks;
+	/**
+	 * key: page id value: places rows {name, id}
+	 */
+	private Map<String, ExternalSortBuffer> pagePlaces;
+	/**
+	 * key: page id value: places rows {id, id}, when sorting on ids
+	 */
+	private Map<String, ExternalSortBuffer> pagePlacesById;
+	/**
+	 * key: page id value: transitions rows {name}
+	 */
+	private Map<String, ExternalSortBuffer> pageTrans;
+	/**
+	 * key: page id value: transitions rows {id}, when sorting on ids
+	 */
+	private Map<String, ExternalSortBuffer> pageTransById;
+	/**
+	 * key: page id value: arcs rows {id, source id, target id}
+	 */
+	private Map<String, ExternalSortBuffer> pageArcs;
+	/**
+	 * key: page id value: list of page ids
+	 */
+	private Map<String, List<String>> pageSubPages;
+
+	// To look for arc sources and target
+	/**
+	 * key: place or transition id; value: its name, or id if it has none
+	 */
+	private NodeLabels nodeLabels;
+	/**
+	 * key: page id; value: rows {id, id} of the places without name
+	 */
+	private Map<String, ExternalSortBuffer> plWithoutName;
+	/**
+	 * key: page id; value: rows {id} of the transitions without name
+	 */
+	private Map<String, ExternalSortBuffer> trWithoutName;
+
+	private int tabulation;
+	/**
+	 * Type of the net being indexed.
+	 */
+	private boolean isPTNet;
+	private boolean isSNNet;
+	/**
+	 * True once a P/T or Symmetric net is found in the document.
+	 */
+	private boolean hasKnownNetType;
+	/**
+	 * key = place id; value = place marking, as written in the document
+	 */
+	private IntIntHashMap placeMarkings;
+	/**
+	 * key = arc id; value = arc inscription, as written in the document
+	 */
+	private IntIntHashMap arcInscriptions;
+	/**
+	 * Terms of the markings and inscriptions of Symmetric nets.
+	 */
+	private TermStore terms;
+	/**
+	 * key = place id; value = place marking term, in a Symmetric net
+	 */
+	private IntIntHashMap placeTerms;
+	/**
+	 * key = arc id; value = arc inscription term, in a Symmetric net
+	 */
+	private IntIntHashMap arcTerms;
+
+	/**
+	 * Creates a sorter working on its own copy of the options passed as
+	 * parameter. A sorter must not be shared among concurrent threads.
+	 *
+	 * @param options
+	 */
+	protected AbstractPNMLSorter(SortOptions options) {
+		this.options = new SortOptions(options);
+		this.journal = LoggerFactory.getLogger(getClass().getCanonicalName());
+		this.sortPool = ParallelSort.getPool(this.options.getSortThreads());
+		this.metrics = new SortMetrics();
+		this.progress = new ProgressReporter(
+				this.options.getProgressInterval());
+		this.warnings = new LinkedHashMap<>();
+		this.outputs = new ArrayList<>();
+		if (this.options.getVariants() == null) {
+			outputs.add(new Output(null, this.options));
+		} else {
+			for (SortVariant v : this.options.getVariants()) {
+				outputs.add(new Output(v.getName(), v.getOptions()));
+			}
+		}
+		boolean byName = false, byId = false;
+		for (Output o : outputs) {
+			byId |= o.opts.isSortOnId();
+			byName |= !o.opts.isSortOnId();
+		}
+		this.indexByName = byName;
+		this.indexById = byId;
+		this.trWidth = this.options.isBinaryOutput() ? 2 : 1;
+		this.plByName = select(false, PL);
+		this.plById = select(true, PL);
+		this.trByName = select(false, TR);
+		this.trById = select(true, TR);
+		this.arOuts = new ArrayList<>(select(false, AR));
+		this.arOuts.addAll(select(true, AR));
+		this.inputGauge = new ProgressReporter.Gauge() {
+			@Override
+			public long bytes() {
+				return getInputPosition();
+			}
+		};
+		this.outputGauge = new ProgressReporter.Gauge() {
+			@Override
+			public long bytes() {
+				long res = 0L;
+				for (Output o : outputs) {
+					res += o.enc.getWritten();
+				}
+				return res;
+			}
+		};
+	}
+
+	/**
+	 * @param byId
+	 *            sort key of the outputs
+	 * @param section
+	 *            PL, TR or AR
+	 * @return the outputs of that section, sorted on that key
+	 */
+	private List<Output> select(boolean byId, int section) {
+		List<Output> res = new ArrayList<>();
+		for (Output o : outputs) {
+			if (o.opts.isSortOnId() == byId
+					&& !(section == PL && o.opts.isExcludePlaces()
+							|| section == TR && o.opts.isExcludeTrans()
+							|| section == AR && o.opts.isExcludeArcs())) {
+				res.add(o);
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public void sortPNML(File inFile, File outFile) throws PNMLSortException,
+			IOException {
+		metrics = new SortMetrics();
+		metrics.setFiles(inFile, outFile);
+		try {
+			this.currentInputFile = inFile;
+			journal.info("Checking preconditions on input file format: {} ",
+					inFile.getCanonicalPath());
+			PNMLSortUtils.checkIsPnmlFile(inFile);
+
+			journal.info("Exporting into Sorted PNML: {}",
+					inFile.getCanonicalPath());
+
+			sortPNMLDocument(inFile, outFile, null);
+
+		} catch (ValidationException
+				| fr.lip6.move.pnml.sort.exceptions.InvalidFileTypeException
+				| fr.lip6.move.pnml.sort.exceptions.InvalidFileException
+				| InternalException e) {
+			throw new PNMLSortException(e);
+		} catch (IOException | InterruptedException e) {
+			try {
+				throw e;
+			} catch (Exception e1) {
+				e1.printStackTrace();
+				throw new PNMLSortException(e.getCause());
+			}
+		}
+	}
+
+	@Override
+	public final void sortPNML(ByteBuffer in, WritableByteChannel out)
+			throws PNMLSortException, IOException {
+		metrics = new SortMetrics();
+		metrics.setInputBytes(in.remaining());
+		this.currentInputBuffer = in;
+		try {
+			sortPNMLDocument(out);
+		} finally {
+			this.currentInputBuffer = null;
+		}
+	}
+
+	@Override
+	public final void sortPNML(ByteBuffer in, OutputStream out)
+			throws PNMLSortException, IOException {
+		sortPNML(in, Channels.newChannel(out));
+		out.flush();
+	}
+
+	@Override
+	public final void sortPNML(byte[] in, WritableByteChannel out)
+			throws PNMLSortException, IOException {
+		sortPNML(ByteBuffer.wrap(in), out);
+	}
+
+	@Override
+	public final void sortPNML(byte[] in, OutputStream out)
+			throws PNMLSortException, IOException {
+		sortPNML(ByteBuffer.wrap(in), out);
+	}
+
+	@Override
+	public final void sortPNML(InputStream in, WritableByteChannel out)
+			throws PNMLSortException, IOException {
+		metrics = new SortMetrics();
+		this.currentInputStream = in;
+		try {
+			sortPNMLDocument(out);
+		} finally {
+			this.currentInputStream = null;
+		}
+	}
+
+	@Override
+	public final void sortPNML(InputStream in, OutputStream out)
+			throws PNMLSortException, IOException {
+		sortPNML(in, Channels.newChannel(out));
+		out.flush();
+	}
+
+	/**
+	 * Sorts the document held in memory or read from a stream into a single
+	 * output.
+	 * 
+	 * @param out
+	 *            the channel of the caller
+	 * @throws PNMLSortException
+	 * @throws IOException
+	 */
+	private void sortPNMLDocument(WritableByteChannel out)
+			throws PNMLSortException, IOException {
+		if (outputs.size() > 1) {
+			throw new PNMLSortException(
+					"Variants are output into files of their own: sort them from a file.");
+		}
+		this.currentInputFile = null;
+		journal.info("Exporting into Sorted PNML: document in memory.");
+		try {
+			sortPNMLDocument(null, null, out);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PNMLSortException(e);
+		}
+	}
+
+	/**
+	 * @param inFile
+	 *            the document, null if it is not read from a file
+	 * @param outFile
+	 *            the sorted output, null if written into out
+	 * @param out
+	 *            the channel of the caller, null if writing into files
+	 */
+	private void sortPNMLDocument(File inFile, File outFile,
+			WritableByteChannel out) throws InterruptedException,
+			IOException, PNMLSortException {
+		long start = System.nanoTime();
+		try {
+			for (Output o : outputs) {
+				if (out != null) {
+					o.ocb = PNMLSortUtils.openOutChannel(out,
+							options.isGzipOutput(), sortPool,
+							options.getSortThreads());
+				} else if (!options.isFingerprintOnly()) {
+					o.file = outputFile(outFile, o);
+					// Channels for sorted objects
+					o.ocb = openOutChannel(o.file);
+				}
+				// Start writer
+				startOutput(o);
+			}
+			// Init data types
+			initDataTypes();
+			journal.info(
+					"Exporting sorted Petri net(s)' objects from PNML document {}.",
+					inFile != null ? inFile.getCanonicalPath() : "in memory");
+			String doc = inFile != null ? inFile.getName() : "in memory";
+			long t = System.nanoTime();
+			long nested = metrics.get(Phase.READ) + metrics.get(Phase.PARSE);
+			progress.start(doc, "indexing", -1L, inputSize(inFile),
+					inputGauge);
+			if (inFile != null) {
+				indexPNMLDocument(inFile);
+			} else if (currentInputBuffer != null) {
+				indexPNMLDocument(currentInputBuffer);
+			} else {
+				indexPNMLDocument(currentInputStream);
+			}
+			progress.end();
+			// Reading and parsing are recorded by the subclass, if apart.
+			metrics.add(Phase.INDEX, System.nanoTime() - t
+					- (metrics.get(Phase.READ) + metrics.get(Phase.PARSE) - nested));
+			if (!hasKnownNetType) {
+				journal.warn("For now I support P/T and Symmetric nets. For the rest, I will do my best.");
+			}
+			progress.start(doc, "sorting", outputSize(), -1L, outputGauge);
+			sortNOutput();
+			progress.end();
+			reportWarnings();
+			// Stop Writers
+			finishOutput();
+			// Close channels
+			for (Output o : outputs) {
+				closeChannel(o.ocb);
+				if (o.file != null) {
+					journal.info("See file: {}", o.file.getCanonicalPath());
+				}
+				if (options.isFingerprint() && outFile != null) {
+					writeFingerprint(outFile, o);
+				}
+				o.ocb = null;
+				o.file = null;
+			}
+			metrics.setElapsedNanos(System.nanoTime() - start);
+			if (options.isMetrics() && outFile != null) {
+				writeMetrics(outFile);
+			}
+
+		} catch (PNMLSortException e) {
+			emergencyStop(outFile);
+			throw e;
+		} catch (InterruptedException e) {
+			emergencyStop(outFile);
+			throw e;
+		} catch (IOException e) {
+			emergencyStop(outFile);
+			throw e;
+		} catch (RuntimeException e) {
+			// Otherwise the writer would wait for ever.
+			emergencyStop(outFile);
+			throw e;
+		} finally {
+			// Clear maps, deleting the runs spilled to disk.
+			clearAllCollections();
+			if (metrics.getElapsedNanos() == 0L) {
+				metrics.setElapsedNanos(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * @param inFile
+	 *            null if the document is not read from a file
+	 * @return the size of the document as it is read, -1 if unknown
+	 */
+	private long inputSize(File inFile) {
+		if (inFile != null) {
+			return PNMLSortUtils.isCompressed(inFile.getName()) ? -1L
+					: inFile.length();
+		}
+		return metrics.getInputBytes() > 0L ? metrics.getInputBytes() : -1L;
+	}
+
+	/**
+	 * @return the number of places, transitions and arcs to be output once
+	 *         the document is indexed: twice those sorted on both keys.
+	 */
+	private long outputSize() {
+		long res = 0L;
+		res += metrics.getPlaces()
+				* ((plByName.isEmpty() ? 0 : 1) + (plById.isEmpty() ? 0 : 1));
+		res += metrics.getTransitions()
+				* ((trByName.isEmpty() ? 0 : 1) + (trById.isEmpty() ? 0 : 1));
+		res += metrics.getArcs() * (arOuts.isEmpty() ? 0 : 1);
+		return res;
+	}
+
+	/**
+	 * @return the position of the indexing in the document, in bytes, -1 if
+	 *         unknown
+	 */
+	protected long getInputPosition() {
+		return -1L;
+	}
+
+	/**
+	 * @return true if a message is logged for every net, page, section and
+	 *         element warned about.
+	 */
+	protected final boolean isVerbose() {
+		return options.isVerbose();
+	}
+
+	/**
+	 * Warns about a page or an element. In verbose mode, every warning is
+	 * logged. Otherwise, only the first one of each message is, then the
+	 * number of times it was repeated, once the document is sorted.
+	 * 
+	 * @param msg
+	 */
+	protected final void warnRepeated(String msg) {
+		if (options.isVerbose()) {
+			journal.warn(msg);
+			return;
+		}
+		int[] n = warnings.get(msg);
+		if (n == null) {
+			warnings.put(msg, new int[] { 1 });
+			journal.warn(msg);
+		} else {
+			n[0]++;
+		}
+	}
+
+	private void reportWarnings() {
+		for (Map.Entry<String, int[]> e : warnings.entrySet()) {
+			if (e.getValue()[0] > 1) {
+				journal.warn("{} ({} times)", e.getKey(), e.getValue()[0]);
+			}
+		}
+		warnings.clear();
+	}
+
+	/**
+	 * @param outFile
+	 * @param o
+	 * @return the file of an output: outFile itself, or the file of its
+	 *         variant, next to it. Ends with .sortedb if binary, .gz if
+	 *         compressed.
+	 * @throws IOException
+	 */
+	private File outputFile(File outFile, Output o) throws IOException {
+		String path = outFile.getPath();
+		String ext = options.isBinaryOutput() ? MainPNMLSort.BIN_EXT
+				: MainPNMLSort.SORT_EXT;
+		if (o.variant != null) {
+			path = baseName(outFile) + "." + o.variant + ext;
+		} else if (options.isBinaryOutput()) {
+			path = baseName(outFile) + ext;
+		}
+		if (options.isGzipOutput() && !path.endsWith(MainPNMLSort.GZ_EXT)) {
+			path += MainPNMLSort.GZ_EXT;
+		}
+		return new File(path);
+	}
+
+	/**
+	 * @param outFile
+	 * @return the path of the sorted output, without its extensions.
+	 * @throws IOException
+	 */
+	private static String baseName(File outFile) throws IOException {
+		return PNMLSortUtils.extractBaseName(PNMLSortUtils
+				.uncompressedName(outFile.getCanonicalPath()));
+	}
+
+	private OutChannelBean openOutChannel(File f) throws IOException {
+		if (options.isGzipOutput()) {
+			return PNMLSortUtils.openGzipOutChannel(f, sortPool,
+					options.getSortThreads());
+		}
+		return PNMLSortUtils.openOutChannel(f, options.isMappedOutput());
+	}
+
+	/**
+	 * Writes the metrics of the document next to its sorted output.
+	 * 
+	 * @param outFile
+	 * @throws IOException
+	 */
+	private void writeMetrics(File outFile) throws IOException {
+		File f = new File(baseName(outFile) + MainPNMLSort.METRICS_EXT);
+		metrics.writeJson(f);
+		journal.info("See metrics: {}", f.getCanonicalPath());
+	}
+
+	/**
+	 * Writes the fingerprint of an output next to it.
+	 * 
+	 * @param outFile
+	 * @param o
+	 * @throws IOException
+	 */
+	private void writeFingerprint(File outFile, Output o) throws IOException {
+		String path = baseName(outFile);
+		if (o.variant != null) {
+			path += "." + o.variant;
+		}
+		File f = new File(path + MainPNMLSort.FINGERPRINT_EXT);
+		o.enc.getFingerprint().write(f);
+		journal.info("See fingerprint {}: {}", o.enc.getFingerprint()
+				.getHash(), f.getCanonicalPath());
+	}
+
+	/**
+	 * Reads the PNML document and indexes its nets, pages, nodes and arcs,
+	 * using the <code>addXXX</code> methods.
+	 *
+	 * @param inFile
+	 *            the PNML document
+	 * @throws PNMLSortException
+	 *             if the document could not be read or is not supported
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected abstract void indexPNMLDocument(File inFile)
+			throws PNMLSortException, IOException, InterruptedException;
+
+	/**
+	 * Same as {@link #indexPNMLDocument(File)}, for a document held in
+	 * memory, from the position to the limit of the buffer. The buffer must
+	 * not be kept once the document is indexed.
+	 * 
+	 * @param in
+	 * @throws PNMLSortException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected abstract void indexPNMLDocument(ByteBuffer in)
+			throws PNMLSortException, IOException, InterruptedException;
+
+	/**
+	 * Same as {@link #indexPNMLDocument(File)}, for a document read from a
+	 * stream, which is left open.
+	 * 
+	 * @param in
+	 * @throws PNMLSortException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected abstract void indexPNMLDocument(InputStream in)
+			throws PNMLSortException, IOException, InterruptedException;
+
+	/**
+	 * Starts a writer draining the sorted output into a channel. Only the
+	 * first output, if there are variants.
+	 * 
+	 * @param ocb
+	 */
+	final void startOutput(OutChannelBean ocb) {
+		Output o = outputs.get(0);
+		o.ocb = ocb;
+		startOutput(o);
+	}
+
+	private void startOutput(Output o) {
+		// Buffers for sorted PNML objects
+		initRing(o);
+		o.writerMetrics = new SortMetrics();
+		o.writer = new Thread(new SortedPNMLWriter(o.ocb, o.ring,
+				o.writerMetrics));
+		o.writer.start();
+	}
+
+	/**
+	 * Sorts the indexed nets and encodes them into the outputs. The model is
+	 * left untouched, so that it can be output again.
+	 * 
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	final void sortNOutput() throws InterruptedException, IOException {
+		long t = System.nanoTime();
+		long sort = metrics.get(Phase.SORT);
+		long wait = acquireWaitNanos();
+		for (Output o : outputs) {
+			o.enc.begin();
+			if (o.bin != null) {
+				o.bin.begin(symbols.size(), o.opts);
+			}
+		}
+		sortNOutputNets();
+		for (Output o : outputs) {
+			if (o.bin != null) {
+				o.bin.end();
+			}
+			o.enc.end();
+		}
+		// Sorting is interleaved with encoding; keep phases apart.
+		wait = acquireWaitNanos() - wait;
+		metrics.add(Phase.ENCODE_WAIT, wait);
+		metrics.add(Phase.ENCODE, System.nanoTime() - t
+				- (metrics.get(Phase.SORT) - sort) - wait);
+	}
+
+	private long acquireWaitNanos() {
+		long res = 0L;
+		for (Output o : outputs) {
+			res += o.ring != null ? o.ring.getAcquireWaitNanos() : 0L;
+		}
+		return res;
+	}
+
+	/**
+	 * Waits for the writers to have written all the outputs.
+	 * 
+	 * @throws InterruptedException
+	 * @throws IOException
+	 *             if a writer failed
+	 */
+	final void finishOutput() throws InterruptedException, IOException {
+		for (Output o : outputs) {
+			stopWriter(o.ring);
+		}
+		IOException error = null;
+		int peak = 0;
+		for (Output o : outputs) {
+			o.writer.join();
+			o.writer = null;
+			metrics.add(Phase.WRITER_WAIT,
+					o.writerMetrics.get(Phase.WRITER_WAIT));
+			metrics.add(Phase.WRITE, o.writerMetrics.get(Phase.WRITE));
+			metrics.addWritten(o.writerMetrics.getBytesWritten());
+			peak = Math.max(peak, o.ring.getPeakDepth());
+			if (error == null) {
+				error = o.ring.getError();
+			}
+		}
+		metrics.setQueue(peak, outputs.get(0).ring.getCapacity());
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	protected final File getCurrentInputFile() {
+		return currentInputFile;
+	}
+
+	@Override
+	public final SortMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Records the type of the net about to be indexed. It applies to that net
+	 * only, until the next call.
+	 *
+	 * @param netType
+	 *            the value of the net type attribute
+	 * @return true if the net is a P/T or a Symmetric net
+	 */
+	protected final boolean setNetType(String netType) {
+		journal.info("Discovered net type: {}", netType);
+		isPTNet = netType != null && netType.endsWith(PNMLPaths.PTNET_TYPE);
+		isSNNet = netType != null && netType.endsWith(PNMLPaths.SNNET_TYPE);
+		hasKnownNetType |= isPTNet || isSNNet;
+		return isPTNet || isSNNet;
+	}
+
+	protected final boolean isPTNet() {
+		return isPTNet;
+	}
+
+	protected final boolean isSNNet() {
+		return isSNNet;
+	}
+
+	/**
+	 * @return the store into which the markings and inscriptions of
+	 *         Symmetric nets are parsed.
+	 */
+	protected final TermStore getTerms() {
+		return terms;
+	}
+
+	protected final void addNet(String name) {
+		netsList.add(name);
+		metrics.countNet();
+	}
+
+	protected final void addPage(String net, String pageId) {
+		addTo(netPages, net, pageId);
+		metrics.countPage();
+	}
+
+	protected final void addSubPage(String parentPageId, String pageId) {
+		addTo(pageSubPages, parentPageId, pageId);
+		metrics.countPage();
+	}
+
+	/**
+	 * @param pageId
+	 *            the page containing the place
+	 * @param id
+	 *            the place id
+	 * @param name
+	 *            the place name, null if it has none
+	 * @param mkg
+	 *            the text of its initial marking in a P/T net, null if it
+	 *            has none
+	 * @throws IOException
+	 *             if rows could not be spilled to disk
+	 */
+	protected final void addPlace(String pageId, String id, String name,
+			String mkg) throws IOException {
+		addPlace(pageId, id, name, mkg, -1);
+	}
+
+	/**
+	 * @see #addPlace(String, String, String, String)
+	 * @param mkgTerm
+	 *            the handle of its initial marking in a Symmetric net, in
+	 *            the {@link TermStore}, -1 if it has none
+	 */
+	protected final void addPlace(String pageId, String id, String name,
+			String mkg, int mkgTerm) throws IOException {
+		int idh = symbols.intern(id);
+		metrics.countPlace();
+		progress.tick();
+		// Default is 0, thus not reported.
+		if (mkg != null && Integer.parseInt(mkg) > 0) {
+			placeMarkings.put(idh, symbols.intern(mkg));
+		}
+		if (mkgTerm >= 0) {
+			placeTerms.put(idh, mkgTerm);
+		}
+		int nameh = name != null ? symbols.intern(name) : -1;
+		nodeLabels.put(idh, nameh >= 0 ? nameh : idh);
+		if (indexById) {
+			getOrCreateBuffer(pagePlacesById, pageId, 2).add(idh, idh);
+		}
+		if (indexByName) {
+			ExternalSortBuffer elem = getOrCreateBuffer(pagePlaces, pageId, 2);
+			if (nameh >= 0) {
+				elem.add(nameh, idh);
+			} else {
+				getOrCreateBuffer(plWithoutName, pageId, 2).add(idh, idh);
+			}
+		}
+	}
+
+	/**
+	 * @param pageId
+	 *            the page containing the transition
+	 * @param id
+	 *            the transition id
+	 * @param name
+	 *            the transition name, null if it has none
+	 * @throws IOException
+	 *             if rows could not be spilled to disk
+	 */
+	protected final void addTransition(String pageId, String id, String name)
+			throws IOException {
+		int idh = symbols.intern(id);
+		metrics.countTransition();
+		progress.tick();
+		int nameh = name != null ? symbols.intern(name) : -1;
+		nodeLabels.put(idh, nameh >= 0 ? nameh : idh);
+		if (indexById) {
+			getOrCreateBuffer(pageTransById, pageId, 1).add(idh);
+		}
+		if (indexByName) {
+			ExternalSortBuffer elem = getOrCreateBuffer(pageTrans, pageId,
+					trWidth);
+			ExternalSortBuffer target = nameh >= 0 ? elem
+					: getOrCreateBuffer(trWithoutName, pageId, trWidth);
+			if (trWidth == 2) {
+				target.add(nameh >= 0 ? nameh : idh, idh);
+			} else {
+				target.add(nameh >= 0 ? nameh : idh);
+			}
+		}
+	}
+
+	/**
+	 * @param pageId
+	 *            the page containing the arc
+	 * @param id
+	 *            the arc id
+	 * @param src
+	 *            the source node id
+	 * @param trg
+	 *            the target node id
+	 * @param insc
+	 *            the text of its inscription in a P/T net, null if it has
+	 *            none
+	 * @throws IOException
+	 *             if rows could not be spilled to disk
+	 */
+	protected final void addArc(String pageId, String id, String src,
+			String trg, String insc) throws IOException {
+		addArc(pageId, id, src, trg, insc, -1);
+	}
+
+	/**
+	 * @see #addArc(String, String, String, String, String)
+	 * @param inscTerm
+	 *            the handle of its inscription in a Symmetric net, in the
+	 *            {@link TermStore}, -1 if it has none
+	 */
+	protected final void addArc(String pageId, String id, String src,
+			String trg, String insc, int inscTerm) throws IOException {
+		int idh = symbols.intern(id);
+		metrics.countArc();
+		progress.tick();
+		// Default is 1, thus not reported.
+		if (insc != null && Integer.parseInt(insc) > 1) {
+			arcInscriptions.put(idh, symbols.intern(insc));
+		}
+		if (inscTerm >= 0) {
+			arcTerms.put(idh, inscTerm);
+		}
+		getOrCreateBuffer(pageArcs, pageId, 3).add(idh, symbols.intern(src),
+				symbols.intern(trg));
+	}
+
+	private static void addTo(Map<String, List<String>> map, String key,
+			String value) {
+		getOrCreate(map, key).add(value);
+	}
+
+	private static List<String> getOrCreate(Map<String, List<String>> map,
+			String key) {
+		List<String> elem = map.get(key);
+		if (elem == null) {
+			elem = new ArrayList<>();
+			map.put(key, elem);
+		}
+		return elem;
+	}
+
+	private ExternalSortBuffer getOrCreateBuffer(
+			Map<String, ExternalSortBuffer> map, String key, int width) {
+		ExternalSortBuffer elem = map.get(key);
+		if (elem == null) {
+			elem = new ExternalSortBuffer(width, options.getSpillThreshold(),
+					options.getSpillDir(), symbols.comparator());
+			map.put(key, elem);
+		}
+		return elem;
+	}
+
+	private void sortNOutputNets() throws InterruptedException,
+			IOException {
+		Collections.sort(netsList);
+		long t = System.nanoTime();
+		ranks = symbols.ranks(sortPool);
+		metrics.add(Phase.SORT, System.nanoTime() - t);
+		journal.info("Exporting sorted nets.");
+		for (String net : netsList) {
+			if (isVerbose()) {
+				journal.info("Exporting net {}.", net);
+			}
+			header(outputs, NET, net);
+			sortNOutputPages(net);
+			close(outputs);
+		}
+	}
+
+	private void sortNOutputPages(String net) throws InterruptedException,
+			IOException {
+		List<String> pgs = netPages.get(net);
+		if (pgs != null) {
+			if (isVerbose()) {
+				journal.info("Exporting sorted pages from net {}.", net);
+			}
+			Collections.sort(pgs);
+			incrementTab();
+			for (String page : pgs) {
+				header(outputs, PAGE, page);
+				sortNOutputPage(page);
+				close(outputs);
+			}
+			decrementTab();
+		} else if (isVerbose()) {
+			journal.info("No sub-pages to export from net {}.", net);
+		}
+	}
+
+	private void sortNOutputSubPages(String page) throws InterruptedException,
+			IOException {
+		List<String> pgs = pageSubPages.get(page);
+		if (pgs != null) {
+			if (isVerbose()) {
+				journal.info("Exporting sorted sub-pages from page {}.", page);
+			}
+			Collections.sort(pgs);
+			incrementTab();
+			for (String pg : pgs) {
+				header(outputs, PAGE, pg);
+				sortNOutputPage(pg);
+				close(outputs);
+			}
+			decrementTab();
+		} else if (isVerbose()) {
+			journal.info("No sub-pages to export from page {}.", page);
+		}
+	}
+
+	private void sortNOutputPage(String page) throws InterruptedException,
+			IOException {
+		long t = System.nanoTime();
+		SortedSections sections = sortSections(page);
+		metrics.add(Phase.SORT, System.nanoTime() - t);
+		try (SortedSections sorted = sections) {
+			sortNOutputPlaces(page, sorted);
+			sortNOutputTransitions(page, sorted);
+			sortNOutputArcs(page, sorted);
+		}
+		sortNOutputSubPages(page);
+	}
+
+	/**
+	 * Sorts the sections of a page to be output, concurrently if the page is
+	 * big enough.
+	 * 
+	 * @param page
+	 * @return the sorted sections
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private SortedSections sortSections(String page) throws IOException,
+			InterruptedException {
+		ExternalSortBuffer[] bufs = new ExternalSortBuffer[SECTIONS];
+		if (!plByName.isEmpty()) {
+			bufs[PL] = pagePlaces.get(page);
+			bufs[PL_NONAME] = plWithoutName.get(page);
+		}
+		if (!plById.isEmpty()) {
+			bufs[PL_ID] = pagePlacesById.get(page);
+		}
+		if (!trByName.isEmpty()) {
+			bufs[TR] = pageTrans.get(page);
+			bufs[TR_NONAME] = trWithoutName.get(page);
+		}
+		if (!trById.isEmpty()) {
+			bufs[TR_ID] = pageTransById.get(page);
+		}
+		if (!arOuts.isEmpty()) {
+			bufs[AR] = pageArcs.get(page);
+		}
+		SortedSections sorted = new SortedSections();
+		long total = 0L;
+		for (ExternalSortBuffer b : bufs) {
+			total += b != null ? b.size() : 0L;
+		}
+		if (sortPool == null || total <= ParallelSort.THRESHOLD) {
+			try {
+				for (int i = 0; i < SECTIONS; i++) {
+					if (bufs[i] != null) {
+						sorted.cursors[i] = bufs[i].sort(ranks);
+					}
+				}
+			} catch (IOException e) {
+				sorted.close();
+				throw e;
+			}
+			return sorted;
+		}
+		List<ForkJoinTask<ExternalSortBuffer.Cursor>> tasks = new ArrayList<>(
+				SECTIONS);
+		for (int i = 0; i < SECTIONS; i++) {
+			tasks.add(bufs[i] != null ? sortPool.submit(new SectionSort(
+					bufs[i])) : null);
+		}
+		Throwable error = null;
+		for (int i = 0; i < SECTIONS; i++) {
+			try {
+				if (tasks.get(i) != null) {
+					sorted.cursors[i] = tasks.get(i).get();
+				}
+			} catch (ExecutionException e) {
+				error = error == null ? e.getCause() : error;
+			} catch (InterruptedException e) {
+				sorted.close();
+				throw e;
+			}
+		}
+		if (error != null) {
+			sorted.close();
+			if (error instanceof IOException) {
+				throw (IOException) error;
+			}
+			throw new IOException(error);
+		}
+		return sorted;
+	}
+
+	private void sortNOutputArcs(String page, SortedSections sorted)
+			throws InterruptedException, IOException {
+		if (arOuts.isEmpty()) {
+			return;
+		}
+		ExternalSortBuffer arcs = pageArcs.get(page);
+		boolean withInsc = false;
+		for (Output o : arOuts) {
+			withInsc |= hasKnownNetType && o.opts.isOutputInscriptions();
+		}
+		int id, src, trg, termh;
+		String srcName, srcId, trgName, trgId, arc, insc, term;
+		if (arcs != null) {
+			if (isVerbose()) {
+				journal.info("Exporting sorted arcs from page {}", page);
+			}
+			logRuns(arcs, ARCS, page);
+			incrementTab();
+			header(arOuts, ARCS, null, arcs.size(), arcs.size());
+			incrementTab();
+			ExternalSortBuffer.Cursor c = sorted.cursors[AR];
+			while (c.next()) {
+				id = c.get(0);
+				src = c.get(1);
+				trg = c.get(2);
+				arc = symbols.get(id);
+				srcId = symbols.get(src);
+				srcName = symbols.get(nodeLabel(src));
+				trgId = symbols.get(trg);
+				trgName = symbols.get(nodeLabel(trg));
+				insc = withInsc ? text(arcInscriptions, id) : null;
+				termh = withInsc ? arcTerms.get(id, -1) : -1;
+				term = terms.text(termh);
+				progress.tick();
+				for (Output o : arOuts) {
+					if (o.bin != null) {
+						o.bin.arc(arc, src, o.opts.isSortOnId() ? srcId
+								: srcName, trg, o.opts.isSortOnId() ? trgId
+								: trgName, insc != null
+								&& o.opts.isOutputInscriptions() ? Integer
+								.parseInt(insc) : 0, o.opts
+								.isOutputInscriptions() ? termh : -1, term);
+						continue;
+					}
+					// Nodes are shown as in their own sections.
+					o.enc.repeat(TAB, tabulation)
+							.append(o.opts.isSortOnId() ? srcId : srcName)
+							.append(WS).append(arc).append(WS)
+							.append(o.opts.isSortOnId() ? trgId : trgName);
+					if (insc != null && o.opts.isOutputInscriptions()) {
+						o.enc.append(WS).append(HK).append(insc);
+					} else if (term != null && o.opts.isOutputInscriptions()) {
+						o.enc.append(WS).append(HK).append(term);
+					}
+					o.enc.append(NL);
+				}
+			}
+			close(arOuts);
+			decrementTab();
+			decrementTab();
+		} else if (isVerbose()) {
+			journal.info("No arcs to export from page {}.", page);
+		}
+	}
+
+	/**
+	 * @param id
+	 *            handle of an arc source or target id
+	 * @return the handle of the node label, or id itself if the node is not
+	 *         a place or a transition of the document, such as a reference
+	 *         node.
+	 */
+	private int nodeLabel(int id) {
+		int label = nodeLabels.get(id);
+		return label < 0 ? id : label;
+	}
+
+	private void sortNOutputTransitions(String page, SortedSections sorted)
+			throws InterruptedException, IOException {
+		sortNOutputTransitions(page, trByName, pageTrans.get(page),
+				trWithoutName.get(page), sorted.cursors[TR],
+				sorted.cursors[TR_NONAME]);
+		sortNOutputTransitions(page, trById, pageTransById.get(page), null,
+				sorted.cursors[TR_ID], null);
+	}
+
+	/**
+	 * Outputs the transitions of a page, sorted on the same key, to some
+	 * outputs.
+	 */
+	private void sortNOutputTransitions(String page, List<Output> outs,
+			ExternalSortBuffer transitions, ExternalSortBuffer withoutName,
+			ExternalSortBuffer.Cursor c, ExternalSortBuffer.Cursor noName)
+			throws InterruptedException, IOException {
+		if (outs.isEmpty()) {
+			return;
+		}
+		if (transitions != null) {
+			if (isVerbose()) {
+				journal.info("Exporting sorted transitions from page {}", page);
+			}
+			if (outs == trByName) {
+				warnRepeated("Attention: if a transition does not have a name, its id will be used instead.");
+			}
+			logRuns(transitions, TRANSITIONS, page);
+			incrementTab();
+			header(outs, TRANSITIONS, null, transitions.size()
+					+ (withoutName != null ? withoutName.size() : 0L),
+					transitions.size());
+			incrementTab();
+			// Rows sorted on ids are made of ids only.
+			boolean withId = outs != trById && trWidth == 2;
+			outputTransitions(outs, c, withId);
+			// Are there any transition left without name?
+			if (withoutName != null) {
+				warnRepeated("There are transitions without name. Sorting their ids AFTER the names.");
+				outputTransitions(outs, noName, withId);
+			}
+			// TODO: handle transition conditions
+			close(outs);
+			decrementTab();
+			decrementTab();
+		} else if (isVerbose()) {
+			journal.info("No transitions to export from page {}.", page);
+		}
+	}
+
+	/**
+	 * @param withId
+	 *            true if the rows hold the id of the transition after its
+	 *            name
+	 */
+	private void outputTransitions(List<Output> outs,
+			ExternalSortBuffer.Cursor c, boolean withId) throws IOException,
+			InterruptedException {
+		String name;
+		while (c.next()) {
+			name = symbols.get(c.get(0));
+			progress.tick();
+			for (Output o : outs) {
+				if (o.bin != null) {
+					o.bin.transition(name, withId ? c.get(1) : c.get(0));
+				} else {
+					o.enc.repeat(TAB, tabulation).append(name).append(NL);
+				}
+			}
+		}
+	}
+
+	private void sortNOutputPlaces(String page, SortedSections sorted)
+			throws InterruptedException, IOException {
+		sortNOutputPlaces(page, plByName, pagePlaces.get(page),
+				plWithoutName.get(page), sorted.cursors[PL],
+				sorted.cursors[PL_NONAME]);
+		sortNOutputPlaces(page, plById, pagePlacesById.get(page), null,
+				sorted.cursors[PL_ID], null);
+	}
+
+	/**
+	 * Outputs the places of a page, sorted on the same key, to some outputs.
+	 */
+	private void sortNOutputPlaces(String page, List<Output> outs,
+			ExternalSortBuffer places, ExternalSortBuffer withoutName,
+			ExternalSortBuffer.Cursor c, ExternalSortBuffer.Cursor noName)
+			throws InterruptedException, IOException {
+		if (outs.isEmpty()) {
+			return;
+		}
+		if (places != null) {
+			if (isVerbose()) {
+				journal.info("Exporting sorted places from page {}", page);
+			}
+			if (outs == plByName) {
+				warnRepeated("Attention: if a place does not have a name, its id will be used instead.");
+			}
+			logRuns(places, PLACES, page);
+			incrementTab();
+			header(outs, PLACES, null, places.size()
+					+ (withoutName != null ? withoutName.size() : 0L),
+					places.size());
+			incrementTab();
+			outputPlaces(outs, c);
+			// Are there any left places without names?
+			if (withoutName != null) {
+				warnRepeated("There are places without name. Sorting their ids AFTER the names.");
+				outputPlaces(outs, noName);
+			}
+			close(outs);
+			decrementTab();
+			decrementTab();
+		} else if (isVerbose()) {
+			journal.info("No places to export from page {}.", page);
+		}
+	}
+
+	private void outputPlaces(List<Output> outs, ExternalSortBuffer.Cursor c)
+			throws IOException, InterruptedException {
+		boolean withMkg = false;
+		for (Output o : outs) {
+			withMkg |= hasKnownNetType && o.opts.isOutputMarkings();
+		}
+		int termh;
+		String name, mkg, term;
+		while (c.next()) {
+			name = symbols.get(c.get(0));
+			mkg = withMkg ? text(placeMarkings, c.get(1)) : null;
+			termh = withMkg ? placeTerms.get(c.get(1), -1) : -1;
+			term = terms.text(termh);
+			progress.tick();
+			for (Output o : outs) {
+				if (o.bin != null) {
+					o.bin.place(name, c.get(1), mkg != null
+							&& o.opts.isOutputMarkings() ? Integer.parseInt(mkg)
+							: 0, o.opts.isOutputMarkings() ? termh : -1, term);
+					continue;
+				}
+				o.enc.repeat(TAB, tabulation).append(name);
+				if (mkg != null && o.opts.isOutputMarkings()) {
+					o.enc.append(WS).append(HK).append(mkg);
+				} else if (term != null && o.opts.isOutputMarkings()) {
+					o.enc.append(WS).append(HK).append(term);
+				}
+				o.enc.append(NL);
+			}
+		}
+	}
+
+	/**
+	 * @return the marking or inscription of a node or arc, null if it has
+	 *         none
+	 */
+	private String text(IntIntHashMap map, int id) {
+		int h = map.get(id, -1);
+		return h >= 0 ? symbols.get(h) : null;
+	}
+
+	/**
+	 * Appends a line made of a keyword and its argument, if any, to some
+	 * outputs. It opens a node of their fingerprints, to be closed with
+	 * {@link #close(List)}.
+	 * 
+	 * @param outs
+	 * @param keyword
+	 * @param arg
+	 *            null if none
+	 * @throws InterruptedException
+	 */
+	private void header(List<Output> outs, String keyword, String arg)
+			throws InterruptedException {
+		header(outs, keyword, arg, 0L, 0L);
+	}
+
+	/**
+	 * @see #header(List, String, String)
+	 * @param count
+	 *            number of lines of a section
+	 * @param firstRun
+	 *            number of them in its first sorted run, before the nodes
+	 *            without names
+	 */
+	private void header(List<Output> outs, String keyword, String arg,
+			long count, long firstRun) throws InterruptedException {
+		for (Output o : outs) {
+			o.enc.open(keyword, arg);
+			if (o.bin != null) {
+				binaryHeader(o.bin, keyword, arg, count, firstRun);
+				continue;
+			}
+			o.enc.repeat(TAB, tabulation).append(keyword);
+			if (arg != null) {
+				o.enc.append(WS).append(arg);
+			}
+			o.enc.append(NL);
+		}
+	}
+
+	/**
+	 * Closes the last node opened by {@link #header(List, String, String)}
+	 * in the fingerprints of some outputs.
+	 * 
+	 * @param outs
+	 */
+	private void close(List<Output> outs) throws InterruptedException {
+		for (Output o : outs) {
+			if (o.bin != null) {
+				o.bin.endSection();
+			}
+			o.enc.close();
+		}
+	}
+
+	private void binaryHeader(BinarySortedWriter bin, String keyword,
+			String arg, long count, long firstRun)
+			throws InterruptedException {
+		switch (keyword) {
+		case NET:
+			bin.net(arg);
+			break;
+		case PAGE:
+			bin.page(arg, tabulation);
+			break;
+		case PLACES:
+			bin.section(BinarySortedWriter.SECTION_PLACES, count, firstRun);
+			break;
+		case TRANSITIONS:
+			bin.section(BinarySortedWriter.SECTION_TRANSITIONS, count,
+					firstRun);
+			break;
+		default:
+			bin.section(BinarySortedWriter.SECTION_ARCS, count, firstRun);
+			break;
+		}
+	}
+
+	private void logRuns(ExternalSortBuffer elem, String section, String page) {
+		if (elem.getRunCount() > 0) {
+			journal.info("Merging {} sorted runs spilled to disk for {} of page {}.",
+					elem.getRunCount() + 1, section, page);
+		}
+	}
+
+	/**
+	 * Creates an empty model, ready to index a new document.
+	 */
+	final void initDataTypes() {
+		isPTNet = false;
+		isSNNet = false;
+		hasKnownNetType = false;
+		netsList = new ArrayList<>();
+		netPages = new HashMap<>();
+		pagePlaces = new HashMap<>();
+		pagePlacesById = new HashMap<>();
+		pageTrans = new HashMap<>();
+		pageTransById = new HashMap<>();
+		pageArcs = new HashMap<>();
+		pageSubPages = new HashMap<>();
+		symbols = new SymbolTable();
+		nodeLabels = new NodeLabels();
+		warnings.clear();
+		plWithoutName = new HashMap<>();
+		trWithoutName = new HashMap<>();
+		placeMarkings = new IntIntHashMap();
+		arcInscriptions = new IntIntHashMap();
+		terms = new TermStore();
+		placeTerms = new IntIntHashMap();
+		arcTerms = new IntIntHashMap();
+		tabulation = 0;
+	}
+
+	final void clearAllCollections() {
+		if (netsList == null) {
+			return;
+		}
+		netsList.clear();
+		netPages.clear();
+		clearBuffers(pagePlaces);
+		clearBuffers(pagePlacesById);
+		clearBuffers(pageTrans);
+		clearBuffers(pageTransById);
+		clearBuffers(pageArcs);
+		pageSubPages.clear();
+		nodeLabels.clear();
+		clearBuffers(plWithoutName);
+		clearBuffers(trWithoutName);
+		placeMarkings.clear();
+		arcInscriptions.clear();
+		terms.clear();
+		placeTerms.clear();
+		arcTerms.clear();
+		symbols.clear();
+		ranks = null;
+		tabulation = 0;
+	}
+
+	/**
+	 * Releases the buffers of a map, deleting the runs they spilled to disk.
+	 * 
+	 * @param map
+	 */
+	private static void clearBuffers(Map<String, ExternalSortBuffer> map) {
+		for (ExternalSortBuffer b : map.values()) {
+			b.close();
+		}
+		map.clear();
+	}
+
+	/**
+	 * Creates the ring of output buffers on first use, or makes it ready for
+	 * a new document.
+	 */
+	private void initRing(Output o) {
+		if (o.ring == null) {
+			o.ring = new ByteBufferRing(PNMLSortUtils.RING_BUFFERS,
+					PNMLSortUtils.RING_BUFFERSIZE);
+			o.enc = new OutputEncoder(o.ring);
+		} else {
+			o.enc.abort();
+			o.ring.reset();
+		}
+		if (options.isBinaryOutput() && o.bin == null) {
+			o.bin = new BinarySortedWriter(o.enc);
+		}
+		if (!options.isFingerprint()) {
+			o.enc.setFingerprint(null);
+		} else if (o.enc.getFingerprint() == null) {
+			o.enc.setFingerprint(new Fingerprint());
+		}
+	}
+
+	/**
+	 * Normal stop of a writer.
+	 *
+	 * @param ring
+	 * @throws InterruptedException
+	 */
+	private void stopWriter(ByteBufferRing ring) throws InterruptedException {
+		ring.stop();
+	}
+
+	/**
+	 * Closes an output channel.
+	 *
+	 * @param cb
+	 * @throws IOException
+	 */
+	private void closeChannel(OutChannelBean cb) throws IOException {
+		PNMLSortUtils.closeOutChannel(cb);
+	}
+
+	private void cancelWriter(Output o) throws InterruptedException {
+		if (o.ring != null && o.writer != null) {
+			o.enc.abort();
+			o.ring.cancel();
+			// The ring must be idle before it is reused.
+			o.writer.join();
+			o.writer = null;
+		}
+	}
+
+	/**
+	 * Deletes an output file.
+	 *
+	 * @param oFile
+	 */
+	private void deleteOutputFile(File oFile) {
+		if (oFile != null && oFile.exists()) {
+			oFile.delete();
+		}
+	}
+
+	private void emergencyStop(File outFile) throws InterruptedException,
+			IOException {
+		for (Output o : outputs) {
+			cancelWriter(o);
+		}
+		for (Output o : outputs) {
+			closeChannel(o.ocb);
+			deleteOutputFile(o.file);
+			o.ocb = null;
+			o.file = null;
+		}
+		journal.error("Emergency stop. Cancelled the translation and released opened resources.");
+	}
+
+	private void incrementTab() {
+		tabulation++;
+	}
+
+	private void decrementTab() {
+		tabulation--;
+	}
+
+	/**
+	 * A sorted output, with its own options, file, ring and writer.
+	 */
+	private static final class Output {
+		/**
+		 * Name of the variant, null for a single output.
+		 */
+		private final String variant;
+		private final SortOptions opts;
+		private File file;
+		private OutChannelBean ocb;
+		private ByteBufferRing ring;
+		private OutputEncoder enc;
+		/**
+		 * Null for a text output.
+		 */
+		private BinarySortedWriter bin;
+		private Thread writer;
+		private SortMetrics writerMetrics;
+
+		Output(String variant, SortOptions opts) {
+			this.variant = variant;
+			this.opts = opts;
+		}
+	}
+
+	/**
+	 * Sorts a section, in a thread of the sort pool.
+	 */
+	private final class SectionSort implements
+			Callable<ExternalSortBuffer.Cursor> {
+		private final ExternalSortBuffer buf;
+
+		SectionSort(ExternalSortBuffer buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public ExternalSortBuffer.Cursor call() throws IOException {
+			return buf.sort(ranks, sortPool);
+		}
+	}
+
+	/**
+	 * Cursors over the sorted sections of a page, indexed by section.
+	 */
+	private static final class SortedSections implements Closeable {
+		private final ExternalSortBuffer.Cursor[] cursors = new ExternalSortBuffer.Cursor[SECTIONS];
+
+		@Override
+		public void close() throws IOException {
+			IOException error = null;
+			for (ExternalSortBuffer.Cursor c : cursors) {
+				try {
+					if (c != null) {
+						c.close();
+					}
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+}
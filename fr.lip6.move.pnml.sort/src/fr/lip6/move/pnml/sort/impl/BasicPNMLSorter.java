@@ -19,26 +19,19 @@ package fr.lip6.move.pnml.sort.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-
-import javax.xml.bind.ValidationException;
 
 import org.slf4j.LoggerFactory;
 
-import com.ximpleware.extended.AutoPilotHuge;
+import com.ximpleware.extended.IByteBuffer;
 import com.ximpleware.extended.NavExceptionHuge;
 import com.ximpleware.extended.ParseExceptionHuge;
-import com.ximpleware.extended.VTDGenHuge;
 import com.ximpleware.extended.VTDNavHuge;
 import com.ximpleware.extended.XMLMemMappedBuffer;
-import com.ximpleware.extended.XPathEvalExceptionHuge;
-import com.ximpleware.extended.XPathParseExceptionHuge;
 
 import fr.lip6.move.pnml.sort.MainPNMLSort;
 import fr.lip6.move.pnml.sort.exceptions.InternalException;
@@ -46,575 +39,400 @@ import fr.lip6.move.pnml.sort.exceptions.InvalidPNMLTypeException;
 import fr.lip6.move.pnml.sort.exceptions.PNMLSortException;
 import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
 
-public final class BasicPNMLSorter implements PNMLSorter {
-	private static final String CANCEL = "CANCEL";
-	private static final String NL = "\n";
-	private static final String TAB = "\t";
-	private static final String STOP = "STOP";
-	private static final String NET = "NET";
-	private static final String PAGE = "PAGE";
-	private static final String PLACES = "PLACES";
-	private static final String TRANSITIONS = "TRANSITIONS";
-	private static final String ARCS = "ARCS";
-	private static final String WS = " ";
-	private static final String HK = "#";
-
-	private File currentInputFile;
-	private org.slf4j.Logger journal;
-	private File outPSFile;
-	private OutChannelBean ocbPS;
-	private BlockingQueue<String> psQueue;
-
-	/**
-	 * Net names.
-	 */
-	private List<String> netsList;
-	/**
-	 * key: net name value: list of page ids
-	 */
-	private Map<String, List<String>> netPages;
-	/**
-	 * key: page id value: list of place names
-	 */
-	private Map<String, List<String>> pagePlaces;
-	/**
-	 * key: page id value: list of transition names
-	 */
-	private Map<String, List<String>> pageTrans;
-	/**
-	 * key: page id value: list of arc ids
-	 */
-	private Map<String, List<String>> pageArcs;
-	/**
-	 * key: page id value: list of page ids
-	 */
-	private Map<String, List<String>> pageSubPages;
-	/**
-	 * key: arc id value: array of source and target id
-	 */
-	private Map<String, String[]> arcSrcTrg;
+/**
+ * Sorter which memory-maps the PNML document and reads its VTD index, in a
+ * single pass over its tokens.
+ * 
+ * A document held in memory is parsed in place. A document read from a
+ * stream is first read into memory, in an array kept for the next one.
+ * 
+ * @author lom
+ *
+ */
+public final class BasicPNMLSorter extends AbstractPNMLSorter {
 
-	// To look for arc sources and target
+	private static final int READ_CHUNK = 64 * 1024;
 	/**
-	 * key: place name; value: place id
+	 * Documents held in memory, and the bytes of those read from streams. The
+	 * latter are only kept from one document to the next while they fit in
+	 * the first chunk.
 	 */
-	private Map<String, String> plNameId;
-
-	private List<String> plWithoutName;
+	private final ByteBufferDocument doc;
+	private byte[] streamBytes;
 	/**
-	 * key: transition name; value transition id
+	 * Navigator over the document being indexed, the token being read and the
+	 * number of tokens of the document.
 	 */
-	private Map<String, String> trNameId;
-
-	private List<String> trWithoutName;
+	private VTDNavHuge nav;
+	private int tok;
+	private int tokenCount;
 
-	private StringBuilder tabulation, netOutput;
-	private boolean isPTNet;
-	private boolean isSNNet;
 	/**
-	 * key = place id; value = place marking
-	 */
-	private Map<String, String> placeMarkings;
-	/**
-	 * key = arc id; value = arc inscription
+	 * Creates a sorter working on its own copy of the options passed as
+	 * parameter. A sorter must not be shared among concurrent threads.
+	 * 
+	 * @param options
 	 */
-	private Map<String, String> arcInscriptions;
+	public BasicPNMLSorter(SortOptions options) {
+		super(options);
+		this.doc = new ByteBufferDocument();
+	}
 
-	public void sortPNML(File inFile, File outFile) throws PNMLSortException,
-			IOException {
-		journal = LoggerFactory.getLogger(BasicPNMLSorter.class
-				.getCanonicalName());
-		isPTNet = false;
-		isSNNet = false;
+	@Override
+	protected void indexPNMLDocument(File inFile) throws PNMLSortException,
+			IOException, InterruptedException {
+		if (PNMLSortUtils.isCompressed(inFile.getName())) {
+			throw new PNMLSortException(inFile.getName()
+					+ ": compressed documents are only read by the streaming sorter.");
+		}
 		try {
-			this.currentInputFile = inFile;
-			journal.info("Checking preconditions on input file format: {} ",
-					inFile.getCanonicalPath());
-			PNMLSortUtils.checkIsPnmlFile(inFile);
-
-			journal.info("Exporting into Sorted PNML: {}",
-					inFile.getCanonicalPath());
-
-			sortPNMLDocument(inFile, outFile);
-
-		} catch (ValidationException
-				| fr.lip6.move.pnml.sort.exceptions.InvalidFileTypeException
-				| fr.lip6.move.pnml.sort.exceptions.InvalidFileException
-				| InternalException | XPathEvalExceptionHuge e) {
-			// journal.error(e.getMessage());
-			// MainPNML2BPN.printStackTrace(e);
+			indexPNMLDocument(parseDocument(inFile, getMetrics(),
+					options.isVtdIndex()));
+		} catch (ParseExceptionHuge e) {
 			throw new PNMLSortException(e);
-		} catch (IOException | InterruptedException e) {
-			try {
-				throw e;
-			} catch (Exception e1) {
-				e1.printStackTrace();
-				throw new PNMLSortException(e.getCause());
-			}
 		}
 	}
 
-	private void sortPNMLDocument(File inFile, File outFile)
-			throws InterruptedException, IOException, PNMLSortException,
-			XPathEvalExceptionHuge {
-		XMLMemMappedBuffer xb = new XMLMemMappedBuffer();
-		VTDGenHuge vg = new VTDGenHuge();
-
+	@Override
+	protected void indexPNMLDocument(ByteBuffer in) throws PNMLSortException,
+			IOException, InterruptedException {
+		doc.set(in);
 		try {
-			xb.readFile(inFile.getCanonicalPath());
-			vg.setDoc(xb);
-			vg.parse(true);
-			VTDNavHuge vn = vg.getNav();
-			AutoPilotHuge ap = new AutoPilotHuge(vn);
-
-			checkNetType(ap, vn);
-
-			if (!isPTNet && !isSNNet) {
-				journal.warn("For now I support P/T and Symmetric nets. For the rest, I will do my best.");
-			}
-
-			outPSFile = new File(PNMLSortUtils.extractBaseName(outFile
-					.getCanonicalPath()) + MainPNMLSort.SORT_EXT);
-			// Channels for sorted objects
-			ocbPS = PNMLSortUtils.openOutChannel(outFile);
-			// Queues for sorted PNML objects
-			psQueue = initQueue();
-
-			// Start writer
-			Thread psWriter = startWriter(ocbPS, psQueue);
-			// Init data types
-			initDataTypes();
-			journal.info(
-					"Exporting sorted Petri net(s)' objects from PNML document {}.",
-					inFile.getCanonicalPath());
-			sortPNMLDocument(ap, vn, psQueue);
-			// Stop Writers
-			stopWriter(psQueue);
-			psWriter.join();
-			// Close channels
-			closeChannel(ocbPS);
-			// clear maps
-			clearAllCollections();
-			journal.info("See file: {}", outPSFile.getCanonicalPath());
-
-		} catch (NavExceptionHuge | XPathParseExceptionHuge
-				| ParseExceptionHuge | InternalException
-				| InvalidPNMLTypeException e) {
-			emergencyStop(outFile);
+			indexPNMLDocument(parseDocument(doc, getMetrics()));
+		} catch (ParseExceptionHuge e) {
 			throw new PNMLSortException(e);
-		} catch (InterruptedException e) {
-			emergencyStop(outFile);
-			throw e;
-		} catch (IOException e) {
-			emergencyStop(outFile);
-			throw e;
+		} finally {
+			doc.set(null);
 		}
 	}
 
-	private void sortPNMLDocument(AutoPilotHuge ap, VTDNavHuge vn,
-			BlockingQueue<String> psQueue2) throws InvalidPNMLTypeException,
-			InternalException, NavExceptionHuge, XPathParseExceptionHuge,
-			XPathEvalExceptionHuge, InterruptedException {
-		vn.toElement(VTDNavHuge.ROOT);
-		ap.selectXPath(PNMLPaths.NETS_NAME);
-		String name, id;
-		List<String> elem;
-		while ((ap.evalXPath()) != -1) {
-			vn.push();
-			name = vn.toString(vn.getText()).trim();
-			netsList.add(name);
-			vn.toElement(VTDNavHuge.PARENT);
-			vn.toElement(VTDNavHuge.PARENT);
-			vn.toElement(VTDNavHuge.FIRST_CHILD);
-			while (!vn.matchElement("page")) {
-				vn.toElement(VTDNavHuge.NEXT_SIBLING);
-			}
-			id = vn.toString(vn.getAttrVal(PNMLPaths.ID_ATTR));
-			if (id != null) {
-				elem = netPages.get(name);
-				if (elem == null) {
-					elem = new ArrayList<>();
-					netPages.put(name, elem);
+	@Override
+	protected void indexPNMLDocument(InputStream in) throws PNMLSortException,
+			IOException, InterruptedException {
+		long t = System.nanoTime();
+		if (streamBytes == null) {
+			streamBytes = new byte[READ_CHUNK];
+		}
+		int size = 0, n;
+		try {
+			while ((n = in.read(streamBytes, size, streamBytes.length - size)) >= 0) {
+				size += n;
+				if (size == streamBytes.length) {
+					streamBytes = Arrays.copyOf(streamBytes,
+							PNMLSortUtils.grow(size));
 				}
-				elem.add(id);
-			} else {
-				throw new InvalidPNMLTypeException(
-						"This net has no inner page. It is not standard-compliant.");
-			}
-			if (vn.toElement(VTDNavHuge.FIRST_CHILD)) {
-				determineNode(id, vn);
 			}
-			while (vn.toElement(VTDNavHuge.NEXT_SIBLING)) {
-				determineNode(id, vn);
+			getMetrics().add(SortMetrics.Phase.READ, System.nanoTime() - t);
+			getMetrics().setInputBytes(size);
+			indexPNMLDocument(ByteBuffer.wrap(streamBytes, 0, size));
+		} finally {
+			if (streamBytes.length > READ_CHUNK) {
+				streamBytes = null;
 			}
-			vn.pop();
 		}
-		ap.resetXPath();
-		vn.toElement(VTDNavHuge.ROOT);
-		sortNOutputNets();
 	}
 
-	private void sortNOutputNets() throws InterruptedException {
-		Collections.sort(netsList);
-		journal.info("Exporting sorted nets.");
-		for (String net : netsList) {
-			journal.info("Exporting net {}.", net);
-			netOutput.append(NET).append(WS).append(net).append(NL);
-			psQueue.put(netOutput.toString());
-			netOutput.delete(0, netOutput.length());
-			sortNOutputPages(net);
+	/**
+	 * Indexes the document in a single depth-first pass over its tokens, which
+	 * detects the type of each net, finds its name and indexes its pages.
+	 * 
+	 * @param vn
+	 * @throws PNMLSortException
+	 * @throws IOException
+	 */
+	void indexPNMLDocument(VTDNavHuge vn) throws PNMLSortException,
+			IOException {
+		moveTo(vn, vn.getRootIndex());
+		int depth = vn.getTokenDepth(tok);
+		try {
+			if (matchElement(PNMLPaths.PNML)) {
+				while (nextChild(depth)) {
+					if (matchElement(PNMLPaths.NET)) {
+						parseNet();
+					}
+				}
+			}
+		} catch (NavExceptionHuge | InternalException
+				| InvalidPNMLTypeException e) {
+			throw new PNMLSortException(e);
+		} finally {
+			nav = null;
 		}
 	}
 
-	private void sortNOutputPages(String net) throws InterruptedException {
-		List<String> pgs = netPages.get(net);
-		if (pgs != null) {
-			journal.info("Exporting sorted pages from net {}.", net);
-			Collections.sort(pgs);
-			incrementTab();
-			for (String page : pgs) {
-				netOutput.append(tabulation).append(PAGE).append(WS)
-						.append(page).append(NL);
-				psQueue.put(netOutput.toString());
-				netOutput.delete(0, netOutput.length());
-				sortNOutputPlaces(page);
-				sortNOutputTransitions(page);
-				sortNOutputArcs(page);
-				sortNOutputSubPages(page);
-			}
-			decrementTab();
-		} else {
-			journal.info("No sub-pages to export from net {}.", net);
-		}
+	@Override
+	protected long getInputPosition() {
+		return nav != null ? nav.getTokenOffset(tok) : -1L;
 	}
 
-	private void sortNOutputSubPages(String page) throws InterruptedException {
-		List<String> pgs = pageSubPages.get(page);
-		if (pgs != null) {
-			journal.info("Exporting sorted sub-pages from page {}.", page);
-			Collections.sort(pgs);
-			incrementTab();
-			for (String pg : pgs) {
-				netOutput.append(tabulation).append(PAGE).append(WS).append(pg)
-						.append(NL);
-				psQueue.put(netOutput.toString());
-				netOutput.delete(0, netOutput.length());
-				sortNOutputPlaces(pg);
-				sortNOutputTransitions(pg);
-				sortNOutputArcs(pg);
-				sortNOutputSubPages(pg);
-			}
-			decrementTab();
-		} else {
-			journal.info("No sub-pages to export from page {}.", page);
-		}
+	/**
+	 * Memory-maps the document and builds its VTD index.
+	 * 
+	 * @param inFile
+	 * @return the navigator over the document, positioned on its root
+	 * @throws IOException
+	 * @throws ParseExceptionHuge
+	 */
+	static VTDNavHuge parseDocument(File inFile) throws IOException,
+			ParseExceptionHuge {
+		return parseDocument(inFile, new SortMetrics(), false);
 	}
 
-	private void sortNOutputArcs(String page) throws InterruptedException {
-		if (MainPNMLSort.isExcludeArcs()) {
-			return;
-		}
-		List<String> arcs = pageArcs.get(page);
-		String insc;
-		if (arcs != null) {
-			journal.info("Exporting sorted arcs from page {}", page);
-			Collections.sort(arcs);
-			incrementTab();
-			netOutput.append(tabulation).append(ARCS).append(NL);
-			incrementTab();
-			String[] st;
-			for (String id : arcs) {
-				st = arcSrcTrg.get(id);
-				netOutput.append(tabulation).append(findSrcOrTrgNode(st[0]))
-						.append(WS).append(id).append(WS)
-						.append(findSrcOrTrgNode(st[1]));
-				if (isPTNet && MainPNMLSort.isOutputInscriptions()) {
-					insc = arcInscriptions.get(id);
-					if (insc != null) {
-						netOutput.append(WS).append(HK).append(insc);
-					}
-				}
-				netOutput.append(NL);
+	/**
+	 * Same as {@link #parseDocument(File)}, recording the time spent mapping
+	 * and parsing the document.
+	 * 
+	 * @param inFile
+	 * @param metrics
+	 * @param useSidecar
+	 *            if true, the VTD index is loaded from the sidecar of the
+	 *            document when it is up to date, and saved there otherwise.
+	 * @return the navigator over the document, positioned on its root
+	 * @throws IOException
+	 * @throws ParseExceptionHuge
+	 */
+	static VTDNavHuge parseDocument(File inFile, SortMetrics metrics,
+			boolean useSidecar) throws IOException, ParseExceptionHuge {
+		XMLMemMappedBuffer xb = new XMLMemMappedBuffer();
+		long size = inFile.length();
+		long mtime = inFile.lastModified();
+		long t = System.nanoTime();
+		xb.readFile(inFile.getCanonicalPath());
+		metrics.add(SortMetrics.Phase.READ, System.nanoTime() - t);
+		t = System.nanoTime();
+		VTDNavHuge vn = useSidecar ? VTDIndexSidecar.load(inFile, size,
+				mtime, xb) : null;
+		if (vn == null) {
+			VTDIndexSidecar.Gen vg = new VTDIndexSidecar.Gen();
+			vg.setDoc(xb);
+			vg.parse(true);
+			if (useSidecar) {
+				storeSidecar(vg, inFile, size, mtime);
 			}
-			psQueue.put(netOutput.toString());
-			netOutput.delete(0, netOutput.length());
-			decrementTab();
-			decrementTab();
-		} else {
-			journal.info("No arcs to export from page {}.", page);
+			vn = vg.getNav();
 		}
+		metrics.add(SortMetrics.Phase.PARSE, System.nanoTime() - t);
+		return vn;
 	}
 
-	private String findSrcOrTrgNode(String id) {
-		String node = plNameId.get(id);
-		if (node == null) {
-			node = trNameId.get(id);
-		}
-		// FIXME: null should never happen...
-		return node;
+	/**
+	 * Builds the VTD index of a document held in memory.
+	 * 
+	 * @param xml
+	 * @param metrics
+	 *            where the time spent parsing is recorded
+	 * @return the navigator over the document, positioned on its root
+	 * @throws ParseExceptionHuge
+	 */
+	static VTDNavHuge parseDocument(IByteBuffer xml, SortMetrics metrics)
+			throws ParseExceptionHuge {
+		long t = System.nanoTime();
+		VTDIndexSidecar.Gen vg = new VTDIndexSidecar.Gen();
+		vg.setDoc(xml);
+		vg.parse(true);
+		metrics.add(SortMetrics.Phase.PARSE, System.nanoTime() - t);
+		return vg.getNav();
 	}
 
-	private void sortNOutputTransitions(String page)
-			throws InterruptedException {
-		if (MainPNMLSort.isExcludeTrans()) {
-			return;
-		}
-		List<String> transitions = pageTrans.get(page);
-		if (transitions != null) {
-			journal.info("Exporting sorted transitions from page {}", page);
-			if (!MainPNMLSort.isSortOnId()) {
-				journal.warn("Attention: if a transition does not have a name, its id will be used instead.");
-				Collections.sort(transitions);
-				incrementTab();
-				netOutput.append(tabulation).append(TRANSITIONS).append(NL);
-				incrementTab();
-				for (String tr : transitions) {
-					netOutput.append(tabulation).append(tr).append(NL);
-				}
-				// Are there any transition left without name?
-				if (!trWithoutName.isEmpty()) {
-					Collections.sort(trWithoutName);
-					journal.warn("There are transitions without name. Sorting their ids AFTER the names.");
-					for (String tr : trWithoutName) {
-						netOutput.append(tabulation).append(tr).append(NL);
-					}
-				}
-			} else {
-				transitions = new ArrayList<String>(trNameId.values());
-				transitions.addAll(trWithoutName);
-				Collections.sort(transitions);
-				for (String tr : transitions) {
-					netOutput.append(tabulation).append(tr).append(NL);
-				}
-			}
-			// TODO: handle transition conditions
-			psQueue.put(netOutput.toString());
-			netOutput.delete(0, netOutput.length());
-			decrementTab();
-			decrementTab();
-		} else {
-			journal.info("No transitions to export from page {}.", page);
+	/**
+	 * Saves the VTD index of a document. Failing to do so does not prevent
+	 * the sort.
+	 */
+	private static void storeSidecar(VTDIndexSidecar.Gen vg, File inFile,
+			long size, long mtime) {
+		try {
+			vg.store(inFile, size, mtime);
+		} catch (IOException e) {
+			LoggerFactory.getLogger(BasicPNMLSorter.class.getCanonicalName())
+					.warn("Could not save the VTD index of {}: {}", inFile,
+							e.getMessage());
+			MainPNMLSort.printStackTrace(e);
 		}
 	}
 
-	private void sortNOutputPlaces(String page) throws InterruptedException {
-		if (MainPNMLSort.isExcludePlaces()) {
+	/**
+	 * Indexes the current net element. Its pages are registered once its name
+	 * is known, since the name is not necessarily the first child of the net.
+	 */
+	private void parseNet() throws NavExceptionHuge, InternalException,
+			InvalidPNMLTypeException, IOException {
+		int depth = nav.getTokenDepth(tok);
+		String name = null, id;
+		List<String> pages = new ArrayList<>();
+		setNetType(findAttr(PNMLPaths.TYPE_ATTR));
+		while (nextChild(depth)) {
+			if (name == null && matchElement(PNMLPaths.NAME)) {
+				name = findText();
+			} else if (matchElement(PNMLPaths.PAGE)) {
+				id = findAttr(PNMLPaths.ID_ATTR);
+				pages.add(id);
+				parsePageContents(id);
+			}
+		}
+		if (name == null) {
+			// Nets without name are not reported.
 			return;
 		}
-		List<String> places = pagePlaces.get(page);
-		String mkg;
-		if (places != null) {
-
-			journal.info("Exporting sorted places from page {}", page);
-			if (!MainPNMLSort.isSortOnId()) {
-				journal.warn("Attention: if a place does not have a name, its id will be used instead.");
-				Collections.sort(places);
-				incrementTab();
-				netOutput.append(tabulation).append(PLACES).append(NL);
-				incrementTab();
-				for (String pl : places) {
-					netOutput.append(tabulation).append(pl);
-					if (isPTNet && MainPNMLSort.isOutputMarkings()) {
-						mkg = placeMarkings.get(plNameId.get(pl));
-						if (mkg != null) {
-							netOutput.append(WS).append(HK).append(mkg);
-						}
-					}
-					netOutput.append(NL);
-				}
-				// Are there any left places without names?
-				if (!plWithoutName.isEmpty()) {
-					Collections.sort(plWithoutName);
-					journal.warn("There are places without name. Sorting their ids AFTER the names.");
-					for (String pl : plWithoutName) {
-						netOutput.append(tabulation).append(pl);
-						if (isPTNet && MainPNMLSort.isOutputMarkings()) {
-							mkg = placeMarkings.get(pl);
-							if (mkg != null) {
-								netOutput.append(WS).append(HK).append(mkg);
-							}
-						}
-						netOutput.append(NL);
-					}
-				}
-			} else {
-				places = new ArrayList<String>(plNameId.values());
-				places.addAll(plWithoutName);
-				Collections.sort(places);
-				for (String pl : places) {
-					netOutput.append(tabulation).append(pl);
-					if (isPTNet && MainPNMLSort.isOutputMarkings()) {
-						mkg = placeMarkings.get(pl);
-						if (mkg != null) {
-							netOutput.append(WS).append(HK).append(mkg);
-						}
-					}
-					netOutput.append(NL);
-				}
+		if (pages.isEmpty()) {
+			throw new InvalidPNMLTypeException(
+					"This net has no inner page. It is not standard-compliant.");
+		}
+		addNet(name);
+		for (String pg : pages) {
+			addPage(name, pg);
+		}
+	}
 
-			}
-			psQueue.put(netOutput.toString());
-			netOutput.delete(0, netOutput.length());
-			decrementTab();
-			decrementTab();
-		} else {
-			journal.info("No places to export from page {}.", page);
+	/**
+	 * Indexes the children of the current page element.
+	 */
+	private void parsePageContents(String id) throws NavExceptionHuge,
+			InternalException, InvalidPNMLTypeException, IOException {
+		int depth = nav.getTokenDepth(tok);
+		while (nextChild(depth)) {
+			determineNode(id);
 		}
 	}
 
-	private void determineNode(String pageId, VTDNavHuge vn)
-			throws InternalException, InvalidPNMLTypeException,
-			NavExceptionHuge {
-		if (vn.matchElement(PNMLPaths.PLACE)) {
-			parseNode(pageId, vn, NodeType.PLACE);
-		} else if (vn.matchElement(PNMLPaths.TRANSITION)) {
-			parseNode(pageId, vn, NodeType.TRANSITION);
-		} else if (vn.matchElement(PNMLPaths.ARC)) {
-			parseArc(pageId, vn);
-		} else if (vn.matchElement(PNMLPaths.PAGE)) {
-			parsePage(pageId, vn);
-		} else if (vn.matchElement(PNMLPaths.REF_PLACE)) {
+	void determineNode(String pageId) throws InternalException,
+			InvalidPNMLTypeException, NavExceptionHuge, IOException {
+		if (matchElement(PNMLPaths.PLACE)) {
+			parseNode(pageId, NodeType.PLACE);
+		} else if (matchElement(PNMLPaths.TRANSITION)) {
+			parseNode(pageId, NodeType.TRANSITION);
+		} else if (matchElement(PNMLPaths.ARC)) {
+			parseArc(pageId);
+		} else if (matchElement(PNMLPaths.PAGE)) {
+			parsePage(pageId);
+		} else if (matchElement(PNMLPaths.REF_PLACE)) {
 			// FIXME: throw exception?
-			journal.warn(
-					"I do not yet support reference places.");
-		} else if (vn.matchElement(PNMLPaths.REF_TRANSITION)) {
-			journal.warn(
-					"I do not yet support reference transitions.");
-		} else if (vn.matchElement("name")) {
+			warnRepeated("I do not yet support reference places.");
+		} else if (matchElement(PNMLPaths.REF_TRANSITION)) {
+			warnRepeated("I do not yet support reference transitions.");
+		} else if (matchElement(PNMLPaths.NAME)) {
 			// do nothing; page name does not occur often, so I cannot rely on it.
-			journal.info("Discovered page name. Not processed since I cannot rely on it (i.e it's not mandatory).");
-		} else if (vn.matchElement(PNMLPaths.TOOL_INFO)) {
+			if (isVerbose()) {
+				journal.info("Discovered page name. Not processed since I cannot rely on it (i.e it's not mandatory).");
+			}
+		} else if (matchElement(PNMLPaths.TOOL_INFO)) {
 			// do nothing;
-			journal.info("Discovered toolinfo node. Not processed.");
+			if (isVerbose()) {
+				journal.info("Discovered toolinfo node. Not processed.");
+			}
 		} else {
-			// TODO : find right API to print tag name
 			throw new InvalidPNMLTypeException(
 					"Unknown (or unsupported) PNML node type at this level: "
-							+ vn.toRawString(vn.getCurrentIndex()));
+							+ nav.toRawString(tok));
 		}
 	}
 
-	private void parsePage(String pageId, VTDNavHuge vn)
-			throws NavExceptionHuge, InternalException,
-			InvalidPNMLTypeException {
-		String id = vn.toString(vn.getAttrVal(PNMLPaths.ID_ATTR));
-
-		List<String> elem = pageSubPages.get(id);
-		if (elem == null) {
-			elem = new ArrayList<>();
-			pageSubPages.put(id, elem);
-		}
-		elem.add(id);
+	private void parsePage(String pageId) throws NavExceptionHuge,
+			InternalException, InvalidPNMLTypeException, IOException {
+		String id = findAttr(PNMLPaths.ID_ATTR);
+		addSubPage(pageId, id);
+		parsePageContents(id);
+	}
 
-		if (vn.toElement(VTDNavHuge.FIRST_CHILD)) {
-			determineNode(id, vn);
-		}
-		while (vn.toElement(VTDNavHuge.NEXT_SIBLING)) {
-			determineNode(id, vn);
+	void parseArc(String pageId) throws NavExceptionHuge, IOException {
+		int depth = nav.getTokenDepth(tok);
+		String id, src, trg;
+		id = findAttr(PNMLPaths.ID_ATTR);
+		src = findAttr(PNMLPaths.SRC_ATTR);
+		trg = findAttr(PNMLPaths.TRG_ATTR);
+		// find inscription
+		String insc = null;
+		int inscTerm = -1;
+		while (nextChild(depth)) {
+			if (matchElement(PNMLPaths.INSCRIPTION)) {
+				insc = findInscription();
+			} else if (matchElement(PNMLPaths.HL_INSCRIPTION)) {
+				inscTerm = findTerm();
+			}
 		}
-		vn.toElement(VTDNavHuge.PARENT);
+		addArc(pageId, id, src, trg, insc, inscTerm);
 	}
 
-	private void parseArc(String pageId, VTDNavHuge vn) throws NavExceptionHuge {
-		String id, src, trg;
-		List<String> elem;
-		id = vn.toString(vn.getAttrVal(PNMLPaths.ID_ATTR));
-		src = vn.toString(vn.getAttrVal(PNMLPaths.SRC_ATTR));
-		trg = vn.toString(vn.getAttrVal(PNMLPaths.TRG_ATTR));
-		elem = pageArcs.get(pageId);
-		if (elem == null) {
-			elem = new ArrayList<>();
-			pageArcs.put(pageId, elem);
+	/**
+	 * @return the inscription of the current arc in a P/T net, or null.
+	 * @throws NavExceptionHuge
+	 */
+	private String findInscription() throws NavExceptionHuge {
+		String insc = null;
+		if (isPTNet()) {
+			insc = findText();
+		} else {
+			warnRepeated("I do not handle the inscription of arcs of this net type.");
 		}
-		elem.add(id);
-		String[] st = new String[] { src, trg };
-		arcSrcTrg.put(id, st);
-		// find inscription
-		findInscription(vn, id);
+		return insc;
 	}
 
 	/**
-	 * @param vn
-	 * @param id
+	 * Parses the structure of the current marking or inscription of a
+	 * Symmetric net into the term store.
+	 * 
+	 * @return the handle of the term, or -1 if there is none
 	 * @throws NavExceptionHuge
 	 */
-	private void findInscription(VTDNavHuge vn, String id)
-			throws NavExceptionHuge {
-		String insc;
-		if (vn.toElement(VTDNavHuge.FIRST_CHILD)) {
-			while (!vn.matchElement(PNMLPaths.INSCRIPTION)) {
-				vn.toElement(VTDNavHuge.NEXT_SIBLING);
-			}
-			if (vn.matchElement(PNMLPaths.INSCRIPTION)) {
-				if (isPTNet) {
-					vn.toElement(VTDNavHuge.FIRST_CHILD);
-					while (!vn.matchElement(PNMLPaths.TEXT)) {
-						vn.toElement(VTDNavHuge.NEXT_SIBLING);
-					}
-					insc = vn.toString(vn.getText()).trim();
-					// Default is 1, thus not reported.
-					if (Integer.parseInt(insc) > 1) {
-						arcInscriptions.put(id, insc);
-					}
-					vn.toElement(VTDNavHuge.PARENT);
-				} else if (isSNNet) { // TODO: handle the inscriptions of SNs
-					journal.warn("I do not yet handle the inscription XML tree of arcs in Symmetric nets.");
-				} else {
-					journal.warn("I do not handle the inscription of arcs of this net type.");
+	private int findTerm() throws NavExceptionHuge {
+		if (!isSNNet()) {
+			warnRepeated("I only handle high-level markings and inscriptions in Symmetric nets.");
+			return -1;
+		}
+		int depth = nav.getTokenDepth(tok);
+		int term = -1;
+		try {
+			while (nextChild(depth)) {
+				if (term < 0 && matchElement(PNMLPaths.STRUCTURE)) {
+					term = parseTerm();
 				}
 			}
-			vn.toElement(VTDNavHuge.PARENT);
+		} finally {
+			getTerms().reset();
 		}
+		return term;
 	}
 
-	private void parseNode(String pageId, VTDNavHuge vn, NodeType nt)
-			throws InternalException, NavExceptionHuge {
-		String id, name = null;
-		List<String> elem;
-		boolean foundName = false;
-		id = vn.toString(vn.getAttrVal(PNMLPaths.ID_ATTR));
-		vn.toElement(VTDNavHuge.FIRST_CHILD);
-		while (!vn.matchElement(PNMLPaths.NAME)) {
-			vn.toElement(VTDNavHuge.NEXT_SIBLING);
+	private int parseTerm() throws NavExceptionHuge {
+		TermStore terms = getTerms();
+		int depth = nav.getTokenDepth(tok);
+		String a = findAttr(PNMLPaths.VALUE_ATTR);
+		if (a == null) {
+			a = findAttr(PNMLPaths.DECL_ATTR);
+		}
+		if (a == null) {
+			a = findAttr(PNMLPaths.REFVAR_ATTR);
+		}
+		terms.start(nav.toString(tok), a);
+		while (nextChild(depth)) {
+			parseTerm();
 		}
-		if (vn.matchElement(PNMLPaths.NAME)) {
-			vn.toElement(VTDNavHuge.FIRST_CHILD);
-			while (!vn.matchElement(PNMLPaths.TEXT)) {
-				vn.toElement(VTDNavHuge.NEXT_SIBLING);
+		return terms.end();
+	}
+
+	void parseNode(String pageId, NodeType nt) throws InternalException,
+			NavExceptionHuge, IOException {
+		int depth = nav.getTokenDepth(tok);
+		String id, name = null, mkg = null;
+		int mkgTerm = -1;
+		id = findAttr(PNMLPaths.ID_ATTR);
+		while (nextChild(depth)) {
+			if (name == null && matchElement(PNMLPaths.NAME)) {
+				name = findText();
+			} else if (nt == NodeType.PLACE
+					&& matchElement(PNMLPaths.MARKING)) {
+				mkg = findInitialMarking();
+			} else if (nt == NodeType.PLACE
+					&& matchElement(PNMLPaths.HL_MARKING)) {
+				mkgTerm = findTerm();
 			}
-			name = vn.toString(vn.getText()).trim();
-			foundName = true;
-			// Go back to name tag
-			vn.toElement(VTDNavHuge.PARENT);
 		}
 
 		switch (nt) {
 		case PLACE:
-			elem = pagePlaces.get(pageId);
-			if (elem == null) {
-				elem = new ArrayList<>();
-				pagePlaces.put(pageId, elem);
-			}
-			if (foundName) {
-				elem.add(name);
-				plNameId.put(name, id);
-			} else {
-				plWithoutName.add(id);
-			}
-			findInitialMarking(vn, id);
+			addPlace(pageId, id, name, mkg, mkgTerm);
 			break;
 		case TRANSITION:
-			elem = pageTrans.get(pageId);
-			if (elem == null) {
-				elem = new ArrayList<>();
-				pageTrans.put(pageId, elem);
-			}
-			if (foundName) {
-				elem.add(name);
-				trNameId.put(name, id);
-			} else {
-				trWithoutName.add(id);
-			}
+			addTransition(pageId, id, name);
 			// TODO: find condition
 			break;
 		default:
@@ -622,176 +440,142 @@ public final class BasicPNMLSorter implements PNMLSorter {
 			throw new InternalException("This node type is not supported: "
 					+ nt.name());
 		}
-
-		vn.toElement(VTDNavHuge.PARENT);
 	}
 
 	/**
-	 * @param vn
-	 * @param id
+	 * Returns the trimmed contents of the text child of the current element.
+	 * 
+	 * @return the text, or null if there is no text child
 	 * @throws NavExceptionHuge
 	 */
-	private void findInitialMarking(VTDNavHuge vn, String id)
-			throws NavExceptionHuge {
-		String mkg;
-		// Find initial marking when it is a PT net. See property.
-		while (!vn.matchElement(PNMLPaths.MARKING)) {
-			if (!vn.toElement(VTDNavHuge.NEXT_SIBLING)) {
-				break;
-			}
-		}
-		if (vn.matchElement(PNMLPaths.MARKING)) {
-			if (isPTNet) {
-				vn.toElement(VTDNavHuge.FIRST_CHILD);
-				while (!vn.matchElement(PNMLPaths.TEXT)) {
-					vn.toElement(VTDNavHuge.NEXT_SIBLING);
-				}
-				mkg = vn.toString(vn.getText()).trim();
-				// Default is 0, thus not reported.
-				if (Integer.parseInt(mkg) > 0) {
-					placeMarkings.put(id, mkg);
-				}
-			} else if (isSNNet) { // TODO: handle the marking of SNs
-				journal.warn("I do not yet handle the marking XML tree of places in Symmetric nets.");
-			} else {
-				journal.warn("I do not handle the marking of place of this net type.");
+	private String findText() throws NavExceptionHuge {
+		int depth = nav.getTokenDepth(tok);
+		String text = null;
+		int t;
+		while (nextChild(depth)) {
+			if (text == null && matchElement(PNMLPaths.TEXT)) {
+				t = textToken();
+				text = t < 0 ? null : nav.toString(t).trim();
 			}
 		}
-	}
-
-	private void initDataTypes() {
-		netsList = new ArrayList<>();
-		netPages = new HashMap<>();
-		pagePlaces = new HashMap<>();
-		pageTrans = new HashMap<>();
-		pageArcs = new HashMap<>();
-		pageSubPages = new HashMap<>();
-		plNameId = new HashMap<>();
-		placeMarkings = new HashMap<>();
-		plWithoutName = new ArrayList<>();
-		trNameId = new HashMap<>();
-		trWithoutName = new ArrayList<>();
-		arcSrcTrg = new HashMap<>();
-		arcInscriptions = new HashMap<>();
-		tabulation = new StringBuilder();
-		netOutput = new StringBuilder();
-	}
-
-	private void clearAllCollections() {
-		netsList.clear();
-		netPages.clear();
-		pagePlaces.clear();
-		pageTrans.clear();
-		pageArcs.clear();
-		pageSubPages.clear();
-		plNameId.clear();
-		placeMarkings.clear();
-		plWithoutName.clear();
-		trNameId.clear();
-		trWithoutName.clear();
-		arcSrcTrg.clear();
-		arcInscriptions.clear();
-		tabulation.delete(0, tabulation.length());
-		netOutput.delete(0, netOutput.length());
+		return text;
 	}
 
 	/**
-	 * 
-	 * @return
+	 * @return the initial marking of the current place in a P/T net, or null.
+	 * @throws NavExceptionHuge
 	 */
-	private BlockingQueue<String> initQueue() {
-		BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
-		return queue;
+	private String findInitialMarking() throws NavExceptionHuge {
+		String mkg = null;
+		// Find initial marking when it is a PT net. See property.
+		if (isPTNet()) {
+			mkg = findText();
+		} else {
+			warnRepeated("I do not handle the marking of place of this net type.");
+		}
+		return mkg;
 	}
 
 	/**
+	 * Moves to the next child element of the element of the given depth, the
+	 * current token being in that element. The tokens of the descendants of
+	 * the children are passed over on their depth alone, so that each token
+	 * of the document is only read once.
 	 * 
-	 * @param ocb
-	 * @param queue
-	 * @return
+	 * @param depth
+	 *            the depth of the parent element
+	 * @return false when the end of the parent element is reached instead;
+	 *         the current token is then its last one.
 	 */
-	private Thread startWriter(OutChannelBean ocb, BlockingQueue<String> queue) {
-		Thread t = new Thread(new SortedPNMLWriter(ocb, queue));
-		t.start();
-		return t;
+	private boolean nextChild(int depth) {
+		int d;
+		for (int i = tok + 1; i < tokenCount; i++) {
+			d = nav.getTokenDepth(i);
+			if (d > depth + 1) {
+				continue;
+			}
+			if (nav.getTokenType(i) == VTDNavHuge.TOKEN_STARTING_TAG) {
+				if (d == depth + 1) {
+					tok = i;
+					return true;
+				} else if (d <= depth) {
+					tok = i - 1;
+					return false;
+				}
+			} else if (d < depth) {
+				tok = i - 1;
+				return false;
+			}
+		}
+		tok = tokenCount - 1;
+		return false;
 	}
 
 	/**
-	 * Normal stop of a writer.
-	 * 
-	 * @param queue
-	 * @throws InterruptedException
+	 * @return true if the current element has the given name.
+	 * @throws NavExceptionHuge
 	 */
-	private void stopWriter(BlockingQueue<String> queue)
-			throws InterruptedException {
-		queue.put(STOP);
+	private boolean matchElement(String name) throws NavExceptionHuge {
+		return nav.matchRawTokenString(tok, name);
 	}
 
 	/**
-	 * Closes an output channel.
-	 * 
-	 * @param cb
-	 * @throws IOException
+	 * @return the value of the given attribute of the current element, or
+	 *         null if it has no such attribute.
+	 * @throws NavExceptionHuge
 	 */
-	private void closeChannel(OutChannelBean cb) throws IOException {
-		PNMLSortUtils.closeOutChannel(cb);
-	}
-
-	private void cancelWriter(BlockingQueue<String> queue)
-			throws InterruptedException {
-		if (queue != null) {
-			queue.put(CANCEL);
+	private String findAttr(String name) throws NavExceptionHuge {
+		int type;
+		for (int i = tok + 1; i < tokenCount; i += 2) {
+			type = nav.getTokenType(i);
+			if (type == VTDNavHuge.TOKEN_ATTR_NAME) {
+				if (nav.matchRawTokenString(i, name)) {
+					return nav.toString(i + 1);
+				}
+			} else if (type != VTDNavHuge.TOKEN_ATTR_NS) {
+				break;
+			}
 		}
+		return null;
 	}
 
 	/**
-	 * Deletes an output file.
-	 * 
-	 * @param oFile
+	 * @return the index of the first text token of the current element,
+	 *         before any child element, or -1 if there is none.
 	 */
-	private void deleteOutputFile(File oFile) {
-		if (oFile != null && oFile.exists()) {
-			oFile.delete();
-		}
-	}
-
-	private void emergencyStop(File outFile) throws InterruptedException,
-			IOException {
-		cancelWriter(psQueue);
-		closeChannel(ocbPS);
-		deleteOutputFile(outPSFile);
-		journal.error("Emergency stop. Cancelled the translation and released opened resources.");
-	}
-
-	private void incrementTab() {
-		tabulation.append(TAB);
-		// return tabulation.toString();
-	}
-
-	private void decrementTab() {
-		int i = tabulation.lastIndexOf(TAB);
-		tabulation.delete(i, tabulation.length());
-		// return tabulation.toString();
-	}
-
-	private void checkNetType(AutoPilotHuge ap, VTDNavHuge vn)
-			throws XPathParseExceptionHuge, XPathEvalExceptionHuge,
-			NavExceptionHuge {
-		ap.selectXPath(PNMLPaths.NETS_PATH);
-		while ((ap.evalXPath()) != -1) {
-			vn.push();
-			String netType = vn.toString(vn.getAttrVal(PNMLPaths.TYPE_ATTR));
-			journal.info("Discovered net type: {}", netType);
-			if (netType.endsWith(PNMLPaths.PTNET_TYPE)) {
-				isPTNet = true;
-				break;
-			} else if (netType.endsWith(PNMLPaths.SNNET_TYPE)) {
-				isSNNet = true;
+	private int textToken() {
+		int depth = nav.getTokenDepth(tok);
+		int type;
+		for (int i = tok + 1; i < tokenCount; i++) {
+			type = nav.getTokenType(i);
+			switch (type) {
+			case VTDNavHuge.TOKEN_ATTR_NAME:
+			case VTDNavHuge.TOKEN_ATTR_NS:
+			case VTDNavHuge.TOKEN_ATTR_VAL:
+			case VTDNavHuge.TOKEN_COMMENT:
+			case VTDNavHuge.TOKEN_PI_NAME:
+			case VTDNavHuge.TOKEN_PI_VAL:
 				break;
+			case VTDNavHuge.TOKEN_CHARACTER_DATA:
+			case VTDNavHuge.TOKEN_CDATA_VAL:
+				return nav.getTokenDepth(i) == depth ? i : -1;
+			default:
+				return -1;
 			}
-			vn.pop();
 		}
-		ap.resetXPath();
-		vn.toElement(VTDNavHuge.ROOT);
+		return -1;
+	}
+
+	/**
+	 * Positions the indexing on the given element of the document.
+	 * 
+	 * @param vn
+	 * @param index
+	 *            the token of the element
+	 */
+	void moveTo(VTDNavHuge vn, int index) {
+		nav = vn;
+		tokenCount = vn.getTokenCount();
+		tok = index;
 	}
 }
@@ -0,0 +1,244 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Sums up the {@link SortMetrics} of the documents of a batch, which may be
+ * sorted concurrently.
+ * 
+ * @author lom
+ *
+ */
+public final class BatchMetrics implements BatchMetricsMXBean {
+
+	/**
+	 * Name of the batch metrics MBeans, without the key property telling
+	 * batches apart.
+	 */
+	public static final String OBJECT_NAME = "fr.lip6.move.pnml.sort:type=BatchMetrics";
+	/**
+	 * Number of the last registered batch.
+	 */
+	private static final AtomicLong BATCHES = new AtomicLong();
+
+	private final long startTime;
+	private final long[] nanos = new long[SortMetrics.Phase.values().length];
+	private final List<SortMetrics> reports;
+	private final List<Boolean> failures;
+	private long failedFiles;
+	private long cacheHits;
+	private String lastFile;
+	private long nets;
+	private long pages;
+	private long places;
+	private long transitions;
+	private long arcs;
+	private long bytesWritten;
+	private int peakQueueDepth;
+	private long heapHighWater;
+	private ObjectName registered;
+
+	public BatchMetrics() {
+		this.startTime = System.nanoTime();
+		this.reports = new ArrayList<>();
+		this.failures = new ArrayList<>();
+	}
+
+	/**
+	 * Adds the metrics of a document.
+	 * 
+	 * @param m
+	 * @param failed
+	 *            true if the document could not be sorted
+	 */
+	public synchronized void add(SortMetrics m, boolean failed) {
+		reports.add(m);
+		failures.add(failed);
+		if (failed) {
+			failedFiles++;
+		}
+		lastFile = m.getInput();
+		long[] n = m.nanos();
+		for (int i = 0; i < nanos.length; i++) {
+			nanos[i] += n[i];
+		}
+		nets += m.getNets();
+		pages += m.getPages();
+		places += m.getPlaces();
+		transitions += m.getTransitions();
+		arcs += m.getArcs();
+		bytesWritten += m.getBytesWritten();
+		peakQueueDepth = Math.max(peakQueueDepth, m.getPeakQueueDepth());
+		heapHighWater = Math.max(heapHighWater, m.getHeapHighWater());
+	}
+
+	/**
+	 * Counts a document whose sorted output was found in the result cache.
+	 * 
+	 * @param input
+	 */
+	public synchronized void addCacheHit(String input) {
+		cacheHits++;
+		lastFile = input;
+	}
+
+	/**
+	 * Writes the batch totals, followed by the metrics of each document, into
+	 * a JSON file.
+	 * 
+	 * @param f
+	 * @throws IOException
+	 */
+	public void writeJson(File f) throws IOException {
+		SortMetrics.writeJson(f, toJson(new StringBuilder()));
+	}
+
+	public synchronized StringBuilder toJson(StringBuilder sb) {
+		sb.append('{');
+		SortMetrics.field(sb, "files").append(reports.size()).append(',');
+		SortMetrics.field(sb, "failedFiles").append(failedFiles).append(',');
+		SortMetrics.field(sb, "cacheHits").append(cacheHits).append(',');
+		SortMetrics.field(sb, "elapsedMs")
+				.append(SortMetrics.millis(System.nanoTime() - startTime))
+				.append(',');
+		SortMetrics.phasesToJson(sb, nanos).append(',');
+		SortMetrics.countsToJson(sb, nets, pages, places, transitions, arcs)
+				.append(',');
+		SortMetrics.field(sb, "bytesWritten").append(bytesWritten)
+				.append(',');
+		SortMetrics.field(sb, "peakQueueDepth").append(peakQueueDepth)
+				.append(',');
+		SortMetrics.field(sb, "heapHighWaterBytes").append(heapHighWater)
+				.append(',');
+		SortMetrics.field(sb, "documents").append('[');
+		for (int i = 0; i < reports.size(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("\n  ").append('{');
+			SortMetrics.field(sb, "failed").append(failures.get(i))
+					.append(',');
+			SortMetrics.field(sb, "metrics");
+			reports.get(i).toJson(sb).append('}');
+		}
+		return sb.append("\n]}");
+	}
+
+	/**
+	 * Registers this object in the platform MBean server, under its own
+	 * batch number, so that concurrent batches do not replace each other.
+	 * 
+	 * @return the name it is registered under
+	 * @throws JMException
+	 */
+	public synchronized ObjectName register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME + ",batch="
+				+ BATCHES.incrementAndGet());
+		server.registerMBean(this, name);
+		registered = name;
+		return name;
+	}
+
+	/**
+	 * Unregisters this object, if it was registered.
+	 * 
+	 * @throws JMException
+	 */
+	public synchronized void unregister() throws JMException {
+		if (registered != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(registered)) {
+				server.unregisterMBean(registered);
+			}
+			registered = null;
+		}
+	}
+
+	@Override
+	public synchronized long getFiles() {
+		return reports.size();
+	}
+
+	@Override
+	public synchronized long getFailedFiles() {
+		return failedFiles;
+	}
+
+	@Override
+	public synchronized long getCacheHits() {
+		return cacheHits;
+	}
+
+	@Override
+	public synchronized String getLastFile() {
+		return lastFile;
+	}
+
+	@Override
+	public synchronized Map<String, Long> getPhasesMillis() {
+		Map<String, Long> res = new LinkedHashMap<>();
+		for (SortMetrics.Phase p : SortMetrics.Phase.values()) {
+			res.put(p.getKey(), nanos[p.ordinal()] / 1000000L);
+		}
+		return res;
+	}
+
+	@Override
+	public synchronized long getPlaces() {
+		return places;
+	}
+
+	@Override
+	public synchronized long getTransitions() {
+		return transitions;
+	}
+
+	@Override
+	public synchronized long getArcs() {
+		return arcs;
+	}
+
+	@Override
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	@Override
+	public synchronized int getPeakQueueDepth() {
+		return peakQueueDepth;
+	}
+
+	@Override
+	public synchronized long getHeapHighWater() {
+		return heapHighWater;
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.util.Map;
+
+/**
+ * Metrics of a batch of sorts, exposed over JMX while the batch runs.
+ * 
+ * @author lom
+ *
+ */
+public interface BatchMetricsMXBean {
+
+	/**
+	 * @return number of documents sorted so far, including failed ones
+	 */
+	long getFiles();
+
+	long getFailedFiles();
+
+	/**
+	 * @return the last document sorted
+	 */
+	String getLastFile();
+
+	/**
+	 * @return number of documents whose sorted output was found in the result
+	 *         cache
+	 */
+	long getCacheHits();
+
+	/**
+	 * @return time spent in each phase, in milliseconds, over all documents
+	 */
+	Map<String, Long> getPhasesMillis();
+
+	long getPlaces();
+
+	long getTransitions();
+
+	long getArcs();
+
+	long getBytesWritten();
+
+	/**
+	 * @return the highest depth of an output ring, over all documents
+	 */
+	int getPeakQueueDepth();
+
+	/**
+	 * @return the highest heap use sampled while sorting a document
+	 */
+	long getHeapHighWater();
+}
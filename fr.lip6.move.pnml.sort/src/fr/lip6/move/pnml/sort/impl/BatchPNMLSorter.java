@@ -0,0 +1,367 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+import fr.lip6.move.pnml.sort.exceptions.PNMLSortException;
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Sorts a batch of PNML files, either sequentially in the calling thread, or
+ * on a bounded pool of worker threads.
+ *
+ * Each worker thread owns its sorter, so that no sorter state is shared
+ * between files being sorted at the same time. Errors are reported per file,
+ * in the order of the batch, whatever the order in which files complete.
+ *
+ * The metrics of every file are summed up in {@link BatchMetrics}, written
+ * next to the first sorted output and exposed over JMX, when enabled in the
+ * options.
+ *
+ * When a {@link ResultCache} is set in the options, documents whose sorted
+ * output is in the cache are not sorted again.
+ *
+ * @author lom
+ *
+ */
+public final class BatchPNMLSorter {
+
+	private final SortOptions options;
+	private final int threads;
+	private final Logger log;
+	private volatile boolean streaming;
+	private ExecutorService pool;
+	private ThreadLocal<PNMLSorter> sorters;
+	/**
+	 * Sorters of compressed documents, which are read in a single forward
+	 * pass whatever the streaming mode.
+	 */
+	private ThreadLocal<PNMLSorter> streamingSorters;
+	private final BatchMetrics metrics;
+	private final ResultCache cache;
+
+	/**
+	 * @param options
+	 *            options applied to every file of the batch
+	 * @param threads
+	 *            maximum number of files sorted at the same time
+	 */
+	public BatchPNMLSorter(SortOptions options, int threads) {
+		this.options = new SortOptions(options);
+		this.threads = Math.max(1, threads);
+		this.log = LoggerFactory.getLogger(BatchPNMLSorter.class
+				.getCanonicalName());
+		this.sorters = new ThreadLocal<PNMLSorter>() {
+			@Override
+			protected PNMLSorter initialValue() {
+				return PNMLSortFactory.instance().createPNMLSorter(
+						BatchPNMLSorter.this.options, streaming);
+			}
+		};
+		this.streamingSorters = new ThreadLocal<PNMLSorter>() {
+			@Override
+			protected PNMLSorter initialValue() {
+				return PNMLSortFactory.instance().createStreamingPNMLSorter(
+						BatchPNMLSorter.this.options);
+			}
+		};
+		this.metrics = new BatchMetrics();
+		this.cache = openCache();
+		if (this.options.isMetricsJmx()) {
+			registerMetrics();
+		}
+	}
+
+	/**
+	 * Sorts each source file into its corresponding destination file.
+	 *
+	 * @param pathSrc
+	 *            source files paths
+	 * @param pathDest
+	 *            destination files paths, in the same order
+	 * @return true if at least one file could not be sorted
+	 */
+	public boolean sortAll(List<String> pathSrc, List<String> pathDest) {
+		return sortAll(pathSrc, pathDest, null);
+	}
+
+	/**
+	 * Sorts each source file into its corresponding destination file, also
+	 * summing up the metrics of these files only into jobMetrics. Batches may
+	 * be sorted at the same time from several threads.
+	 *
+	 * @param pathSrc
+	 *            source files paths
+	 * @param pathDest
+	 *            destination files paths, in the same order
+	 * @param jobMetrics
+	 *            metrics of this batch only, may be null
+	 * @return true if at least one file could not be sorted
+	 */
+	public boolean sortAll(List<String> pathSrc, List<String> pathDest,
+			BatchMetrics jobMetrics) {
+		boolean error;
+		if (threads == 1) {
+			error = sortSequentially(pathSrc, pathDest, jobMetrics);
+		} else {
+			error = sortConcurrently(pathSrc, pathDest, jobMetrics);
+		}
+		if (cache != null) {
+			cache.evict();
+		}
+		if (options.isMetrics() && !pathDest.isEmpty()) {
+			writeMetrics(new File(pathDest.get(0)).getAbsoluteFile()
+					.getParentFile());
+		}
+		return error;
+	}
+
+	/**
+	 * Writes the metrics of the batches sorted so far into a directory.
+	 * 
+	 * @param dir
+	 */
+	private void writeMetrics(File dir) {
+		File f = new File(dir, MainPNMLSort.BATCH_METRICS);
+		try {
+			metrics.writeJson(f);
+			log.info("See batch metrics: {}", f.getPath());
+		} catch (IOException e) {
+			log.error("Could not write batch metrics {}: {}", f.getPath(),
+					e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+		}
+	}
+
+	private ResultCache openCache() {
+		if (options.getCacheDir() == null) {
+			return null;
+		}
+		if (options.getVariants() != null) {
+			log.warn("The result cache does not support variants. Sorting without it.");
+			return null;
+		}
+		if (options.isFingerprint()) {
+			log.warn("The result cache does not support fingerprints. Sorting without it.");
+			return null;
+		}
+		try {
+			return new ResultCache(options.getCacheDir(),
+					options.getCacheMaxSize(), options.getCacheMaxAge());
+		} catch (IOException e) {
+			log.error("Could not open result cache {}, sorting without it: {}",
+					options.getCacheDir(), e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+			return null;
+		}
+	}
+
+	private void registerMetrics() {
+		try {
+			log.info("Batch metrics exposed over JMX as {}.",
+					metrics.register());
+		} catch (JMException e) {
+			log.error("Could not expose batch metrics over JMX: {}",
+					e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+		}
+	}
+
+	private boolean sortSequentially(List<String> pathSrc,
+			List<String> pathDest, BatchMetrics jobMetrics) {
+		boolean error = false;
+		for (int i = 0; i < pathSrc.size(); i++) {
+			try {
+				sortOne(pathSrc.get(i), pathDest.get(i), jobMetrics);
+			} catch (PNMLSortException | IOException e) {
+				reportError(pathSrc.get(i), e);
+				error |= true;
+			}
+		}
+		return error;
+	}
+
+	private boolean sortConcurrently(List<String> pathSrc,
+			List<String> pathDest, BatchMetrics jobMetrics) {
+		boolean error = false;
+		ExecutorService exec = getPool();
+		List<Future<Void>> results = new ArrayList<>(pathSrc.size());
+		for (int i = 0; i < pathSrc.size(); i++) {
+			results.add(exec.submit(new SortTask(pathSrc.get(i), pathDest
+					.get(i), jobMetrics)));
+		}
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				results.get(i).get();
+			} catch (ExecutionException e) {
+				reportError(pathSrc.get(i), e.getCause());
+				error |= true;
+			} catch (InterruptedException e) {
+				reportError(pathSrc.get(i), e);
+				Thread.currentThread().interrupt();
+				error |= true;
+			}
+		}
+		return error;
+	}
+
+	private void sortOne(String src, String dest, BatchMetrics jobMetrics)
+			throws PNMLSortException, IOException {
+		File in = new File(src);
+		String path = dest;
+		if (options.isBinaryOutput()
+				&& path.endsWith(MainPNMLSort.SORT_EXT)) {
+			path = path.substring(0,
+					path.length() - MainPNMLSort.SORT_EXT.length())
+					+ MainPNMLSort.BIN_EXT;
+		}
+		if (options.isGzipOutput() && !path.endsWith(MainPNMLSort.GZ_EXT)) {
+			path += MainPNMLSort.GZ_EXT;
+		}
+		File out = new File(path);
+		String key = null;
+		if (cache != null) {
+			key = cache.key(in, options);
+			if (cache.fetch(key, out)) {
+				log.info("{}: unchanged, sorted output taken from cache.", src);
+				metrics.addCacheHit(src);
+				if (jobMetrics != null) {
+					jobMetrics.addCacheHit(src);
+				}
+				return;
+			}
+		}
+		PNMLSorter sorter = streaming || !PNMLSortUtils.isCompressed(src) ? sorters
+				.get() : streamingSorters.get();
+		boolean failed = true;
+		try {
+			sorter.sortPNML(in, out);
+			failed = false;
+		} finally {
+			metrics.add(sorter.getMetrics(), failed);
+			if (jobMetrics != null) {
+				jobMetrics.add(sorter.getMetrics(), failed);
+			}
+		}
+		if (key != null) {
+			cache.store(key, out);
+		}
+	}
+
+	private void reportError(String src, Throwable t) {
+		log.error("{}: {}", src, t.getMessage());
+		if (t instanceof Exception) {
+			MainPNMLSort.printStackTrace((Exception) t);
+		}
+	}
+
+	private synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(threads, new WorkerFactory());
+		}
+		return pool;
+	}
+
+	/**
+	 * Releases the worker threads, once all submitted files are sorted.
+	 */
+	public synchronized void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		try {
+			metrics.unregister();
+		} catch (JMException e) {
+			log.error(e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+		}
+	}
+
+	/**
+	 * @return the metrics of the files sorted so far
+	 */
+	public BatchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Selects the {@link StreamingPNMLSorter} instead of the
+	 * {@link BasicPNMLSorter}. Must be set before the first batch is sorted.
+	 * 
+	 * @param streaming
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	private final class SortTask implements Callable<Void> {
+		private final String src;
+		private final String dest;
+		private final BatchMetrics jobMetrics;
+
+		SortTask(String src, String dest, BatchMetrics jobMetrics) {
+			this.src = src;
+			this.dest = dest;
+			this.jobMetrics = jobMetrics;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			sortOne(src, dest, jobMetrics);
+			return null;
+		}
+	}
+
+	private static final class WorkerFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "pnmlsort-worker-"
+					+ count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.lip6.move.pnml.sort.utils.IntIntHashMap;
+
+/**
+ * Encodes a sorted output in a compact binary format, instead of text,
+ * through an {@link OutputEncoder}. The nets, pages and sections come in the
+ * same order as in the text output.
+ * 
+ * Varints are unsigned LEB128; longs are 8 bytes, big-endian; strings are a
+ * varint length, then as many ISO-8859-1 bytes. The file is made of:
+ * <ul>
+ * <li>a header: the magic <code>PNMLSRTB</code>, the format version byte and
+ * a flags byte ({@link #FLAG_BY_ID}, {@link #FLAG_MARKINGS},
+ * {@link #FLAG_INSCRIPTIONS});</li>
+ * <li>records, each starting with a tag byte: {@link #NET} (name),
+ * {@link #PAGE} (nesting depth as a varint, from 1, then id), and the
+ * sections of the last page, {@link #PLACES}, {@link #TRANSITIONS} and
+ * {@link #ARCS};</li>
+ * <li>the index, tagged {@link #INDEX}: the nets (name, offset), the pages
+ * in output order (net ordinal, depth, id, offset, then offset of each
+ * section and of its bucket table, 0 if none), and the dictionary of the
+ * Symmetric net terms;</li>
+ * <li>a trailer of {@link #TRAILER} bytes: the offset of the index, then the
+ * magic <code>PNMLSRTE</code>.</li>
+ * </ul>
+ * 
+ * A section holds the number of its entries and the number of those in the
+ * first sorted run (nodes with names; the others are sorted on their ids),
+ * then its entries, front-coded in buckets of {@link #BUCKET}: the first
+ * label of a bucket is a string, the next ones the length of the prefix they
+ * share with the previous label, then a string of the rest. It ends with a
+ * table of the offsets of its buckets, as longs, for binary searches.
+ * 
+ * Places are followed by their marking, arcs by their source and target,
+ * then their inscription. A node reference is a varint: index of the node
+ * in the places or transitions of the page, shifted by two, or'ed with
+ * {@link #REF_PLACE} or {@link #REF_TRANSITION}; or {@link #REF_LITERAL}
+ * followed by the node label, for nodes of other pages. A value is a
+ * varint: 0 if none, twice an integer value, or twice the index of a term in
+ * the dictionary, plus one.
+ * 
+ * @author lom
+ *
+ */
+public final class BinarySortedWriter {
+
+	public static final byte[] MAGIC = { 'P', 'N', 'M', 'L', 'S', 'R', 'T',
+			'B' };
+	public static final byte[] END_MAGIC = { 'P', 'N', 'M', 'L', 'S', 'R',
+			'T', 'E' };
+	public static final int VERSION = 1;
+	public static final int FLAG_BY_ID = 1, FLAG_MARKINGS = 2,
+			FLAG_INSCRIPTIONS = 4;
+	public static final byte NET = 'N', PAGE = 'P', PLACES = 'L',
+			TRANSITIONS = 'T', ARCS = 'A', INDEX = 'I';
+	/**
+	 * Number of front-coded labels per bucket.
+	 */
+	public static final int BUCKET = 16;
+	public static final int REF_PLACE = 0, REF_TRANSITION = 1,
+			REF_LITERAL = 2, REF_BITS = 2;
+	/**
+	 * Size of the trailer.
+	 */
+	public static final int TRAILER = 16;
+	/**
+	 * Sections of a page, in their order.
+	 */
+	public static final int SECTION_PLACES = 0, SECTION_TRANSITIONS = 1,
+			SECTION_ARCS = 2, SECTIONS = 3;
+
+	private final OutputEncoder enc;
+	private final List<String> nets;
+	private final List<Long> netOffsets;
+	private final List<PageEntry> pages;
+	/**
+	 * Section being written, -1 if none.
+	 */
+	private int section;
+	private long entries;
+	private String prev;
+	private long[] buckets;
+	private int bucketCount;
+	/**
+	 * key: node id handle; value: its reference, valid if the node is in the
+	 * page numbered in nodePage.
+	 */
+	private int[] nodeRef;
+	private int[] nodePage;
+	/**
+	 * key: term handle; value: its index in the dictionary.
+	 */
+	private final IntIntHashMap termIndex;
+	private final List<String> termTexts;
+
+	public BinarySortedWriter(OutputEncoder enc) {
+		this.enc = enc;
+		this.nets = new ArrayList<>();
+		this.netOffsets = new ArrayList<>();
+		this.pages = new ArrayList<>();
+		this.buckets = new long[64];
+		this.nodeRef = new int[0];
+		this.nodePage = new int[0];
+		this.termIndex = new IntIntHashMap();
+		this.termTexts = new ArrayList<>();
+	}
+
+	/**
+	 * Writes the header of a new output.
+	 * 
+	 * @param symbols
+	 *            number of symbols of the document, so that node handles
+	 *            can be mapped to references
+	 * @param opts
+	 *            options of the output
+	 * @throws InterruptedException
+	 */
+	public void begin(int symbols, SortOptions opts)
+			throws InterruptedException {
+		nets.clear();
+		netOffsets.clear();
+		pages.clear();
+		termIndex.clear();
+		termTexts.clear();
+		section = -1;
+		if (nodeRef.length < symbols) {
+			nodeRef = new int[symbols];
+			nodePage = new int[symbols];
+		} else {
+			Arrays.fill(nodePage, 0);
+		}
+		for (byte b : MAGIC) {
+			enc.appendByte(b);
+		}
+		enc.appendByte(VERSION);
+		enc.appendByte((opts.isSortOnId() ? FLAG_BY_ID : 0)
+				| (opts.isOutputMarkings() ? FLAG_MARKINGS : 0)
+				| (opts.isOutputInscriptions() ? FLAG_INSCRIPTIONS : 0));
+	}
+
+	public void net(String name) throws InterruptedException {
+		endSection();
+		nets.add(name);
+		netOffsets.add(enc.getWritten());
+		enc.appendByte(NET);
+		string(name);
+	}
+
+	/**
+	 * @param id
+	 * @param depth
+	 *            1 for the top pages of a net
+	 * @throws InterruptedException
+	 */
+	public void page(String id, int depth) throws InterruptedException {
+		endSection();
+		pages.add(new PageEntry(nets.size() - 1, depth, id, enc
+				.getWritten()));
+		enc.appendByte(PAGE);
+		enc.appendVarint(depth);
+		string(id);
+	}
+
+	/**
+	 * Starts a section of the last page.
+	 * 
+	 * @param sect
+	 *            SECTION_PLACES, SECTION_TRANSITIONS or SECTION_ARCS
+	 * @param count
+	 *            number of entries
+	 * @param firstRun
+	 *            number of entries in the first sorted run
+	 * @throws InterruptedException
+	 */
+	public void section(int sect, long count, long firstRun)
+			throws InterruptedException {
+		endSection();
+		section = sect;
+		entries = 0L;
+		prev = null;
+		bucketCount = 0;
+		pages.get(pages.size() - 1).sections[sect] = enc.getWritten();
+		enc.appendByte(sect == SECTION_PLACES ? PLACES
+				: sect == SECTION_TRANSITIONS ? TRANSITIONS : ARCS);
+		enc.appendVarint(count);
+		enc.appendVarint(firstRun);
+	}
+
+	/**
+	 * Ends the current section, if any, with its bucket table.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void endSection() throws InterruptedException {
+		if (section < 0) {
+			return;
+		}
+		pages.get(pages.size() - 1).tables[section] = enc.getWritten();
+		for (int i = 0; i < bucketCount; i++) {
+			enc.appendLong(buckets[i]);
+		}
+		section = -1;
+	}
+
+	/**
+	 * @param label
+	 *            name, or id
+	 * @param id
+	 *            handle of the place id
+	 * @param mkg
+	 *            marking, 0 if none
+	 * @param term
+	 *            handle of the marking term, -1 if none
+	 * @param termText
+	 *            its text
+	 * @throws InterruptedException
+	 */
+	public void place(String label, int id, int mkg, int term,
+			String termText) throws InterruptedException {
+		node(id, REF_PLACE);
+		label(label);
+		value(mkg, term, termText);
+	}
+
+	public void transition(String label, int id)
+			throws InterruptedException {
+		node(id, REF_TRANSITION);
+		label(label);
+	}
+
+	/**
+	 * @param label
+	 *            arc id
+	 * @param src
+	 *            handle of the source id
+	 * @param srcLabel
+	 *            label of the source, written if it is not in the page
+	 * @param trg
+	 *            handle of the target id
+	 * @param trgLabel
+	 * @param insc
+	 *            inscription, 0 if none
+	 * @param term
+	 *            handle of the inscription term, -1 if none
+	 * @param termText
+	 * @throws InterruptedException
+	 */
+	public void arc(String label, int src, String srcLabel, int trg,
+			String trgLabel, int insc, int term, String termText)
+			throws InterruptedException {
+		label(label);
+		ref(src, srcLabel);
+		ref(trg, trgLabel);
+		value(insc, term, termText);
+	}
+
+	/**
+	 * Ends the output with the index and the trailer.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void end() throws InterruptedException {
+		endSection();
+		long index = enc.getWritten();
+		enc.appendByte(INDEX);
+		enc.appendVarint(nets.size());
+		for (int i = 0; i < nets.size(); i++) {
+			string(nets.get(i));
+			enc.appendLong(netOffsets.get(i));
+		}
+		enc.appendVarint(pages.size());
+		for (PageEntry p : pages) {
+			enc.appendVarint(p.net);
+			enc.appendVarint(p.depth);
+			string(p.id);
+			enc.appendLong(p.offset);
+			for (int i = 0; i < SECTIONS; i++) {
+				enc.appendLong(p.sections[i]);
+				enc.appendLong(p.tables[i]);
+			}
+		}
+		enc.appendVarint(termTexts.size());
+		for (String t : termTexts) {
+			string(t);
+		}
+		enc.appendLong(index);
+		for (byte b : END_MAGIC) {
+			enc.appendByte(b);
+		}
+	}
+
+	/**
+	 * Records the reference of the next node of the section.
+	 */
+	private void node(int id, int kind) {
+		nodeRef[id] = (int) (entries << REF_BITS) | kind;
+		nodePage[id] = pages.size();
+	}
+
+	private void label(String label) throws InterruptedException {
+		if (entries % BUCKET == 0) {
+			if (bucketCount == buckets.length) {
+				buckets = Arrays.copyOf(buckets, bucketCount * 2);
+			}
+			buckets[bucketCount++] = enc.getWritten();
+			string(label);
+		} else {
+			int max = Math.min(prev.length(), label.length());
+			int p = 0;
+			while (p < max && prev.charAt(p) == label.charAt(p)) {
+				p++;
+			}
+			if (p > 0 && Character.isHighSurrogate(label.charAt(p - 1))) {
+				// Do not split a character.
+				p--;
+			}
+			enc.appendVarint(length(label, 0, p));
+			enc.appendVarint(length(label, p, label.length()));
+			enc.append(label, p, label.length());
+		}
+		prev = label;
+		entries++;
+	}
+
+	private void ref(int id, String label) throws InterruptedException {
+		if (nodePage[id] == pages.size()) {
+			enc.appendVarint(nodeRef[id]);
+		} else {
+			enc.appendVarint(REF_LITERAL);
+			string(label);
+		}
+	}
+
+	private void value(int v, int term, String termText)
+			throws InterruptedException {
+		if (v > 0) {
+			enc.appendVarint(2L * v);
+		} else if (term >= 0) {
+			int t = termIndex.get(term, -1);
+			if (t < 0) {
+				t = termTexts.size();
+				termIndex.put(term, t);
+				termTexts.add(termText);
+			}
+			enc.appendVarint(2L * t + 1);
+		} else {
+			enc.appendVarint(0L);
+		}
+	}
+
+	private void string(String s) throws InterruptedException {
+		enc.appendVarint(length(s, 0, s.length()));
+		enc.append(s);
+	}
+
+	/**
+	 * @return the number of bytes the characters of a string between two
+	 *         indexes are encoded into: one per character, a surrogate pair
+	 *         being a single unmappable character.
+	 */
+	private static int length(String s, int start, int end) {
+		int res = end - start;
+		for (int i = start; i < end - 1; i++) {
+			if (Character.isHighSurrogate(s.charAt(i))
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				res--;
+				i++;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Entry of a page in the index.
+	 */
+	private static final class PageEntry {
+		private final int net;
+		private final int depth;
+		private final String id;
+		private final long offset;
+		private final long[] sections = new long[SECTIONS];
+		private final long[] tables = new long[SECTIONS];
+
+		PageEntry(int net, int depth, String id, long offset) {
+			this.net = net;
+			this.depth = depth;
+			this.id = id;
+			this.offset = offset;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.ximpleware.extended.IByteBuffer;
+
+/**
+ * Document held in a {@link ByteBuffer}, from its position to its limit,
+ * parsed by VTD-XML in place. It is read with absolute gets: the position of
+ * the buffer is left unchanged. The same document is reused from one buffer
+ * to the next.
+ * 
+ * @author lom
+ *
+ */
+final class ByteBufferDocument implements IByteBuffer {
+
+	private ByteBuffer buf;
+	private int base;
+	private int length;
+
+	/**
+	 * @param doc
+	 *            the buffer holding the document, null to release the last
+	 *            one
+	 */
+	void set(ByteBuffer doc) {
+		this.buf = doc;
+		this.base = doc != null ? doc.position() : 0;
+		this.length = doc != null ? doc.remaining() : 0;
+	}
+
+	@Override
+	public byte byteAt(long index) {
+		return buf.get(base + (int) index);
+	}
+
+	@Override
+	public byte[] getBytes(int offset, int len) {
+		byte[] res = new byte[len];
+		for (int i = 0; i < len; i++) {
+			res[i] = buf.get(base + offset + i);
+		}
+		return res;
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public byte[] getBytes() {
+		return getBytes(0, length);
+	}
+
+	@Override
+	public void writeToFileOutputStream(FileOutputStream ost, long offset,
+			long len) throws IOException {
+		ByteBuffer src = buf.duplicate();
+		src.limit(base + (int) (offset + len));
+		src.position(base + (int) offset);
+		FileChannel fc = ost.getChannel();
+		while (src.hasRemaining()) {
+			fc.write(src);
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Bounded ring of reusable byte buffers between a sorter, which fills them,
+ * and a {@link SortedPNMLWriter}, which drains them into a channel.
+ * 
+ * Since there is a fixed number of buffers, a sorter producing faster than
+ * the writer drains blocks until a buffer is released: memory use stays flat
+ * whatever the speed of the disk.
+ * 
+ * @author lom
+ *
+ */
+public final class ByteBufferRing {
+
+	/**
+	 * Sentinels put after the last filled buffer.
+	 */
+	static final ByteBuffer STOP = ByteBuffer.allocate(0);
+	static final ByteBuffer CANCEL = ByteBuffer.allocate(0);
+
+	private final int capacity;
+	private final int bufferSize;
+	private final BlockingQueue<ByteBuffer> free;
+	private final BlockingQueue<ByteBuffer> filled;
+	private volatile IOException error;
+	/**
+	 * Sorter side statistics, since the last reset.
+	 */
+	private int peakDepth;
+	private long acquireWaitNanos;
+
+	/**
+	 * @param capacity
+	 *            number of buffers
+	 * @param bufferSize
+	 *            size of each buffer, in bytes
+	 */
+	public ByteBufferRing(int capacity, int bufferSize) {
+		this.capacity = capacity;
+		this.bufferSize = bufferSize;
+		this.free = new ArrayBlockingQueue<>(capacity);
+		this.filled = new LinkedBlockingQueue<>();
+		for (int i = 0; i < capacity; i++) {
+			free.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+	}
+
+	/**
+	 * Returns an empty buffer, waiting for the writer to release one if
+	 * needed.
+	 * 
+	 * @return an empty buffer
+	 * @throws InterruptedException
+	 */
+	public ByteBuffer acquire() throws InterruptedException {
+		ByteBuffer b = free.poll();
+		if (b == null) {
+			long t = System.nanoTime();
+			b = free.take();
+			acquireWaitNanos += System.nanoTime() - t;
+		}
+		return b;
+	}
+
+	/**
+	 * Hands a filled buffer over to the writer.
+	 * 
+	 * @param buf
+	 *            the buffer, not yet flipped
+	 * @throws InterruptedException
+	 */
+	public void publish(ByteBuffer buf) throws InterruptedException {
+		filled.put(buf);
+		int depth = filled.size();
+		if (depth > peakDepth) {
+			peakDepth = depth;
+		}
+	}
+
+	/**
+	 * Gives a buffer back to the ring, without it being written.
+	 * 
+	 * @param buf
+	 */
+	public void release(ByteBuffer buf) {
+		buf.clear();
+		free.offer(buf);
+	}
+
+	/**
+	 * Normal stop: the writer stops once all published buffers are written.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		filled.put(STOP);
+	}
+
+	/**
+	 * Cancellation: the writer stops without writing the remaining buffers.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void cancel() throws InterruptedException {
+		filled.put(CANCEL);
+	}
+
+	/**
+	 * Waits for at least one filled buffer, then drains up to max of them.
+	 * 
+	 * @param batch
+	 *            where the buffers are added, in publication order
+	 * @param max
+	 * @throws InterruptedException
+	 */
+	void takeFilled(List<ByteBuffer> batch, int max)
+			throws InterruptedException {
+		batch.add(filled.take());
+		filled.drainTo(batch, max - 1);
+	}
+
+	/**
+	 * Records a write error. Buffers are still released by the writer, so
+	 * that the sorter never blocks; it finds the error at the end.
+	 * 
+	 * @param e
+	 */
+	void setError(IOException e) {
+		if (error == null) {
+			error = e;
+		}
+	}
+
+	/**
+	 * @return the first write error, if any.
+	 */
+	public IOException getError() {
+		return error;
+	}
+
+	/**
+	 * Makes the ring ready for a new document, once its previous writer has
+	 * stopped.
+	 */
+	public void reset() {
+		ByteBuffer b;
+		while ((b = filled.poll()) != null) {
+			if (b != STOP && b != CANCEL) {
+				release(b);
+			}
+		}
+		error = null;
+		peakDepth = 0;
+		acquireWaitNanos = 0L;
+	}
+
+	/**
+	 * @return the highest number of filled buffers waiting for the writer.
+	 */
+	public int getPeakDepth() {
+		return peakDepth;
+	}
+
+	/**
+	 * @return the time the sorter waited for free buffers, in nanoseconds.
+	 */
+	public long getAcquireWaitNanos() {
+		return acquireWaitNanos;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+
+/**
+ * Watches directories, recursively, and sorts the PNML files created or
+ * changed in them, without rescanning the directories.
+ * 
+ * A file is sorted once its size and modification time have not changed for
+ * a quiet period, so that files still being written are not sorted. Files
+ * becoming ready together are sorted as one batch, in parallel when the
+ * {@link BatchPNMLSorter} has several worker threads.
+ * 
+ * @author lom
+ *
+ */
+public final class DirectoryWatcher implements Closeable {
+
+	/**
+	 * Default quiet period, in milliseconds.
+	 */
+	public static final long DEFAULT_QUIET = 1000L;
+	/**
+	 * Longest wait for events while files are pending, in milliseconds.
+	 */
+	private static final long TICK = 100L;
+
+	private final BatchPNMLSorter batch;
+	private final long quietNanos;
+	private final WatchService service;
+	private final Map<WatchKey, File> keys;
+	/**
+	 * Files waiting for their quiet period to end, in arrival order, with
+	 * their size, modification time and time of the last change seen.
+	 */
+	private final Map<File, long[]> pending;
+	private final MainPNMLSort.PNMLFilenameFilter pff;
+	private final MainPNMLSort.DirFileFilter dff;
+	private final Logger log;
+
+	/**
+	 * @param batch
+	 *            sorts the files
+	 * @param quietMillis
+	 *            time a file must stay unchanged before it is sorted
+	 * @throws IOException
+	 */
+	public DirectoryWatcher(BatchPNMLSorter batch, long quietMillis)
+			throws IOException {
+		this.batch = batch;
+		this.quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+		this.service = FileSystems.getDefault().newWatchService();
+		this.keys = new HashMap<>();
+		this.pending = new LinkedHashMap<>();
+		this.pff = new MainPNMLSort.PNMLFilenameFilter();
+		this.dff = new MainPNMLSort.DirFileFilter();
+		this.log = LoggerFactory.getLogger(DirectoryWatcher.class
+				.getCanonicalName());
+	}
+
+	/**
+	 * Watches the directories, until the calling thread is interrupted or this
+	 * watcher closed.
+	 * 
+	 * @param dirs
+	 * @throws IOException
+	 */
+	public void watch(List<File> dirs) throws IOException {
+		for (File d : dirs) {
+			register(d.getCanonicalFile(), false);
+		}
+		log.info("Watching {} directories for PNML files.", keys.size());
+		WatchKey key;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				if (pending.isEmpty()) {
+					key = service.take();
+				} else {
+					key = service.poll(TICK, TimeUnit.MILLISECONDS);
+				}
+				while (key != null) {
+					handle(key);
+					key = service.poll();
+				}
+				sortReady();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// Closed from another thread
+		}
+	}
+
+	/**
+	 * Registers a directory and its sub-directories.
+	 * 
+	 * @param dir
+	 * @param scan
+	 *            true if the PNML files already there are to be sorted, for
+	 *            a directory created after the watch started
+	 * @throws IOException
+	 */
+	private void register(File dir, boolean scan) throws IOException {
+		WatchKey key = dir.toPath().register(service, ENTRY_CREATE,
+				ENTRY_MODIFY);
+		keys.put(key, dir);
+		if (scan) {
+			scan(dir);
+		}
+		File[] subs = dir.listFiles(dff);
+		if (subs != null) {
+			for (File d : subs) {
+				register(d, scan);
+			}
+		}
+	}
+
+	private void scan(File dir) {
+		File[] files = dir.listFiles(pff);
+		if (files != null) {
+			for (File f : files) {
+				touch(f);
+			}
+		}
+	}
+
+	private void handle(WatchKey key) {
+		File dir = keys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (dir == null) {
+				continue;
+			}
+			if (event.kind() == OVERFLOW) {
+				// Events lost: only this directory is scanned again
+				scan(dir);
+				continue;
+			}
+			File f = new File(dir, ((Path) event.context()).toString());
+			if (event.kind() == ENTRY_CREATE && dff.accept(f)) {
+				try {
+					register(f, true);
+				} catch (IOException e) {
+					log.error("Could not watch {}: {}", f, e.getMessage());
+					MainPNMLSort.printStackTrace(e);
+				}
+			} else if (pff.accept(dir, f.getName())) {
+				touch(f);
+			}
+		}
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+	}
+
+	/**
+	 * Records a change of a file, restarting its quiet period.
+	 * 
+	 * @param f
+	 */
+	private void touch(File f) {
+		long[] state = pending.get(f);
+		if (state == null) {
+			state = new long[3];
+			pending.put(f, state);
+		}
+		state[0] = f.length();
+		state[1] = f.lastModified();
+		state[2] = System.nanoTime();
+	}
+
+	/**
+	 * Sorts the files whose quiet period is over, as a single batch.
+	 */
+	private void sortReady() {
+		long now = System.nanoTime();
+		List<String> src = new ArrayList<>();
+		List<String> dest = new ArrayList<>();
+		Iterator<Map.Entry<File, long[]>> it = pending.entrySet().iterator();
+		Map.Entry<File, long[]> e;
+		File f;
+		long[] state;
+		while (it.hasNext()) {
+			e = it.next();
+			f = e.getKey();
+			state = e.getValue();
+			if (now - state[2] < quietNanos) {
+				continue;
+			}
+			if (!f.isFile()) {
+				it.remove();
+			} else if (f.length() != state[0]
+					|| f.lastModified() != state[1]) {
+				// Changed without notice, e.g. on some network file systems
+				touch(f);
+			} else {
+				it.remove();
+				src.add(f.getPath());
+				dest.add(MainPNMLSort.toDestPath(f.getPath()));
+			}
+		}
+		if (src.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		boolean error = batch.sortAll(src, dest);
+		log.info("Sorted {} new or changed files in {} ms{}.", src.size(),
+				(System.nanoTime() - start) / 1000000L, error ? ", with errors"
+						: "");
+	}
+
+	@Override
+	public void close() throws IOException {
+		service.close();
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Canonical fingerprint of a sorted output: a Merkle tree of SHA-256 hashes
+ * over the document, its nets, their pages and sub-pages, and the sections
+ * of each page.
+ * 
+ * The hash of a node covers the bytes it outputs itself (its header line)
+ * and, in order, the hashes of its children. Equal hashes thus mean equal
+ * sorted outputs, whichever way the documents were read, and two outputs
+ * can be compared net by net, page by page, without reading them again.
+ * 
+ * The bytes are fed by the {@link OutputEncoder} as they are encoded, in
+ * bulk, from its buffers.
+ * 
+ * @author lom
+ *
+ */
+public final class Fingerprint {
+
+	public static final String ALGORITHM = "SHA-256";
+	public static final String DOCUMENT = "DOCUMENT";
+	/**
+	 * Length of a hash, in hexadecimal.
+	 */
+	public static final int HEX_LENGTH = 64;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final char WS = ' ';
+	private static final char TAB = '\t';
+
+	/**
+	 * One digest per depth, reused from one node to the next.
+	 */
+	private final List<MessageDigest> digests;
+	/**
+	 * Nodes in the order of the output, each node before its children.
+	 */
+	private final List<Node> nodes;
+	/**
+	 * Indexes in nodes of the open nodes, by depth.
+	 */
+	private int[] open;
+	private int depth;
+
+	public Fingerprint() {
+		this.digests = new ArrayList<>();
+		this.nodes = new ArrayList<>();
+		this.open = new int[16];
+		this.depth = -1;
+	}
+
+	/**
+	 * Forgets the last fingerprint, and opens the document node.
+	 */
+	public void begin() {
+		nodes.clear();
+		depth = -1;
+		open(DOCUMENT, null);
+	}
+
+	/**
+	 * Closes the nodes left open, down to the document node.
+	 * 
+	 * @return the hash of the document
+	 */
+	public byte[] end() {
+		byte[] res = null;
+		while (depth >= 0) {
+			res = close();
+		}
+		return res;
+	}
+
+	/**
+	 * Opens a child of the current node. The bytes fed from now on belong to
+	 * it, until it is closed.
+	 * 
+	 * @param kind
+	 *            NET, PAGE, PLACES, TRANSITIONS or ARCS
+	 * @param arg
+	 *            net name or page id, null if none
+	 */
+	public void open(String kind, String arg) {
+		depth++;
+		if (depth == digests.size()) {
+			digests.add(newDigest());
+		}
+		if (depth == open.length) {
+			int[] tmp = new int[open.length * 2];
+			System.arraycopy(open, 0, tmp, 0, open.length);
+			open = tmp;
+		}
+		digests.get(depth).reset();
+		open[depth] = nodes.size();
+		nodes.add(new Node(depth, kind, arg));
+	}
+
+	/**
+	 * Closes the current node, and feeds its hash to its parent.
+	 * 
+	 * @return the hash of the node
+	 */
+	public byte[] close() {
+		byte[] h = digests.get(depth).digest();
+		nodes.get(open[depth]).hash = h;
+		depth--;
+		if (depth >= 0) {
+			digests.get(depth).update(h);
+		}
+		return h;
+	}
+
+	/**
+	 * Feeds the remaining bytes of a buffer to the current node.
+	 * 
+	 * @param bytes
+	 */
+	void update(ByteBuffer bytes) {
+		digests.get(depth).update(bytes);
+	}
+
+	/**
+	 * @return true while nodes are open
+	 */
+	boolean isOpen() {
+		return depth >= 0;
+	}
+
+	/**
+	 * @return the hash of the last document, in hexadecimal, null if it is
+	 *         not done.
+	 */
+	public String getHash() {
+		return nodes.isEmpty() || nodes.get(0).hash == null ? null
+				: toHex(nodes.get(0).hash);
+	}
+
+	/**
+	 * Writes the fingerprint, one node per line, in the order and with the
+	 * indentation of the sorted output: its hash, then its kind and
+	 * argument.
+	 * 
+	 * @param f
+	 * @throws IOException
+	 */
+	public void write(File f) throws IOException {
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(f),
+				StandardCharsets.UTF_8)) {
+			for (Node n : nodes) {
+				w.append(toHex(n.hash)).append(WS);
+				// The document is at depth 0, nets at depth 1 are not indented.
+				for (int i = 1; i < n.depth; i++) {
+					w.append(TAB);
+				}
+				w.append(n.kind);
+				if (n.arg != null) {
+					w.append(WS).append(n.arg);
+				}
+				w.append('\n');
+			}
+		}
+	}
+
+	/**
+	 * @param h
+	 * @return the hash in lower case hexadecimal
+	 */
+	public static String toHex(byte[] h) {
+		char[] res = new char[h.length * 2];
+		for (int i = 0; i < h.length; i++) {
+			res[2 * i] = HEX[(h[i] >> 4) & 0xF];
+			res[2 * i + 1] = HEX[h[i] & 0xF];
+		}
+		return new String(res);
+	}
+
+	/**
+	 * @return a new digest of the algorithm of the fingerprints, also used
+	 *         for the keys of the {@link ResultCache}
+	 */
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM is required to provide it.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class Node {
+		private final int depth;
+		private final String kind;
+		private final String arg;
+		private byte[] hash;
+
+		Node(int depth, String kind, String arg) {
+			this.depth = depth;
+			this.kind = kind;
+			this.arg = arg;
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output file compressed with gzip, block by block in parallel.
+ * 
+ * The output is cut into blocks of a fixed size, each compressed as a
+ * complete gzip member on a pool of threads, then written in order. The
+ * result is a multi-member gzip file, which gzip and
+ * {@link java.util.zip.GZIPInputStream} read as a whole. The number of
+ * blocks being compressed at once is bounded, so that memory use stays flat.
+ * 
+ * The output is a file, or a channel supplied by the caller, which is then
+ * left open.
+ * 
+ * @author lom
+ *
+ */
+public final class GzipOutChannel {
+
+	/**
+	 * Blocks being compressed at once, per thread of the pool.
+	 */
+	private static final int PENDING_PER_THREAD = 2;
+	private static final int HEADER_SIZE = 10;
+	private static final int TRAILER_SIZE = 8;
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED,
+			0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	/**
+	 * Null when writing into the channel of the caller.
+	 */
+	private final FileOutputStream fos;
+	private final WritableByteChannel out;
+	private final ExecutorService pool;
+	private final int blockSize;
+	private final int maxPending;
+	private final ArrayDeque<Future<Member>> pending;
+	private final ArrayDeque<byte[]> free;
+	private byte[] block;
+	private int fill;
+	private long members;
+	private long position;
+
+	/**
+	 * @param outFile
+	 *            the output file, truncated if it exists
+	 * @param blockSize
+	 *            size of the uncompressed blocks, in bytes
+	 * @param pool
+	 *            compresses the blocks, null to compress them in the calling
+	 *            thread
+	 * @param parallelism
+	 *            number of threads of the pool
+	 * @throws IOException
+	 */
+	public GzipOutChannel(File outFile, int blockSize, ExecutorService pool,
+			int parallelism) throws IOException {
+		this(new FileOutputStream(outFile), null, blockSize, pool,
+				parallelism);
+	}
+
+	/**
+	 * @param out
+	 *            the channel the compressed output is written into, not
+	 *            closed with this one
+	 * @param blockSize
+	 * @param pool
+	 * @param parallelism
+	 * @see #GzipOutChannel(File, int, ExecutorService, int)
+	 */
+	public GzipOutChannel(WritableByteChannel out, int blockSize,
+			ExecutorService pool, int parallelism) {
+		this(null, out, blockSize, pool, parallelism);
+	}
+
+	private GzipOutChannel(FileOutputStream fos, WritableByteChannel out,
+			int blockSize, ExecutorService pool, int parallelism) {
+		this.fos = fos;
+		this.out = fos != null ? fos.getChannel() : out;
+		this.pool = pool;
+		this.blockSize = blockSize;
+		this.maxPending = pool == null ? 0 : Math.max(1, parallelism)
+				* PENDING_PER_THREAD;
+		this.pending = new ArrayDeque<>();
+		this.free = new ArrayDeque<>();
+		this.block = new byte[blockSize];
+	}
+
+	/**
+	 * Appends the remaining bytes of a buffer to the output, compressing the
+	 * blocks filled along the way.
+	 * 
+	 * @param src
+	 * @return the number of bytes consumed
+	 * @throws IOException
+	 */
+	public int write(ByteBuffer src) throws IOException {
+		int n = src.remaining();
+		int chunk;
+		while (src.hasRemaining()) {
+			chunk = Math.min(src.remaining(), blockSize - fill);
+			src.get(block, fill, chunk);
+			fill += chunk;
+			if (fill == blockSize) {
+				submit();
+			}
+		}
+		return n;
+	}
+
+	private void submit() throws IOException {
+		final byte[] raw = block;
+		final int len = fill;
+		block = free.isEmpty() ? new byte[blockSize] : free.poll();
+		fill = 0;
+		if (pool == null) {
+			writeMember(compress(raw, len));
+			return;
+		}
+		pending.add(pool.submit(new Callable<Member>() {
+			@Override
+			public Member call() {
+				return compress(raw, len);
+			}
+		}));
+		while (pending.size() > maxPending) {
+			writeMember(await(pending.poll()));
+		}
+	}
+
+	private static Member await(Future<Member> f) throws IOException {
+		try {
+			return f.get();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+	}
+
+	private void writeMember(Member m) throws IOException {
+		while (m.out.hasRemaining()) {
+			position += out.write(m.out);
+		}
+		members++;
+		free.add(m.raw);
+	}
+
+	/**
+	 * Compresses a block into a complete gzip member.
+	 * 
+	 * @param raw
+	 * @param len
+	 * @return the member, ready to be written
+	 */
+	static Member compress(byte[] raw, int len) {
+		CRC32 crc = new CRC32();
+		crc.update(raw, 0, len);
+		Deflater d = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		byte[] out = new byte[HEADER_SIZE + len + len / 8 + 64 + TRAILER_SIZE];
+		int n = HEADER_SIZE;
+		try {
+			d.setInput(raw, 0, len);
+			d.finish();
+			while (!d.finished()) {
+				if (n == out.length - TRAILER_SIZE) {
+					out = Arrays.copyOf(out, out.length + (out.length >> 1));
+				}
+				n += d.deflate(out, n, out.length - TRAILER_SIZE - n);
+			}
+		} finally {
+			d.end();
+		}
+		System.arraycopy(HEADER, 0, out, 0, HEADER_SIZE);
+		ByteBuffer bb = ByteBuffer.wrap(out, 0, n + TRAILER_SIZE);
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		bb.position(n);
+		bb.putInt((int) crc.getValue());
+		bb.putInt(len);
+		bb.flip();
+		return new Member(raw, bb);
+	}
+
+	/**
+	 * @return the number of compressed bytes written so far
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the channel of the output file, null when writing into the
+	 *         channel of the caller
+	 */
+	public FileChannel getFc() {
+		return fos != null ? fos.getChannel() : null;
+	}
+
+	/**
+	 * Compresses and writes the last block, waits for the blocks still being
+	 * compressed, and closes the file, if any. An empty output is still a
+	 * valid gzip file.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			if (fill > 0 || members == 0L && pending.isEmpty()) {
+				submit();
+			}
+			while (!pending.isEmpty()) {
+				writeMember(await(pending.poll()));
+			}
+		} finally {
+			for (Future<Member> f : pending) {
+				f.cancel(false);
+			}
+			pending.clear();
+			if (fos != null) {
+				out.close();
+				fos.close();
+			}
+		}
+	}
+
+	/**
+	 * A compressed block, along with its uncompressed bytes to be reused.
+	 */
+	static final class Member {
+		final byte[] raw;
+		final ByteBuffer out;
+
+		Member(byte[] raw, ByteBuffer out) {
+			this.raw = raw;
+			this.out = out;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Output file written through memory-mapped windows, instead of one write
+ * call per buffer.
+ * 
+ * Each new window extends the file by its size, so that the file grows in
+ * big steps. It is truncated to the number of bytes actually written when
+ * closed.
+ * 
+ * @author lom
+ *
+ */
+public final class MappedOutChannel {
+
+	private final RandomAccessFile raf;
+	private final FileChannel fc;
+	private final int windowSize;
+	private MappedByteBuffer window;
+	private long position;
+
+	/**
+	 * @param outFile
+	 *            the output file, truncated if it exists
+	 * @param windowSize
+	 *            size of each mapped window, in bytes
+	 * @throws IOException
+	 */
+	public MappedOutChannel(File outFile, int windowSize) throws IOException {
+		this.raf = new RandomAccessFile(outFile, "rw");
+		this.fc = raf.getChannel();
+		this.windowSize = windowSize;
+		fc.truncate(0L);
+	}
+
+	/**
+	 * Copies the remaining bytes of a buffer into the file, mapping new
+	 * windows as needed.
+	 * 
+	 * @param src
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	public int write(ByteBuffer src) throws IOException {
+		int n = src.remaining();
+		int lim, chunk;
+		while (src.hasRemaining()) {
+			if (window == null || !window.hasRemaining()) {
+				remap();
+			}
+			chunk = Math.min(src.remaining(), window.remaining());
+			lim = src.limit();
+			src.limit(src.position() + chunk);
+			window.put(src);
+			src.limit(lim);
+			position += chunk;
+		}
+		return n;
+	}
+
+	private void remap() throws IOException {
+		if (window != null) {
+			unmap(window);
+		}
+		window = fc.map(FileChannel.MapMode.READ_WRITE, position, windowSize);
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	public FileChannel getFc() {
+		return fc;
+	}
+
+	/**
+	 * Unmaps the current window, truncates the file to its real length, and
+	 * closes it.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			if (window != null) {
+				unmap(window);
+				window = null;
+			}
+			if (fc.isOpen()) {
+				fc.truncate(position);
+			}
+		} finally {
+			fc.close();
+			raf.close();
+		}
+	}
+
+	/**
+	 * Releases a mapping right away instead of waiting for the GC, so that
+	 * the file can be truncated and memory is not held by windows already
+	 * written. Best effort: if the JVM does not let us, the mapping is
+	 * released by the GC. The buffer must not be used afterwards.
+	 * 
+	 * @param buf
+	 */
+	public static void unmap(MappedByteBuffer buf) {
+		try {
+			Method cleaner = buf.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object c = cleaner.invoke(buf);
+			if (c != null) {
+				c.getClass().getMethod("clean").invoke(c);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Left to the GC.
+		}
+	}
+}
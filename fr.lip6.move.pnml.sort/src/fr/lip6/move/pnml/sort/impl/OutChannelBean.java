@@ -22,17 +22,50 @@ package fr.lip6.move.pnml.sort.impl;
  */
 import java.io.FileOutputStream;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public final class OutChannelBean {
 
 	private FileChannel fc;
 	private FileOutputStream fos;
+	private MappedOutChannel mapped;
+	private GzipOutChannel gzip;
+	private WritableByteChannel channel;
 
 	public OutChannelBean(FileChannel fc, FileOutputStream fos) {
 		this.setFc(fc);
 		this.setFos(fos);
 	}
 
+	/**
+	 * Output written through memory-mapped windows.
+	 * 
+	 * @param mapped
+	 */
+	public OutChannelBean(MappedOutChannel mapped) {
+		this.setFc(mapped.getFc());
+		this.mapped = mapped;
+	}
+
+	/**
+	 * Output compressed with gzip.
+	 * 
+	 * @param gzip
+	 */
+	public OutChannelBean(GzipOutChannel gzip) {
+		this.setFc(gzip.getFc());
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Output into a channel of the caller, which is left open.
+	 * 
+	 * @param channel
+	 */
+	public OutChannelBean(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
 	public FileChannel getFc() {
 		return fc;
 	}
@@ -49,4 +82,26 @@ public final class OutChannelBean {
 		this.fos = fos;
 	}
 
+	/**
+	 * @return the mapped output, or null if the output is written through
+	 *         the channel.
+	 */
+	public MappedOutChannel getMapped() {
+		return mapped;
+	}
+
+	/**
+	 * @return the gzip output, or null if the output is not compressed.
+	 */
+	public GzipOutChannel getGzip() {
+		return gzip;
+	}
+
+	/**
+	 * @return the channel of the caller, or null if the output is a file.
+	 */
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+
 }
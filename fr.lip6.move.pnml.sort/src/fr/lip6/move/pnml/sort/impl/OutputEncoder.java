@@ -0,0 +1,322 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.nio.ByteBuffer;
+
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Encodes the sorted output straight into the buffers of a
+ * {@link ByteBufferRing}, in {@link PNMLSortUtils#FILE_ENCODING}, without any
+ * intermediate String or byte array.
+ * 
+ * Characters that cannot be encoded are replaced by '?', as
+ * {@link String#getBytes(java.nio.charset.Charset)} does.
+ * 
+ * When a {@link Fingerprint} is set, the encoded bytes are hashed in bulk,
+ * right before a buffer is handed over and at each node boundary.
+ * 
+ * @author lom
+ *
+ */
+public final class OutputEncoder {
+
+	private static final byte UNMAPPABLE = (byte) '?';
+	private static final int MAX_LATIN1 = 0xFF;
+	private static final int MAX_INT_DIGITS = 11;
+	private static final String NULL = "null";
+
+	private final ByteBufferRing ring;
+	private final byte[] digits;
+	private ByteBuffer buf;
+	private long written;
+	private Fingerprint fingerprint;
+	/**
+	 * Position in buf up to which the bytes are hashed.
+	 */
+	private int hashed;
+
+	public OutputEncoder(ByteBufferRing ring) {
+		this.ring = ring;
+		this.digits = new byte[MAX_INT_DIGITS];
+	}
+
+	/**
+	 * Starts encoding a new output.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void begin() throws InterruptedException {
+		written = 0L;
+		buf = ring.acquire();
+		hashed = 0;
+		if (fingerprint != null) {
+			fingerprint.begin();
+		}
+	}
+
+	/**
+	 * @param fingerprint
+	 *            computed over the next outputs, null for none
+	 */
+	public void setFingerprint(Fingerprint fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	public Fingerprint getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Opens a node of the fingerprint, if any, before its header is
+	 * appended.
+	 * 
+	 * @param kind
+	 * @param arg
+	 *            null if none
+	 * @see Fingerprint#open(String, String)
+	 */
+	public void open(String kind, String arg) {
+		if (fingerprint != null) {
+			digest();
+			fingerprint.open(kind, arg);
+		}
+	}
+
+	/**
+	 * Closes the current node of the fingerprint, if any, once its contents
+	 * are appended.
+	 */
+	public void close() {
+		if (fingerprint != null) {
+			digest();
+			fingerprint.close();
+		}
+	}
+
+	/**
+	 * Feeds the bytes encoded since the last call to the fingerprint.
+	 */
+	private void digest() {
+		int pos = buf.position();
+		if (pos > hashed) {
+			ByteBuffer b = buf.duplicate();
+			b.limit(pos).position(hashed);
+			fingerprint.update(b);
+			hashed = pos;
+		}
+	}
+
+	/**
+	 * Appends a string, or "null" as a StringBuilder does.
+	 * 
+	 * @param s
+	 * @return this encoder
+	 * @throws InterruptedException
+	 */
+	public OutputEncoder append(String s) throws InterruptedException {
+		if (s == null) {
+			return append(NULL);
+		}
+		return append(s, 0, s.length());
+	}
+
+	/**
+	 * Appends the characters of a string between two indexes.
+	 * 
+	 * @param s
+	 * @param start
+	 *            index of the first character
+	 * @param end
+	 *            index after the last character
+	 * @return this encoder
+	 * @throws InterruptedException
+	 */
+	public OutputEncoder append(String s, int start, int end)
+			throws InterruptedException {
+		char c;
+		int len = end - start;
+		for (int i = start; i < end; i++) {
+			if (!buf.hasRemaining()) {
+				next();
+			}
+			c = s.charAt(i);
+			if (c <= MAX_LATIN1) {
+				buf.put((byte) c);
+			} else {
+				buf.put(UNMAPPABLE);
+				// A surrogate pair is a single unmappable character.
+				if (Character.isHighSurrogate(c) && i + 1 < end
+						&& Character.isLowSurrogate(s.charAt(i + 1))) {
+					i++;
+					len--;
+				}
+			}
+		}
+		written += len;
+		return this;
+	}
+
+	public OutputEncoder append(char c) throws InterruptedException {
+		if (!buf.hasRemaining()) {
+			next();
+		}
+		buf.put(c <= MAX_LATIN1 ? (byte) c : UNMAPPABLE);
+		written++;
+		return this;
+	}
+
+	/**
+	 * Appends the decimal representation of a non-negative int.
+	 * 
+	 * @param v
+	 * @return this encoder
+	 * @throws InterruptedException
+	 */
+	public OutputEncoder append(int v) throws InterruptedException {
+		int n = digits.length;
+		do {
+			digits[--n] = (byte) ('0' + v % 10);
+			v /= 10;
+		} while (v > 0);
+		for (int i = n; i < digits.length; i++) {
+			if (!buf.hasRemaining()) {
+				next();
+			}
+			buf.put(digits[i]);
+		}
+		written += digits.length - n;
+		return this;
+	}
+
+	/**
+	 * Appends a raw byte.
+	 * 
+	 * @param b
+	 * @return this encoder
+	 * @throws InterruptedException
+	 */
+	public OutputEncoder appendByte(int b) throws InterruptedException {
+		if (!buf.hasRemaining()) {
+			next();
+		}
+		buf.put((byte) b);
+		written++;
+		return this;
+	}
+
+	/**
+	 * Appends a non-negative long as an unsigned LEB128 varint: 7 bits per
+	 * byte, low bits first, the high bit set on all bytes but the last.
+	 * 
+	 * @param v
+	 * @return this encoder
+	 * @throws InterruptedException
+	 */
+	public OutputEncoder appendVarint(long v) throws InterruptedException {
+		long rest = v;
+		while ((rest & ~0x7FL) != 0L) {
+			appendByte((int) (rest & 0x7F) | 0x80);
+			rest >>>= 7;
+		}
+		return appendByte((int) rest);
+	}
+
+	/**
+	 * Appends a long on 8 bytes, big-endian.
+	 * 
+	 * @param v
+	 * @return this encoder
+	 * @throws InterruptedException
+	 */
+	public OutputEncoder appendLong(long v) throws InterruptedException {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			appendByte((int) (v >>> shift));
+		}
+		return this;
+	}
+
+	/**
+	 * Appends count times the same character.
+	 * 
+	 * @param c
+	 * @param count
+	 * @return this encoder
+	 * @throws InterruptedException
+	 */
+	public OutputEncoder repeat(char c, int count)
+			throws InterruptedException {
+		for (int i = 0; i < count; i++) {
+			append(c);
+		}
+		return this;
+	}
+
+	/**
+	 * Hands the current buffer over to the writer, and goes on with an empty
+	 * one.
+	 */
+	private void next() throws InterruptedException {
+		if (fingerprint != null) {
+			digest();
+		}
+		ring.publish(buf);
+		buf = ring.acquire();
+		hashed = 0;
+	}
+
+	/**
+	 * Hands what remains over to the writer, and completes the fingerprint,
+	 * if any.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void end() throws InterruptedException {
+		if (buf != null) {
+			if (fingerprint != null) {
+				digest();
+				fingerprint.end();
+			}
+			if (buf.position() > 0) {
+				ring.publish(buf);
+			} else {
+				ring.release(buf);
+			}
+			buf = null;
+		}
+	}
+
+	/**
+	 * Gives the current buffer back to the ring without writing it.
+	 */
+	public void abort() {
+		if (buf != null) {
+			ring.release(buf);
+			buf = null;
+		}
+	}
+
+	/**
+	 * @return the number of bytes encoded since {@link #begin()}, that is
+	 *         the offset of the next one in the output.
+	 */
+	public long getWritten() {
+		return written;
+	}
+}
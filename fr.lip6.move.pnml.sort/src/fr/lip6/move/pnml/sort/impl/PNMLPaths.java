@@ -44,6 +44,10 @@ public final class PNMLPaths {
 	
 	public static final String NAME = "name";
 	
+	public static final String PNML = "pnml";
+
+	public static final String NET = "net";
+
 	public static final String NAME_PATH = "/name/text";
 	
 	public static final String NETS_PATH = "/pnml/net";
@@ -68,6 +72,18 @@ public final class PNMLPaths {
 	
 	public static final String INSCRIPTION = "inscription";
 
+	public static final String HL_MARKING = "hlinitialMarking";
+
+	public static final String HL_INSCRIPTION = "hlinscription";
+
+	public static final String STRUCTURE = "structure";
+
+	public static final String VALUE_ATTR = "value";
+
+	public static final String DECL_ATTR = "declaration";
+
+	public static final String REFVAR_ATTR = "refvariable";
+
 	public static final String PLACE = "place";
 	
 	public static final String REF_PLACE = "referenceplace";
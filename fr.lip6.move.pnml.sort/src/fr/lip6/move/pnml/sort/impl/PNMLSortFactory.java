@@ -17,6 +17,8 @@
  */
 package fr.lip6.move.pnml.sort.impl;
 
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+
 public final class PNMLSortFactory {
 
 	
@@ -48,7 +50,43 @@ public final class PNMLSortFactory {
 	}
 
 
+	/**
+	 * Creates a sorter working with the options currently set in
+	 * {@link MainPNMLSort}.
+	 */
 	public PNMLSorter createBasicPNMLSorter() {
-		return new BasicPNMLSorter();
+		return new BasicPNMLSorter(MainPNMLSort.getOptions());
+	}
+
+	/**
+	 * Creates a sorter working with its own copy of the options passed as
+	 * parameter.
+	 * 
+	 * @param options
+	 */
+	public PNMLSorter createBasicPNMLSorter(SortOptions options) {
+		return new BasicPNMLSorter(options);
+	}
+
+	/**
+	 * Creates a sorter which reads PNML documents in a single forward pass,
+	 * without mapping them in memory.
+	 * 
+	 * @param options
+	 */
+	public PNMLSorter createStreamingPNMLSorter(SortOptions options) {
+		return new StreamingPNMLSorter(options);
+	}
+
+	/**
+	 * @param options
+	 * @param streaming
+	 *            true for a streaming sorter, false for a basic one.
+	 * @see #createBasicPNMLSorter(SortOptions)
+	 * @see #createStreamingPNMLSorter(SortOptions)
+	 */
+	public PNMLSorter createPNMLSorter(SortOptions options, boolean streaming) {
+		return streaming ? createStreamingPNMLSorter(options)
+				: createBasicPNMLSorter(options);
 	}
 }
@@ -19,9 +19,73 @@ package fr.lip6.move.pnml.sort.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 import fr.lip6.move.pnml.sort.exceptions.PNMLSortException;
 
 public interface PNMLSorter {
  void sortPNML(File in, File out) throws PNMLSortException, IOException;
+
+ /**
+  * Sorts a PNML document held in memory, from the position to the limit of
+  * the buffer, which are left unchanged. The sorted output is written into
+  * the channel, which is left open. Variants, and the metrics and
+  * fingerprints written next to output files, are not supported: the
+  * metrics are still available from {@link #getMetrics()}. The buffers of
+  * the sorter are reused from one call to the next.
+  * 
+  * @param in
+  *            the document, not compressed
+  * @param out
+  *            where the sorted output is written
+  * @throws PNMLSortException
+  * @throws IOException
+  *             if the output could not be written
+  */
+ void sortPNML(ByteBuffer in, WritableByteChannel out)
+   throws PNMLSortException, IOException;
+
+ /**
+  * @see #sortPNML(ByteBuffer, WritableByteChannel)
+  */
+ void sortPNML(ByteBuffer in, OutputStream out) throws PNMLSortException,
+   IOException;
+
+ /**
+  * @see #sortPNML(ByteBuffer, WritableByteChannel)
+  */
+ void sortPNML(byte[] in, WritableByteChannel out)
+   throws PNMLSortException, IOException;
+
+ /**
+  * @see #sortPNML(ByteBuffer, WritableByteChannel)
+  */
+ void sortPNML(byte[] in, OutputStream out) throws PNMLSortException,
+   IOException;
+
+ /**
+  * Same as {@link #sortPNML(ByteBuffer, WritableByteChannel)}, reading the
+  * document from a stream, which is left open.
+  * 
+  * @param in
+  * @param out
+  * @throws PNMLSortException
+  * @throws IOException
+  */
+ void sortPNML(InputStream in, WritableByteChannel out)
+   throws PNMLSortException, IOException;
+
+ /**
+  * @see #sortPNML(InputStream, WritableByteChannel)
+  */
+ void sortPNML(InputStream in, OutputStream out) throws PNMLSortException,
+   IOException;
+
+ /**
+  * @return the metrics of the document being sorted, or of the last one.
+  */
+ SortMetrics getMetrics();
 }
@@ -0,0 +1,202 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the progress of a phase of a sort, at most once per interval, in
+ * place of a message per element. Elements are counted with
+ * {@link #tick()}, which only reads the clock once every
+ * {@value #CHECK_EVERY} elements, so that it can be called from the
+ * innermost loops. A progress line gives the elements done and their rate,
+ * the bytes read or written, and an estimate of the time left when the
+ * total is known. Rates are measured from the first reading of the clock, so
+ * that the set up of a phase, such as the parsing of the document before it
+ * is indexed, does not skew them.
+ * 
+ * @author lom
+ *
+ */
+final class ProgressReporter {
+
+	/**
+	 * Elements between two readings of the clock; a power of 2.
+	 */
+	static final int CHECK_EVERY = 1024;
+	private static final long MB = 1024L * 1024L;
+	private static final long NANOS = 1000000000L;
+
+	/**
+	 * Where a phase stands, in bytes.
+	 */
+	interface Gauge {
+		/**
+		 * @return the bytes read or written so far, -1 if unknown
+		 */
+		long bytes();
+	}
+
+	private final Logger log;
+	private final long interval;
+	private String document;
+	private String phase;
+	private Gauge gauge;
+	private long totalElements;
+	private long totalBytes;
+	private long count;
+	/**
+	 * Start of the phase.
+	 */
+	private long begin;
+	/**
+	 * First reading of the clock, with the elements and bytes done by then.
+	 */
+	private long start;
+	private long countAtStart;
+	private long bytesAtStart;
+	private long last;
+	private boolean reported;
+
+	/**
+	 * @param intervalMillis
+	 *            minimum time between two progress lines, 0 to never report
+	 */
+	ProgressReporter(long intervalMillis) {
+		this.log = LoggerFactory.getLogger(ProgressReporter.class
+				.getCanonicalName());
+		this.interval = intervalMillis * 1000000L;
+	}
+
+	/**
+	 * Starts a phase.
+	 * 
+	 * @param doc
+	 *            name of the document
+	 * @param name
+	 *            of the phase
+	 * @param elements
+	 *            the elements to be done, -1 if unknown
+	 * @param bytes
+	 *            the bytes to be read or written, -1 if unknown
+	 * @param g
+	 *            where the phase stands in bytes, null if unknown
+	 */
+	void start(String doc, String name, long elements, long bytes, Gauge g) {
+		this.document = doc;
+		this.phase = name;
+		this.totalElements = elements;
+		this.totalBytes = bytes;
+		this.gauge = g;
+		this.count = 0L;
+		this.begin = System.nanoTime();
+		this.start = 0L;
+		this.reported = false;
+	}
+
+	/**
+	 * Counts an element done.
+	 */
+	void tick() {
+		if ((++count & (CHECK_EVERY - 1)) == 0 && interval > 0L) {
+			long now = System.nanoTime();
+			if (start == 0L) {
+				start = now;
+				last = now;
+				countAtStart = count;
+				bytesAtStart = gauge != null ? gauge.bytes() : -1L;
+			} else if (now - last >= interval) {
+				last = now;
+				report(now, false);
+			}
+		}
+	}
+
+	/**
+	 * Ends the current phase, with a last line if it was long enough to be
+	 * reported.
+	 */
+	void end() {
+		if (reported) {
+			report(System.nanoTime(), true);
+		}
+		gauge = null;
+	}
+
+	private void report(long now, boolean done) {
+		reported = true;
+		long elapsed = Math.max(1L, now - start);
+		long bytes = gauge != null ? gauge.bytes() : -1L;
+		long elements = count - countAtStart;
+		long read = bytes >= 0L && bytesAtStart >= 0L ? bytes - bytesAtStart
+				: -1L;
+		StringBuilder sb = new StringBuilder(128);
+		sb.append(document).append(": ").append(phase)
+				.append(done ? " done, " : ", ").append(count);
+		if (totalElements > 0L) {
+			sb.append('/').append(totalElements);
+		}
+		sb.append(" elements (").append(perSecond(elements, elapsed))
+				.append("/s)");
+		if (bytes >= 0L) {
+			sb.append(", ").append(bytes / MB);
+			if (totalBytes > 0L) {
+				sb.append('/').append(totalBytes / MB);
+			}
+			sb.append(" MB");
+			if (read >= 0L) {
+				sb.append(" (").append(perSecond(read, elapsed) / MB)
+						.append(" MB/s)");
+			}
+		}
+		if (done) {
+			sb.append(" in ").append((now - begin) / 1000000L).append(" ms");
+		} else {
+			long left = timeLeft(elapsed, elements, bytes, read);
+			if (left >= 0L) {
+				sb.append(", ETA ").append(left / NANOS).append(" s");
+			}
+		}
+		log.info(sb.toString());
+	}
+
+	/**
+	 * @return the time left, from the bytes when their total is known, from
+	 *         the elements otherwise; -1 if neither total is known
+	 */
+	private long timeLeft(long elapsed, long elements, long bytes, long read) {
+		if (totalBytes > 0L && read > 0L) {
+			return (long) ((double) elapsed * Math.max(0L, totalBytes - bytes)
+					/ read);
+		}
+		if (totalElements > 0L && elements > 0L) {
+			return (long) ((double) elapsed
+					* Math.max(0L, totalElements - count) / elements);
+		}
+		return -1L;
+	}
+
+	/**
+	 * @return the rate of an amount over the elapsed time, per second.
+	 *         Computed in double, as amount * NANOS overflows past 9 GB.
+	 */
+	private static long perSecond(long amount, long elapsed) {
+		return (long) ((double) amount * NANOS / elapsed);
+	}
+}
@@ -0,0 +1,262 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.lip6.move.pnml.sort.MainPNMLSort;
+
+/**
+ * On-disk cache of sorted outputs, keyed by a hash of the input document and
+ * of the options which change the output. A hit is copied to the
+ * destination without parsing the document again.
+ * 
+ * Entries and destinations are never linked: a later sort truncates and
+ * rewrites its destination in place, which would change a linked entry too.
+ * Copies are made into a temporary file, then renamed over their target.
+ * 
+ * Entries are evicted beyond a maximum age since their last use, then the
+ * least recently used ones beyond a maximum total size. The cache can be
+ * shared by concurrent sorters: entries are published atomically.
+ * 
+ * @author lom
+ *
+ */
+public final class ResultCache {
+
+	private static final String ENTRY_EXT = MainPNMLSort.SORT_EXT;
+	private static final String TMP_EXT = ".tmp";
+	private static final int HASH_BUFFERSIZE = 1024 * 1024;
+
+	private final File dir;
+	private final long maxSize;
+	private final long maxAge;
+	private final Logger log;
+
+	/**
+	 * @param dir
+	 *            cache directory, created if needed
+	 * @param maxSize
+	 *            maximum total size of the entries, in bytes. Zero or less
+	 *            means no limit.
+	 * @param maxAge
+	 *            maximum time since the last use of an entry, in ms. Zero or
+	 *            less means no limit.
+	 * @throws IOException
+	 */
+	public ResultCache(File dir, long maxSize, long maxAge) throws IOException {
+		this.dir = dir;
+		this.maxSize = maxSize;
+		this.maxAge = maxAge;
+		this.log = LoggerFactory.getLogger(ResultCache.class
+				.getCanonicalName());
+		Files.createDirectories(dir.toPath());
+	}
+
+	/**
+	 * Computes the key of a document sorted with some options.
+	 * 
+	 * @param in
+	 *            the PNML document
+	 * @param options
+	 * @return the key, in hexadecimal
+	 * @throws IOException
+	 */
+	public String key(File in, SortOptions options) throws IOException {
+		MessageDigest md = Fingerprint.newDigest();
+		md.update(optionsKey(options).getBytes(StandardCharsets.UTF_8));
+		ByteBuffer buf = ByteBuffer.allocateDirect(HASH_BUFFERSIZE);
+		try (FileChannel fc = FileChannel.open(in.toPath(),
+				StandardOpenOption.READ)) {
+			while (fc.read(buf) != -1) {
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+			}
+		}
+		return Fingerprint.toHex(md.digest());
+	}
+
+	/**
+	 * The options which change the output, and the versions of its formats.
+	 */
+	private static String optionsKey(SortOptions options) {
+		StringBuilder sb = new StringBuilder("pnmlsort-output-")
+				.append(MainPNMLSort.OUTPUT_VERSION).append('.')
+				.append(BinarySortedWriter.VERSION);
+		sb.append(";sort.on.id=").append(options.isSortOnId());
+		sb.append(";exclude.places=").append(options.isExcludePlaces());
+		sb.append(";exclude.trans=").append(options.isExcludeTrans());
+		sb.append(";exclude.arcs=").append(options.isExcludeArcs());
+		sb.append(";output.markings=").append(options.isOutputMarkings());
+		sb.append(";output.inscriptions=").append(
+				options.isOutputInscriptions());
+		sb.append(";gzip.output=").append(options.isGzipOutput());
+		sb.append(";binary.output=").append(options.isBinaryOutput());
+		return sb.append(';').toString();
+	}
+
+	/**
+	 * Puts the entry of a key at a destination, if there is one.
+	 * 
+	 * @param key
+	 * @param dest
+	 * @return true on a hit
+	 * @throws IOException
+	 */
+	public boolean fetch(String key, File dest) throws IOException {
+		Path entry = entry(key);
+		if (!Files.isRegularFile(entry)) {
+			return false;
+		}
+		try {
+			copy(entry, dest.toPath());
+		} catch (NoSuchFileException e) {
+			// Evicted in between.
+			return false;
+		}
+		touch(entry);
+		return true;
+	}
+
+	/**
+	 * Stores a sorted output as the entry of a key.
+	 * 
+	 * @param key
+	 * @param sorted
+	 * @throws IOException
+	 */
+	public void store(String key, File sorted) throws IOException {
+		copy(sorted.toPath(), entry(key));
+	}
+
+	/**
+	 * Evicts the entries not used for longer than the maximum age, then the
+	 * least recently used ones until the total size fits.
+	 * 
+	 * @return the number of entries evicted
+	 */
+	public int evict() {
+		File[] entries = dir.listFiles();
+		if (entries == null) {
+			return 0;
+		}
+		List<File> kept = new ArrayList<>(entries.length);
+		long now = System.currentTimeMillis();
+		long total = 0L;
+		int evicted = 0;
+		for (File f : entries) {
+			if (!f.getName().endsWith(ENTRY_EXT)) {
+				continue;
+			}
+			if (maxAge > 0L && now - f.lastModified() > maxAge) {
+				evicted += delete(f);
+			} else {
+				kept.add(f);
+				total += f.length();
+			}
+		}
+		if (maxSize > 0L && total > maxSize) {
+			File[] lru = kept.toArray(new File[0]);
+			final long[] used = new long[lru.length];
+			for (int i = 0; i < lru.length; i++) {
+				used[i] = lru[i].lastModified();
+			}
+			Integer[] order = new Integer[lru.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(used[a], used[b]);
+				}
+			});
+			for (int i = 0; i < order.length && total > maxSize; i++) {
+				total -= lru[order[i]].length();
+				evicted += delete(lru[order[i]]);
+			}
+		}
+		if (evicted > 0) {
+			log.info("Evicted {} entries from cache {}.", evicted, dir);
+		}
+		return evicted;
+	}
+
+	private int delete(File f) {
+		if (f.delete()) {
+			return 1;
+		}
+		log.warn("Could not evict cache entry {}.", f);
+		return 0;
+	}
+
+	private Path entry(String key) {
+		return new File(dir, key + ENTRY_EXT).toPath();
+	}
+
+	/**
+	 * Copies source into a temporary file next to target, then renames it
+	 * over target, so that target is either the old file or the whole copy.
+	 */
+	private static void copy(Path source, Path target) throws IOException {
+		Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(),
+				target.getFileName().toString(), TMP_EXT);
+		try {
+			Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Marks an entry as used, for eviction.
+	 */
+	private static void touch(Path entry) {
+		try {
+			Files.setLastModifiedTime(entry,
+					FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// Only makes the entry older than it is.
+		}
+	}
+
+	public File getDir() {
+		return dir;
+	}
+}
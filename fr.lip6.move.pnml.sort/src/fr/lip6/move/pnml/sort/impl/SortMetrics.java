@@ -0,0 +1,339 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Metrics of the sort of one PNML document: time spent in each phase,
+ * element counts, bytes written, peak depth of the output ring and heap
+ * high-water mark.
+ * 
+ * Phases do not overlap, so that their times add up to the elapsed time of
+ * the sort. The writer's phases are the exception: they run in the writer
+ * thread, alongside the others. The sorter's fields are updated by the
+ * sorter thread only, the writer's ones by the writer thread only; they can
+ * be read once the writer has been joined.
+ * 
+ * @author lom
+ *
+ */
+public final class SortMetrics {
+
+	/**
+	 * Phases of a sort.
+	 */
+	public enum Phase {
+		/**
+		 * Reading, or memory-mapping, the document.
+		 */
+		READ("read"),
+		/**
+		 * Building the VTD index of the document.
+		 */
+		PARSE("parse"),
+		/**
+		 * Indexing nets, pages, nodes and arcs into the model. Includes
+		 * reading and parsing when the document is streamed.
+		 */
+		INDEX("index"),
+		/**
+		 * Ranking symbols and sorting page sections.
+		 */
+		SORT("sort"),
+		/**
+		 * Encoding the sorted objects into the output buffers.
+		 */
+		ENCODE("encode"),
+		/**
+		 * Sorter waiting for a free output buffer.
+		 */
+		ENCODE_WAIT("encodeWait"),
+		/**
+		 * Writer waiting for a filled output buffer.
+		 */
+		WRITER_WAIT("writerWait"),
+		/**
+		 * Writer writing into the output channel.
+		 */
+		WRITE("write");
+
+		private final String key;
+
+		private Phase(String key) {
+			this.key = key;
+		}
+
+		public String getKey() {
+			return key;
+		}
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final long[] nanos = new long[PHASES.length];
+	private String input;
+	private String output;
+	private long inputBytes;
+	private long elapsedNanos;
+	private long nets;
+	private long pages;
+	private long places;
+	private long transitions;
+	private long arcs;
+	private long bytesWritten;
+	private int peakQueueDepth;
+	private int queueCapacity;
+	private long heapHighWater;
+
+	public SortMetrics() {
+		super();
+	}
+
+	/**
+	 * Adds time to a phase, and samples the heap.
+	 * 
+	 * @param phase
+	 * @param elapsed
+	 *            in nanoseconds
+	 */
+	public void add(Phase phase, long elapsed) {
+		nanos[phase.ordinal()] += elapsed;
+		if (phase != Phase.WRITER_WAIT && phase != Phase.WRITE) {
+			sampleHeap();
+		}
+	}
+
+	/**
+	 * @param phase
+	 * @return the time spent in that phase, in nanoseconds
+	 */
+	public long get(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	/**
+	 * Records the heap in use, if higher than the current high-water mark.
+	 * Not to be called from the writer thread.
+	 */
+	public void sampleHeap() {
+		Runtime rt = Runtime.getRuntime();
+		long used = rt.totalMemory() - rt.freeMemory();
+		if (used > heapHighWater) {
+			heapHighWater = used;
+		}
+	}
+
+	void setFiles(File in, File out) {
+		this.input = in.getPath();
+		this.output = out.getPath();
+		this.inputBytes = in.length();
+	}
+
+	/**
+	 * For a document which is not read from a file.
+	 * 
+	 * @param bytes
+	 *            its size, if known
+	 */
+	void setInputBytes(long bytes) {
+		this.inputBytes = bytes;
+	}
+
+	void addWritten(long bytes) {
+		bytesWritten += bytes;
+	}
+
+	void countNet() {
+		nets++;
+	}
+
+	void countPage() {
+		pages++;
+	}
+
+	void countPlace() {
+		places++;
+	}
+
+	void countTransition() {
+		transitions++;
+	}
+
+	void countArc() {
+		arcs++;
+	}
+
+	void setQueue(int peakDepth, int capacity) {
+		this.peakQueueDepth = peakDepth;
+		this.queueCapacity = capacity;
+	}
+
+	void setElapsedNanos(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public String getInput() {
+		return input;
+	}
+
+	public String getOutput() {
+		return output;
+	}
+
+	public long getInputBytes() {
+		return inputBytes;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public long getNets() {
+		return nets;
+	}
+
+	public long getPages() {
+		return pages;
+	}
+
+	public long getPlaces() {
+		return places;
+	}
+
+	public long getTransitions() {
+		return transitions;
+	}
+
+	public long getArcs() {
+		return arcs;
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public int getPeakQueueDepth() {
+		return peakQueueDepth;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public long getHeapHighWater() {
+		return heapHighWater;
+	}
+
+	/**
+	 * Writes these metrics as a JSON object.
+	 * 
+	 * @param sb
+	 * @return sb
+	 */
+	public StringBuilder toJson(StringBuilder sb) {
+		sb.append('{');
+		field(sb, "input").append(quote(input)).append(',');
+		field(sb, "output").append(quote(output)).append(',');
+		field(sb, "inputBytes").append(inputBytes).append(',');
+		field(sb, "elapsedMs").append(millis(elapsedNanos)).append(',');
+		phasesToJson(sb, nanos).append(',');
+		countsToJson(sb, nets, pages, places, transitions, arcs).append(',');
+		field(sb, "bytesWritten").append(bytesWritten).append(',');
+		field(sb, "peakQueueDepth").append(peakQueueDepth).append(',');
+		field(sb, "queueCapacity").append(queueCapacity).append(',');
+		field(sb, "heapHighWaterBytes").append(heapHighWater);
+		return sb.append('}');
+	}
+
+	/**
+	 * Writes these metrics into a JSON file.
+	 * 
+	 * @param f
+	 * @throws IOException
+	 */
+	public void writeJson(File f) throws IOException {
+		writeJson(f, toJson(new StringBuilder()));
+	}
+
+	static void writeJson(File f, CharSequence json) throws IOException {
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(f),
+				StandardCharsets.UTF_8)) {
+			w.append(json).append('\n');
+		}
+	}
+
+	static StringBuilder phasesToJson(StringBuilder sb, long[] nanos) {
+		field(sb, "phasesMs").append('{');
+		for (Phase p : PHASES) {
+			if (p.ordinal() > 0) {
+				sb.append(',');
+			}
+			field(sb, p.getKey()).append(millis(nanos[p.ordinal()]));
+		}
+		return sb.append('}');
+	}
+
+	static StringBuilder countsToJson(StringBuilder sb, long nets,
+			long pages, long places, long transitions, long arcs) {
+		field(sb, "counts").append('{');
+		field(sb, "nets").append(nets).append(',');
+		field(sb, "pages").append(pages).append(',');
+		field(sb, "places").append(places).append(',');
+		field(sb, "transitions").append(transitions).append(',');
+		field(sb, "arcs").append(arcs);
+		return sb.append('}');
+	}
+
+	static StringBuilder field(StringBuilder sb, String name) {
+		return sb.append('"').append(name).append("\":");
+	}
+
+	static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1.0e6);
+	}
+
+	static String quote(String s) {
+		if (s == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		char c;
+		for (int i = 0; i < s.length(); i++) {
+			c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	long[] nanos() {
+		return nanos;
+	}
+}
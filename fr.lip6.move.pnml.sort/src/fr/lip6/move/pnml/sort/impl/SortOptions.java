@@ -0,0 +1,370 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Options driving the contents of a sorted output, and how it is computed.
+ *
+ * A sorter works on its own copy of the options it is created with, so that
+ * several sorters can run concurrently, even with different options.
+ *
+ * @author lom
+ *
+ */
+public final class SortOptions {
+
+	/**
+	 * Default minimum time between two progress lines, in ms.
+	 */
+	public static final long DEFAULT_PROGRESS = 5000L;
+
+	private boolean sortOnId;
+	private boolean excludePlaces;
+	private boolean excludeTrans;
+	private boolean excludeArcs;
+	private boolean outputMarkings;
+	private boolean outputInscriptions;
+	private long spillThreshold;
+	private File spillDir;
+	private int sortThreads;
+	private boolean metrics;
+	private boolean metricsJmx;
+	private boolean mappedOutput;
+	private boolean gzipOutput;
+	private boolean binaryOutput;
+	private boolean fingerprint;
+	private boolean fingerprintOnly;
+	private File cacheDir;
+	private long cacheMaxSize;
+	private long cacheMaxAge;
+	private boolean vtdIndex;
+	private boolean verbose;
+	private long progressInterval;
+	private List<SortVariant> variants;
+
+	/**
+	 * Default options: sort on names, output everything, including markings
+	 * and inscriptions.
+	 */
+	public SortOptions() {
+		super();
+		this.outputMarkings = true;
+		this.outputInscriptions = true;
+		this.sortThreads = Runtime.getRuntime().availableProcessors();
+		this.progressInterval = DEFAULT_PROGRESS;
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other
+	 *            the options to copy
+	 */
+	public SortOptions(SortOptions other) {
+		super();
+		this.sortOnId = other.sortOnId;
+		this.excludePlaces = other.excludePlaces;
+		this.excludeTrans = other.excludeTrans;
+		this.excludeArcs = other.excludeArcs;
+		this.outputMarkings = other.outputMarkings;
+		this.outputInscriptions = other.outputInscriptions;
+		this.spillThreshold = other.spillThreshold;
+		this.spillDir = other.spillDir;
+		this.sortThreads = other.sortThreads;
+		this.metrics = other.metrics;
+		this.metricsJmx = other.metricsJmx;
+		this.mappedOutput = other.mappedOutput;
+		this.gzipOutput = other.gzipOutput;
+		this.binaryOutput = other.binaryOutput;
+		this.fingerprint = other.fingerprint;
+		this.fingerprintOnly = other.fingerprintOnly;
+		this.cacheDir = other.cacheDir;
+		this.cacheMaxSize = other.cacheMaxSize;
+		this.cacheMaxAge = other.cacheMaxAge;
+		this.vtdIndex = other.vtdIndex;
+		this.verbose = other.verbose;
+		this.progressInterval = other.progressInterval;
+		this.variants = other.variants;
+	}
+
+	public boolean isSortOnId() {
+		return sortOnId;
+	}
+
+	public void setSortOnId(boolean sortOnId) {
+		this.sortOnId = sortOnId;
+	}
+
+	public boolean isExcludePlaces() {
+		return excludePlaces;
+	}
+
+	public void setExcludePlaces(boolean excludePlaces) {
+		this.excludePlaces = excludePlaces;
+	}
+
+	public boolean isExcludeTrans() {
+		return excludeTrans;
+	}
+
+	public void setExcludeTrans(boolean excludeTrans) {
+		this.excludeTrans = excludeTrans;
+	}
+
+	public boolean isExcludeArcs() {
+		return excludeArcs;
+	}
+
+	public void setExcludeArcs(boolean excludeArcs) {
+		this.excludeArcs = excludeArcs;
+	}
+
+	public boolean isOutputMarkings() {
+		return outputMarkings;
+	}
+
+	public void setOutputMarkings(boolean outputMarkings) {
+		this.outputMarkings = outputMarkings;
+	}
+
+	public boolean isOutputInscriptions() {
+		return outputInscriptions;
+	}
+
+	public void setOutputInscriptions(boolean outputInscriptions) {
+		this.outputInscriptions = outputInscriptions;
+	}
+
+	/**
+	 * Only the rows of the sections are bounded by this threshold. The
+	 * symbols of the document stay in memory: about 60 bytes, plus 2 per
+	 * character, for each distinct id and name with its node label, and 16
+	 * bytes for each marking, inscription or term handle.
+	 * 
+	 * @return the estimated heap size, in bytes, of the rows of a page
+	 *         section beyond which they are sorted in runs spilled to disk.
+	 *         Zero means never.
+	 */
+	public long getSpillThreshold() {
+		return spillThreshold;
+	}
+
+	public void setSpillThreshold(long spillThreshold) {
+		this.spillThreshold = spillThreshold;
+	}
+
+	/**
+	 * @return the directory of the runs spilled to disk, null for the
+	 *         default temporary directory.
+	 */
+	public File getSpillDir() {
+		return spillDir;
+	}
+
+	public void setSpillDir(File spillDir) {
+		this.spillDir = spillDir;
+	}
+
+	/**
+	 * @return the parallelism of the sort of page sections and big lists. 1
+	 *         means sequential.
+	 */
+	public int getSortThreads() {
+		return sortThreads;
+	}
+
+	public void setSortThreads(int sortThreads) {
+		this.sortThreads = Math.max(1, sortThreads);
+	}
+
+	/**
+	 * @return true if a JSON metrics report is written next to each sorted
+	 *         output, and for each batch.
+	 */
+	public boolean isMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(boolean metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return true if the metrics of a batch are exposed over JMX while it
+	 *         runs.
+	 */
+	public boolean isMetricsJmx() {
+		return metricsJmx;
+	}
+
+	public void setMetricsJmx(boolean metricsJmx) {
+		this.metricsJmx = metricsJmx;
+	}
+
+	/**
+	 * @return true if the output is written through memory-mapped windows.
+	 */
+	public boolean isMappedOutput() {
+		return mappedOutput;
+	}
+
+	public void setMappedOutput(boolean mappedOutput) {
+		this.mappedOutput = mappedOutput;
+	}
+
+	/**
+	 * @return true if the output is compressed with gzip, into a .sorted.gz
+	 *         file. Takes precedence over the mapped output.
+	 */
+	public boolean isGzipOutput() {
+		return gzipOutput;
+	}
+
+	public void setGzipOutput(boolean gzipOutput) {
+		this.gzipOutput = gzipOutput;
+	}
+
+	/**
+	 * @return true if the output is written in the binary format of
+	 *         {@link BinarySortedWriter}, into a .sortedb file.
+	 */
+	public boolean isBinaryOutput() {
+		return binaryOutput;
+	}
+
+	public void setBinaryOutput(boolean binaryOutput) {
+		this.binaryOutput = binaryOutput;
+	}
+
+	/**
+	 * @return true if a fingerprint of each output is written next to it.
+	 */
+	public boolean isFingerprint() {
+		return fingerprint || fingerprintOnly;
+	}
+
+	public void setFingerprint(boolean fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * @return true if only the fingerprints are written, not the outputs.
+	 */
+	public boolean isFingerprintOnly() {
+		return fingerprintOnly;
+	}
+
+	public void setFingerprintOnly(boolean fingerprintOnly) {
+		this.fingerprintOnly = fingerprintOnly;
+	}
+
+	/**
+	 * @return the directory of the result cache, null if there is no cache.
+	 */
+	public File getCacheDir() {
+		return cacheDir;
+	}
+
+	public void setCacheDir(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * @return the maximum total size of the cache entries, in bytes. Zero
+	 *         means no limit.
+	 */
+	public long getCacheMaxSize() {
+		return cacheMaxSize;
+	}
+
+	public void setCacheMaxSize(long cacheMaxSize) {
+		this.cacheMaxSize = cacheMaxSize;
+	}
+
+	/**
+	 * @return the maximum time since the last use of a cache entry, in ms.
+	 *         Zero means no limit.
+	 */
+	public long getCacheMaxAge() {
+		return cacheMaxAge;
+	}
+
+	public void setCacheMaxAge(long cacheMaxAge) {
+		this.cacheMaxAge = cacheMaxAge;
+	}
+
+	/**
+	 * @return true if the VTD index of a document is saved in a sidecar
+	 *         file, and loaded from it by later sorts of that document.
+	 */
+	public boolean isVtdIndex() {
+		return vtdIndex;
+	}
+
+	public void setVtdIndex(boolean vtdIndex) {
+		this.vtdIndex = vtdIndex;
+	}
+
+	/**
+	 * @return true if a message is logged for each net, page and section, and
+	 *         for each element warned about. Otherwise, repeated warnings are
+	 *         counted, and progress is reported at intervals.
+	 */
+	public boolean isVerbose() {
+		return verbose;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * @return the minimum time between two progress lines, in ms. Zero means
+	 *         no progress lines.
+	 */
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+
+	public void setProgressInterval(long progressInterval) {
+		this.progressInterval = Math.max(0L, progressInterval);
+	}
+
+	/**
+	 * @return the variants output from the same index of each document,
+	 *         each into its own file; null for a single output following
+	 *         these options.
+	 */
+	public List<SortVariant> getVariants() {
+		return variants;
+	}
+
+	/**
+	 * @param variants
+	 *            an unmodifiable list, as returned by
+	 *            {@link SortVariant#parse(String, SortOptions)}; null or empty
+	 *            for a single output
+	 */
+	public void setVariants(List<SortVariant> variants) {
+		this.variants = variants == null || variants.isEmpty() ? null
+				: variants;
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One of several outputs of a document, sorted from the same index. A
+ * variant is named after its specification, made of a sort key and of
+ * flags separated by <code>+</code>:
+ * <ul>
+ * <li><code>byname</code> or <code>byid</code>: sort on names, or on ids;</li>
+ * <li><code>mkg</code>, <code>insc</code>: output markings, inscriptions;</li>
+ * <li><code>noplaces</code>, <code>notrans</code>, <code>noarcs</code>:
+ * exclude places, transitions, arcs.</li>
+ * </ul>
+ * For instance <code>byid+mkg+noarcs</code>. Markings and inscriptions are
+ * only output when asked for.
+ * 
+ * @author lom
+ *
+ */
+public final class SortVariant {
+
+	public static final String BY_NAME = "byname";
+	public static final String BY_ID = "byid";
+	public static final String MKG = "mkg";
+	public static final String INSC = "insc";
+	public static final String NO_PLACES = "noplaces";
+	public static final String NO_TRANS = "notrans";
+	public static final String NO_ARCS = "noarcs";
+
+	private final String name;
+	private final SortOptions options;
+
+	private SortVariant(String name, SortOptions options) {
+		this.name = name;
+		this.options = options;
+	}
+
+	/**
+	 * Parses a comma-separated list of variants.
+	 * 
+	 * @param specs
+	 *            e.g. <code>byname,byid+mkg</code>
+	 * @param base
+	 *            options the variants start from; those driving the output
+	 *            contents are overridden
+	 * @return the variants, in the order of the list
+	 * @throws IllegalArgumentException
+	 *             if a variant is not well-formed, or appears twice
+	 */
+	public static List<SortVariant> parse(String specs, SortOptions base) {
+		List<SortVariant> res = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		for (String spec : specs.split(",")) {
+			spec = spec.trim().toLowerCase();
+			if (spec.isEmpty()) {
+				continue;
+			}
+			if (names.contains(spec)) {
+				throw new IllegalArgumentException("Duplicate variant: "
+						+ spec);
+			}
+			names.add(spec);
+			res.add(new SortVariant(spec, parseOne(spec, base)));
+		}
+		if (res.isEmpty()) {
+			throw new IllegalArgumentException("No variant in: " + specs);
+		}
+		return Collections.unmodifiableList(res);
+	}
+
+	private static SortOptions parseOne(String spec, SortOptions base) {
+		String[] parts = spec.split("\\+");
+		SortOptions o = new SortOptions(base);
+		o.setVariants(null);
+		if (BY_NAME.equals(parts[0])) {
+			o.setSortOnId(false);
+		} else if (BY_ID.equals(parts[0])) {
+			o.setSortOnId(true);
+		} else {
+			throw new IllegalArgumentException("Variant " + spec
+					+ " should start with " + BY_NAME + " or " + BY_ID);
+		}
+		o.setOutputMarkings(false);
+		o.setOutputInscriptions(false);
+		o.setExcludePlaces(false);
+		o.setExcludeTrans(false);
+		o.setExcludeArcs(false);
+		for (int i = 1; i < parts.length; i++) {
+			switch (parts[i]) {
+			case MKG:
+				o.setOutputMarkings(true);
+				break;
+			case INSC:
+				o.setOutputInscriptions(true);
+				break;
+			case NO_PLACES:
+				o.setExcludePlaces(true);
+				break;
+			case NO_TRANS:
+				o.setExcludeTrans(true);
+				break;
+			case NO_ARCS:
+				o.setExcludeArcs(true);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown flag " + parts[i]
+						+ " in variant " + spec);
+			}
+		}
+		return o;
+	}
+
+	/**
+	 * @return the specification of this variant, which also names its
+	 *         output file.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the options of this variant
+	 */
+	public SortOptions getOptions() {
+		return options;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
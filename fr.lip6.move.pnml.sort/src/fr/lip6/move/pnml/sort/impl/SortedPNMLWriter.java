@@ -19,53 +19,141 @@ package fr.lip6.move.pnml.sort.impl;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fr.lip6.move.pnml.sort.MainPNMLSort;
-import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
 
 /**
- * Thread task to write contents read from a queue int a channel.
+ * Thread task to write the buffers filled in a {@link ByteBufferRing} into a
+ * channel. All the buffers available at once are written with a single
+ * gathering write, then given back to the ring. When the output is mapped,
+ * they are copied into the mapped windows instead; when it is compressed,
+ * into the blocks of the gzip output. A channel of the caller is written one
+ * buffer after the other. Without a channel, they are only given back, as
+ * when just fingerprinting the output.
+ * 
  * @author lom
  *
  */
 public final class SortedPNMLWriter implements Runnable {
 
-	private static final String STOP = "STOP";
-	private static final String CANCEL = "CANCEL";
+	/**
+	 * Maximum number of buffers written at once.
+	 */
+	private static final int MAX_GATHER = 16;
 	private OutChannelBean ocb;
-	private BlockingQueue<String> queue;
+	private ByteBufferRing ring;
+	private SortMetrics metrics;
 	private Logger log;
 
-	public SortedPNMLWriter(OutChannelBean ocb, BlockingQueue<String> queue) {
+	public SortedPNMLWriter(OutChannelBean ocb, ByteBufferRing ring) {
+		this(ocb, ring, new SortMetrics());
+	}
+
+	/**
+	 * @param ocb
+	 *            null to discard the output
+	 * @param ring
+	 * @param metrics
+	 *            where the writer's wait and write times, and the bytes
+	 *            written, are recorded
+	 */
+	public SortedPNMLWriter(OutChannelBean ocb, ByteBufferRing ring,
+			SortMetrics metrics) {
 		this.ocb = ocb;
-		this.queue = queue;
+		this.ring = ring;
+		this.metrics = metrics;
 	}
 
 	@Override
 	public void run() {
 		log = LoggerFactory.getLogger(SortedPNMLWriter.class
 				.getCanonicalName() + "#" + Thread.currentThread().getId());
-		ByteBuffer bytebuf = ByteBuffer
-				.allocateDirect(PNMLSortUtils.BUFFERSIZE);
-		List<byte[]> contents = new ArrayList<byte[]>();
-		String msg;
+		List<ByteBuffer> drained = new ArrayList<>(MAX_GATHER);
+		ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+		boolean done = false;
+		int n;
+		long remaining, t;
 		try {
-			msg = queue.take();
-			while (!STOP.equalsIgnoreCase(msg) && !CANCEL.equalsIgnoreCase(msg)) {
-				PNMLSortUtils.writeToChannel(ocb, msg, bytebuf, contents);
-				contents.clear();
-				msg = queue.take();
+			while (!done) {
+				t = System.nanoTime();
+				ring.takeFilled(drained, MAX_GATHER);
+				metrics.add(SortMetrics.Phase.WRITER_WAIT, System.nanoTime() - t);
+				n = 0;
+				remaining = 0L;
+				for (ByteBuffer b : drained) {
+					if (b == ByteBufferRing.STOP) {
+						done = true;
+					} else if (b == ByteBufferRing.CANCEL) {
+						done = true;
+						remaining = -1L;
+					} else {
+						b.flip();
+						batch[n++] = b;
+						if (remaining >= 0L) {
+							remaining += b.remaining();
+						}
+					}
+				}
+				drained.clear();
+				if (remaining > 0L && ocb != null && ring.getError() == null) {
+					write(batch, n, remaining);
+				}
+				for (int i = 0; i < n; i++) {
+					ring.release(batch[i]);
+					batch[i] = null;
+				}
+			}
+		} catch (InterruptedException e) {
+			log.error(e.getMessage());
+			MainPNMLSort.printStackTrace(e);
+		}
+	}
+
+	private void write(ByteBuffer[] batch, int n, long remaining) {
+		FileChannel fc = ocb.getFc();
+		MappedOutChannel mapped = ocb.getMapped();
+		GzipOutChannel gzip = ocb.getGzip();
+		WritableByteChannel channel = ocb.getChannel();
+		long left = remaining;
+		long t = System.nanoTime();
+		try {
+			if (mapped != null) {
+				for (int i = 0; i < n; i++) {
+					mapped.write(batch[i]);
+				}
+				left = 0L;
+			} else if (gzip != null) {
+				for (int i = 0; i < n; i++) {
+					gzip.write(batch[i]);
+				}
+				left = 0L;
+			} else if (channel != null) {
+				for (int i = 0; i < n; i++) {
+					while (batch[i].hasRemaining()) {
+						channel.write(batch[i]);
+					}
+				}
+				left = 0L;
+			}
+			while (left > 0L) {
+				left -= fc.write(batch, 0, n);
 			}
-		} catch (InterruptedException | IOException e) {
+			metrics.addWritten(remaining);
+		} catch (IOException e) {
+			// Keep on draining, so that the sorter does not block.
+			ring.setError(e);
 			log.error(e.getMessage());
 			MainPNMLSort.printStackTrace(e);
-		} 
+		} finally {
+			metrics.add(SortMetrics.Phase.WRITE, System.nanoTime() - t);
+		}
 	}
 
 }
@@ -0,0 +1,378 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import fr.lip6.move.pnml.sort.exceptions.InternalException;
+import fr.lip6.move.pnml.sort.exceptions.InvalidPNMLTypeException;
+import fr.lip6.move.pnml.sort.exceptions.PNMLSortException;
+import fr.lip6.move.pnml.sort.utils.ByteBufferInputStream;
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Sorter which reads the PNML document in a single forward pass, with a StAX
+ * pull parser.
+ * 
+ * Unlike {@link BasicPNMLSorter}, it neither maps nor indexes the whole
+ * document: it only keeps what the sorted output needs (names, ids, arc
+ * endpoints, markings and inscriptions). Its memory footprint thus grows with
+ * the number of net objects, not with the size of the document.
+ * 
+ * @author lom
+ *
+ */
+public final class StreamingPNMLSorter extends AbstractPNMLSorter {
+
+	private static final XMLInputFactory XIF = createInputFactory();
+
+	private XMLStreamReader xr;
+	private StringBuilder text;
+	/**
+	 * Reads the documents held in memory.
+	 */
+	private final ByteBufferInputStream bufferIn;
+
+	/**
+	 * Creates a sorter working on its own copy of the options passed as
+	 * parameter. A sorter must not be shared among concurrent threads.
+	 * 
+	 * @param options
+	 */
+	public StreamingPNMLSorter(SortOptions options) {
+		super(options);
+		this.text = new StringBuilder();
+		this.bufferIn = new ByteBufferInputStream();
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory xif = XMLInputFactory.newInstance();
+		xif.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		xif.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				Boolean.FALSE);
+		return xif;
+	}
+
+	@Override
+	protected void indexPNMLDocument(File inFile) throws PNMLSortException,
+			IOException, InterruptedException {
+		try (InputStream in = PNMLSortUtils.openInputStream(inFile)) {
+			indexPNMLDocument(in);
+		}
+	}
+
+	@Override
+	protected void indexPNMLDocument(ByteBuffer in) throws PNMLSortException,
+			IOException, InterruptedException {
+		try {
+			indexPNMLDocument(bufferIn.wrap(in));
+		} finally {
+			bufferIn.wrap(null);
+		}
+	}
+
+	@Override
+	protected void indexPNMLDocument(InputStream in) throws PNMLSortException,
+			IOException, InterruptedException {
+		try {
+			synchronized (XIF) {
+				xr = XIF.createXMLStreamReader(in);
+			}
+			try {
+				indexPNMLDocument();
+			} finally {
+				xr.close();
+				xr = null;
+			}
+		} catch (XMLStreamException | InternalException
+				| InvalidPNMLTypeException e) {
+			throw new PNMLSortException(e);
+		}
+	}
+
+	/**
+	 * @return the offset of the reader in the document, in characters: in
+	 *         bytes as long as they are ASCII.
+	 */
+	@Override
+	protected long getInputPosition() {
+		int offset = xr != null ? xr.getLocation().getCharacterOffset() : -1;
+		return offset >= 0 ? offset : -1L;
+	}
+
+	private void indexPNMLDocument() throws XMLStreamException,
+			InvalidPNMLTypeException, InternalException, IOException {
+		while (xr.hasNext()) {
+			if (xr.next() == XMLStreamConstants.START_ELEMENT) {
+				if (PNMLPaths.NET.equals(xr.getLocalName())) {
+					parseNet();
+				} else if (!PNMLPaths.PNML.equals(xr.getLocalName())) {
+					skipElement();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a net element. Its pages are registered once its name is known,
+	 * since the name is not necessarily the first child of the net.
+	 */
+	private void parseNet() throws XMLStreamException,
+			InvalidPNMLTypeException, InternalException, IOException {
+		String name = null;
+		List<String> pages = new ArrayList<>();
+		String id;
+		setNetType(xr.getAttributeValue(null, PNMLPaths.TYPE_ATTR));
+		while (nextChild()) {
+			if (PNMLPaths.NAME.equals(xr.getLocalName())) {
+				name = readText();
+			} else if (PNMLPaths.PAGE.equals(xr.getLocalName())) {
+				id = xr.getAttributeValue(null, PNMLPaths.ID_ATTR);
+				pages.add(id);
+				parsePageContents(id);
+			} else {
+				skipElement();
+			}
+		}
+		if (name == null) {
+			// Such nets are not reported, as in BasicPNMLSorter.
+			return;
+		}
+		if (pages.isEmpty()) {
+			throw new InvalidPNMLTypeException(
+					"This net has no inner page. It is not standard-compliant.");
+		}
+		addNet(name);
+		for (String pg : pages) {
+			addPage(name, pg);
+		}
+	}
+
+	private void parsePageContents(String pageId) throws XMLStreamException,
+			InvalidPNMLTypeException, InternalException, IOException {
+		String local, id;
+		while (nextChild()) {
+			local = xr.getLocalName();
+			if (PNMLPaths.PLACE.equals(local)) {
+				parseNode(pageId, NodeType.PLACE);
+			} else if (PNMLPaths.TRANSITION.equals(local)) {
+				parseNode(pageId, NodeType.TRANSITION);
+			} else if (PNMLPaths.ARC.equals(local)) {
+				parseArc(pageId);
+			} else if (PNMLPaths.PAGE.equals(local)) {
+				id = xr.getAttributeValue(null, PNMLPaths.ID_ATTR);
+				addSubPage(pageId, id);
+				parsePageContents(id);
+			} else if (PNMLPaths.REF_PLACE.equals(local)) {
+				warnRepeated("I do not yet support reference places.");
+				skipElement();
+			} else if (PNMLPaths.REF_TRANSITION.equals(local)) {
+				warnRepeated("I do not yet support reference transitions.");
+				skipElement();
+			} else if (PNMLPaths.NAME.equals(local)
+					|| PNMLPaths.TOOL_INFO.equals(local)) {
+				// page name and tool info are not processed.
+				skipElement();
+			} else {
+				throw new InvalidPNMLTypeException(
+						"Unknown (or unsupported) PNML node type at this level: "
+								+ local);
+			}
+		}
+	}
+
+	private void parseNode(String pageId, NodeType nt)
+			throws XMLStreamException, InternalException, IOException {
+		String id = xr.getAttributeValue(null, PNMLPaths.ID_ATTR);
+		String name = null, mkg = null;
+		int mkgTerm = -1;
+		while (nextChild()) {
+			if (name == null && PNMLPaths.NAME.equals(xr.getLocalName())) {
+				name = readText();
+			} else if (nt == NodeType.PLACE
+					&& PNMLPaths.MARKING.equals(xr.getLocalName())) {
+				if (isPTNet()) {
+					mkg = readText();
+				} else {
+					warnRepeated("I do not handle the marking of place of this net type.");
+					skipElement();
+				}
+			} else if (nt == NodeType.PLACE
+					&& PNMLPaths.HL_MARKING.equals(xr.getLocalName())) {
+				mkgTerm = readTerm();
+			} else {
+				skipElement();
+			}
+		}
+		switch (nt) {
+		case PLACE:
+			addPlace(pageId, id, name, mkg, mkgTerm);
+			break;
+		case TRANSITION:
+			addTransition(pageId, id, name);
+			break;
+		default:
+			// Not supported
+			throw new InternalException("This node type is not supported: "
+					+ nt.name());
+		}
+	}
+
+	private void parseArc(String pageId) throws XMLStreamException,
+			IOException {
+		String id = xr.getAttributeValue(null, PNMLPaths.ID_ATTR);
+		String src = xr.getAttributeValue(null, PNMLPaths.SRC_ATTR);
+		String trg = xr.getAttributeValue(null, PNMLPaths.TRG_ATTR);
+		String insc = null;
+		int inscTerm = -1;
+		while (nextChild()) {
+			if (PNMLPaths.INSCRIPTION.equals(xr.getLocalName())) {
+				if (isPTNet()) {
+					insc = readText();
+				} else {
+					warnRepeated("I do not handle the inscription of arcs of this net type.");
+					skipElement();
+				}
+			} else if (PNMLPaths.HL_INSCRIPTION.equals(xr.getLocalName())) {
+				inscTerm = readTerm();
+			} else {
+				skipElement();
+			}
+		}
+		addArc(pageId, id, src, trg, insc, inscTerm);
+	}
+
+	/**
+	 * Parses the structure of a marking or an inscription of a Symmetric net
+	 * into the term store, and moves to the end of the current element.
+	 * 
+	 * @return the handle of the term, or -1 if there is none
+	 */
+	private int readTerm() throws XMLStreamException {
+		if (!isSNNet()) {
+			warnRepeated("I only handle high-level markings and inscriptions in Symmetric nets.");
+			skipElement();
+			return -1;
+		}
+		int term = -1;
+		try {
+			while (nextChild()) {
+				if (term < 0 && PNMLPaths.STRUCTURE.equals(xr.getLocalName())) {
+					term = readTermElement();
+				} else {
+					skipElement();
+				}
+			}
+		} finally {
+			getTerms().reset();
+		}
+		return term;
+	}
+
+	private int readTermElement() throws XMLStreamException {
+		TermStore terms = getTerms();
+		String a = xr.getAttributeValue(null, PNMLPaths.VALUE_ATTR);
+		if (a == null) {
+			a = xr.getAttributeValue(null, PNMLPaths.DECL_ATTR);
+		}
+		if (a == null) {
+			a = xr.getAttributeValue(null, PNMLPaths.REFVAR_ATTR);
+		}
+		terms.start(xr.getLocalName(), a);
+		while (nextChild()) {
+			readTermElement();
+		}
+		return terms.end();
+	}
+
+	/**
+	 * Moves to the next child element of the current element.
+	 * 
+	 * @return false when the end of the current element is reached instead.
+	 */
+	private boolean nextChild() throws XMLStreamException {
+		int event;
+		while (xr.hasNext()) {
+			event = xr.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Skips the current element and its whole subtree.
+	 */
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+		int event;
+		while (depth > 0 && xr.hasNext()) {
+			event = xr.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Returns the trimmed contents of the text child of the current element,
+	 * and moves to the end of that element.
+	 * 
+	 * @return the text, or null if there is no text child
+	 */
+	private String readText() throws XMLStreamException {
+		String res = null;
+		int event;
+		while (nextChild()) {
+			if (res == null && PNMLPaths.TEXT.equals(xr.getLocalName())) {
+				text.setLength(0);
+				event = xr.next();
+				while (event != XMLStreamConstants.END_ELEMENT) {
+					if (event == XMLStreamConstants.CHARACTERS
+							|| event == XMLStreamConstants.CDATA) {
+						text.append(xr.getText());
+					} else if (event == XMLStreamConstants.START_ELEMENT) {
+						skipElement();
+					}
+					event = xr.next();
+				}
+				res = text.toString().trim();
+			} else {
+				skipElement();
+			}
+		}
+		return res;
+	}
+}
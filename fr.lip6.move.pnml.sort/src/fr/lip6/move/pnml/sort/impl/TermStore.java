@@ -0,0 +1,417 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.lip6.move.pnml.sort.utils.IntList;
+import fr.lip6.move.pnml.sort.utils.IntSort;
+import fr.lip6.move.pnml.sort.utils.IntComparator;
+
+/**
+ * Hash-consed store of the multiset terms of Symmetric nets: markings of
+ * places and inscriptions of arcs.
+ * 
+ * Terms are built bottom-up, from the elements of their XML structure, with
+ * {@link #start(String, String)} and {@link #end()}. Each distinct term is
+ * stored and rendered once, then shared by a handle: identical sub-terms
+ * repeated across a net cost a single table lookup each.
+ * 
+ * Rendering is canonical: sums are flattened, the multiplicities of equal
+ * elements are added up, and operands are sorted on their text, so that
+ * equal multisets get the same text whatever the order they are written
+ * in. For instance, 1'(b) + 2'(a) + 1'(b) is rendered 2'(a) + 2'(b).
+ * 
+ * @author lom
+ *
+ */
+public final class TermStore {
+
+	/**
+	 * Elements which only wrap terms, thus not terms themselves.
+	 */
+	private static final String STRUCTURE = "structure";
+	private static final String SUBTERM = "subterm";
+	private static final String ADD = "add";
+	private static final String NUMBEROF = "numberof";
+	private static final String NUMBERCONSTANT = "numberconstant";
+
+	/**
+	 * Name of each operator, indexed by its code.
+	 */
+	private final List<String> opNames;
+	private final Map<String, Integer> opCodes;
+	private final int add, numberOf, numberConstant;
+	/**
+	 * Operator, attribute, operands and text of each term, by handle.
+	 */
+	private final IntList ops;
+	private final List<String> attrs;
+	private final List<int[]> kids;
+	private final List<String> texts;
+	/**
+	 * Handle of each term as written, and of each canonical term.
+	 */
+	private final Map<Key, Integer> nodes;
+	private final Key probe;
+	/**
+	 * Elements being built, innermost last.
+	 */
+	private final List<Frame> stack;
+	private int depth;
+	private final IntComparator byText = new IntComparator() {
+		@Override
+		public int compare(int a, int b) {
+			return texts.get(a).compareTo(texts.get(b));
+		}
+	};
+
+	public TermStore() {
+		this.opNames = new ArrayList<>();
+		this.opCodes = new HashMap<>();
+		this.ops = new IntList();
+		this.attrs = new ArrayList<>();
+		this.kids = new ArrayList<>();
+		this.texts = new ArrayList<>();
+		this.nodes = new HashMap<>();
+		this.probe = new Key();
+		this.stack = new ArrayList<>();
+		this.add = op(ADD);
+		this.numberOf = op(NUMBEROF);
+		this.numberConstant = op(NUMBERCONSTANT);
+	}
+
+	/**
+	 * Opens an element of a term structure.
+	 * 
+	 * @param tag
+	 *            the element name
+	 * @param attr
+	 *            the value of its value, declaration or refvariable
+	 *            attribute, null if none
+	 */
+	public void start(String tag, String attr) {
+		if (depth == stack.size()) {
+			stack.add(new Frame());
+		}
+		Frame f = stack.get(depth++);
+		f.tag = tag;
+		f.attr = attr;
+		f.kids.clear();
+	}
+
+	/**
+	 * Closes the element opened last.
+	 * 
+	 * @return the handle of its term, or -1 if it has none, like an empty
+	 *         structure.
+	 */
+	public int end() {
+		Frame f = stack.get(--depth);
+		Frame parent = depth > 0 ? stack.get(depth - 1) : null;
+		if (STRUCTURE.equals(f.tag) || SUBTERM.equals(f.tag)) {
+			int h = f.kids.isEmpty() ? -1 : f.kids.get(0);
+			for (int i = 0; parent != null && i < f.kids.size(); i++) {
+				parent.kids.add(f.kids.get(i));
+			}
+			return h;
+		}
+		int h = node(op(f.tag), f.attr, f.kids);
+		if (parent != null) {
+			parent.kids.add(h);
+		}
+		return h;
+	}
+
+	/**
+	 * Drops the elements still open, after a parse error.
+	 */
+	public void reset() {
+		depth = 0;
+	}
+
+	/**
+	 * @param handle
+	 * @return the canonical text of a term, or null if handle is -1.
+	 */
+	public String text(int handle) {
+		return handle < 0 ? null : texts.get(handle);
+	}
+
+	/**
+	 * @return the number of distinct terms
+	 */
+	public int size() {
+		return texts.size();
+	}
+
+	public void clear() {
+		ops.clear();
+		attrs.clear();
+		kids.clear();
+		texts.clear();
+		nodes.clear();
+		depth = 0;
+	}
+
+	private int op(String name) {
+		Integer code = opCodes.get(name);
+		if (code == null) {
+			code = opNames.size();
+			opNames.add(name);
+			opCodes.put(name, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Returns the handle of a term as written, building it only the first
+	 * time.
+	 */
+	private int node(int op, String attr, IntList operands) {
+		probe.set(op, attr, operands);
+		Integer h = nodes.get(probe);
+		if (h != null) {
+			return h;
+		}
+		int[] k = operands.toArray();
+		int res = op == add ? sum(k) : create(op, attr, k);
+		nodes.put(new Key(op, attr, k), res);
+		return res;
+	}
+
+	/**
+	 * Returns the handle of a canonical term, storing and rendering it if
+	 * it is new.
+	 */
+	private int create(int op, String attr, int[] operands) {
+		Key k = new Key(op, attr, operands);
+		Integer h = nodes.get(k);
+		if (h != null) {
+			return h;
+		}
+		int handle = texts.size();
+		ops.add(op);
+		attrs.add(attr);
+		kids.add(operands);
+		texts.add(render(opNames.get(op), attr, operands));
+		nodes.put(k, handle);
+		return handle;
+	}
+
+	/**
+	 * Canonical sum: nested sums flattened, multiplicities of equal elements
+	 * added up, operands sorted on their text.
+	 */
+	private int sum(int[] operands) {
+		Map<Integer, Long> counts = new LinkedHashMap<>();
+		IntList others = new IntList();
+		for (int h : operands) {
+			if (ops.get(h) == add) {
+				for (int s : kids.get(h)) {
+					count(s, counts, others);
+				}
+			} else {
+				count(h, counts, others);
+			}
+		}
+		for (Map.Entry<Integer, Long> e : counts.entrySet()) {
+			if (e.getValue() > 0L) {
+				others.add(create(numberOf, null, new int[] {
+						create(numberConstant, String.valueOf(e.getValue()),
+								new int[0]), e.getKey() }));
+			}
+		}
+		int[] res = others.toArray();
+		if (res.length == 1) {
+			return res[0];
+		}
+		IntSort.sort(res, 0, res.length, byText);
+		return create(add, null, res);
+	}
+
+	private void count(int h, Map<Integer, Long> counts, IntList others) {
+		long c = multiplicity(h);
+		if (c < 0L) {
+			others.add(h);
+			return;
+		}
+		int elem = kids.get(h)[1];
+		Long prev = counts.get(elem);
+		counts.put(elem, prev == null ? c : prev + c);
+	}
+
+	/**
+	 * @return the constant multiplicity of a numberof term, or -1 if h is
+	 *         not one.
+	 */
+	private long multiplicity(int h) {
+		if (ops.get(h) != numberOf || kids.get(h).length != 2) {
+			return -1L;
+		}
+		int n = kids.get(h)[0];
+		if (ops.get(n) != numberConstant || attrs.get(n) == null) {
+			return -1L;
+		}
+		try {
+			return Long.parseLong(attrs.get(n).trim());
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+	private String render(String op, String attr, int[] operands) {
+		StringBuilder sb = new StringBuilder();
+		switch (op) {
+		case NUMBERCONSTANT:
+		case "finiteintrangeconstant":
+		case "useroperator":
+		case "variable":
+		case "usersort":
+			return String.valueOf(attr);
+		case "dotconstant":
+			return "dot";
+		case NUMBEROF:
+			if (operands.length == 2) {
+				String elem = texts.get(operands[1]);
+				sb.append(texts.get(operands[0])).append('\'');
+				if (elem.startsWith("(") && elem.endsWith(")")) {
+					return sb.append(elem).toString();
+				}
+				return sb.append('(').append(elem).append(')').toString();
+			}
+			break;
+		case ADD:
+			return join(sb, operands, " + ").toString();
+		case "subtract":
+			return join(sb.append('('), operands, " - ").append(')')
+					.toString();
+		case "tuple":
+			return join(sb.append('('), operands, ", ").append(')')
+					.toString();
+		case "all":
+			return join(sb, operands, ", ").append(".all").toString();
+		case "empty":
+			return "empty";
+		case "successor":
+			return join(sb, operands, ", ").append("++1").toString();
+		case "predecessor":
+			return join(sb, operands, ", ").append("--1").toString();
+		default:
+			break;
+		}
+		sb.append(op);
+		if (attr != null) {
+			sb.append('[').append(attr).append(']');
+		}
+		if (operands.length > 0) {
+			join(sb.append('('), operands, ", ").append(')');
+		}
+		return sb.toString();
+	}
+
+	private StringBuilder join(StringBuilder sb, int[] operands, String sep) {
+		for (int i = 0; i < operands.length; i++) {
+			if (i > 0) {
+				sb.append(sep);
+			}
+			sb.append(texts.get(operands[i]));
+		}
+		return sb;
+	}
+
+	private static final class Frame {
+		private String tag;
+		private String attr;
+		private final IntList kids = new IntList(4);
+	}
+
+	/**
+	 * Operator, attribute and operands of a term. A single instance is
+	 * reused to probe the table, without copying the operands.
+	 */
+	private static final class Key {
+		private int op;
+		private String attr;
+		private int[] operands;
+		private int length;
+		private IntList list;
+		private int hash;
+
+		Key() {
+			super();
+		}
+
+		Key(int op, String attr, int[] operands) {
+			this.op = op;
+			this.attr = attr;
+			this.operands = operands;
+			this.length = operands.length;
+			this.hash = hash();
+		}
+
+		void set(int op, String attr, IntList list) {
+			this.op = op;
+			this.attr = attr;
+			this.operands = null;
+			this.list = list;
+			this.length = list.size();
+			this.hash = hash();
+		}
+
+		private int get(int i) {
+			return operands != null ? operands[i] : list.get(i);
+		}
+
+		private int hash() {
+			int h = op * 31 + (attr == null ? 0 : attr.hashCode());
+			for (int i = 0; i < length; i++) {
+				h = h * 31 + get(i);
+			}
+			return h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			if (k.op != op || k.length != length || k.hash != hash
+					|| (attr == null ? k.attr != null : !attr.equals(k.attr))) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (k.get(i) != get(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
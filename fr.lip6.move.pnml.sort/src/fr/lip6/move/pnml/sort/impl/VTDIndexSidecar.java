@@ -0,0 +1,314 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ximpleware.extended.FastIntBuffer;
+import com.ximpleware.extended.FastLongBuffer;
+import com.ximpleware.extended.IByteBuffer;
+import com.ximpleware.extended.IIntBuffer;
+import com.ximpleware.extended.ILongBuffer;
+import com.ximpleware.extended.VTDGenHuge;
+import com.ximpleware.extended.VTDNavHuge;
+
+/**
+ * VTD index of a PNML document saved in a sidecar file, next to it. A later
+ * sort of the same document memory-maps the sidecar and navigates through
+ * it, instead of tokenizing the document again.
+ * 
+ * VTD-XML huge cannot save its index, so the token records and location
+ * caches are taken from a {@link Gen} once parsing is done, and handed over
+ * to a {@link Nav} when they are loaded back. A sidecar is only used if the
+ * size and modification time of the document did not change since it was
+ * saved.
+ * 
+ * @author lom
+ *
+ */
+final class VTDIndexSidecar {
+
+	static final String SIDECAR_EXT = ".vtdidx";
+	/**
+	 * "PNMLVTD" and the version of the format.
+	 */
+	private static final long MAGIC = 0x504E4D4C56544401L;
+	private static final int HEADER_SIZE = 72;
+	private static final int IO_BUFFERSIZE = 1024 * 1024;
+	/**
+	 * Entries per mapped chunk, so that sidecars can exceed 2 GB.
+	 */
+	private static final int CHUNK_SHIFT = 27;
+	private static final Logger LOG = LoggerFactory
+			.getLogger(VTDIndexSidecar.class.getCanonicalName());
+
+	private VTDIndexSidecar() {
+		super();
+	}
+
+	static File sidecarOf(File in) {
+		return new File(in.getPath() + SIDECAR_EXT);
+	}
+
+	/**
+	 * Loads the index of a document from its sidecar.
+	 * 
+	 * @param in
+	 *            the document
+	 * @param size
+	 *            its size
+	 * @param mtime
+	 *            its modification time
+	 * @param xml
+	 *            its contents
+	 * @return a navigator positioned on the root, or null if there is no
+	 *         valid sidecar for this version of the document.
+	 * @throws IOException
+	 */
+	static VTDNavHuge load(File in, long size, long mtime, IByteBuffer xml)
+			throws IOException {
+		File f = sidecarOf(in);
+		if (!f.isFile()) {
+			return null;
+		}
+		try (FileChannel fc = FileChannel.open(f.toPath(),
+				StandardOpenOption.READ)) {
+			ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+			while (h.hasRemaining() && fc.read(h) != -1) {
+				// Read the whole header.
+			}
+			h.flip();
+			if (h.remaining() < HEADER_SIZE || h.getLong() != MAGIC
+					|| h.getLong() != size || h.getLong() != mtime) {
+				LOG.info("Sidecar {} is out of date.", f);
+				return null;
+			}
+			int root = h.getInt();
+			int encoding = h.getInt();
+			boolean ns = h.getInt() != 0;
+			int depth = h.getInt();
+			long docOffset = h.getLong();
+			long docLen = h.getLong();
+			int nVtd = h.getInt();
+			int nL1 = h.getInt();
+			int nL2 = h.getInt();
+			int nL3 = h.getInt();
+			if (fc.size() != HEADER_SIZE + 8L * nVtd + 8L * nL1 + 8L * nL2
+					+ 4L * nL3) {
+				LOG.warn("Sidecar {} is truncated.", f);
+				return null;
+			}
+			long pos = HEADER_SIZE;
+			MappedLongs vtd = new MappedLongs(fc, pos, nVtd);
+			pos += 8L * nVtd;
+			MappedLongs l1 = new MappedLongs(fc, pos, nL1);
+			pos += 8L * nL1;
+			MappedLongs l2 = new MappedLongs(fc, pos, nL2);
+			pos += 8L * nL2;
+			MappedInts l3 = new MappedInts(fc, pos, nL3);
+			return new Nav(root, encoding, ns, depth, xml, vtd, l1, l2, l3,
+					docOffset, docLen);
+		}
+	}
+
+	/**
+	 * Parser which can save its index.
+	 */
+	static final class Gen extends VTDGenHuge {
+
+		/**
+		 * Saves the index into the sidecar of the document. Must be called
+		 * after parsing, before {@link #getNav()}, which clears the index.
+		 * 
+		 * @param in
+		 *            the document
+		 * @param size
+		 *            its size when it was read
+		 * @param mtime
+		 *            its modification time when it was read
+		 * @throws IOException
+		 */
+		void store(File in, long size, long mtime) throws IOException {
+			File f = sidecarOf(in).getAbsoluteFile();
+			File tmp = File.createTempFile(f.getName(), ".tmp",
+					f.getParentFile());
+			ByteBuffer buf = ByteBuffer.allocateDirect(IO_BUFFERSIZE);
+			try (FileChannel fc = FileChannel.open(tmp.toPath(),
+					StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				buf.putLong(MAGIC).putLong(size).putLong(mtime);
+				buf.putInt(rootIndex).putInt(encoding).putInt(ns ? 1 : 0)
+						.putInt(VTDDepth);
+				buf.putLong(docOffset).putLong(docLen);
+				buf.putInt(VTDBuffer.size()).putInt(l1Buffer.size())
+						.putInt(l2Buffer.size()).putInt(l3Buffer.size());
+				writeLongs(fc, buf, VTDBuffer);
+				writeLongs(fc, buf, l1Buffer);
+				writeLongs(fc, buf, l2Buffer);
+				writeInts(fc, buf, l3Buffer);
+				flush(fc, buf);
+			} catch (IOException e) {
+				tmp.delete();
+				throw e;
+			}
+			Files.move(tmp.toPath(), f.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		private static void writeLongs(FileChannel fc, ByteBuffer buf,
+				FastLongBuffer src) throws IOException {
+			for (int i = 0, n = src.size(); i < n; i++) {
+				if (buf.remaining() < 8) {
+					flush(fc, buf);
+				}
+				buf.putLong(src.longAt(i));
+			}
+		}
+
+		private static void writeInts(FileChannel fc, ByteBuffer buf,
+				FastIntBuffer src) throws IOException {
+			for (int i = 0, n = src.size(); i < n; i++) {
+				if (buf.remaining() < 4) {
+					flush(fc, buf);
+				}
+				buf.putInt(src.intAt(i));
+			}
+		}
+
+		private static void flush(FileChannel fc, ByteBuffer buf)
+				throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) {
+				fc.write(buf);
+			}
+			buf.clear();
+		}
+	}
+
+	/**
+	 * Navigator over an index loaded from a sidecar.
+	 */
+	private static final class Nav extends VTDNavHuge {
+		Nav(int root, int encoding, boolean ns, int depth, IByteBuffer xml,
+				ILongBuffer vtd, ILongBuffer l1, ILongBuffer l2,
+				IIntBuffer l3, long docOffset, long docLen) {
+			super(root, encoding, ns, depth, xml, vtd, l1, l2, l3, docOffset,
+					docLen);
+		}
+	}
+
+	/**
+	 * Read-only longs mapped from a file, in chunks.
+	 */
+	private static final class MappedLongs implements ILongBuffer {
+		private final LongBuffer[] chunks;
+		private final int size;
+
+		MappedLongs(FileChannel fc, long pos, int size) throws IOException {
+			this.size = size;
+			int n = (int) ((size + (1L << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT);
+			this.chunks = new LongBuffer[n];
+			long len;
+			for (int i = 0; i < n; i++) {
+				len = Math.min(1L << CHUNK_SHIFT, size
+						- ((long) i << CHUNK_SHIFT));
+				chunks[i] = fc.map(FileChannel.MapMode.READ_ONLY,
+						pos + 8L * ((long) i << CHUNK_SHIFT), 8L * len)
+						.asLongBuffer();
+			}
+		}
+
+		@Override
+		public long longAt(int index) {
+			return chunks[index >>> CHUNK_SHIFT].get(index
+					& ((1 << CHUNK_SHIFT) - 1));
+		}
+
+		@Override
+		public int lower32At(int index) {
+			return (int) longAt(index);
+		}
+
+		@Override
+		public int upper32At(int index) {
+			return (int) (longAt(index) >>> 32);
+		}
+
+		@Override
+		public void modifyEntry(int index, long value) {
+			throw new UnsupportedOperationException(
+					"Index loaded from a sidecar is read-only.");
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Read-only ints mapped from a file, in chunks.
+	 */
+	private static final class MappedInts implements IIntBuffer {
+		private final IntBuffer[] chunks;
+		private final int size;
+
+		MappedInts(FileChannel fc, long pos, int size) throws IOException {
+			this.size = size;
+			int n = (int) ((size + (1L << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT);
+			this.chunks = new IntBuffer[n];
+			long len;
+			for (int i = 0; i < n; i++) {
+				len = Math.min(1L << CHUNK_SHIFT, size
+						- ((long) i << CHUNK_SHIFT));
+				chunks[i] = fc.map(FileChannel.MapMode.READ_ONLY,
+						pos + 4L * ((long) i << CHUNK_SHIFT), 4L * len)
+						.asIntBuffer();
+			}
+		}
+
+		@Override
+		public int intAt(int index) {
+			return chunks[index >>> CHUNK_SHIFT].get(index
+					& ((1 << CHUNK_SHIFT) - 1));
+		}
+
+		@Override
+		public void modifyEntry(int index, int value) {
+			throw new UnsupportedOperationException(
+					"Index loaded from a sidecar is read-only.");
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.lip6.move.pnml.sort.impl.BinarySortedWriter;
+
+/**
+ * Reader of a binary sorted output, in the format of
+ * {@link BinarySortedWriter}. Its index is read from the end of the file.
+ * 
+ * A lookup first searches the bucket tables of the section for the last
+ * bucket whose first label, stored whole, is not greater than the key, then
+ * decodes the front-coded labels of that bucket only.
+ * 
+ * @author lom
+ *
+ */
+final class BinarySortedReader extends SortedOutputReader {
+
+	private static final int B = BinarySortedWriter.BUCKET;
+	private static final int HEADER = BinarySortedWriter.MAGIC.length + 2;
+
+	private final File file;
+	/**
+	 * Dictionary of the Symmetric net terms.
+	 */
+	private final List<String> terms;
+
+	BinarySortedReader(MappedBytes bytes, File file) throws IOException {
+		super(bytes);
+		this.file = file;
+		this.terms = new ArrayList<>();
+		readIndex();
+	}
+
+	private void readIndex() throws IOException {
+		long size = bytes.size();
+		if (size < HEADER + BinarySortedWriter.TRAILER) {
+			throw error("truncated");
+		}
+		byte[] endMagic = BinarySortedWriter.END_MAGIC;
+		for (int i = 0; i < endMagic.length; i++) {
+			if (bytes.get(size - endMagic.length + i) != endMagic[i]) {
+				throw error("truncated");
+			}
+		}
+		if (bytes.get(BinarySortedWriter.MAGIC.length)
+				!= BinarySortedWriter.VERSION) {
+			throw error("unsupported version");
+		}
+		Cursor c = new Cursor(bytes.getLong(size - BinarySortedWriter.TRAILER));
+		if (c.pos < HEADER || c.pos >= size
+				|| bytes.get(c.pos++) != BinarySortedWriter.INDEX) {
+			throw error("no index");
+		}
+		int n = (int) c.varint();
+		for (int i = 0; i < n; i++) {
+			nets.add(c.string());
+			c.pos += 8;
+		}
+		n = (int) c.varint();
+		PageInfo p;
+		for (int i = 0; i < n; i++) {
+			int net = (int) c.varint();
+			int depth = (int) c.varint();
+			p = new PageInfo(net, depth, c.string());
+			c.pos += 8;
+			for (int s = 0; s < SECTIONS; s++) {
+				p.sections[s] = bytes.getLong(c.pos);
+				p.ends[s] = bytes.getLong(c.pos + 8);
+				c.pos += 16;
+			}
+			pages.add(p);
+		}
+		n = (int) c.varint();
+		for (int i = 0; i < n; i++) {
+			terms.add(c.string());
+		}
+	}
+
+	@Override
+	SortedEntry find(int page, int section, byte[] key) throws IOException {
+		PageInfo p = pages.get(page);
+		if (p.sections[section] == 0L) {
+			return null;
+		}
+		Cursor c = new Cursor(p.sections[section] + 1);
+		long count = c.varint();
+		long firstRun = c.varint();
+		SortedEntry res = find(page, section, key, 0L, firstRun);
+		return res != null ? res : find(page, section, key, firstRun, count);
+	}
+
+	/**
+	 * Looks up a key among the entries of a sorted run.
+	 * 
+	 * @param from
+	 *            index of the first entry of the run
+	 * @param to
+	 *            index after its last entry
+	 */
+	private SortedEntry find(int page, int section, byte[] key, long from,
+			long to) throws IOException {
+		if (from >= to) {
+			return null;
+		}
+		long b = from / B;
+		SortedEntry res;
+		if (from % B != 0) {
+			// The run starts within a bucket.
+			res = scan(page, section, key, b, from, Math.min(to, (b + 1) * B));
+			if (res != null) {
+				return res;
+			}
+			b++;
+		}
+		long lo = b, hi = (to - 1) / B, mid, found = -1L;
+		long table = pages.get(page).ends[section];
+		Cursor c = new Cursor(0L);
+		int len;
+		while (lo <= hi) {
+			mid = (lo + hi) >>> 1;
+			c.pos = bytes.getLong(table + 8 * mid);
+			len = (int) c.varint();
+			if (bytes.compare(c.pos, len, key) <= 0) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found < 0L ? null : scan(page, section, key, found, found * B,
+				Math.min(to, (found + 1) * B));
+	}
+
+	/**
+	 * Decodes the entries of a bucket, up to the key.
+	 * 
+	 * @param b
+	 *            the bucket
+	 * @param from
+	 *            index of the first entry to compare
+	 * @param to
+	 *            index after the last one
+	 */
+	private SortedEntry scan(int page, int section, byte[] key, long b,
+			long from, long to) throws IOException {
+		Cursor c = seek(page, section, b);
+		int cmp;
+		while (c.index < to) {
+			c.next(section);
+			if (c.index - 1 < from) {
+				continue;
+			}
+			cmp = compare(c.label, c.length, key);
+			if (cmp == 0) {
+				return entry(page, section, c);
+			} else if (cmp > 0) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	void arcsOf(SortedEntry node, List<SortedEntry> res) throws IOException {
+		PageInfo p = pages.get(node.pageIndex);
+		if (p.sections[ARCS] == 0L) {
+			return;
+		}
+		long ref = node.index << BinarySortedWriter.REF_BITS;
+		ref |= node.getKind() == SortedEntry.Kind.PLACE
+				? BinarySortedWriter.REF_PLACE
+				: BinarySortedWriter.REF_TRANSITION;
+		Cursor c = new Cursor(p.sections[ARCS] + 1);
+		long count = c.varint();
+		c.varint();
+		for (long i = 0; i < count; i++) {
+			c.next(ARCS);
+			if (c.src == ref || c.trg == ref) {
+				res.add(entry(node.pageIndex, ARCS, c));
+			}
+		}
+	}
+
+	/**
+	 * @return a cursor before the first entry of a bucket
+	 */
+	private Cursor seek(int page, int section, long b) {
+		Cursor c = new Cursor(bytes.getLong(pages.get(page).ends[section] + 8
+				* b));
+		c.index = b * B;
+		return c;
+	}
+
+	private SortedEntry entry(int page, int section, Cursor c)
+			throws IOException {
+		PageInfo p = pages.get(page);
+		String label = new String(c.label, 0, c.length, ENCODING);
+		switch (section) {
+		case PLACES:
+			return new SortedEntry(SortedEntry.Kind.PLACE, netOf(p), p.id,
+					page, c.index - 1, label, value(c.value), null, null);
+		case TRANSITIONS:
+			return new SortedEntry(SortedEntry.Kind.TRANSITION, netOf(p),
+					p.id, page, c.index - 1, label, null, null, null);
+		default:
+			return new SortedEntry(SortedEntry.Kind.ARC, netOf(p), p.id, page,
+					c.index - 1, label, value(c.value), endpoint(page, c.src,
+							c.srcLiteral), endpoint(page, c.trg, c.trgLiteral));
+		}
+	}
+
+	private String value(long v) throws IOException {
+		if (v == 0L) {
+			return null;
+		} else if ((v & 1L) == 0L) {
+			return String.valueOf(v >>> 1);
+		} else if ((v >>> 1) < terms.size()) {
+			return terms.get((int) (v >>> 1));
+		}
+		throw error("unknown term " + (v >>> 1));
+	}
+
+	/**
+	 * @return the label of an arc endpoint
+	 */
+	private String endpoint(int page, long ref, String literal)
+			throws IOException {
+		if (ref == BinarySortedWriter.REF_LITERAL) {
+			return literal;
+		}
+		int section = (ref & 3L) == BinarySortedWriter.REF_PLACE ? PLACES
+				: TRANSITIONS;
+		long index = ref >>> BinarySortedWriter.REF_BITS;
+		if (pages.get(page).sections[section] == 0L) {
+			throw error("dangling reference");
+		}
+		Cursor c = seek(page, section, index / B);
+		while (c.index <= index) {
+			c.next(section);
+		}
+		return new String(c.label, 0, c.length, ENCODING);
+	}
+
+	private static int compare(byte[] label, int length, byte[] key) {
+		int n = Math.min(length, key.length);
+		int c;
+		for (int i = 0; i < n; i++) {
+			c = (label[i] & 0xFF) - (key[i] & 0xFF);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return length - key.length;
+	}
+
+	private IOException error(String msg) {
+		return new IOException(file.getPath() + ": " + msg);
+	}
+
+	/**
+	 * Decodes the file from a position. Each lookup has its own cursors, so
+	 * that lookups can run concurrently.
+	 */
+	private final class Cursor {
+		private long pos;
+		/**
+		 * Index of the next entry of the section.
+		 */
+		private long index;
+		private byte[] label = new byte[64];
+		private int length;
+		private long value, src, trg;
+		private String srcLiteral, trgLiteral;
+
+		Cursor(long pos) {
+			this.pos = pos;
+		}
+
+		long varint() {
+			long res = 0L;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes.get(pos++);
+				res |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return res;
+		}
+
+		String string() {
+			int len = (int) varint();
+			String res = bytes.string(pos, len);
+			pos += len;
+			return res;
+		}
+
+		/**
+		 * Decodes the next entry of a section.
+		 */
+		void next(int section) {
+			int prefix = index % B == 0 ? 0 : (int) varint();
+			int len = (int) varint();
+			if (prefix + len > label.length) {
+				label = Arrays.copyOf(label, Math.max(prefix + len,
+						label.length * 2));
+			}
+			for (int i = 0; i < len; i++) {
+				label[prefix + i] = bytes.get(pos++);
+			}
+			length = prefix + len;
+			index++;
+			if (section == ARCS) {
+				src = varint();
+				srcLiteral = src == BinarySortedWriter.REF_LITERAL ? string()
+						: null;
+				trg = varint();
+				trgLiteral = trg == BinarySortedWriter.REF_LITERAL ? string()
+						: null;
+			}
+			if (section != TRANSITIONS) {
+				value = varint();
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.reader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import fr.lip6.move.pnml.sort.impl.MappedOutChannel;
+
+/**
+ * A read-only file mapped in windows of at most 1 GB, so that files bigger
+ * than 2 GB can be read at any long offset. Absolute reads do not change
+ * any state: they can be made from concurrent threads.
+ * 
+ * @author lom
+ *
+ */
+final class MappedBytes implements Closeable {
+
+	static final int WINDOW_BITS = 30;
+
+	private final int bits;
+	private final long mask;
+	private final long size;
+	private MappedByteBuffer[] windows;
+
+	MappedBytes(File f) throws IOException {
+		this(f, WINDOW_BITS);
+	}
+
+	/**
+	 * @param f
+	 * @param bits
+	 *            log2 of the window size
+	 * @throws IOException
+	 */
+	MappedBytes(File f, int bits) throws IOException {
+		this.bits = bits;
+		this.mask = (1L << bits) - 1L;
+		try (FileChannel fc = FileChannel.open(f.toPath(),
+				StandardOpenOption.READ)) {
+			this.size = fc.size();
+			int n = (int) ((size + mask) >>> bits);
+			this.windows = new MappedByteBuffer[n];
+			long pos;
+			for (int i = 0; i < n; i++) {
+				pos = (long) i << bits;
+				windows[i] = fc.map(FileChannel.MapMode.READ_ONLY, pos,
+						Math.min(1L << bits, size - pos));
+			}
+		}
+	}
+
+	long size() {
+		return size;
+	}
+
+	byte get(long pos) {
+		return windows[(int) (pos >>> bits)].get((int) (pos & mask));
+	}
+
+	/**
+	 * @return a long read on 8 bytes, big-endian
+	 */
+	long getLong(long pos) {
+		long res = 0L;
+		for (int i = 0; i < 8; i++) {
+			res = res << 8 | get(pos + i) & 0xFF;
+		}
+		return res;
+	}
+
+	/**
+	 * Compares bytes of the file with a key, as unsigned bytes.
+	 * 
+	 * @param pos
+	 * @param len
+	 * @param key
+	 * @return the sign of the comparison of the bytes with the key
+	 */
+	int compare(long pos, int len, byte[] key) {
+		int n = Math.min(len, key.length);
+		int c;
+		for (int i = 0; i < n; i++) {
+			c = (get(pos + i) & 0xFF) - (key[i] & 0xFF);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return len - key.length;
+	}
+
+	/**
+	 * Compares two ranges of bytes of the file, as unsigned bytes.
+	 */
+	int compare(long a, int alen, long b, int blen) {
+		int n = Math.min(alen, blen);
+		int c;
+		for (int i = 0; i < n; i++) {
+			c = (get(a + i) & 0xFF) - (get(b + i) & 0xFF);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return alen - blen;
+	}
+
+	/**
+	 * @return the ISO-8859-1 string of a range of bytes
+	 */
+	String string(long pos, int len) {
+		char[] res = new char[len];
+		for (int i = 0; i < len; i++) {
+			res[i] = (char) (get(pos + i) & 0xFF);
+		}
+		return new String(res);
+	}
+
+	@Override
+	public void close() {
+		if (windows != null) {
+			for (MappedByteBuffer w : windows) {
+				MappedOutChannel.unmap(w);
+			}
+			windows = null;
+		}
+	}
+}
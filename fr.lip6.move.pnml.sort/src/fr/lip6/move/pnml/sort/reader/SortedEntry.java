@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.reader;
+
+/**
+ * A place, a transition or an arc found in a sorted output.
+ * 
+ * @author lom
+ *
+ */
+public final class SortedEntry {
+
+	public enum Kind {
+		PLACE, TRANSITION, ARC;
+	}
+
+	private final Kind kind;
+	private final String net;
+	private final String page;
+	private final String label;
+	private final String value;
+	private final String source;
+	private final String target;
+	/**
+	 * Page and index of the entry in its section, as known to the reader.
+	 */
+	final int pageIndex;
+	final long index;
+
+	SortedEntry(Kind kind, String net, String page, int pageIndex,
+			long index, String label, String value, String source,
+			String target) {
+		this.kind = kind;
+		this.net = net;
+		this.page = page;
+		this.pageIndex = pageIndex;
+		this.index = index;
+		this.label = label;
+		this.value = value;
+		this.source = source;
+		this.target = target;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getNet() {
+		return net;
+	}
+
+	/**
+	 * @return the id of the page holding the entry
+	 */
+	public String getPage() {
+		return page;
+	}
+
+	/**
+	 * @return the name, or id, of a node; the id of an arc
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return the marking of a place, or the inscription of an arc, as in
+	 *         the text output; null if none
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the label of the source of an arc, null for a node
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the label of the target of an arc, null for a node
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return the entry as a line of the text output, without indentation
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (kind == Kind.ARC) {
+			sb.append(source).append(' ').append(label).append(' ')
+					.append(target);
+		} else {
+			sb.append(label);
+		}
+		if (value != null) {
+			sb.append(" #").append(value);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.reader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import fr.lip6.move.pnml.sort.impl.BinarySortedWriter;
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Answers lookups over a sorted output, text or binary, without loading it:
+ * the file is memory-mapped, and only a small index of its nets, pages and
+ * sections is kept on the heap. Nodes and arcs are looked up by binary
+ * search over the mapped bytes of each section, in the sorted runs of the
+ * section (nodes with names, then nodes without names, sorted on their
+ * ids).
+ * 
+ * The index of a binary output is read from its end. The index of a text
+ * output is built by a single scan of the file when it is opened.
+ * 
+ * Lookups may be run from concurrent threads, but not while the reader is
+ * being closed. Compressed outputs cannot be mapped, and are not supported.
+ * 
+ * @author lom
+ *
+ */
+public abstract class SortedOutputReader implements Closeable {
+
+	static final Charset ENCODING = Charset
+			.forName(PNMLSortUtils.FILE_ENCODING);
+	static final int PLACES = BinarySortedWriter.SECTION_PLACES,
+			TRANSITIONS = BinarySortedWriter.SECTION_TRANSITIONS,
+			ARCS = BinarySortedWriter.SECTION_ARCS,
+			SECTIONS = BinarySortedWriter.SECTIONS;
+
+	final MappedBytes bytes;
+	final List<String> nets;
+	final List<PageInfo> pages;
+
+	SortedOutputReader(MappedBytes bytes) {
+		this.bytes = bytes;
+		this.nets = new ArrayList<>();
+		this.pages = new ArrayList<>();
+	}
+
+	/**
+	 * Opens a sorted output, binary if it starts with the magic of
+	 * {@link BinarySortedWriter}, text otherwise.
+	 * 
+	 * @param f
+	 * @return the reader
+	 * @throws IOException
+	 *             if the file could not be mapped, or is not a sorted output
+	 */
+	public static SortedOutputReader open(File f) throws IOException {
+		if (PNMLSortUtils.isCompressed(f.getName())) {
+			throw new IOException("Compressed outputs cannot be mapped: "
+					+ f.getPath());
+		}
+		MappedBytes bytes = new MappedBytes(f);
+		try {
+			boolean binary = bytes.size() >= BinarySortedWriter.MAGIC.length;
+			byte[] magic = BinarySortedWriter.MAGIC;
+			for (int i = 0; binary && i < magic.length; i++) {
+				binary = bytes.get(i) == magic[i];
+			}
+			return binary ? new BinarySortedReader(bytes, f)
+					: new TextSortedReader(bytes, f);
+		} catch (IOException | RuntimeException e) {
+			bytes.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the net names, in output order
+	 */
+	public final List<String> getNets() {
+		return Collections.unmodifiableList(nets);
+	}
+
+	/**
+	 * @return the page ids, sub-pages included, in output order
+	 */
+	public final List<String> getPages() {
+		List<String> res = new ArrayList<>(pages.size());
+		for (PageInfo p : pages) {
+			res.add(p.id);
+		}
+		return res;
+	}
+
+	/**
+	 * @param label
+	 *            name of the place, or id if it has no name or the output is
+	 *            sorted on ids
+	 * @return the place, in the first page holding it, or null if there is
+	 *         none
+	 * @throws IOException
+	 *             if the file is not a well-formed sorted output
+	 */
+	public final SortedEntry findPlace(String label) throws IOException {
+		return find(PLACES, label);
+	}
+
+	/**
+	 * @see #findPlace(String)
+	 */
+	public final SortedEntry findTransition(String label) throws IOException {
+		return find(TRANSITIONS, label);
+	}
+
+	/**
+	 * @param id
+	 *            id of the arc
+	 * @return the arc, or null if there is none
+	 * @throws IOException
+	 */
+	public final SortedEntry findArc(String id) throws IOException {
+		return find(ARCS, id);
+	}
+
+	/**
+	 * Finds the arcs from or to a node, in the page of the node. Arcs are
+	 * sorted on their ids, not on their endpoints: those of the page are
+	 * scanned.
+	 * 
+	 * @param nodeLabel
+	 *            label of a place, or else of a transition
+	 * @return the arcs, in output order; empty if the node is not found
+	 * @throws IOException
+	 */
+	public final List<SortedEntry> findArcs(String nodeLabel)
+			throws IOException {
+		List<SortedEntry> res = new ArrayList<>();
+		SortedEntry node = findPlace(nodeLabel);
+		if (node == null) {
+			node = findTransition(nodeLabel);
+		}
+		if (node != null) {
+			arcsOf(node, res);
+		}
+		return res;
+	}
+
+	private SortedEntry find(int section, String label) throws IOException {
+		byte[] key = label.getBytes(ENCODING);
+		SortedEntry res;
+		for (int p = 0; p < pages.size(); p++) {
+			res = find(p, section, key);
+			if (res != null) {
+				return res;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up an entry in a section of a page.
+	 * 
+	 * @param page
+	 *            index of the page
+	 * @param section
+	 *            PLACES, TRANSITIONS or ARCS
+	 * @param key
+	 *            its label, in the encoding of the output
+	 * @return the entry, null if none
+	 * @throws IOException
+	 */
+	abstract SortedEntry find(int page, int section, byte[] key)
+			throws IOException;
+
+	/**
+	 * Adds the arcs of the page of a node from or to it.
+	 */
+	abstract void arcsOf(SortedEntry node, List<SortedEntry> res)
+			throws IOException;
+
+	final String netOf(PageInfo p) {
+		return p.net >= 0 && p.net < nets.size() ? nets.get(p.net) : null;
+	}
+
+	@Override
+	public void close() {
+		bytes.close();
+	}
+
+	/**
+	 * Entry of a page in the index: offsets of its sections, 0 if none.
+	 */
+	static final class PageInfo {
+		final int net;
+		final int depth;
+		final String id;
+		final long[] sections = new long[SECTIONS];
+		/**
+		 * Text: end of each section; binary: offset of its bucket table.
+		 */
+		final long[] ends = new long[SECTIONS];
+		/**
+		 * Text: start of the second sorted run of each section, its end if
+		 * none.
+		 */
+		final long[] runs = new long[SECTIONS];
+
+		PageInfo(int net, int depth, String id) {
+			this.net = net;
+			this.depth = depth;
+			this.id = id;
+		}
+	}
+}
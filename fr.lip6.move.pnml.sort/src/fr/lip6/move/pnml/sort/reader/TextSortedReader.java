@@ -0,0 +1,387 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fr.lip6.move.pnml.sort.utils.PNMLSortUtils;
+
+/**
+ * Reader of a text sorted output. Its index is built by a single scan of the
+ * file: the offsets of the lines of each section, and of the start of their
+ * second sorted run, if any. Lookups are binary searches over these byte
+ * ranges: from a middle offset, the search moves to the start of the next
+ * line, and compares its key.
+ * 
+ * Keys are those of the text output: the label of a node, without its
+ * marking; the id of an arc, between its source and its target. When node
+ * names contain spaces, the id of an arc is told apart from its endpoints
+ * with the names of the nodes of its page, found by the scan. The offsets of
+ * the ids of such arcs are kept in the index.
+ * 
+ * @author lom
+ *
+ */
+final class TextSortedReader extends SortedOutputReader {
+
+	private static final byte TAB = '\t', NL = '\n', WS = ' ', HK = '#';
+	private static final byte[] NET = "NET ".getBytes(ENCODING),
+			PAGE = "PAGE ".getBytes(ENCODING),
+			PLACES_KW = "PLACES".getBytes(ENCODING),
+			TRANSITIONS_KW = "TRANSITIONS".getBytes(ENCODING),
+			ARCS_KW = "ARCS".getBytes(ENCODING);
+
+	private final File file;
+	/**
+	 * key: start of an arc line whose endpoints contain spaces; value: start
+	 * and end of its id.
+	 */
+	private final Map<Long, long[]> arcKeys;
+	/**
+	 * Number of spaces of the last line found by {@link #scanLine(long)}.
+	 */
+	private int spaces;
+
+	TextSortedReader(MappedBytes bytes, File file) throws IOException {
+		super(bytes);
+		this.file = file;
+		this.arcKeys = new HashMap<>();
+		index();
+	}
+
+	private void index() throws IOException {
+		long size = bytes.size();
+		long pos = 0L, end, prevKey = -1L, ks, ke, ve;
+		int prevLen = 0, t, section = -1;
+		long lineNo = 0L;
+		PageInfo page = null;
+		Set<String> labels = new HashSet<>();
+		while (pos < size) {
+			end = scanLine(pos);
+			lineNo++;
+			t = 0;
+			while (pos + t < end && bytes.get(pos + t) == TAB) {
+				t++;
+			}
+			if (section >= 0 && t == page.depth + 2) {
+				if (spaces > (section == ARCS ? 2 : 0)) {
+					spacedKey(section, pos + t, end, labels, lineNo);
+				}
+				if (page.runs[section] < 0L) {
+					// Until the second run is found
+					ve = valueEnd(section, pos + t, end);
+					ks = keyStart(section, pos + t, ve);
+					ke = keyEnd(section, pos + t, ve);
+					if (prevKey >= 0L
+							&& bytes.compare(ks, (int) (ke - ks), prevKey,
+									prevLen) < 0) {
+						page.runs[section] = pos;
+					}
+					prevKey = ks;
+					prevLen = (int) (ke - ks);
+				}
+			} else {
+				endSection(page, section, pos);
+				section = -1;
+				if (t == 0 && startsWith(pos, end, NET)) {
+					nets.add(bytes.string(pos + NET.length,
+							(int) (end - pos - NET.length)));
+					page = null;
+				} else if (t > 0 && !nets.isEmpty()
+						&& startsWith(pos + t, end, PAGE)) {
+					page = new PageInfo(nets.size() - 1, t,
+							bytes.string(pos + t + PAGE.length, (int) (end
+									- pos - t - PAGE.length)));
+					pages.add(page);
+					labels.clear();
+				} else if (page != null && t == page.depth + 1) {
+					section = section(pos + t, end);
+					if (section < 0) {
+						throw error(lineNo);
+					}
+					page.sections[section] = end + 1;
+					page.runs[section] = -1L;
+					prevKey = -1L;
+				} else {
+					throw error(lineNo);
+				}
+			}
+			pos = end + 1;
+		}
+		endSection(page, section, size);
+	}
+
+	/**
+	 * Records a node label containing a space, or finds the id of an arc
+	 * whose endpoints may contain spaces.
+	 * 
+	 * @param ks
+	 *            start of the line, after its tabs
+	 * @param le
+	 *            end of the line
+	 * @param labels
+	 *            the labels of the page containing spaces
+	 */
+	private void spacedKey(int section, long ks, long le, Set<String> labels,
+			long lineNo) throws IOException {
+		long ve = valueEnd(section, ks, le);
+		if (section != ARCS) {
+			if (indexOf(WS, ks, ve) < ve) {
+				labels.add(bytes.string(ks, (int) (ve - ks)));
+			}
+			return;
+		}
+		long a = indexOf(WS, ks, ve);
+		long b = a < ve ? indexOf(WS, a + 1, ve) : ve;
+		if (b >= ve || indexOf(WS, b + 1, ve) >= ve) {
+			return;
+		}
+		String arc = bytes.string(ks, (int) (ve - ks));
+		int id = PNMLSortUtils.arcIdStart(arc, labels);
+		if (id < 0) {
+			throw new IOException(file.getPath() + ":" + lineNo
+					+ ": cannot tell the arc id from the names of its"
+					+ " endpoints; sort with -Dsort.on.id=true");
+		}
+		arcKeys.put(ks, new long[] { ks + id, ks + arc.indexOf(' ', id) });
+	}
+
+	private void endSection(PageInfo page, int section, long pos) {
+		if (section >= 0) {
+			page.ends[section] = pos;
+			if (page.runs[section] < 0L) {
+				page.runs[section] = pos;
+			}
+		}
+	}
+
+	private int section(long pos, long end) {
+		if (equalTo(pos, end, PLACES_KW)) {
+			return PLACES;
+		} else if (equalTo(pos, end, TRANSITIONS_KW)) {
+			return TRANSITIONS;
+		} else if (equalTo(pos, end, ARCS_KW)) {
+			return ARCS;
+		}
+		return -1;
+	}
+
+	@Override
+	SortedEntry find(int page, int section, byte[] key) throws IOException {
+		PageInfo p = pages.get(page);
+		if (p.sections[section] == 0L) {
+			return null;
+		}
+		int tabs = p.depth + 2;
+		long ls = lowerBound(section, tabs, p.sections[section],
+				p.runs[section], key);
+		if (ls < p.runs[section] && compareKey(section, ls + tabs, key) == 0) {
+			return entry(page, section, ls, tabs);
+		}
+		ls = lowerBound(section, tabs, p.runs[section], p.ends[section], key);
+		if (ls < p.ends[section] && compareKey(section, ls + tabs, key) == 0) {
+			return entry(page, section, ls, tabs);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the start of the first line of a range whose key is not lower
+	 *         than the key, the end of the range if there is none.
+	 */
+	private long lowerBound(int section, int tabs, long from, long to,
+			byte[] key) {
+		long lo = from, hi = to, mid, ls;
+		// Lines starting before lo are lower than the key, the line at hi
+		// is not.
+		while (lo < hi) {
+			mid = lo + (hi - lo) / 2;
+			ls = mid;
+			while (ls < hi && bytes.get(ls - 1) != NL) {
+				ls++;
+			}
+			if (ls >= hi) {
+				ls = lo;
+			}
+			if (compareKey(section, ls + tabs, key) < 0) {
+				lo = lineEnd(ls) + 1;
+			} else {
+				hi = ls;
+			}
+		}
+		return lo;
+	}
+
+	@Override
+	void arcsOf(SortedEntry node, List<SortedEntry> res) throws IOException {
+		PageInfo p = pages.get(node.pageIndex);
+		if (p.sections[ARCS] == 0L) {
+			return;
+		}
+		byte[] label = node.getLabel().getBytes(ENCODING);
+		int tabs = p.depth + 2;
+		int len = label.length;
+		long ls = p.sections[ARCS], ks, le, ve, kb, ke;
+		while (ls < p.ends[ARCS]) {
+			le = lineEnd(ls);
+			ks = ls + tabs;
+			ve = valueEnd(ARCS, ks, le);
+			kb = keyStart(ARCS, ks, ve);
+			ke = keyEnd(ARCS, ks, ve);
+			if (kb - 1 - ks == len && bytes.compare(ks, len, label) == 0
+					|| ve - ke - 1 == len
+					&& bytes.compare(ke + 1, len, label) == 0) {
+				res.add(entry(node.pageIndex, ARCS, ls, tabs));
+			}
+			ls = le + 1;
+		}
+	}
+
+	private SortedEntry entry(int page, int section, long ls, int tabs) {
+		PageInfo p = pages.get(page);
+		long ks = ls + tabs;
+		long le = lineEnd(ls);
+		long ve = valueEnd(section, ks, le);
+		String value = ve < le ? bytes.string(ve + 2, (int) (le - ve - 2))
+				: null;
+		long kb = keyStart(section, ks, ve);
+		long ke = keyEnd(section, ks, ve);
+		String label = bytes.string(kb, (int) (ke - kb));
+		switch (section) {
+		case PLACES:
+			return new SortedEntry(SortedEntry.Kind.PLACE, netOf(p), p.id,
+					page, ls, label, value, null, null);
+		case TRANSITIONS:
+			return new SortedEntry(SortedEntry.Kind.TRANSITION, netOf(p),
+					p.id, page, ls, label, null, null, null);
+		default:
+			return new SortedEntry(SortedEntry.Kind.ARC, netOf(p), p.id,
+					page, ls, label, value, string(ks, kb - 1), string(
+							ke + 1, ve));
+		}
+	}
+
+	/**
+	 * @return the string between two offsets, empty if there is none
+	 */
+	private String string(long from, long to) {
+		return to > from ? bytes.string(from, (int) (to - from)) : "";
+	}
+
+	private int compareKey(int section, long ks, byte[] key) {
+		long ve = valueEnd(section, ks, lineEnd(ks));
+		long kb = keyStart(section, ks, ve);
+		return bytes.compare(kb, (int) (keyEnd(section, ks, ve) - kb), key);
+	}
+
+	/**
+	 * @param ve
+	 *            end of the line, before its value
+	 * @return the start of the key of a line of a section: the line itself,
+	 *         or the arc id after its source.
+	 */
+	private long keyStart(int section, long ks, long ve) {
+		if (section != ARCS) {
+			return ks;
+		}
+		long[] k = arcKeys.isEmpty() ? null : arcKeys.get(ks);
+		if (k != null) {
+			return k[0];
+		}
+		long a = indexOf(WS, ks, ve);
+		return a < ve && indexOf(WS, a + 1, ve) < ve ? a + 1 : ks;
+	}
+
+	private long keyEnd(int section, long ks, long ve) {
+		if (section == ARCS) {
+			long[] k = arcKeys.isEmpty() ? null : arcKeys.get(ks);
+			if (k != null) {
+				return k[1];
+			}
+			long a = indexOf(WS, ks, ve);
+			long b = a < ve ? indexOf(WS, a + 1, ve) : ve;
+			return b < ve ? b : ve;
+		}
+		return ve;
+	}
+
+	/**
+	 * @return the offset of the " #" before the marking or inscription of a
+	 *         line, its end if there is none, as for transitions
+	 */
+	private long valueEnd(int section, long ks, long le) {
+		if (section == TRANSITIONS) {
+			return le;
+		}
+		for (long i = le - 1; i > ks; i--) {
+			if (bytes.get(i) == HK && bytes.get(i - 1) == WS) {
+				return i - 1;
+			}
+		}
+		return le;
+	}
+
+	private long indexOf(byte b, long from, long to) {
+		long i = from;
+		while (i < to && bytes.get(i) != b) {
+			i++;
+		}
+		return i;
+	}
+
+	private long lineEnd(long pos) {
+		return indexOf(NL, pos, bytes.size());
+	}
+
+	/**
+	 * Same as {@link #lineEnd(long)}, counting the spaces of the line.
+	 */
+	private long scanLine(long pos) {
+		long i = pos, size = bytes.size();
+		byte b;
+		spaces = 0;
+		while (i < size && (b = bytes.get(i)) != NL) {
+			if (b == WS) {
+				spaces++;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	private boolean startsWith(long pos, long end, byte[] prefix) {
+		return end - pos >= prefix.length
+				&& bytes.compare(pos, prefix.length, prefix) == 0;
+	}
+
+	private boolean equalTo(long pos, long end, byte[] word) {
+		return end - pos == word.length
+				&& bytes.compare(pos, word.length, word) == 0;
+	}
+
+	private IOException error(long lineNo) {
+		return new IOException(file.getPath() + ":" + lineNo
+				+ ": not a sorted PNML line");
+	}
+}
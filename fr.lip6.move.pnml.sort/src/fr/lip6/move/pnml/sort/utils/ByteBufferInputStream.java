@@ -0,0 +1,116 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream over the bytes of a {@link ByteBuffer}, from its position to
+ * its limit. The position of the buffer is left unchanged. The same stream
+ * can be reused from one buffer to the next.
+ * 
+ * @author lom
+ *
+ */
+public final class ByteBufferInputStream extends InputStream {
+
+	/**
+	 * Duplicate of the buffer being read, so that its position is ours.
+	 */
+	private ByteBuffer buf;
+	private int mark;
+
+	public ByteBufferInputStream() {
+		super();
+	}
+
+	public ByteBufferInputStream(ByteBuffer src) {
+		wrap(src);
+	}
+
+	/**
+	 * Starts reading another buffer.
+	 * 
+	 * @param src
+	 *            null to release the last buffer
+	 * @return this stream
+	 */
+	public ByteBufferInputStream wrap(ByteBuffer src) {
+		this.buf = src != null ? src.duplicate() : null;
+		this.mark = src != null ? src.position() : 0;
+		return this;
+	}
+
+	@Override
+	public int read() {
+		return buf != null && buf.hasRemaining() ? buf.get() & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (buf == null || !buf.hasRemaining()) {
+			return -1;
+		}
+		int n = Math.min(len, buf.remaining());
+		buf.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		if (buf == null || n <= 0L) {
+			return 0L;
+		}
+		int k = (int) Math.min(n, buf.remaining());
+		buf.position(buf.position() + k);
+		return k;
+	}
+
+	@Override
+	public int available() {
+		return buf != null ? buf.remaining() : 0;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		if (buf != null) {
+			mark = buf.position();
+		}
+	}
+
+	@Override
+	public synchronized void reset() {
+		if (buf != null) {
+			buf.position(mark);
+		}
+	}
+
+	@Override
+	public void close() {
+		wrap(null);
+	}
+}
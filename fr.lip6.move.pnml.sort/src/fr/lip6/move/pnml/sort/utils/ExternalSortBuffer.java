@@ -0,0 +1,378 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Collects rows of a fixed number of int columns, to be sorted on their first
+ * column. That column holds a handle whose order is given by an
+ * {@link IntComparator} while rows are being added, then by precomputed
+ * ranks when the rows are finally sorted (usually handles on a
+ * {@link SymbolTable}, and its {@link SymbolTable#ranks()}).
+ * 
+ * Rows are kept in memory until their size crosses a threshold. They are
+ * then sorted and spilled to a temporary file (a run). Only the rows, and
+ * the index built for each of them when sorting, count in the threshold: the
+ * keys they refer to, and their ranks, are held elsewhere. The sorted sequence
+ * is finally produced by a k-way merge of all runs and of the rows left in
+ * memory. Sort is stable: rows with equal keys come in insertion order.
+ * 
+ * Runs are only deleted by {@link #close()}, which the owner of the buffer
+ * must call once done with it, failed or not.
+ * 
+ * @author lom
+ *
+ */
+public final class ExternalSortBuffer implements Closeable {
+
+	private static final int RUN_BUFFER_SIZE = 64 * 1024;
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private final int width;
+	private final long threshold;
+	private final File tmpDir;
+	private final IntComparator order;
+	private int[] rows;
+	private int count;
+	private long size;
+	private final List<File> runs;
+
+	/**
+	 * @param width
+	 *            number of columns of each row, 1 to 3
+	 * @param threshold
+	 *            size, in bytes, of the rows in memory beyond which they are
+	 *            spilled to disk. Zero or less means never.
+	 * @param tmpDir
+	 *            where runs are written; null for the default temporary
+	 *            directory.
+	 * @param order
+	 *            order of the keys while rows are being added
+	 */
+	public ExternalSortBuffer(int width, long threshold, File tmpDir,
+			IntComparator order) {
+		this.width = width;
+		this.threshold = threshold;
+		this.tmpDir = tmpDir;
+		this.order = order;
+		this.rows = new int[DEFAULT_CAPACITY * width];
+		this.runs = new ArrayList<>();
+	}
+
+	public void add(int key) throws IOException {
+		append(key, 0, 0);
+	}
+
+	public void add(int key, int a) throws IOException {
+		append(key, a, 0);
+	}
+
+	/**
+	 * Adds a row. Columns beyond the width of the buffer are ignored.
+	 * 
+	 * @param key
+	 *            the sort key
+	 * @param a
+	 *            second column
+	 * @param b
+	 *            third column
+	 * @throws IOException
+	 *             if a run could not be spilled to disk.
+	 */
+	public void add(int key, int a, int b) throws IOException {
+		append(key, a, b);
+	}
+
+	private void append(int key, int a, int b) throws IOException {
+		int pos = count * width;
+		if (pos + width > rows.length) {
+			rows = Arrays.copyOf(rows, PNMLSortUtils.grow(rows.length / width)
+					* width);
+		}
+		rows[pos] = key;
+		if (width > 1) {
+			rows[pos + 1] = a;
+			if (width > 2) {
+				rows[pos + 2] = b;
+			}
+		}
+		count++;
+		size++;
+		if (threshold > 0 && 4L * (width + 1) * count >= threshold) {
+			spill();
+		}
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the number of runs spilled to disk so far.
+	 */
+	public int getRunCount() {
+		return runs.size();
+	}
+
+	/**
+	 * Sorts the rows. The buffer must not be modified while the returned
+	 * cursor is being used.
+	 * 
+	 * @param ranks
+	 *            rank of each key, consistent with the order of the keys
+	 * @return a cursor over the sorted rows
+	 * @throws IOException
+	 */
+	public Cursor sort(int[] ranks) throws IOException {
+		return sort(ranks, null);
+	}
+
+	/**
+	 * Same as {@link #sort(int[])}, sorting the rows in memory on a fork-join
+	 * pool when there are enough of them.
+	 * 
+	 * @param ranks
+	 * @param pool
+	 *            null to sort sequentially
+	 * @return a cursor over the sorted rows
+	 * @throws IOException
+	 */
+	public Cursor sort(int[] ranks, ForkJoinPool pool) throws IOException {
+		if (pool != null && count > ParallelSort.THRESHOLD) {
+			return new Cursor(ranks, sortedIndexes(ranks, pool));
+		}
+		return new Cursor(ranks, sortedIndexes(ranks));
+	}
+
+	/**
+	 * Releases the rows and deletes the runs.
+	 */
+	@Override
+	public void close() {
+		rows = new int[DEFAULT_CAPACITY * width];
+		count = 0;
+		size = 0L;
+		for (File f : runs) {
+			f.delete();
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Sorts the indexes of the rows in memory, on the ranks of their keys.
+	 * Ranks and indexes are packed into longs, so that the sort is both
+	 * primitive and stable.
+	 */
+	private int[] sortedIndexes(int[] ranks) {
+		long[] packed = new long[count];
+		for (int i = 0; i < count; i++) {
+			packed[i] = ((long) ranks[rows[i * width]] << 32) | i;
+		}
+		Arrays.sort(packed);
+		int[] idx = new int[count];
+		for (int i = 0; i < count; i++) {
+			idx[i] = (int) packed[i];
+		}
+		return idx;
+	}
+
+	/**
+	 * Sorts the indexes of the rows in memory, on the ranks of their keys,
+	 * with a stable parallel sort.
+	 */
+	private int[] sortedIndexes(final int[] ranks, ForkJoinPool pool) {
+		int[] idx = new int[count];
+		for (int i = 0; i < count; i++) {
+			idx[i] = i;
+		}
+		final int[] r = rows;
+		final int w = width;
+		ParallelSort.sort(idx, new IntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return Integer.compare(ranks[r[a * w]], ranks[r[b * w]]);
+			}
+		}, pool);
+		return idx;
+	}
+
+	private void spill() throws IOException {
+		int[] idx = new int[count];
+		for (int i = 0; i < count; i++) {
+			idx[i] = i;
+		}
+		IntSort.sort(idx, 0, count, new IntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return order.compare(rows[a * width], rows[b * width]);
+			}
+		});
+		File run = File.createTempFile("pnmlsort-run", ".tmp", tmpDir);
+		runs.add(run);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(run),
+						RUN_BUFFER_SIZE))) {
+			int pos;
+			for (int i : idx) {
+				pos = i * width;
+				for (int j = 0; j < width; j++) {
+					out.writeInt(rows[pos + j]);
+				}
+			}
+		}
+		// Do not keep the possibly huge backing array.
+		rows = new int[DEFAULT_CAPACITY * width];
+		count = 0;
+	}
+
+	/**
+	 * One sorted source of rows: either a run on disk, or the rows left in
+	 * memory. Its rank breaks ties between equal keys, in favour of the rows
+	 * inserted first.
+	 */
+	private final class Source implements Closeable {
+		private final int rank;
+		private final int[] row;
+		private DataInputStream in;
+		private int[] idx;
+		private int next;
+
+		Source(int rank, File run) throws IOException {
+			this.rank = rank;
+			this.row = new int[width];
+			this.in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(run), RUN_BUFFER_SIZE));
+		}
+
+		Source(int rank, int[] idx) {
+			this.rank = rank;
+			this.row = new int[width];
+			this.idx = idx;
+		}
+
+		boolean advance() throws IOException {
+			if (in == null) {
+				if (next >= idx.length) {
+					return false;
+				}
+				System.arraycopy(rows, idx[next++] * width, row, 0, width);
+				return true;
+			}
+			try {
+				for (int j = 0; j < width; j++) {
+					row[j] = in.readInt();
+				}
+			} catch (EOFException e) {
+				close();
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (in != null) {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Iterates over the sorted rows, merging the runs on the fly.
+	 */
+	public final class Cursor implements Closeable {
+		private final PriorityQueue<Source> heap;
+		private Source current;
+
+		private Cursor(final int[] ranks, int[] idx) throws IOException {
+			heap = new PriorityQueue<>(runs.size() + 1,
+					new Comparator<Source>() {
+						@Override
+						public int compare(Source s1, Source s2) {
+							int c = Integer.compare(ranks[s1.row[0]],
+									ranks[s2.row[0]]);
+							return c != 0 ? c : s1.rank - s2.rank;
+						}
+					});
+			Source s;
+			for (int i = 0; i < runs.size(); i++) {
+				s = new Source(i, runs.get(i));
+				if (s.advance()) {
+					heap.add(s);
+				}
+			}
+			s = new Source(runs.size(), idx);
+			if (s.advance()) {
+				heap.add(s);
+			}
+		}
+
+		/**
+		 * Moves to the next row in sort order.
+		 * 
+		 * @return false if there are no more rows.
+		 * @throws IOException
+		 */
+		public boolean next() throws IOException {
+			if (current != null && current.advance()) {
+				heap.add(current);
+			}
+			current = heap.poll();
+			return current != null;
+		}
+
+		/**
+		 * @param column
+		 * @return the value of a column of the current row.
+		 */
+		public int get(int column) {
+			return current.row[column];
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (current != null) {
+				current.close();
+			}
+			for (Source s : heap) {
+				s.close();
+			}
+			heap.clear();
+		}
+	}
+}
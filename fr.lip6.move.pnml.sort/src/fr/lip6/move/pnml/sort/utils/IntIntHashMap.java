@@ -0,0 +1,122 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from non-negative int keys to int values, without
+ * boxing.
+ * 
+ * @author lom
+ *
+ */
+public final class IntIntHashMap {
+
+	private static final int DEFAULT_CAPACITY = 16;
+	/**
+	 * Key + 1, so that 0 marks a free slot.
+	 */
+	private int[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+
+	public IntIntHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public IntIntHashMap(int capacity) {
+		int cap = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY,
+				capacity * 2 - 1));
+		keys = new int[cap];
+		values = new int[cap];
+		mask = cap - 1;
+	}
+
+	/**
+	 * @param key
+	 *            a non-negative key
+	 * @param value
+	 */
+	public void put(int key, int value) {
+		int i = slot(key);
+		if (keys[i] == 0) {
+			keys[i] = key + 1;
+			size++;
+			values[i] = value;
+			if (size * 4 >= keys.length * 3) {
+				rehash();
+			}
+		} else {
+			values[i] = value;
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param absent
+	 *            the value returned if the key is not mapped
+	 * @return the value mapped to key, or absent
+	 */
+	public int get(int key, int absent) {
+		int i = slot(key);
+		return keys[i] == 0 ? absent : values[i];
+	}
+
+	public boolean containsKey(int key) {
+		return keys[slot(key)] != 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		size = 0;
+	}
+
+	private int slot(int key) {
+		int k = key + 1;
+		int i = PNMLSortUtils.mix(key) & mask;
+		while (keys[i] != 0 && keys[i] != k) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		mask = keys.length - 1;
+		int i;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != 0) {
+				i = PNMLSortUtils.mix(oldKeys[j] - 1) & mask;
+				while (keys[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.utils;
+
+/**
+ * Stable sort of primitive int arrays with an {@link IntComparator}.
+ * 
+ * @author lom
+ *
+ */
+public final class IntSort {
+
+	private static final int INSERTION_SORT_THRESHOLD = 24;
+
+	private IntSort() {
+		super();
+	}
+
+	/**
+	 * Sorts a[from, to) in place. Equal elements keep their relative order.
+	 * 
+	 * @param a
+	 * @param from
+	 *            inclusive
+	 * @param to
+	 *            exclusive
+	 * @param c
+	 */
+	public static void sort(int[] a, int from, int to, IntComparator c) {
+		if (to - from < 2) {
+			return;
+		}
+		int[] tmp = new int[to - from];
+		mergeSort(a, tmp, from, from, to, c);
+	}
+
+	/**
+	 * Merge sort of a[from, to), using tmp[from - base, to - base) as scratch
+	 * space.
+	 */
+	static void mergeSort(int[] a, int[] tmp, int base, int from, int to,
+			IntComparator c) {
+		if (to - from <= INSERTION_SORT_THRESHOLD) {
+			insertionSort(a, from, to, c);
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(a, tmp, base, from, mid, c);
+		mergeSort(a, tmp, base, mid, to, c);
+		merge(a, tmp, base, from, mid, to, c);
+	}
+
+	/**
+	 * Merges the sorted a[from, mid) and a[mid, to), using tmp[from - base,
+	 * mid - base) as scratch space.
+	 */
+	static void merge(int[] a, int[] tmp, int base, int from, int mid,
+			int to, IntComparator c) {
+		if (c.compare(a[mid - 1], a[mid]) <= 0) {
+			return;
+		}
+		int len = mid - from;
+		System.arraycopy(a, from, tmp, from - base, len);
+		int i = from - base, end = i + len, j = mid, k = from;
+		while (i < end && j < to) {
+			if (c.compare(a[j], tmp[i]) < 0) {
+				a[k++] = a[j++];
+			} else {
+				a[k++] = tmp[i++];
+			}
+		}
+		System.arraycopy(tmp, i, a, k, end - i);
+	}
+
+	private static void insertionSort(int[] a, int from, int to,
+			IntComparator c) {
+		int x, j;
+		for (int i = from + 1; i < to; i++) {
+			x = a[i];
+			j = i - 1;
+			while (j >= from && c.compare(a[j], x) > 0) {
+				a[j + 1] = a[j];
+				j--;
+			}
+			a[j + 1] = x;
+		}
+	}
+}
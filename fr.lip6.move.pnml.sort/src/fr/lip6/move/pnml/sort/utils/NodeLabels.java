@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.utils;
+
+import java.util.Arrays;
+
+/**
+ * Label of each place and transition, indexed by the handle of its id in a
+ * {@link SymbolTable}: the handle of its name, or of its id if it has none.
+ * 
+ * Since handles are allocated densely, this is a plain array, grown as
+ * needed: a single probe per lookup, and 4 bytes per symbol.
+ * 
+ * @author lom
+ *
+ */
+public final class NodeLabels {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	/**
+	 * Label handle + 1, so that 0 marks a handle which is not a node id.
+	 */
+	private int[] labels;
+
+	public NodeLabels() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public NodeLabels(int capacity) {
+		this.labels = new int[Math.max(1, capacity)];
+	}
+
+	/**
+	 * @param id
+	 *            handle of a node id
+	 * @param label
+	 *            handle of its label
+	 */
+	public void put(int id, int label) {
+		if (id >= labels.length) {
+			labels = Arrays.copyOf(labels,
+					Math.max(id + 1, PNMLSortUtils.grow(labels.length)));
+		}
+		labels[id] = label + 1;
+	}
+
+	/**
+	 * @param id
+	 *            handle of a node id
+	 * @return the handle of its label, or -1 if it is not a place or a
+	 *         transition.
+	 */
+	public int get(int id) {
+		return id < labels.length ? labels[id] - 1 : -1;
+	}
+
+	public void clear() {
+		Arrays.fill(labels, 0);
+	}
+}
@@ -17,17 +17,24 @@
  */
 package fr.lip6.move.pnml.sort.utils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
 
 import javax.activation.MimetypesFileTypeMap;
 import javax.xml.bind.ValidationException;
@@ -36,12 +43,15 @@ import fr.lip6.move.pnml.sort.MainPNMLSort;
 import fr.lip6.move.pnml.sort.exceptions.InternalException;
 import fr.lip6.move.pnml.sort.exceptions.InvalidFileException;
 import fr.lip6.move.pnml.sort.exceptions.InvalidFileTypeException;
+import fr.lip6.move.pnml.sort.impl.GzipOutChannel;
+import fr.lip6.move.pnml.sort.impl.MappedOutChannel;
 import fr.lip6.move.pnml.sort.impl.OutChannelBean;
 
 /**
  * Provides a set of utility methods, useful mainly for channel-related operations.
  * 
- * These operations are synchronized.
+ * These operations are stateless and thread-safe: each caller provides its own
+ * channel and buffers, so that several writers can work concurrently.
  * @author lom
  *
  */
@@ -52,6 +62,25 @@ public final class PNMLSortUtils {
 	public static final int BUFFERSIZE = BUFFERSIZEKB * 1024;
 	public static final int CONTENTSSIZE = CONTENTSSIZEKB * 1024;
 	public static final String FILE_ENCODING = "ISO-8859-1";
+	/**
+	 * Number and size of the buffers between a sorter and its writer.
+	 */
+	public static final int RING_BUFFERS = 32;
+	public static final int RING_BUFFERSIZE = 8 * BUFFERSIZE;
+	/**
+	 * Size of the windows of a memory-mapped output, thus the step by which
+	 * the output file grows.
+	 */
+	public static final int MAPPED_WINDOW = 64 * 1024 * 1024;
+	/**
+	 * Size of the blocks of a gzip output, each compressed apart.
+	 */
+	public static final int GZIP_BLOCK = 1024 * 1024;
+	/**
+	 * Decompressor of xz files, from the XZ for Java library, when it is on
+	 * the class path.
+	 */
+	private static final String XZ_INPUT_STREAM = "org.tukaani.xz.XZInputStream";
 
 	private PNMLSortUtils() {
 		super();
@@ -66,10 +95,149 @@ public final class PNMLSortUtils {
 
 	}
 
+	/**
+	 * Opens an output channel, written through memory-mapped windows if
+	 * mapped is true.
+	 * 
+	 * @param outFile
+	 * @param mapped
+	 * @return the output channel
+	 * @throws IOException
+	 */
+	public static OutChannelBean openOutChannel(File outFile, boolean mapped)
+			throws IOException {
+		if (!mapped) {
+			return openOutChannel(outFile);
+		}
+		return new OutChannelBean(new MappedOutChannel(outFile, MAPPED_WINDOW));
+	}
+
+	/**
+	 * Opens an output channel compressed with gzip, block by block in
+	 * parallel.
+	 * 
+	 * @param outFile
+	 * @param pool
+	 *            compresses the blocks, null to compress them in the writer
+	 * @param parallelism
+	 *            number of threads of the pool
+	 * @return the output channel
+	 * @throws IOException
+	 */
+	public static OutChannelBean openGzipOutChannel(File outFile,
+			ExecutorService pool, int parallelism) throws IOException {
+		return new OutChannelBean(new GzipOutChannel(outFile, GZIP_BLOCK,
+				pool, parallelism));
+	}
+
+	/**
+	 * Opens an output into a channel of the caller, compressed with gzip if
+	 * gzip is true. The channel is not closed with the output.
+	 * 
+	 * @param out
+	 * @param gzip
+	 * @param pool
+	 *            compresses the blocks, null to compress them in the writer
+	 * @param parallelism
+	 *            number of threads of the pool
+	 * @return the output channel
+	 */
+	public static OutChannelBean openOutChannel(WritableByteChannel out,
+			boolean gzip, ExecutorService pool, int parallelism) {
+		if (gzip) {
+			return new OutChannelBean(new GzipOutChannel(out, GZIP_BLOCK,
+					pool, parallelism));
+		}
+		return new OutChannelBean(out);
+	}
+
+	/**
+	 * Opens a PNML document for reading, decompressing it on the fly if its
+	 * name ends with .gz or .xz.
+	 * 
+	 * @param inFile
+	 * @return the document contents, buffered
+	 * @throws IOException
+	 *             if the document could not be opened, or xz support is
+	 *             missing
+	 */
+	public static InputStream openInputStream(File inFile) throws IOException {
+		InputStream in = new FileInputStream(inFile);
+		try {
+			String name = inFile.getName();
+			if (name.endsWith(MainPNMLSort.GZ_EXT)) {
+				in = new GZIPInputStream(in, BUFFERSIZE * 8);
+			} else if (name.endsWith(MainPNMLSort.XZ_EXT)) {
+				in = openXz(in);
+			}
+			return new BufferedInputStream(in, BUFFERSIZE * 8);
+		} catch (IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	private static InputStream openXz(InputStream in) throws IOException {
+		try {
+			return (InputStream) Class.forName(XZ_INPUT_STREAM)
+					.getConstructor(InputStream.class).newInstance(in);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(
+					"Reading .xz documents needs the XZ for Java library (org.tukaani:xz) on the class path.");
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @param name
+	 *            a file name or path
+	 * @return true if it is compressed with gzip or xz
+	 */
+	public static boolean isCompressed(String name) {
+		return name.endsWith(MainPNMLSort.GZ_EXT)
+				|| name.endsWith(MainPNMLSort.XZ_EXT);
+	}
+
+	/**
+	 * @param name
+	 *            a file name or path
+	 * @return the name without its .gz or .xz extension
+	 */
+	public static String uncompressedName(String name) {
+		if (isCompressed(name)) {
+			return name.substring(0, name.length() - 3);
+		}
+		return name;
+	}
+
+	/**
+	 * Closes an output channel. A mapped output is truncated to the length
+	 * actually written. A channel of the caller is left open, once the
+	 * compressed output is flushed into it.
+	 * 
+	 * @param ocb
+	 * @throws IOException
+	 */
 	public static void closeOutChannel(OutChannelBean ocb) throws IOException {
 		if (ocb != null) {
-			ocb.getFc().close();
-			ocb.getFos().close();
+			if (ocb.getMapped() != null) {
+				ocb.getMapped().close();
+				return;
+			}
+			if (ocb.getGzip() != null) {
+				ocb.getGzip().close();
+				return;
+			}
+			if (ocb.getFc() != null) {
+				ocb.getFc().close();
+				ocb.getFos().close();
+			}
 		}
 
 	}
@@ -85,7 +253,7 @@ public final class PNMLSortUtils {
 	 * @throws IOException
 	 * @see {@link #chopString(String, int)}
 	 */
-	public static synchronized void writeToChannel(OutChannelBean ocb, String output)
+	public static void writeToChannel(OutChannelBean ocb, String output)
 			throws IOException {
 
 		ByteBuffer bytebuf;
@@ -103,7 +271,7 @@ public final class PNMLSortUtils {
 	/**
 	 * @see #writeToChannel(OutChannelBean, String)
 	 */
-	public static synchronized void writeToChannel(OutChannelBean ocb, String output, ByteBuffer bytebuf, final List<byte[]> contents)
+	public static void writeToChannel(OutChannelBean ocb, String output, ByteBuffer bytebuf, final List<byte[]> contents)
 			throws IOException {
 		
 		final List<byte[]> contents2 = chopString(output, CONTENTSSIZE, contents);
@@ -124,7 +292,7 @@ public final class PNMLSortUtils {
 	 *            the length of each chunk
 	 * @return the list of chunks
 	 */
-	public static synchronized List<byte[]> chopString(String src, int len) {
+	public static List<byte[]> chopString(String src, int len) {
 		List<byte[]> res = new ArrayList<byte[]>();
 		if (src.length() > len) {
 			int iterations = (int) Math.ceil((double) src.length()
@@ -148,7 +316,7 @@ public final class PNMLSortUtils {
 	 * @param contents
 	 * @return
 	 */
-	public static synchronized List<byte[]> chopString(String src, int len, final List<byte[]> contents) {
+	public static List<byte[]> chopString(String src, int len, final List<byte[]> contents) {
 		if (src.length() > len) {
 			int iterations = (int) Math.ceil((double) src.length()
 					/ (double) len);
@@ -200,7 +368,8 @@ public final class PNMLSortUtils {
 			}
 			final MimetypesFileTypeMap ftm = new MimetypesFileTypeMap();
 			ftm.addMimeTypes("text/xml xml pnml XML PNML");
-			final String contentType = ftm.getContentType(pFile);
+			final String contentType = ftm.getContentType(uncompressedName(pFile
+					.getName()));
 			if (!contentType.contains("text/xml")) {
 				String message = pFile.getName() + " is not an XML file: "
 						+ contentType;
@@ -244,6 +413,80 @@ public final class PNMLSortUtils {
 		output.close();
 		input.close();
 	}
+	/**
+	 * Scrambles the bits of a hash code, for open-addressing tables indexed by
+	 * its low bits.
+	 * 
+	 * @param h
+	 * @return the scrambled hash
+	 */
+	public static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the next capacity of a growing array: one and a half times the
+	 * current one, within the limits of array sizes.
+	 * 
+	 * @param capacity
+	 *            the current capacity
+	 * @return the new capacity
+	 */
+	public static int grow(int capacity) {
+		long next = capacity + (capacity >> 1) + 16L;
+		if (next > Integer.MAX_VALUE - 8) {
+			if (capacity >= Integer.MAX_VALUE - 8) {
+				throw new OutOfMemoryError("Array capacity exhausted.");
+			}
+			next = Integer.MAX_VALUE - 8;
+		}
+		return (int) next;
+	}
+
+	/**
+	 * Finds the id in the text of an arc line of a sorted output, without its
+	 * inscription: source label, arc id and target label, separated by
+	 * spaces. Ids have no spaces, but node names may. The line is then split
+	 * where both endpoints are single words or names of the page.
+	 * 
+	 * @param arc
+	 *            the text of the arc line
+	 * @param spacedLabels
+	 *            the labels of the nodes of the page that contain a space
+	 * @return the offset of the arc id, or -1 if the line cannot be split in
+	 *         exactly one way
+	 */
+	public static int arcIdStart(String arc, Set<String> spacedLabels) {
+		int first = arc.indexOf(' ');
+		int second = first < 0 ? -1 : arc.indexOf(' ', first + 1);
+		if (second < 0) {
+			return -1;
+		}
+		if (arc.indexOf(' ', second + 1) < 0) {
+			return first + 1;
+		}
+		int res = -1, e;
+		String src, trg;
+		for (int s = first; s >= 0; s = arc.indexOf(' ', s + 1)) {
+			e = arc.indexOf(' ', s + 1);
+			if (e < 0) {
+				break;
+			}
+			src = arc.substring(0, s);
+			trg = arc.substring(e + 1);
+			if (e > s + 1
+					&& (src.indexOf(' ') < 0 || spacedLabels.contains(src))
+					&& (trg.indexOf(' ') < 0 || spacedLabels.contains(trg))) {
+				if (res >= 0) {
+					return -1;
+				}
+				res = s + 1;
+			}
+		}
+		return res;
+	}
+
 	/**
 	 * Extracts the basename of a file path.
 	 * @param path
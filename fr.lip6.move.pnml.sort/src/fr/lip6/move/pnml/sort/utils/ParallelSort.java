@@ -0,0 +1,215 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable parallel merge sort of primitive int arrays with an
+ * {@link IntComparator}, on a fork-join pool.
+ * 
+ * Both halves are sorted in parallel, then merged in parallel by splitting
+ * them around the median of the bigger one. Below {@link #THRESHOLD}
+ * elements, the work is done sequentially by {@link IntSort}.
+ * 
+ * @author lom
+ *
+ */
+public final class ParallelSort {
+
+	/**
+	 * Below this number of elements, sorting and merging are sequential.
+	 */
+	public static final int THRESHOLD = 1 << 13;
+
+	private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<>();
+
+	private ParallelSort() {
+		super();
+	}
+
+	/**
+	 * Returns the pool shared by all the sorters with the same parallelism.
+	 * 
+	 * @param parallelism
+	 * @return the pool, or null if the parallelism is less than 2.
+	 */
+	public static synchronized ForkJoinPool getPool(int parallelism) {
+		if (parallelism < 2) {
+			return null;
+		}
+		ForkJoinPool pool = POOLS.get(parallelism);
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism);
+			POOLS.put(parallelism, pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * Sorts the whole array in place. Equal elements keep their relative
+	 * order, so that the result is the same as {@link IntSort}'s.
+	 * 
+	 * @param a
+	 * @param c
+	 * @param pool
+	 *            null to sort sequentially
+	 */
+	public static void sort(int[] a, IntComparator c, ForkJoinPool pool) {
+		if (pool == null || a.length <= THRESHOLD) {
+			IntSort.sort(a, 0, a.length, c);
+			return;
+		}
+		SortTask task = new SortTask(a, new int[a.length], 0, a.length,
+				false, c);
+		if (ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		} else {
+			pool.invoke(task);
+		}
+	}
+
+	/**
+	 * Sorts src[from, to), leaving the result in dst if toDst is set, in src
+	 * otherwise. The other array is used as scratch space.
+	 */
+	private static final class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] src, dst;
+		private final int from, to;
+		private final boolean toDst;
+		private final IntComparator c;
+
+		SortTask(int[] src, int[] dst, int from, int to, boolean toDst,
+				IntComparator c) {
+			this.src = src;
+			this.dst = dst;
+			this.from = from;
+			this.to = to;
+			this.toDst = toDst;
+			this.c = c;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				IntSort.mergeSort(src, dst, 0, from, to, c);
+				if (toDst) {
+					System.arraycopy(src, from, dst, from, to - from);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new SortTask(src, dst, from, mid, !toDst, c),
+					new SortTask(src, dst, mid, to, !toDst, c));
+			if (toDst) {
+				new MergeTask(src, dst, from, mid, mid, to, from, c).compute();
+			} else {
+				new MergeTask(dst, src, from, mid, mid, to, from, c).compute();
+			}
+		}
+	}
+
+	/**
+	 * Merges the sorted in[lo1, hi1) and in[lo2, hi2) into out, from pos.
+	 * Elements of the first run go before equal elements of the second one.
+	 */
+	private static final class MergeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] in, out;
+		private final int lo1, hi1, lo2, hi2, pos;
+		private final IntComparator c;
+
+		MergeTask(int[] in, int[] out, int lo1, int hi1, int lo2, int hi2,
+				int pos, IntComparator c) {
+			this.in = in;
+			this.out = out;
+			this.lo1 = lo1;
+			this.hi1 = hi1;
+			this.lo2 = lo2;
+			this.hi2 = hi2;
+			this.pos = pos;
+			this.c = c;
+		}
+
+		@Override
+		protected void compute() {
+			int n1 = hi1 - lo1, n2 = hi2 - lo2;
+			if (n1 + n2 <= THRESHOLD) {
+				merge();
+				return;
+			}
+			int m, split, p;
+			if (n1 >= n2) {
+				m = (lo1 + hi1) >>> 1;
+				// Equal elements of the second run go after in[m].
+				split = bound(in[m], lo2, hi2, true);
+				p = pos + (m - lo1) + (split - lo2);
+				out[p] = in[m];
+				invokeAll(new MergeTask(in, out, lo1, m, lo2, split, pos, c),
+						new MergeTask(in, out, m + 1, hi1, split, hi2, p + 1,
+								c));
+			} else {
+				m = (lo2 + hi2) >>> 1;
+				// Equal elements of the first run go before in[m].
+				split = bound(in[m], lo1, hi1, false);
+				p = pos + (split - lo1) + (m - lo2);
+				out[p] = in[m];
+				invokeAll(new MergeTask(in, out, lo1, split, lo2, m, pos, c),
+						new MergeTask(in, out, split, hi1, m + 1, hi2, p + 1,
+								c));
+			}
+		}
+
+		/**
+		 * @return the first index of in[lo, hi) whose element is not less
+		 *         than x (lower), or greater than x (upper).
+		 */
+		private int bound(int x, int lo, int hi, boolean lower) {
+			int l = lo, h = hi, mid, cmp;
+			while (l < h) {
+				mid = (l + h) >>> 1;
+				cmp = c.compare(in[mid], x);
+				if (cmp < 0 || (!lower && cmp == 0)) {
+					l = mid + 1;
+				} else {
+					h = mid;
+				}
+			}
+			return l;
+		}
+
+		private void merge() {
+			int i = lo1, j = lo2, k = pos;
+			while (i < hi1 && j < hi2) {
+				if (c.compare(in[j], in[i]) < 0) {
+					out[k++] = in[j++];
+				} else {
+					out[k++] = in[i++];
+				}
+			}
+			System.arraycopy(in, i, out, k, hi1 - i);
+			k += hi1 - i;
+			System.arraycopy(in, j, out, k, hi2 - j);
+		}
+	}
+}
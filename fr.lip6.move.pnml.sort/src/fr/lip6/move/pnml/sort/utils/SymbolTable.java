@@ -0,0 +1,171 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Dictionary of distinct strings (ids and names), each mapped to an int
+ * handle. Handles are allocated densely from 0, in order of first
+ * appearance.
+ * 
+ * @author lom
+ *
+ */
+public final class SymbolTable {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	private String[] symbols;
+	private int size;
+	/**
+	 * Open-addressing table of handle + 1, so that 0 marks a free slot.
+	 */
+	private int[] table;
+	private int mask;
+
+	public SymbolTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public SymbolTable(int capacity) {
+		int cap = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY,
+				capacity * 2 - 1));
+		symbols = new String[cap / 2];
+		table = new int[cap];
+		mask = cap - 1;
+	}
+
+	/**
+	 * Returns the handle of a string, allocating a new one if it is not yet
+	 * in the table.
+	 * 
+	 * @param s
+	 *            a non-null string
+	 * @return its handle
+	 */
+	public int intern(String s) {
+		int i = PNMLSortUtils.mix(s.hashCode()) & mask;
+		int t;
+		while ((t = table[i]) != 0) {
+			if (symbols[t - 1].equals(s)) {
+				return t - 1;
+			}
+			i = (i + 1) & mask;
+		}
+		if (size == symbols.length) {
+			symbols = Arrays.copyOf(symbols, PNMLSortUtils.grow(size));
+		}
+		symbols[size] = s;
+		table[i] = ++size;
+		if (size * 4 >= table.length * 3) {
+			rehash();
+		}
+		return size - 1;
+	}
+
+	/**
+	 * @param s
+	 * @return the handle of s, or -1 if it is not in the table.
+	 */
+	public int lookup(String s) {
+		int i = PNMLSortUtils.mix(s.hashCode()) & mask;
+		int t;
+		while ((t = table[i]) != 0) {
+			if (symbols[t - 1].equals(s)) {
+				return t - 1;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param handle
+	 * @return the string of that handle
+	 */
+	public String get(int handle) {
+		return symbols[handle];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Computes the rank of each symbol in the natural order of strings. Once
+	 * computed, handles are sorted by comparing their ranks, without
+	 * touching the strings again.
+	 * 
+	 * @return ranks, indexed by handle
+	 */
+	public int[] ranks() {
+		return ranks(null);
+	}
+
+	/**
+	 * Same as {@link #ranks()}, sorting the symbols on a fork-join pool.
+	 * 
+	 * @param pool
+	 *            null to sort sequentially
+	 * @return ranks, indexed by handle
+	 */
+	public int[] ranks(ForkJoinPool pool) {
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		ParallelSort.sort(order, comparator(), pool);
+		int[] ranks = new int[size];
+		for (int i = 0; i < size; i++) {
+			ranks[order[i]] = i;
+		}
+		return ranks;
+	}
+
+	/**
+	 * @return a comparator of handles, in the natural order of their strings.
+	 */
+	public IntComparator comparator() {
+		return new IntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return symbols[a].compareTo(symbols[b]);
+			}
+		};
+	}
+
+	public void clear() {
+		Arrays.fill(symbols, 0, size, null);
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		mask = table.length - 1;
+		int i;
+		for (int h = 0; h < size; h++) {
+			i = PNMLSortUtils.mix(symbols[h].hashCode()) & mask;
+			while (table[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			table[i] = h + 1;
+		}
+	}
+}
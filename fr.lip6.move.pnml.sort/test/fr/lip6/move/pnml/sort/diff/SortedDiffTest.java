@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.diff;
+
+import static fr.lip6.move.pnml.sort.diff.SortedDiff.ADDED;
+import static fr.lip6.move.pnml.sort.diff.SortedDiff.ARC;
+import static fr.lip6.move.pnml.sort.diff.SortedDiff.CHANGED;
+import static fr.lip6.move.pnml.sort.diff.SortedDiff.PLACE;
+import static fr.lip6.move.pnml.sort.diff.SortedDiff.REMOVED;
+import static fr.lip6.move.pnml.sort.diff.SortedDiff.TRANSITION;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.testng.annotations.Test;
+
+import fr.lip6.move.pnml.sort.fixtures.SortFixtures;
+import fr.lip6.move.pnml.sort.impl.SortOptions;
+
+/**
+ * Diffs of text outputs with spaced node names, and unnamed nodes that fall
+ * in a different sorted run on each side.
+ * 
+ * @author lom
+ *
+ */
+public class SortedDiffTest {
+
+	@Test
+	public void changes() throws Exception {
+		File a = SortFixtures.sort(SortFixtures.DIFF_OLD, new SortOptions());
+		File b = SortFixtures.sort(SortFixtures.DIFF_NEW, new SortOptions());
+		StringWriter report = new StringWriter();
+		SortedDiff diff = new SortedDiff(report);
+		assertTrue(diff.diff(a, b));
+		assertEquals(diff.getCount(PLACE, REMOVED), 1L);
+		assertEquals(diff.getCount(PLACE, ADDED), 1L);
+		assertEquals(diff.getCount(PLACE, CHANGED), 1L);
+		assertEquals(diff.getCount(TRANSITION, CHANGED), 0L);
+		assertEquals(diff.getCount(ARC, REMOVED), 0L);
+		assertEquals(diff.getCount(ARC, ADDED), 1L);
+		assertEquals(diff.getCount(ARC, CHANGED), 1L);
+		String r = report.toString();
+		assertTrue(r.contains("- \t\t\tzeta\n"), r);
+		assertTrue(r.contains("+ \t\t\tp0\n"), r);
+		assertTrue(r.contains("~ \t\t\tPlace 1 #1 => Place 1 #2\n"), r);
+		assertFalse(r.contains("p1\n"), r);
+	}
+
+	@Test
+	public void same() throws Exception {
+		File a = SortFixtures.sort(SortFixtures.SPACED, new SortOptions());
+		File b = SortFixtures.sort(SortFixtures.SPACED, new SortOptions());
+		SortedDiff diff = new SortedDiff(new StringWriter());
+		assertFalse(diff.diff(a, b));
+		assertFalse(diff.diff(b, a));
+	}
+
+	@Test
+	public void ambiguousArc() throws Exception {
+		File a = SortFixtures.sort(SortFixtures.AMBIGUOUS, new SortOptions());
+		try {
+			new SortedDiff(new StringWriter()).diff(a, a);
+			fail("ambiguous arc line read");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("sort.on.id"));
+		}
+	}
+}
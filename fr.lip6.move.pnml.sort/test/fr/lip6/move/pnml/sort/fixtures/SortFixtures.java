@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.fixtures;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import fr.lip6.move.pnml.sort.exceptions.PNMLSortException;
+import fr.lip6.move.pnml.sort.impl.PNMLSortFactory;
+import fr.lip6.move.pnml.sort.impl.SortOptions;
+
+/**
+ * PNML documents of the tests, found next to this class, and their sorted
+ * outputs.
+ * 
+ * @author lom
+ *
+ */
+public final class SortFixtures {
+
+	/**
+	 * Nodes with spaces in their names, and unnamed nodes. A marking is
+	 * written with a leading zero.
+	 */
+	public static final String SPACED = "spaced.pnml";
+	/**
+	 * An arc whose id cannot be told apart from the names of its endpoints.
+	 */
+	public static final String AMBIGUOUS = "ambiguous.pnml";
+	/**
+	 * Two versions of a net: a named place removed, an unnamed one added, a
+	 * marking and an inscription changed, an arc added.
+	 */
+	public static final String DIFF_OLD = "diff-old.pnml",
+			DIFF_NEW = "diff-new.pnml";
+
+	private SortFixtures() {
+		super();
+	}
+
+	/**
+	 * @param name
+	 *            name of the fixture
+	 * @return its content
+	 * @throws IOException
+	 */
+	public static byte[] read(String name) throws IOException {
+		InputStream in = SortFixtures.class.getResourceAsStream(name);
+		if (in == null) {
+			throw new IOException("No such fixture: " + name);
+		}
+		return readAll(in);
+	}
+
+	/**
+	 * Sorts a fixture into a temporary file, deleted on exit.
+	 * 
+	 * @param name
+	 *            name of the fixture
+	 * @param options
+	 *            sort options
+	 * @return the sorted output
+	 * @throws IOException
+	 * @throws PNMLSortException
+	 */
+	public static File sort(String name, SortOptions options)
+			throws IOException, PNMLSortException {
+		byte[] pnml = read(name);
+		File f = File.createTempFile("pnmlsort", ".sorted");
+		f.deleteOnExit();
+		OutputStream out = new FileOutputStream(f);
+		try {
+			PNMLSortFactory.instance().createBasicPNMLSorter(options)
+					.sortPNML(pnml, out);
+		} finally {
+			out.close();
+		}
+		return f;
+	}
+
+	/**
+	 * @param f
+	 *            a text output
+	 * @return its content
+	 * @throws IOException
+	 */
+	public static String text(File f) throws IOException {
+		return new String(readAll(new FileInputStream(f)), "UTF-8");
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
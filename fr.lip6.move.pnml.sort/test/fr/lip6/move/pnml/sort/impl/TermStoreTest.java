@@ -0,0 +1,109 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+/**
+ * Canonical rendering of multiset terms built with {@link TermStore}, as the
+ * sorters feed them, element by element.
+ * 
+ * @author lom
+ *
+ */
+public class TermStoreTest {
+
+	@Test
+	public void equalElementsAddedUp() {
+		TermStore ts = new TermStore();
+		int h = sum(ts, 1, "b", 2, "a", 1, "b");
+		assertEquals(ts.text(h), "2'(a) + 2'(b)");
+	}
+
+	@Test
+	public void orderDoesNotMatter() {
+		TermStore ts = new TermStore();
+		int h = sum(ts, 2, "a", 2, "b");
+		assertEquals(sum(ts, 2, "b", 1, "a", 1, "a"), h);
+		assertEquals(ts.text(h), "2'(a) + 2'(b)");
+	}
+
+	@Test
+	public void nestedSumsFlattened() {
+		TermStore ts = new TermStore();
+		ts.start("structure", null);
+		ts.start("add", null);
+		numberOf(ts, 1, "c");
+		ts.start("subterm", null);
+		ts.start("add", null);
+		numberOf(ts, 1, "a");
+		numberOf(ts, 3, "c");
+		ts.end();
+		ts.end();
+		ts.end();
+		int h = ts.end();
+		assertEquals(ts.text(h), "1'(a) + 4'(c)");
+	}
+
+	@Test
+	public void singleElementIsNotASum() {
+		TermStore ts = new TermStore();
+		int h = sum(ts, 1, "a", 1, "a");
+		assertEquals(ts.text(h), "2'(a)");
+	}
+
+	@Test
+	public void emptyStructure() {
+		TermStore ts = new TermStore();
+		ts.start("structure", null);
+		assertEquals(ts.end(), -1);
+		assertNull(ts.text(-1));
+	}
+
+	/**
+	 * Builds the structure of a sum of numberof terms, given as pairs of a
+	 * multiplicity and a user operator.
+	 */
+	private static int sum(TermStore ts, Object... terms) {
+		ts.start("structure", null);
+		ts.start("add", null);
+		for (int i = 0; i < terms.length; i += 2) {
+			numberOf(ts, (Integer) terms[i], (String) terms[i + 1]);
+		}
+		ts.end();
+		return ts.end();
+	}
+
+	private static void numberOf(TermStore ts, int n, String op) {
+		ts.start("subterm", null);
+		ts.start("numberof", null);
+		ts.start("subterm", null);
+		ts.start("numberconstant", String.valueOf(n));
+		ts.end();
+		ts.end();
+		ts.start("subterm", null);
+		ts.start("useroperator", op);
+		ts.end();
+		ts.end();
+		ts.end();
+		ts.end();
+	}
+}
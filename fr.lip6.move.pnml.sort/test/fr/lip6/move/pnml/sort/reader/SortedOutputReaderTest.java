@@ -0,0 +1,110 @@
+/**
+ *  Copyright 2014 Universite Paris Ouest and Sorbonne Universites, Univ. Paris 06 - CNRS UMR 7606 (LIP6)
+ *
+ *  All rights reserved.   This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Project leader / Initial Contributor:
+ *    Lom Messan Hillah - <lom-messan.hillah@lip6.fr>
+ *
+ *  Contributors:
+ *    ${ocontributors} - <$oemails}>
+ *
+ *  Mailing list:
+ *    lom-messan.hillah@lip6.fr
+ */
+package fr.lip6.move.pnml.sort.reader;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import fr.lip6.move.pnml.sort.exceptions.PNMLSortException;
+import fr.lip6.move.pnml.sort.fixtures.SortFixtures;
+import fr.lip6.move.pnml.sort.impl.SortOptions;
+
+/**
+ * Lookups in the text and binary outputs of nets whose node names contain
+ * spaces, and of unnamed nodes. Markings are kept as written in text outputs,
+ * and as numbers in binary ones.
+ * 
+ * @author lom
+ *
+ */
+public class SortedOutputReaderTest {
+
+	private static SortedOutputReader open(String fixture, boolean binary)
+			throws IOException, PNMLSortException {
+		SortOptions options = new SortOptions();
+		options.setBinaryOutput(binary);
+		File f = SortFixtures.sort(fixture, options);
+		return SortedOutputReader.open(f);
+	}
+
+	private static void checkSpaced(SortedOutputReader r, String mkg)
+			throws IOException {
+		assertEquals(r.getNets().size(), 1);
+		SortedEntry a1 = r.findArc("a1");
+		assertEquals(a1.getSource(), "Place 1");
+		assertEquals(a1.getTarget(), "Fire now");
+		assertEquals(a1.getValue(), "2");
+		SortedEntry a4 = r.findArc("a4");
+		assertEquals(a4.getSource(), "t2");
+		assertEquals(a4.getTarget(), "p0");
+		assertEquals(r.findPlace("Place 1").getValue(), "3");
+		assertEquals(r.findPlace("Place 5").getValue(), mkg);
+		assertEquals(r.findPlace("zeta").getLabel(), "zeta");
+		assertEquals(r.findPlace("p0").getLabel(), "p0");
+		assertEquals(r.findTransition("t2").getLabel(), "t2");
+		assertNull(r.findPlace("Place"));
+		assertNull(r.findArc("Place"));
+
+		List<SortedEntry> arcs = r.findArcs("Fire now");
+		assertEquals(arcs.size(), 2);
+		assertEquals(arcs.get(0).getLabel(), "a1");
+		assertEquals(arcs.get(1).getLabel(), "a2");
+		arcs = r.findArcs("Place 2");
+		assertEquals(arcs.size(), 1);
+		assertEquals(arcs.get(0).getLabel(), "a2");
+		assertEquals(r.findArcs("Place").size(), 0);
+	}
+
+	@Test
+	public void textSpacedNames() throws Exception {
+		SortedOutputReader r = open(SortFixtures.SPACED, false);
+		try {
+			checkSpaced(r, "05");
+		} finally {
+			r.close();
+		}
+	}
+
+	@Test
+	public void binarySpacedNames() throws Exception {
+		SortedOutputReader r = open(SortFixtures.SPACED, true);
+		try {
+			checkSpaced(r, "5");
+		} finally {
+			r.close();
+		}
+	}
+
+	@Test
+	public void textAmbiguousArc() throws Exception {
+		try {
+			open(SortFixtures.AMBIGUOUS, false).close();
+			fail("ambiguous arc line read");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("sort.on.id"));
+		}
+	}
+}